@@ -0,0 +1,30 @@
+package io.github.drompincen.archviz.config;
+
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ThreadFactory;
+
+// Thread source for the app's own background work (catalog watcher, scan fan-out, write-behind),
+// following spring.threads.virtual.enabled the same way Tomcat's request threads do
+public class BackgroundThreads {
+
+    private final boolean virtual;
+
+    public BackgroundThreads(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public ThreadFactory factory(String name) {
+        if (virtual) {
+            return new VirtualThreadTaskExecutor(name + "-").getVirtualThreadFactory();
+        }
+        CustomizableThreadFactory factory = new CustomizableThreadFactory(name + "-");
+        factory.setDaemon(true);
+        return factory;
+    }
+}
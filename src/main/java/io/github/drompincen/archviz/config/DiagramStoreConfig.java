@@ -1,13 +1,25 @@
 package io.github.drompincen.archviz.config;
 
+import io.github.drompincen.archviz.repository.CachingDiagramRepository;
+import io.github.drompincen.archviz.repository.DiagramHistoryRepository;
 import io.github.drompincen.archviz.repository.DiagramRepository;
+import io.github.drompincen.archviz.repository.DynamoAsyncDiagramRepository;
+import io.github.drompincen.archviz.repository.DynamoDiagramHistoryRepository;
 import io.github.drompincen.archviz.repository.DynamoDiagramRepository;
+import io.github.drompincen.archviz.repository.FlowCodec;
+import io.github.drompincen.archviz.repository.InMemoryDiagramHistoryRepository;
 import io.github.drompincen.archviz.repository.InMemoryDiagramRepository;
+import io.github.drompincen.archviz.repository.WriteBehindDiagramRepository;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClientBuilder;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
 
@@ -16,6 +28,16 @@ import java.net.URI;
 @Configuration
 public class DiagramStoreConfig {
 
+    // Read-through cache in front of the remote stores; the in-memory store is already a map lookup
+    @Value("${diagram.cache.enabled:false}")
+    private boolean cacheEnabled;
+    @Value("${diagram.cache.max-entries:1000}")
+    private int cacheMaxEntries;
+    @Value("${diagram.cache.max-bytes:33554432}")
+    private long cacheMaxBytes;
+    @Value("${diagram.cache.ttl-ms:30000}")
+    private long cacheTtlMillis;
+
     @Bean
     @ConditionalOnProperty(name = "diagram.store", havingValue = "inMemory", matchIfMissing = true)
     public DiagramRepository inMemoryDiagramRepository() {
@@ -23,12 +45,23 @@ public class DiagramStoreConfig {
     }
 
     @Bean
-    @ConditionalOnProperty(name = "diagram.store", havingValue = "dynamodb")
+    @ConditionalOnProperty(name = "diagram.store", havingValue = "inMemory", matchIfMissing = true)
+    public DiagramHistoryRepository inMemoryDiagramHistoryRepository() {
+        return new InMemoryDiagramHistoryRepository();
+    }
+
+    // Shared by both DynamoDB stores; the async store still uses it for table setup and listings
+    @Bean
+    @ConditionalOnExpression("'${diagram.store:inMemory}'.startsWith('dynamodb')")
     public DynamoDbClient dynamoDbClient(
             @Value("${aws.region:us-east-1}") String region,
-            @Value("${aws.dynamodb.endpoint:}") String endpoint) {
+            @Value("${aws.dynamodb.endpoint:}") String endpoint,
+            @Value("${aws.dynamodb.max-connections:50}") int maxConnections) {
+        // The Apache pool waits on java.util.concurrent locks, so virtual threads queueing for a
+        // connection unmount instead of pinning a carrier; size it for the expected concurrency
         DynamoDbClientBuilder builder = DynamoDbClient.builder()
-                .region(Region.of(region));
+                .region(Region.of(region))
+                .httpClientBuilder(ApacheHttpClient.builder().maxConnections(maxConnections));
         if (endpoint != null && !endpoint.isBlank()) {
             builder.endpointOverride(URI.create(endpoint));
         }
@@ -39,7 +72,67 @@ public class DiagramStoreConfig {
     @ConditionalOnProperty(name = "diagram.store", havingValue = "dynamodb")
     public DiagramRepository dynamoDiagramRepository(
             DynamoDbClient dynamoDbClient,
-            @Value("${aws.dynamodb.table-name:archviz-diagrams}") String tableName) {
-        return new DynamoDiagramRepository(dynamoDbClient, tableName);
+            BackgroundThreads backgroundThreads,
+            @Value("${aws.dynamodb.table-name:archviz-diagrams}") String tableName,
+            @Value("${aws.dynamodb.scan-segments:4}") int scanSegments,
+            @Value("${aws.dynamodb.flow-format:json}") String flowFormat,
+            @Value("${aws.dynamodb.write-behind.enabled:false}") boolean writeBehind,
+            @Value("${aws.dynamodb.write-behind.flush-interval-ms:200}") long flushIntervalMillis,
+            @Value("${aws.dynamodb.write-behind.max-pending:500}") int maxPending) {
+        DynamoDiagramRepository repository = new DynamoDiagramRepository(dynamoDbClient, tableName, scanSegments,
+                backgroundThreads.factory("dynamo-scan"), flowCodec(flowFormat));
+        if (!writeBehind) {
+            return cached(repository);
+        }
+        return cached(new WriteBehindDiagramRepository(repository, flushIntervalMillis, maxPending,
+                backgroundThreads.factory("diagram-write-behind")));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "diagram.store", havingValue = "dynamodb-async")
+    public DynamoDbAsyncClient dynamoDbAsyncClient(
+            @Value("${aws.region:us-east-1}") String region,
+            @Value("${aws.dynamodb.endpoint:}") String endpoint,
+            @Value("${aws.dynamodb.async.max-concurrency:200}") int maxConcurrency) {
+        DynamoDbAsyncClientBuilder builder = DynamoDbAsyncClient.builder()
+                .region(Region.of(region))
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder().maxConcurrency(maxConcurrency));
+        if (endpoint != null && !endpoint.isBlank()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        return builder.build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "diagram.store", havingValue = "dynamodb-async")
+    public DiagramRepository dynamoAsyncDiagramRepository(
+            DynamoDbClient dynamoDbClient,
+            DynamoDbAsyncClient dynamoDbAsyncClient,
+            BackgroundThreads backgroundThreads,
+            @Value("${aws.dynamodb.table-name:archviz-diagrams}") String tableName,
+            @Value("${aws.dynamodb.scan-segments:4}") int scanSegments,
+            @Value("${aws.dynamodb.flow-format:json}") String flowFormat) {
+        return cached(new DynamoAsyncDiagramRepository(dynamoDbClient, dynamoDbAsyncClient, tableName, scanSegments,
+                backgroundThreads.factory("dynamo-scan"), flowCodec(flowFormat)));
+    }
+
+    private static FlowCodec flowCodec(String flowFormat) {
+        return new FlowCodec(FlowCodec.Format.fromMarker(flowFormat));
+    }
+
+    @Bean
+    @ConditionalOnExpression("'${diagram.store:inMemory}'.startsWith('dynamodb')")
+    public DiagramHistoryRepository dynamoDiagramHistoryRepository(
+            DynamoDbClient dynamoDbClient,
+            @Value("${aws.dynamodb.table-name:archviz-diagrams}") String tableName,
+            @Value("${aws.dynamodb.flow-format:json}") String flowFormat) {
+        return new DynamoDiagramHistoryRepository(dynamoDbClient, tableName, flowCodec(flowFormat));
+    }
+
+    private DiagramRepository cached(DiagramRepository repository) {
+        if (!cacheEnabled) {
+            return repository;
+        }
+        return new CachingDiagramRepository(repository, cacheMaxEntries, cacheMaxBytes, cacheTtlMillis);
     }
 }
@@ -0,0 +1,22 @@
+package io.github.drompincen.archviz.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+@Configuration
+public class ThreadingConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ThreadingConfig.class);
+
+    // Virtual only when spring.threads.virtual.enabled=true and the JVM is 21+; otherwise platform daemons
+    @Bean
+    public BackgroundThreads backgroundThreads(Environment environment) {
+        boolean virtual = Threading.VIRTUAL.isActive(environment);
+        log.info("Background work runs on {} threads", virtual ? "virtual" : "platform");
+        return new BackgroundThreads(virtual);
+    }
+}
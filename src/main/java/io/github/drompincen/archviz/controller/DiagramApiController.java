@@ -3,16 +3,44 @@ package io.github.drompincen.archviz.controller;
 import io.github.drompincen.archviz.dto.DiagramCreateRequest;
 import io.github.drompincen.archviz.dto.DiagramUpdateRequest;
 import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramPage;
+import io.github.drompincen.archviz.model.DiagramRevision;
 import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.DiagramVersionSummary;
+import io.github.drompincen.archviz.model.FlowValidationError;
+import io.github.drompincen.archviz.repository.VersionConflictException;
+import io.github.drompincen.archviz.service.DiagramRenderer;
 import io.github.drompincen.archviz.service.DiagramService;
+import io.github.drompincen.archviz.service.DiagramService.FlowPatch;
+import io.github.drompincen.archviz.service.FlowLayout;
+import io.github.drompincen.archviz.service.InvalidFlowException;
+import io.github.drompincen.archviz.service.SequenceRenderer;
+import io.github.drompincen.archviz.service.SequenceRenderer.SequenceDiagram;
+import io.github.drompincen.archviz.service.StaticResponseCache;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 @RestController
 @RequestMapping("/api/diagrams")
@@ -20,26 +48,418 @@ public class DiagramApiController {
 
     private static final Logger log = LoggerFactory.getLogger(DiagramApiController.class);
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final String NDJSON = "application/x-ndjson";
+    static final String JSON_PATCH = "application/json-patch+json";
+    static final String MERGE_PATCH = "application/merge-patch+json";
+    static final String SVG = "image/svg+xml";
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int STREAM_PAGE_SIZE = 200;
+
     private final DiagramService diagramService;
+    private final StaticResponseCache staticResponseCache;
+    private final DiagramRenderer diagramRenderer;
+    private final SequenceRenderer sequenceRenderer;
+    private final ObjectMapper objectMapper;
+    private final long renderMaxAgeSeconds;
 
-    public DiagramApiController(DiagramService diagramService) {
+    public DiagramApiController(DiagramService diagramService, StaticResponseCache staticResponseCache,
+                                DiagramRenderer diagramRenderer, SequenceRenderer sequenceRenderer, ObjectMapper objectMapper,
+                                @Value("${diagram.render.max-age-seconds:300}") long renderMaxAgeSeconds) {
         this.diagramService = diagramService;
+        this.staticResponseCache = staticResponseCache;
+        this.diagramRenderer = diagramRenderer;
+        this.sequenceRenderer = sequenceRenderer;
+        this.renderMaxAgeSeconds = renderMaxAgeSeconds;
+        // Leave the response stream open between values; it is written to line by line
+        this.objectMapper = objectMapper.copy().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     }
 
     @GetMapping
-    public List<DiagramSummary> listDiagrams(
+    public ResponseEntity<List<DiagramSummary>> listDiagrams(
+            @RequestParam(name = "tag", required = false) String tag,
+            @RequestParam(name = "query", required = false) String query,
+            @RequestParam(name = "limit", required = false) Integer limit,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            WebRequest request) {
+        List<DiagramSummary> items;
+        String nextCursor = null;
+        if (limit == null && cursor == null) {
+            items = diagramService.listAll(Optional.ofNullable(tag), Optional.ofNullable(query));
+        } else {
+            DiagramPage page = listPage(tag, query, limit, cursor);
+            items = page.items();
+            nextCursor = page.nextCursor();
+        }
+
+        String etag = diagramService.listETag(items);
+        boolean notModified = request.checkNotModified(etag);
+        ResponseEntity.BodyBuilder response = notModified
+                ? ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                : ResponseEntity.ok();
+        response.eTag(etag);
+        if (nextCursor != null) {
+            response.header(NEXT_CURSOR_HEADER, nextCursor);
+        }
+        return notModified ? response.build() : response.body(items);
+    }
+
+    // Opt-in streaming: one summary per line, flushed page by page as the backends produce them
+    @GetMapping(produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamDiagrams(
             @RequestParam(name = "tag", required = false) String tag,
             @RequestParam(name = "query", required = false) String query) {
-        return diagramService.listAll(Optional.ofNullable(tag), Optional.ofNullable(query));
+        StreamingResponseBody body = out -> {
+            try {
+                diagramService.forEachPage(Optional.ofNullable(tag), Optional.ofNullable(query), STREAM_PAGE_SIZE, page -> {
+                    try {
+                        for (DiagramSummary summary : page) {
+                            objectMapper.writeValue(out, summary);
+                            out.write('\n');
+                        }
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
+    // Revisions are looked up ahead of the diagram only to answer If-None-Match or If-Modified-Since; any other
+    // read loads the diagram once and takes its validators from it
+    private static boolean hasValidators(WebRequest request) {
+        return request.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+                || request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null;
+    }
+
+    private Optional<ResponseEntity<?>> staticDiagram(Optional<DiagramRevision> revision, WebRequest request) {
+        return revision.filter(r -> "file".equals(r.source()))
+                .flatMap(r -> staticResponseCache.get(r.id(), request.getHeader(HttpHeaders.ACCEPT_ENCODING))
+                        .map(body -> staticDiagram(r, body, request)));
+    }
+
+    // Pre-serialized bytes, already compressed when the client allows it
+    private ResponseEntity<?> staticDiagram(DiagramRevision revision, StaticResponseCache.Body body, WebRequest request) {
+        String etag = revision.etag(body.contentEncoding());
+        if (request.checkNotModified(etag, lastModifiedMillis(revision))) {
+            log.info("DOWNLOAD | id={} | NOT MODIFIED", revision.id());
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT_ENCODING).build();
+        }
+        log.info("DOWNLOAD | source=file | id={} | encoding={}", revision.id(),
+                body.contentEncoding() != null ? body.contentEncoding() : "identity");
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(etag)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (revision.lastModified() != null) {
+            response.lastModified(revision.lastModified());
+        }
+        if (body.contentEncoding() != null) {
+            response.header(HttpHeaders.CONTENT_ENCODING, body.contentEncoding());
+        }
+        return response.body(body.content());
+    }
+
+    private static long lastModifiedMillis(DiagramRevision revision) {
+        return revision.lastModified() != null ? revision.lastModified().toEpochMilli() : -1;
+    }
+
+    private DiagramPage listPage(String tag, String query, Integer limit, String cursor) {
+        int pageSize = limit != null ? limit : DEFAULT_PAGE_SIZE;
+        if (pageSize < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be positive");
+        }
+        try {
+            return diagramService.listPage(Optional.ofNullable(tag), Optional.ofNullable(query),
+                    Optional.ofNullable(cursor), Math.min(pageSize, MAX_PAGE_SIZE));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<Diagram> getDiagram(@PathVariable("id") String id) {
+    public CompletableFuture<ResponseEntity<?>> getDiagram(
+            @PathVariable("id") String id,
+            @RequestParam(name = "version", required = false) Integer version,
+            @RequestParam(name = "phase", required = false) String phase,
+            @RequestParam(name = "flow", required = false) String flow,
+            WebRequest request) {
+        if (version != null) {
+            return CompletableFuture.completedFuture(diagramVersion(id, version, phase, flow, request));
+        }
+        if (phase != null || flow != null) {
+            return projectedDiagram(id, phase, flow, request);
+        }
         log.info("DOWNLOAD | id={}", id);
-        return diagramService.getById(id)
+        if (!hasValidators(request)) {
+            return diagramService.getByIdAsync(id).thenApply(found -> {
+                Optional<DiagramRevision> revision = found.flatMap(diagramService::revisionOf);
+                return staticDiagram(revision, request).orElseGet(() -> diagramResponse(id, found, revision));
+            });
+        }
+        // Validators come from a projection, so a matching If-None-Match never loads the flow
+        return diagramService.getRevisionAsync(id).thenCompose(revision -> {
+            Optional<ResponseEntity<?>> staticResponse = staticDiagram(revision, request);
+            if (staticResponse.isPresent()) {
+                return CompletableFuture.completedFuture(staticResponse.get());
+            }
+            if (revision.isPresent() && request.checkNotModified(revision.get().etag(), lastModifiedMillis(revision.get()))) {
+                log.info("DOWNLOAD | id={} | NOT MODIFIED", id);
+                return CompletableFuture.completedFuture(
+                        ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(revision.get().etag()).build());
+            }
+            return diagramService.getByIdAsync(id).thenApply(found -> diagramResponse(id, found, revision));
+        });
+    }
+
+    // Only what the browser would show at ?phase=, with ?flow= as the sequence. Projections have their own
+    // ETag, and skip the pre-serialized static bodies, which hold whole diagrams.
+    private CompletableFuture<ResponseEntity<?>> projectedDiagram(String id, String phase, String flow, WebRequest request) {
+        log.info("DOWNLOAD | id={} | phase={} | flow={}", id, phase, flow);
+        if (!hasValidators(request)) {
+            return diagramService.getByIdAsync(id).thenApply(found -> diagramResponse(id,
+                    found.map(d -> project(d, phase, flow)),
+                    found.flatMap(diagramService::revisionOf).map(r -> r.projected(phase, flow))));
+        }
+        return diagramService.getRevisionAsync(id).thenCompose(revision -> {
+            Optional<DiagramRevision> projected = revision.map(r -> r.projected(phase, flow));
+            if (projected.isPresent() && request.checkNotModified(projected.get().etag(), lastModifiedMillis(projected.get()))) {
+                log.info("DOWNLOAD | id={} | NOT MODIFIED", id);
+                return CompletableFuture.completedFuture(
+                        ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(projected.get().etag()).build());
+            }
+            return diagramService.getByIdAsync(id)
+                    .thenApply(found -> diagramResponse(id, found.map(d -> project(d, phase, flow)), projected));
+        });
+    }
+
+    private JsonNode layout(JsonNode flow, String mode) {
+        FlowLayout.Mode parsed;
+        try {
+            parsed = FlowLayout.Mode.parse(mode);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        return diagramService.layout(flow, parsed);
+    }
+
+    private Diagram project(Diagram d, String phase, String flow) {
+        if (phase == null && flow == null) {
+            return d;
+        }
+        try {
+            return diagramService.project(d, phase, flow);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    // Past versions never change, and carry the same ETag they had while current
+    private ResponseEntity<?> diagramVersion(String id, int version, String phase, String flow, WebRequest request) {
+        log.info("DOWNLOAD | id={} | version={}", id, version);
+        String etag = DiagramRevision.of(id, version, null).projected(phase, flow).etag();
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return diagramService.getVersion(id, version)
+                .<ResponseEntity<?>>map(d -> ResponseEntity.ok().eTag(etag).body(project(d, phase, flow)))
+                .orElseGet(() -> {
+                    log.warn("DOWNLOAD | id={} | version={} | NOT FOUND", id, version);
+                    return ResponseEntity.notFound().build();
+                });
+    }
+
+    // Static SVG for wikis and status pages. Shared caches may keep the current rendering for max-age and
+    // then revalidate it by ETag; a rendering pinned with ?version= never changes and is cached for a year.
+    @GetMapping("/{id}/render.svg")
+    public CompletableFuture<ResponseEntity<?>> renderDiagram(
+            @PathVariable("id") String id,
+            @RequestParam(name = "phase", required = false) String phase,
+            @RequestParam(name = "theme", defaultValue = "dark") String theme,
+            @RequestParam(name = "version", required = false) Integer version,
+            WebRequest request) {
+        DiagramRenderer.Theme parsed = theme(theme);
+        log.info("RENDER | id={} | phase={} | theme={} | version={}", id, phase, parsed, version);
+        if (version != null) {
+            DiagramRevision revision = DiagramRevision.of(id, version, null);
+            CacheControl immutable = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+            String etag = revision.rendered(phase, parsed.name().toLowerCase()).etag();
+            if (request.checkNotModified(etag)) {
+                return CompletableFuture.completedFuture(
+                        ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(immutable).build());
+            }
+            Optional<byte[]> svg = diagramRenderer.cached(revision, phase, parsed)
+                    .or(() -> diagramService.getVersion(id, version).map(d -> render(revision, d, phase, parsed)));
+            return CompletableFuture.completedFuture(svgResponse(id, svg, etag, immutable));
+        }
+        CacheControl current = CacheControl.maxAge(renderMaxAgeSeconds, TimeUnit.SECONDS).cachePublic();
+        if (!hasValidators(request)) {
+            return diagramService.getByIdAsync(id).thenApply(found -> {
+                Optional<DiagramRevision> revision = found.flatMap(diagramService::revisionOf);
+                return svgResponse(id, revision.map(r -> render(r, found.get(), phase, parsed)),
+                        revision.map(r -> r.rendered(phase, parsed.name().toLowerCase()).etag()).orElse(null), current);
+            });
+        }
+        return diagramService.getRevisionAsync(id).thenCompose(revision -> {
+            if (revision.isEmpty()) {
+                return CompletableFuture.completedFuture(svgResponse(id, Optional.empty(), null, current));
+            }
+            String etag = revision.get().rendered(phase, parsed.name().toLowerCase()).etag();
+            if (request.checkNotModified(etag)) {
+                return CompletableFuture.completedFuture(
+                        ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(current).build());
+            }
+            // Only a rendering that is not cached yet needs the diagram itself
+            Optional<byte[]> cached = diagramRenderer.cached(revision.get(), phase, parsed);
+            if (cached.isPresent()) {
+                return CompletableFuture.completedFuture(svgResponse(id, cached, etag, current));
+            }
+            return diagramService.getByIdAsync(id).thenApply(found ->
+                    svgResponse(id, found.map(d -> render(revision.get(), d, phase, parsed)), etag, current));
+        });
+    }
+
+    private static DiagramRenderer.Theme theme(String theme) {
+        try {
+            return DiagramRenderer.Theme.parse(theme);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private byte[] render(DiagramRevision revision, Diagram d, String phase, DiagramRenderer.Theme theme) {
+        try {
+            return diagramRenderer.render(revision, d, phase, theme);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private static ResponseEntity<?> svgResponse(String id, Optional<byte[]> svg, String etag, CacheControl cacheControl) {
+        return svg.<ResponseEntity<?>>map(body -> ResponseEntity.ok()
+                        .contentType(MediaType.parseMediaType(SVG))
+                        .eTag(etag)
+                        .cacheControl(cacheControl)
+                        .body(body))
+                .orElseGet(() -> {
+                    log.warn("RENDER | id={} | NOT FOUND", id);
+                    return ResponseEntity.notFound().build();
+                });
+    }
+
+    // The sequence view without a browser, e.g. for CI jobs and docs generators: lifelines and numbered messages
+    // as compact JSON, or drawn as SVG. Both are streamed, and cached by clients like render.svg.
+    @GetMapping("/{id}/sequence")
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> sequenceJson(
+            @PathVariable("id") String id,
+            @RequestParam(name = "phase", required = false) String phase,
+            @RequestParam(name = "flow", required = false) String flow,
+            @RequestParam(name = "version", required = false) Integer version,
+            WebRequest request) {
+        return sequence(id, phase, flow, version, "json", MediaType.APPLICATION_JSON,
+                s -> out -> sequenceRenderer.writeJson(s, out), request);
+    }
+
+    @GetMapping("/{id}/sequence.svg")
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> sequenceSvg(
+            @PathVariable("id") String id,
+            @RequestParam(name = "phase", required = false) String phase,
+            @RequestParam(name = "flow", required = false) String flow,
+            @RequestParam(name = "theme", defaultValue = "dark") String theme,
+            @RequestParam(name = "version", required = false) Integer version,
+            WebRequest request) {
+        DiagramRenderer.Theme parsed = theme(theme);
+        return sequence(id, phase, flow, version, "svg-" + parsed.name().toLowerCase(), MediaType.parseMediaType(SVG),
+                s -> out -> sequenceRenderer.writeSvg(s, parsed, out), request);
+    }
+
+    private CompletableFuture<ResponseEntity<StreamingResponseBody>> sequence(
+            String id, String phase, String flow, Integer version, String format, MediaType contentType,
+            Function<SequenceDiagram, StreamingResponseBody> writer, WebRequest request) {
+        log.info("SEQUENCE | id={} | phase={} | flow={} | format={} | version={}", id, phase, flow, format, version);
+        if (version != null) {
+            DiagramRevision revision = DiagramRevision.of(id, version, null);
+            CacheControl immutable = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+            String etag = revision.sequence(phase, flow, format).etag();
+            if (request.checkNotModified(etag)) {
+                return CompletableFuture.completedFuture(
+                        ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(immutable).build());
+            }
+            Optional<SequenceDiagram> sequence = sequenceRenderer.cached(revision, phase, flow)
+                    .or(() -> diagramService.getVersion(id, version).map(d -> sequence(revision, d, phase, flow)));
+            return CompletableFuture.completedFuture(streamed(id, sequence.map(writer), contentType, etag, immutable));
+        }
+        CacheControl current = CacheControl.maxAge(renderMaxAgeSeconds, TimeUnit.SECONDS).cachePublic();
+        if (!hasValidators(request)) {
+            return diagramService.getByIdAsync(id).thenApply(found -> {
+                Optional<DiagramRevision> revision = found.flatMap(diagramService::revisionOf);
+                return streamed(id, revision.map(r -> sequence(r, found.get(), phase, flow)).map(writer), contentType,
+                        revision.map(r -> r.sequence(phase, flow, format).etag()).orElse(null), current);
+            });
+        }
+        return diagramService.getRevisionAsync(id).thenCompose(revision -> {
+            if (revision.isEmpty()) {
+                return CompletableFuture.completedFuture(streamed(id, Optional.empty(), contentType, null, current));
+            }
+            String etag = revision.get().sequence(phase, flow, format).etag();
+            if (request.checkNotModified(etag)) {
+                return CompletableFuture.completedFuture(
+                        ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(current).build());
+            }
+            Optional<SequenceDiagram> cached = sequenceRenderer.cached(revision.get(), phase, flow);
+            if (cached.isPresent()) {
+                return CompletableFuture.completedFuture(streamed(id, cached.map(writer), contentType, etag, current));
+            }
+            return diagramService.getByIdAsync(id).thenApply(found -> streamed(id,
+                    found.map(d -> sequence(revision.get(), d, phase, flow)).map(writer), contentType, etag, current));
+        });
+    }
+
+    private SequenceDiagram sequence(DiagramRevision revision, Diagram d, String phase, String flow) {
+        try {
+            return sequenceRenderer.sequence(revision, d, phase, flow);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private static ResponseEntity<StreamingResponseBody> streamed(String id, Optional<StreamingResponseBody> body,
+                                                                  MediaType contentType, String etag, CacheControl cacheControl) {
+        return body.map(b -> ResponseEntity.ok()
+                        .contentType(contentType)
+                        .eTag(etag)
+                        .cacheControl(cacheControl)
+                        .body(b))
+                .orElseGet(() -> {
+                    log.warn("SEQUENCE | id={} | NOT FOUND", id);
+                    return ResponseEntity.notFound().build();
+                });
+    }
+
+    @GetMapping("/{id}/versions")
+    public ResponseEntity<List<DiagramVersionSummary>> listVersions(@PathVariable("id") String id) {
+        List<DiagramVersionSummary> versions = diagramService.listVersions(id);
+        return versions.isEmpty() ? ResponseEntity.notFound().build() : ResponseEntity.ok(versions);
+    }
+
+    private ResponseEntity<?> diagramResponse(String id, Optional<Diagram> found, Optional<DiagramRevision> revision) {
+        return found
                 .map(d -> {
-                    log.info("DOWNLOAD | source={} | title={}", d.getSource(), d.getTitle());
-                    return ResponseEntity.ok(d);
+                    log.info("DOWNLOAD | source={} | title={}", d.source(), d.title());
+                    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+                    revision.ifPresent(r -> {
+                        response.eTag(r.etag());
+                        if (r.lastModified() != null) {
+                            response.lastModified(r.lastModified());
+                        }
+                    });
+                    return response.body(d);
                 })
                 .orElseGet(() -> {
                     log.warn("DOWNLOAD | id={} | NOT FOUND", id);
@@ -47,25 +467,111 @@ public class DiagramApiController {
                 });
     }
 
+    // ?layout=missing|all lays out the flow before it is saved
     @PostMapping
-    public ResponseEntity<Diagram> createDiagram(@RequestBody DiagramCreateRequest request) {
-        Diagram created = diagramService.create(request);
-        log.info("SAVE | action=create | id={} | title={} | tags={}", created.getId(), created.getTitle(), created.getTags());
-        return ResponseEntity.status(HttpStatus.CREATED).body(created);
+    public CompletableFuture<ResponseEntity<Diagram>> createDiagram(
+            @RequestParam(name = "layout", required = false) String layout,
+            @RequestBody DiagramCreateRequest request) {
+        DiagramCreateRequest toSave = layout == null ? request : new DiagramCreateRequest(
+                request.title(), request.description(), request.tags(), layout(request.flow(), layout));
+        return diagramService.createAsync(toSave).thenApply(created -> {
+            log.info("SAVE | action=create | id={} | title={} | tags={}", created.id(), created.title(), created.tags());
+            return ResponseEntity.status(HttpStatus.CREATED).body(created);
+        });
     }
 
+    // If-Match carries the ETag the client edited; a stale one, or a concurrent save, answers 412
     @PutMapping("/{id}")
-    public ResponseEntity<Diagram> updateDiagram(
+    public CompletableFuture<ResponseEntity<Diagram>> updateDiagram(
             @PathVariable("id") String id,
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @RequestParam(name = "layout", required = false) String layout,
             @RequestBody DiagramUpdateRequest request) {
-        return diagramService.update(id, request)
+        DiagramUpdateRequest toSave = layout == null ? request : new DiagramUpdateRequest(
+                request.title(), request.description(), request.tags(), layout(request.flow(), layout));
+        return diagramService.updateAsync(id, toSave, expectedVersion(id, ifMatch)).thenApply(updated -> updated
                 .map(d -> {
-                    log.info("SAVE | action=update | id={} | title={} | version={} | tags={}", d.getId(), d.getTitle(), d.getVersion(), d.getTags());
-                    return ResponseEntity.ok(d);
+                    log.info("SAVE | action=update | id={} | title={} | version={} | tags={}", d.id(), d.title(), d.version(), d.tags());
+                    return saved(d);
                 })
                 .orElseGet(() -> {
                     log.warn("SAVE | action=update | id={} | NOT FOUND", id);
                     return ResponseEntity.notFound().build();
+                }));
+    }
+
+    // Incremental flow edits: the body is a patch against the stored flow, not the whole diagram
+    @PatchMapping(value = "/{id}", consumes = JSON_PATCH)
+    public CompletableFuture<ResponseEntity<Diagram>> jsonPatchDiagram(
+            @PathVariable("id") String id,
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @RequestBody JsonNode patch) {
+        return patchFlow(id, FlowPatch.JSON_PATCH, patch, expectedVersion(id, ifMatch));
+    }
+
+    @PatchMapping(value = "/{id}", consumes = MERGE_PATCH)
+    public CompletableFuture<ResponseEntity<Diagram>> mergePatchDiagram(
+            @PathVariable("id") String id,
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @RequestBody JsonNode patch) {
+        return patchFlow(id, FlowPatch.MERGE_PATCH, patch, expectedVersion(id, ifMatch));
+    }
+
+    private CompletableFuture<ResponseEntity<Diagram>> patchFlow(String id, FlowPatch type, JsonNode patch,
+                                                                 Optional<Integer> expectedVersion) {
+        return diagramService.patchFlowAsync(id, type, patch, expectedVersion)
+                .thenApply(updated -> updated
+                        .map(d -> {
+                            log.info("SAVE | action=patch | id={} | type={} | version={}", d.id(), type, d.version());
+                            return saved(d);
+                        })
+                        .orElseGet(() -> {
+                            log.warn("SAVE | action=patch | id={} | NOT FOUND", id);
+                            return ResponseEntity.notFound().build();
+                        }))
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    // A patched flow with dangling references is left to the handler below, which lists them
+                    if (cause instanceof IllegalArgumentException && !(cause instanceof InvalidFlowException)) {
+                        log.warn("SAVE | action=patch | id={} | INVALID PATCH | {}", id, cause.getMessage());
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, cause.getMessage());
+                    }
+                    throw e instanceof CompletionException ce ? ce : new CompletionException(cause);
                 });
     }
+
+    @ExceptionHandler(VersionConflictException.class)
+    public ResponseEntity<Void> versionConflict(VersionConflictException e) {
+        log.warn("SAVE | id={} | CONFLICT | expected version={}", e.getId(), e.getExpectedVersion());
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+    }
+
+    @ExceptionHandler(InvalidFlowException.class)
+    public ResponseEntity<FlowValidationError> invalidFlow(InvalidFlowException e) {
+        log.warn("SAVE | INVALID FLOW | problems={}", e.getProblems().size());
+        return ResponseEntity.badRequest().body(new FlowValidationError("Invalid flow", e.getProblems()));
+    }
+
+    // The response carries the new version's ETag, for the client's next If-Match
+    private static ResponseEntity<Diagram> saved(Diagram d) {
+        return ResponseEntity.ok().eTag(DiagramRevision.of(d.id(), d.version(), d.updatedAt()).etag()).body(d);
+    }
+
+    // Accepts the strong ETag of a version of this diagram; "*" only requires that it exists.
+    // If-Match compares strongly, so a weak validator never matches
+    static Optional<Integer> expectedVersion(String id, String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return Optional.empty();
+        }
+        String tag = ifMatch.trim();
+        String prefix = "\"" + id + "-v";
+        if (tag.startsWith(prefix) && tag.endsWith("\"") && tag.length() > prefix.length() + 1) {
+            try {
+                return Optional.of(Integer.parseInt(tag.substring(prefix.length(), tag.length() - 1)));
+            } catch (NumberFormatException e) {
+                // Falls through to the mismatch below
+            }
+        }
+        throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "If-Match does not match diagram " + id);
+    }
 }
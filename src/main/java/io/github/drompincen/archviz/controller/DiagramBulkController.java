@@ -0,0 +1,71 @@
+package io.github.drompincen.archviz.controller;
+
+import io.github.drompincen.archviz.service.DiagramBulkService;
+import io.github.drompincen.archviz.service.DiagramService;
+import io.github.drompincen.archviz.service.FlowLayout;
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+// Collection-level actions in the "diagrams:<verb>" form, outside the /api/diagrams/{id} namespace
+@RestController
+@RequestMapping("/api")
+public class DiagramBulkController {
+
+    private final DiagramBulkService bulkService;
+    private final DiagramService diagramService;
+
+    public DiagramBulkController(DiagramBulkService bulkService, DiagramService diagramService) {
+        this.bulkService = bulkService;
+        this.diagramService = diagramService;
+    }
+
+    // Runs on the request thread, so the body is still being read while per-line results are written back
+    @PostMapping(value = "/diagrams:bulk", consumes = DiagramApiController.NDJSON)
+    public void importDiagrams(InputStream body, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(DiagramApiController.NDJSON);
+        bulkService.importDiagrams(body, response.getOutputStream());
+    }
+
+    // Lays out a flow without storing anything, e.g. for an editor; mode=all also moves positioned nodes
+    @PostMapping(value = "/diagrams:layout", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public JsonNode layout(@RequestParam(name = "mode", defaultValue = "missing") String mode,
+                           @RequestBody JsonNode flow) {
+        try {
+            return diagramService.layout(flow, FlowLayout.Mode.parse(mode));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    // Cache hit rate, write-behind queue and static catalog counters of this instance
+    @GetMapping("/diagrams:stats")
+    public Map<String, Object> stats() {
+        return diagramService.stats();
+    }
+
+    @GetMapping("/diagrams:export")
+    public ResponseEntity<StreamingResponseBody> exportDiagrams() {
+        StreamingResponseBody body = bulkService::exportDiagrams;
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(DiagramApiController.NDJSON))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"diagrams.ndjson\"")
+                .body(body);
+    }
+}
@@ -0,0 +1,23 @@
+package io.github.drompincen.archviz.model;
+
+// Outcome of one NDJSON line of a bulk import; line numbers are 1-based positions in the request body
+public record BulkImportResult(
+        long line,
+        String id,
+        String status,
+        String error
+) {
+
+    public static BulkImportResult saved(long line, String id) {
+        return new BulkImportResult(line, id, "saved", null);
+    }
+
+    public static BulkImportResult failed(long line, String id, String error) {
+        return new BulkImportResult(line, id, "failed", error);
+    }
+
+    // The stored diagram is at the same or a newer version, so the line was not written
+    public static BulkImportResult conflict(long line, String id, String error) {
+        return new BulkImportResult(line, id, "conflict", error);
+    }
+}
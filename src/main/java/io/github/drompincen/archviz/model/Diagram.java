@@ -1,48 +1,96 @@
 package io.github.drompincen.archviz.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
-public class Diagram {
+// Immutable, so one loaded instance can be shared by concurrent readers and caches without copies; changes
+// go through with* or toBuilder() and produce a new instance. Jackson has no read-only JsonNode, so the flow
+// tree is frozen by convention: it is never edited once set, and code deriving a new flow works on a copy.
+// flowSize is the stored size in bytes of the flow a repository decoded, for caches to weigh entries without
+// serializing the tree again; 0 when unknown, and reset whenever the flow is replaced.
+public record Diagram(
+        String id,
+        String title,
+        String description,
+        List<String> tags,
+        int version,
+        String source,
+        Instant createdAt,
+        Instant updatedAt,
+        JsonNode flow,
+        @JsonIgnore long flowSize
+) {
 
-    private String id;
-    private String title;
-    private String description;
-    private List<String> tags;
-    private int version;
-    private String source;
-    private Instant createdAt;
-    private Instant updatedAt;
-    private JsonNode flow;
+    public Diagram {
+        tags = tags != null ? Collections.unmodifiableList(new ArrayList<>(tags)) : null;
+    }
 
-    public Diagram() {}
+    public static Builder builder() {
+        return new Builder();
+    }
 
-    public String getId() { return id; }
-    public void setId(String id) { this.id = id; }
+    public Builder toBuilder() {
+        return new Builder()
+                .id(id)
+                .title(title)
+                .description(description)
+                .tags(tags)
+                .version(version)
+                .source(source)
+                .createdAt(createdAt)
+                .updatedAt(updatedAt)
+                .flow(flow)
+                .flowSize(flowSize);
+    }
 
-    public String getTitle() { return title; }
-    public void setTitle(String title) { this.title = title; }
+    // Returns this instance when the source is already right, the common case on reads
+    public Diagram withSource(String source) {
+        return Objects.equals(source, this.source) ? this : toBuilder().source(source).build();
+    }
 
-    public String getDescription() { return description; }
-    public void setDescription(String description) { this.description = description; }
+    public static final class Builder {
 
-    public List<String> getTags() { return tags; }
-    public void setTags(List<String> tags) { this.tags = tags; }
+        private String id;
+        private String title;
+        private String description;
+        private List<String> tags;
+        private int version;
+        private String source;
+        private Instant createdAt;
+        private Instant updatedAt;
+        private JsonNode flow;
+        private long flowSize;
 
-    public int getVersion() { return version; }
-    public void setVersion(int version) { this.version = version; }
+        private Builder() {}
 
-    public String getSource() { return source; }
-    public void setSource(String source) { this.source = source; }
+        public Builder id(String id) { this.id = id; return this; }
 
-    public Instant getCreatedAt() { return createdAt; }
-    public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+        public Builder title(String title) { this.title = title; return this; }
 
-    public Instant getUpdatedAt() { return updatedAt; }
-    public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+        public Builder description(String description) { this.description = description; return this; }
 
-    public JsonNode getFlow() { return flow; }
-    public void setFlow(JsonNode flow) { this.flow = flow; }
+        public Builder tags(List<String> tags) { this.tags = tags; return this; }
+
+        public Builder version(int version) { this.version = version; return this; }
+
+        public Builder source(String source) { this.source = source; return this; }
+
+        public Builder createdAt(Instant createdAt) { this.createdAt = createdAt; return this; }
+
+        public Builder updatedAt(Instant updatedAt) { this.updatedAt = updatedAt; return this; }
+
+        public Builder flow(JsonNode flow) { this.flow = flow; this.flowSize = 0; return this; }
+
+        public Builder flowSize(long flowSize) { this.flowSize = flowSize; return this; }
+
+        public Diagram build() {
+            return new Diagram(id, title, description, tags, version, source, createdAt, updatedAt, flow, flowSize);
+        }
+    }
 }
@@ -0,0 +1,20 @@
+package io.github.drompincen.archviz.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public record DiagramCacheStats(
+        int size,
+        long bytes,
+        long maxBytes,
+        long hits,
+        long misses,
+        long evictions,
+        long expirations
+) {
+
+    @JsonProperty
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,15 @@
+package io.github.drompincen.archviz.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.time.Instant;
+
+// One saved version: either a full snapshot of the diagram document or a JSON Patch against the previous version
+public record DiagramHistoryEntry(
+        String id,
+        int version,
+        Instant savedAt,
+        String title,
+        boolean snapshot,
+        JsonNode content
+) {}
@@ -0,0 +1,8 @@
+package io.github.drompincen.archviz.model;
+
+import java.util.List;
+
+public record DiagramPage(
+        List<DiagramSummary> items,
+        String nextCursor
+) {}
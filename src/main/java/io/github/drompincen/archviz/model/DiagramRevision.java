@@ -0,0 +1,70 @@
+package io.github.drompincen.archviz.model;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+// Cache validators for a diagram, cheap to look up without loading the flow
+public record DiagramRevision(
+        String id,
+        String fingerprint,
+        Instant lastModified,
+        String source
+) {
+
+    public static DiagramRevision of(String id, int version, Instant updatedAt) {
+        return new DiagramRevision(id, "v" + version, updatedAt, "db");
+    }
+
+    // The stored version a revision of a "db" diagram was made from, projected or not
+    public int version() {
+        int end = fingerprint.indexOf('-');
+        return Integer.parseInt(fingerprint.substring(1, end < 0 ? fingerprint.length() : end));
+    }
+
+    // A phase/flow projection is a different representation of the same revision; null for both is this one
+    public DiagramRevision projected(String phaseId, String flowId) {
+        if (phaseId == null && flowId == null) {
+            return this;
+        }
+        StringBuilder projected = new StringBuilder(fingerprint);
+        if (phaseId != null) {
+            projected.append("-phase=").append(URLEncoder.encode(phaseId, StandardCharsets.UTF_8));
+        }
+        if (flowId != null) {
+            projected.append("-flow=").append(URLEncoder.encode(flowId, StandardCharsets.UTF_8));
+        }
+        return new DiagramRevision(id, projected.toString(), lastModified, source);
+    }
+
+    // A rendered image of a phase, in one theme, is yet another representation
+    public DiagramRevision rendered(String phaseId, String theme) {
+        DiagramRevision projected = projected(phaseId, null);
+        return new DiagramRevision(id, projected.fingerprint() + "-svg-" + theme, lastModified, source);
+    }
+
+    // The sequence diagram of a phase and flow, as "json" or "svg-<theme>"
+    public DiagramRevision sequence(String phaseId, String flowId, String format) {
+        DiagramRevision projected = projected(phaseId, flowId);
+        return new DiagramRevision(id, projected.fingerprint() + "-sequence-" + format, lastModified, source);
+    }
+
+    // Whether a diagram loaded after this revision was looked up is still this revision, not a later save.
+    // Results derived from it may only be cached under this revision's fingerprint if so.
+    public boolean matches(Diagram diagram) {
+        if ("db".equals(source)) {
+            return "db".equals(diagram.source()) && fingerprint.equals("v" + diagram.version());
+        }
+        return source != null && source.equals(diagram.source());
+    }
+
+    public String etag() {
+        return etag(null);
+    }
+
+    // Compressed bytes are a different representation, so each content coding gets its own tag
+    public String etag(String contentEncoding) {
+        String suffix = contentEncoding != null ? "-" + contentEncoding : "";
+        return "\"" + id + "-" + fingerprint + suffix + "\"";
+    }
+}
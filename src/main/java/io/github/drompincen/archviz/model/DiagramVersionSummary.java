@@ -0,0 +1,10 @@
+package io.github.drompincen.archviz.model;
+
+import java.time.Instant;
+
+public record DiagramVersionSummary(
+        int version,
+        Instant savedAt,
+        String title,
+        boolean snapshot
+) {}
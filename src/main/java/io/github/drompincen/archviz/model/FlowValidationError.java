@@ -0,0 +1,6 @@
+package io.github.drompincen.archviz.model;
+
+import java.util.List;
+
+// 400 body for a rejected flow: every dangling or duplicate reference as "path: message"
+public record FlowValidationError(String error, List<String> problems) {}
@@ -0,0 +1,9 @@
+package io.github.drompincen.archviz.model;
+
+public record ResponseCacheStats(
+        int size,
+        long bytes,
+        long maxBytes,
+        long hits,
+        long misses
+) {}
@@ -0,0 +1,8 @@
+package io.github.drompincen.archviz.model;
+
+public record StaticCatalogStats(
+        int size,
+        long hits,
+        long misses,
+        long reloads
+) {}
@@ -0,0 +1,9 @@
+package io.github.drompincen.archviz.model;
+
+import java.util.List;
+
+// nextAfterId is the id to resume after, or null when the listing is exhausted
+public record SummaryPage(
+        List<DiagramSummary> items,
+        String nextAfterId
+) {}
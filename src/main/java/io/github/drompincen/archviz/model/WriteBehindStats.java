@@ -0,0 +1,11 @@
+package io.github.drompincen.archviz.model;
+
+public record WriteBehindStats(
+        int queueDepth,
+        long flushes,
+        long written,
+        long coalesced,
+        long failures,
+        long lastFlushMillis,
+        long maxFlushMillis
+) {}
@@ -0,0 +1,340 @@
+package io.github.drompincen.archviz.repository;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramCacheStats;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.SummaryPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// Read-through cache for single-diagram reads, bounded by entry count, approximate bytes and a TTL.
+// Writes go to the backend first and then drop the cached entry; listings always hit the backend.
+// Reads take no lock: a hit only stamps the entry. A miss that overfills the cache evicts entries itself,
+// each time the least recently stamped of a small sample, so the LRU order is approximate.
+public class CachingDiagramRepository implements DiagramRepository, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingDiagramRepository.class);
+
+    // Rough per-entry cost of the Diagram object, its strings and the map node, on top of the stored flow
+    private static final int ENTRY_OVERHEAD_BYTES = 512;
+    // Entries compared per eviction; the cost of an eviction no longer grows with the cache
+    private static final int EVICTION_SAMPLE = 16;
+
+    private final DiagramRepository delegate;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LongSupplier ticker;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    // Bumped by every write, so a read that started before a write never caches what it loaded
+    private final AtomicLong writes = new AtomicLong();
+    // One evicting thread at a time; only misses that overfill the cache wait for it
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // Guarded by evictionLock; resumes where the last sample stopped, so samples rotate through the map
+    private Iterator<Map.Entry<String, Entry>> sampler = Collections.emptyIterator();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public CachingDiagramRepository(DiagramRepository delegate, int maxEntries, long maxBytes, long ttlMillis) {
+        this(delegate, maxEntries, maxBytes, ttlMillis, System::nanoTime);
+    }
+
+    CachingDiagramRepository(DiagramRepository delegate, int maxEntries, long maxBytes, long ttlMillis,
+                             LongSupplier ticker) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.ticker = ticker;
+    }
+
+    @Override
+    public Diagram save(Diagram diagram) {
+        invalidate(diagram.id());
+        try {
+            return delegate.save(diagram);
+        } finally {
+            invalidate(diagram.id());
+        }
+    }
+
+    @Override
+    public Diagram save(Diagram diagram, int expectedVersion) {
+        invalidate(diagram.id());
+        try {
+            return delegate.save(diagram, expectedVersion);
+        } finally {
+            invalidate(diagram.id());
+        }
+    }
+
+    @Override
+    public Diagram saveFlow(Diagram diagram, int expectedVersion) {
+        invalidate(diagram.id());
+        try {
+            return delegate.saveFlow(diagram, expectedVersion);
+        } finally {
+            invalidate(diagram.id());
+        }
+    }
+
+    @Override
+    public void saveAll(Collection<Diagram> diagrams) {
+        diagrams.forEach(d -> invalidate(d.id()));
+        try {
+            delegate.saveAll(diagrams);
+        } finally {
+            diagrams.forEach(d -> invalidate(d.id()));
+        }
+    }
+
+    @Override
+    public Optional<Diagram> findById(String id) {
+        Diagram cached = lookup(id);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        long generation = generation();
+        Optional<Diagram> loaded = delegate.findById(id);
+        loaded.ifPresent(d -> store(id, d, generation));
+        return loaded;
+    }
+
+    // Bulk reads go straight to the backend, so an export does not evict the working set
+    @Override
+    public List<Diagram> findAllById(List<String> ids) {
+        return delegate.findAllById(ids);
+    }
+
+    @Override
+    public Optional<DiagramRevision> findRevisionById(String id) {
+        Diagram cached = lookup(id);
+        if (cached != null) {
+            return Optional.of(DiagramRevision.of(id, cached.version(), cached.updatedAt()));
+        }
+        return delegate.findRevisionById(id);
+    }
+
+    @Override
+    public List<Diagram> findAll(Optional<String> tag, Optional<String> query) {
+        return delegate.findAll(tag, query);
+    }
+
+    @Override
+    public List<DiagramSummary> findSummaries(Optional<String> tag, Optional<String> query) {
+        return delegate.findSummaries(tag, query);
+    }
+
+    @Override
+    public SummaryPage findSummaryPage(Optional<String> tag, Optional<String> query,
+                                       Optional<String> afterId, int limit) {
+        return delegate.findSummaryPage(tag, query, afterId, limit);
+    }
+
+    @Override
+    public void deleteById(String id) {
+        invalidate(id);
+        try {
+            delegate.deleteById(id);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Optional<Diagram>> findByIdAsync(String id) {
+        Diagram cached = lookup(id);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(Optional.of(cached));
+        }
+        long generation = generation();
+        return delegate.findByIdAsync(id).thenApply(loaded -> {
+            loaded.ifPresent(d -> store(id, d, generation));
+            return loaded;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<DiagramRevision>> findRevisionByIdAsync(String id) {
+        Diagram cached = lookup(id);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(
+                    Optional.of(DiagramRevision.of(id, cached.version(), cached.updatedAt())));
+        }
+        return delegate.findRevisionByIdAsync(id);
+    }
+
+    @Override
+    public CompletableFuture<Diagram> saveAsync(Diagram diagram) {
+        invalidate(diagram.id());
+        return delegate.saveAsync(diagram).whenComplete((d, e) -> invalidate(diagram.id()));
+    }
+
+    @Override
+    public CompletableFuture<Diagram> saveAsync(Diagram diagram, int expectedVersion) {
+        invalidate(diagram.id());
+        return delegate.saveAsync(diagram, expectedVersion).whenComplete((d, e) -> invalidate(diagram.id()));
+    }
+
+    @Override
+    public CompletableFuture<Diagram> saveFlowAsync(Diagram diagram, int expectedVersion) {
+        invalidate(diagram.id());
+        return delegate.saveFlowAsync(diagram, expectedVersion).whenComplete((d, e) -> invalidate(diagram.id()));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteByIdAsync(String id) {
+        invalidate(id);
+        return delegate.deleteByIdAsync(id).whenComplete((v, e) -> invalidate(id));
+    }
+
+    public DiagramCacheStats getStats() {
+        return new DiagramCacheStats(entries.size(), bytes.get(), maxBytes,
+                hits.sum(), misses.sum(), evictions.sum(), expirations.sum());
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cache", getStats());
+        stats.putAll(delegate.stats());
+        return stats;
+    }
+
+    @Override
+    public void close() throws Exception {
+        DiagramCacheStats stats = getStats();
+        log.info("Diagram cache closing: {} (hit rate {})", stats, String.format("%.3f", stats.hitRate()));
+        if (delegate instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    private Diagram lookup(String id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (ticker.getAsLong() - entry.loadedAt >= ttlNanos) {
+            if (entries.remove(id, entry)) {
+                bytes.addAndGet(-entry.size);
+                expirations.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        entry.lastUsed = System.nanoTime();
+        hits.increment();
+        return entry.diagram;
+    }
+
+    private long generation() {
+        return writes.get();
+    }
+
+    // The generation moves before the entry goes: a store that saw the old one either lands before the
+    // remove and is removed with it, or finds the generation moved and stores nothing
+    private void invalidate(String id) {
+        writes.incrementAndGet();
+        Entry removed = entries.remove(id);
+        if (removed != null) {
+            bytes.addAndGet(-removed.size);
+        }
+    }
+
+    private void store(String id, Diagram diagram, long generation) {
+        // Weighed by the size the backend stored, carried from decoding; the tree is never serialized again
+        long size = ENTRY_OVERHEAD_BYTES + diagram.flowSize();
+        if (size > maxBytes) {
+            return;
+        }
+        Entry entry = new Entry(diagram, size, ticker.getAsLong());
+        Entry[] replaced = new Entry[1];
+        Entry current = entries.compute(id, (key, previous) -> {
+            if (writes.get() != generation) {
+                return previous;
+            }
+            replaced[0] = previous;
+            return entry;
+        });
+        if (current != entry) {
+            return;
+        }
+        bytes.addAndGet(size - (replaced[0] != null ? replaced[0].size : 0));
+        evictIfFull();
+    }
+
+    private boolean isFull() {
+        return bytes.get() > maxBytes || entries.size() > maxEntries;
+    }
+
+    // Drops the least recently used entry of each sample until the cache fits again
+    private void evictIfFull() {
+        if (!isFull()) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            while (isFull()) {
+                Map.Entry<String, Entry> eldest = null;
+                for (int i = 0; i < EVICTION_SAMPLE; i++) {
+                    if (!sampler.hasNext()) {
+                        sampler = entries.entrySet().iterator();
+                        if (!sampler.hasNext()) {
+                            break;
+                        }
+                    }
+                    Map.Entry<String, Entry> candidate = sampler.next();
+                    if (eldest == null || candidate.getValue().lastUsed < eldest.getValue().lastUsed) {
+                        eldest = candidate;
+                    }
+                }
+                if (eldest == null) {
+                    return;
+                }
+                if (entries.remove(eldest.getKey(), eldest.getValue())) {
+                    bytes.addAndGet(-eldest.getValue().size);
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Entry {
+
+        final Diagram diagram;
+        final long size;
+        final long loadedAt;
+        // Written by every hit without a lock; a lost update only blurs the LRU order
+        volatile long lastUsed = System.nanoTime();
+
+        Entry(Diagram diagram, long size, long loadedAt) {
+            this.diagram = diagram;
+            this.size = size;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.drompincen.archviz.repository;
+
+import io.github.drompincen.archviz.model.DiagramHistoryEntry;
+import io.github.drompincen.archviz.model.DiagramVersionSummary;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface DiagramHistoryRepository {
+
+    // Replaces any entry already stored for the same id and version
+    void append(DiagramHistoryEntry entry);
+
+    // Oldest first, without entry contents
+    List<DiagramVersionSummary> findVersions(String id);
+
+    Optional<Integer> findLatestVersion(String id);
+
+    // The nearest snapshot at or before the version followed by the patches up to it, oldest first;
+    // empty when the version was never recorded or no snapshot precedes it
+    List<DiagramHistoryEntry> findChain(String id, int version);
+}
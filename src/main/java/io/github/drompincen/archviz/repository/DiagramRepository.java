@@ -1,17 +1,92 @@
 package io.github.drompincen.archviz.repository;
 
 import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.SummaryPage;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public interface DiagramRepository {
 
     Diagram save(Diagram diagram);
 
+    // Backends with a batch write path override this
+    default void saveAll(Collection<Diagram> diagrams) {
+        diagrams.forEach(this::save);
+    }
+
+    // Compare-and-set on version: writes only while the stored diagram is still at expectedVersion and
+    // throws VersionConflictException otherwise. This default checks before writing and is not atomic.
+    default Diagram save(Diagram diagram, int expectedVersion) {
+        int stored = findById(diagram.id()).map(Diagram::version).orElse(-1);
+        if (stored != expectedVersion) {
+            throw new VersionConflictException(diagram.id(), expectedVersion);
+        }
+        return save(diagram);
+    }
+
+    // Conditional like save(diagram, expectedVersion), for a diagram whose flow, version and updatedAt are the
+    // only changes since it was loaded. Backends that can update attributes in place override this.
+    default Diagram saveFlow(Diagram diagram, int expectedVersion) {
+        return save(diagram, expectedVersion);
+    }
+
     Optional<Diagram> findById(String id);
 
+    // In the order of ids, skipping ids that do not exist. Backends with a batch read path override this
+    default List<Diagram> findAllById(List<String> ids) {
+        List<Diagram> found = new ArrayList<>();
+        ids.forEach(id -> findById(id).ifPresent(found::add));
+        return found;
+    }
+
+    // Version and timestamp only, for answering conditional requests without reading the flow
+    Optional<DiagramRevision> findRevisionById(String id);
+
     List<Diagram> findAll(Optional<String> tag, Optional<String> query);
 
+    List<DiagramSummary> findSummaries(Optional<String> tag, Optional<String> query);
+
+    // Pages are ordered by a backend-stable key; afterId resumes strictly after the given id
+    SummaryPage findSummaryPage(Optional<String> tag, Optional<String> query, Optional<String> afterId, int limit);
+
     void deleteById(String id);
+
+    // Counters of this layer and the layers it wraps, one entry per layer that keeps any
+    default Map<String, Object> stats() {
+        return Map.of();
+    }
+
+    // Non-blocking variants. Blocking backends run the call on the caller's thread
+    // and return an already-completed future (failed if the call threw).
+
+    default CompletableFuture<Optional<Diagram>> findByIdAsync(String id) {
+        return CompletableFuture.supplyAsync(() -> findById(id), Runnable::run);
+    }
+
+    default CompletableFuture<Optional<DiagramRevision>> findRevisionByIdAsync(String id) {
+        return CompletableFuture.supplyAsync(() -> findRevisionById(id), Runnable::run);
+    }
+
+    default CompletableFuture<Diagram> saveAsync(Diagram diagram) {
+        return CompletableFuture.supplyAsync(() -> save(diagram), Runnable::run);
+    }
+
+    default CompletableFuture<Diagram> saveAsync(Diagram diagram, int expectedVersion) {
+        return CompletableFuture.supplyAsync(() -> save(diagram, expectedVersion), Runnable::run);
+    }
+
+    default CompletableFuture<Diagram> saveFlowAsync(Diagram diagram, int expectedVersion) {
+        return CompletableFuture.supplyAsync(() -> saveFlow(diagram, expectedVersion), Runnable::run);
+    }
+
+    default CompletableFuture<Void> deleteByIdAsync(String id) {
+        return CompletableFuture.runAsync(() -> deleteById(id), Runnable::run);
+    }
 }
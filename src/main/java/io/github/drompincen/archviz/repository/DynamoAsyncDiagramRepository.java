@@ -0,0 +1,238 @@
+package io.github.drompincen.archviz.repository;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Single-item reads and writes, including flow chunks, go through DynamoDbAsyncClient, so request threads are
+// released while DynamoDB answers. Table setup and listings (scans and tag queries) reuse the blocking implementation.
+public class DynamoAsyncDiagramRepository extends DynamoDiagramRepository {
+
+    private final DynamoDbAsyncClient asyncClient;
+
+    public DynamoAsyncDiagramRepository(DynamoDbClient client, DynamoDbAsyncClient asyncClient,
+                                        String tableName, int scanSegments) {
+        super(client, tableName, scanSegments);
+        this.asyncClient = asyncClient;
+    }
+
+    public DynamoAsyncDiagramRepository(DynamoDbClient client, DynamoDbAsyncClient asyncClient,
+                                        String tableName, int scanSegments, ThreadFactory scanThreads) {
+        super(client, tableName, scanSegments, scanThreads);
+        this.asyncClient = asyncClient;
+    }
+
+    public DynamoAsyncDiagramRepository(DynamoDbClient client, DynamoDbAsyncClient asyncClient,
+                                        String tableName, int scanSegments, ThreadFactory scanThreads,
+                                        FlowCodec flowCodec) {
+        super(client, tableName, scanSegments, scanThreads, flowCodec);
+        this.asyncClient = asyncClient;
+    }
+
+    @Override
+    public Diagram save(Diagram diagram) {
+        return await(saveAsync(diagram));
+    }
+
+    @Override
+    public Diagram save(Diagram diagram, int expectedVersion) {
+        return await(saveAsync(diagram, expectedVersion));
+    }
+
+    @Override
+    public Diagram saveFlow(Diagram diagram, int expectedVersion) {
+        return await(saveFlowAsync(diagram, expectedVersion));
+    }
+
+    @Override
+    public Optional<Diagram> findById(String id) {
+        return await(findByIdAsync(id));
+    }
+
+    @Override
+    public Optional<DiagramRevision> findRevisionById(String id) {
+        return await(findRevisionByIdAsync(id));
+    }
+
+    @Override
+    public void deleteById(String id) {
+        await(deleteByIdAsync(id));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Diagram>> findByIdAsync(String id) {
+        return asyncClient.getItem(GetItemRequest.builder()
+                        .tableName(tableName)
+                        .key(key(id))
+                        .build())
+                .thenCompose(response -> !response.hasItem() || response.item().isEmpty()
+                        ? CompletableFuture.completedFuture(Optional.<Diagram>empty())
+                        : toDiagramAsync(response.item()).thenApply(Optional::of));
+    }
+
+    @Override
+    public CompletableFuture<Optional<DiagramRevision>> findRevisionByIdAsync(String id) {
+        return asyncClient.getItem(GetItemRequest.builder()
+                        .tableName(tableName)
+                        .key(key(id))
+                        .projectionExpression(REVISION_PROJECTION.expression())
+                        .expressionAttributeNames(REVISION_PROJECTION.names())
+                        .build())
+                .thenApply(response -> !response.hasItem() || response.item().isEmpty()
+                        ? Optional.<DiagramRevision>empty()
+                        : Optional.of(toRevision(id, response.item())));
+    }
+
+    @Override
+    public CompletableFuture<Diagram> saveAsync(Diagram diagram) {
+        return putAsync(diagram, null);
+    }
+
+    @Override
+    public CompletableFuture<Diagram> saveAsync(Diagram diagram, int expectedVersion) {
+        return putAsync(diagram, expectedVersion);
+    }
+
+    private CompletableFuture<Diagram> putAsync(Diagram diagram, Integer expectedVersion) {
+        Map<String, AttributeValue> item = toItem(diagram);
+        List<WriteRequest> chunkPuts = chunkPuts(splitFlow(item));
+        return batchWriteAsync(chunkTableName, chunkPuts)
+                .thenCompose(v -> conflictOnFailedCondition(asyncClient.putItem(putRequest(item, expectedVersion)),
+                        diagram.id(), expectedVersion, item))
+                .thenCompose(response -> batchWriteAsync(tagTableName,
+                        tagIndexWrites(diagram.id(), tagsOf(response.attributes()), tagsOf(item)))
+                        .thenCompose(v -> batchWriteAsync(chunkTableName, chunkDeletes(response.attributes()))))
+                .thenApply(v -> diagram);
+    }
+
+    @Override
+    public CompletableFuture<Diagram> saveFlowAsync(Diagram diagram, int expectedVersion) {
+        Map<String, AttributeValue> attributes = flowAttributes(diagram);
+        List<WriteRequest> chunkPuts = chunkPuts(splitFlow(attributes));
+        return batchWriteAsync(chunkTableName, chunkPuts)
+                .thenCompose(v -> conflictOnFailedCondition(
+                        asyncClient.updateItem(flowUpdate(diagram, attributes, expectedVersion)),
+                        diagram.id(), expectedVersion, attributes))
+                .thenCompose(response -> batchWriteAsync(chunkTableName,
+                        chunkDeletes(replacedFlow(diagram.id(), response.attributes()))))
+                .thenApply(v -> diagram);
+    }
+
+    // A failed version condition becomes a VersionConflictException once the chunks written for it are deleted
+    private <T> CompletableFuture<T> conflictOnFailedCondition(CompletableFuture<T> write, String id,
+                                                               Integer expectedVersion,
+                                                               Map<String, AttributeValue> written) {
+        return write.exceptionallyCompose(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (!(cause instanceof ConditionalCheckFailedException) || expectedVersion == null) {
+                return CompletableFuture.failedFuture(cause);
+            }
+            return batchWriteAsync(chunkTableName, chunkDeletes(written))
+                    .thenCompose(v -> CompletableFuture.failedFuture(new VersionConflictException(id, expectedVersion)));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteByIdAsync(String id) {
+        return asyncClient.deleteItem(DeleteItemRequest.builder()
+                        .tableName(tableName)
+                        .key(key(id))
+                        .returnValues(ReturnValue.ALL_OLD)
+                        .build())
+                .thenCompose(response -> batchWriteAsync(tagTableName,
+                        tagIndexWrites(id, tagsOf(response.attributes()), Set.of()))
+                        .thenCompose(v -> batchWriteAsync(chunkTableName, chunkDeletes(response.attributes()))));
+    }
+
+    // Chunk groups of oversized flows are requested concurrently and reassembled once all have arrived
+    private CompletableFuture<Diagram> toDiagramAsync(Map<String, AttributeValue> item) {
+        List<List<Map<String, AttributeValue>>> groups = chunkKeyGroups(item);
+        if (groups.isEmpty()) {
+            return CompletableFuture.completedFuture(toDiagram(item, List.of()));
+        }
+        List<CompletableFuture<List<Map<String, AttributeValue>>>> fetches = new ArrayList<>();
+        for (List<Map<String, AttributeValue>> group : groups) {
+            fetches.add(readChunks(Map.of(chunkTableName, KeysAndAttributes.builder().keys(group).build()),
+                    new ArrayList<>(), 0));
+        }
+        return CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<Map<String, AttributeValue>> chunks = new ArrayList<>();
+            fetches.forEach(f -> chunks.addAll(f.join()));
+            return toDiagram(item, chunks);
+        });
+    }
+
+    private CompletableFuture<List<Map<String, AttributeValue>>> readChunks(
+            Map<String, KeysAndAttributes> request, List<Map<String, AttributeValue>> chunks, int attempt) {
+        return asyncClient.batchGetItem(BatchGetItemRequest.builder().requestItems(request).build())
+                .thenCompose(response -> {
+                    chunks.addAll(response.responses().getOrDefault(chunkTableName, List.of()));
+                    if (!response.hasUnprocessedKeys() || response.unprocessedKeys().isEmpty()) {
+                        return CompletableFuture.completedFuture(chunks);
+                    }
+                    int next = attempt + 1;
+                    if (next >= MAX_BATCH_ATTEMPTS) {
+                        return CompletableFuture.failedFuture(new RuntimeException(
+                                "BatchGetItem still has unprocessed keys after " + next + " attempts"));
+                    }
+                    return CompletableFuture.supplyAsync(() -> null,
+                                    CompletableFuture.delayedExecutor(backoffMillis(next), TimeUnit.MILLISECONDS))
+                            .thenCompose(v -> readChunks(response.unprocessedKeys(), chunks, next));
+                });
+    }
+
+    // Chunks are written one after another; unprocessed items are retried after a non-blocking delay
+    private CompletableFuture<Void> batchWriteAsync(String table, List<WriteRequest> writes) {
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < writes.size(); i += BATCH_WRITE_LIMIT) {
+            Map<String, List<WriteRequest>> chunk =
+                    Map.of(table, writes.subList(i, Math.min(i + BATCH_WRITE_LIMIT, writes.size())));
+            chain = chain.thenCompose(v -> writeChunk(chunk, 0));
+        }
+        return chain;
+    }
+
+    private CompletableFuture<Void> writeChunk(Map<String, List<WriteRequest>> request, int attempt) {
+        return asyncClient.batchWriteItem(BatchWriteItemRequest.builder().requestItems(request).build())
+                .thenCompose(response -> {
+                    if (!response.hasUnprocessedItems() || response.unprocessedItems().isEmpty()) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    int next = attempt + 1;
+                    if (next >= MAX_BATCH_ATTEMPTS) {
+                        return CompletableFuture.failedFuture(new RuntimeException(
+                                "BatchWriteItem still has unprocessed items after " + next + " attempts"));
+                    }
+                    return CompletableFuture.supplyAsync(() -> null,
+                                    CompletableFuture.delayedExecutor(backoffMillis(next), TimeUnit.MILLISECONDS))
+                            .thenCompose(v -> writeChunk(response.unprocessedItems(), next));
+                });
+    }
+
+    private static Map<String, AttributeValue> key(String id) {
+        return Map.of("id", AttributeValue.builder().s(id).build());
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package io.github.drompincen.archviz.repository;
+
+import io.github.drompincen.archviz.model.DiagramHistoryEntry;
+import io.github.drompincen.archviz.model.DiagramVersionSummary;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Versions in a <table>-history table (HASH id, RANGE version), so every lookup is a Query on one partition.
+// Snapshots and patches are encoded like diagram flows, so the configured flow format compresses them too, and
+// content still too large for one item is split into <table>-history-chunks the way oversized flows are.
+public class DynamoDiagramHistoryRepository implements DiagramHistoryRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(DynamoDiagramHistoryRepository.class);
+
+    // Chains are at most one snapshot interval long; a small page keeps an early snapshot from over-reading
+    private static final int CHAIN_PAGE_SIZE = 10;
+
+    private static final Map<String, String> SUMMARY_NAMES = Map.of(
+            "#version", "version", "#savedAt", "savedAt", "#title", "title", "#snapshot", "snapshot");
+
+    private final DynamoDbClient client;
+    private final String historyTableName;
+    final String chunkTableName;
+    private final FlowCodec codec;
+
+    public DynamoDiagramHistoryRepository(DynamoDbClient client, String tableName, FlowCodec codec) {
+        this.client = client;
+        this.historyTableName = tableName + "-history";
+        this.chunkTableName = historyTableName + "-chunks";
+        this.codec = codec;
+        ensureTableExists();
+        DynamoDiagramRepository.ensureCompanionTableExists(client, chunkTableName, "id", "chunk");
+    }
+
+    private void ensureTableExists() {
+        try {
+            client.describeTable(DescribeTableRequest.builder().tableName(historyTableName).build());
+        } catch (ResourceNotFoundException e) {
+            log.info("DynamoDB table '{}' not found, creating...", historyTableName);
+            client.createTable(CreateTableRequest.builder()
+                    .tableName(historyTableName)
+                    .keySchema(
+                            KeySchemaElement.builder().attributeName("id").keyType(KeyType.HASH).build(),
+                            KeySchemaElement.builder().attributeName("version").keyType(KeyType.RANGE).build())
+                    .attributeDefinitions(
+                            AttributeDefinition.builder().attributeName("id").attributeType(ScalarAttributeType.S).build(),
+                            AttributeDefinition.builder().attributeName("version").attributeType(ScalarAttributeType.N).build())
+                    .billingMode(BillingMode.PAY_PER_REQUEST)
+                    .build());
+
+            client.waiter().waitUntilTableExists(
+                    DescribeTableRequest.builder().tableName(historyTableName).build());
+            log.info("DynamoDB table '{}' created successfully", historyTableName);
+        }
+    }
+
+    @Override
+    public void append(DiagramHistoryEntry entry) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("id", AttributeValue.builder().s(entry.id()).build());
+        item.put("version", AttributeValue.builder().n(String.valueOf(entry.version())).build());
+        item.put("snapshot", AttributeValue.builder().bool(entry.snapshot()).build());
+        if (entry.savedAt() != null) {
+            item.put("savedAt", AttributeValue.builder().s(entry.savedAt().toString()).build());
+        }
+        if (entry.title() != null) {
+            item.put("title", AttributeValue.builder().s(entry.title()).build());
+        }
+        codec.write(entry.content(), item);
+        // Chunks go first, so a stored entry never points at missing ones; a failed put removes them again.
+        // An entry recorded again for the same version replaces the old item, whose chunks are then deleted
+        List<Map<String, AttributeValue>> chunks = DynamoDiagramRepository.splitFlow(item);
+        DynamoDiagramRepository.batchWrite(client, chunkTableName, DynamoDiagramRepository.chunkPuts(chunks));
+        PutItemResponse response;
+        try {
+            response = client.putItem(PutItemRequest.builder()
+                    .tableName(historyTableName)
+                    .item(item)
+                    .returnValues(ReturnValue.ALL_OLD)
+                    .build());
+        } catch (RuntimeException e) {
+            DynamoDiagramRepository.batchWrite(client, chunkTableName, DynamoDiagramRepository.chunkDeletes(item));
+            throw e;
+        }
+        DynamoDiagramRepository.batchWrite(client, chunkTableName,
+                DynamoDiagramRepository.chunkDeletes(response.attributes()));
+    }
+
+    @Override
+    public List<DiagramVersionSummary> findVersions(String id) {
+        List<DiagramVersionSummary> versions = new ArrayList<>();
+        Map<String, AttributeValue> startKey = null;
+        do {
+            QueryResponse page = client.query(query(id, SUMMARY_NAMES)
+                    .projectionExpression("#version, #savedAt, #title, #snapshot")
+                    .exclusiveStartKey(startKey)
+                    .build());
+            for (Map<String, AttributeValue> item : page.items()) {
+                versions.add(new DiagramVersionSummary(version(item), savedAt(item),
+                        item.containsKey("title") ? item.get("title").s() : null, item.get("snapshot").bool()));
+            }
+            startKey = page.hasLastEvaluatedKey() && !page.lastEvaluatedKey().isEmpty()
+                    ? page.lastEvaluatedKey() : null;
+        } while (startKey != null);
+        return versions;
+    }
+
+    @Override
+    public Optional<Integer> findLatestVersion(String id) {
+        QueryResponse page = client.query(query(id, Map.of("#version", "version"))
+                .scanIndexForward(false)
+                .limit(1)
+                .projectionExpression("#version")
+                .build());
+        return page.items().stream().findFirst().map(DynamoDiagramHistoryRepository::version);
+    }
+
+    // Walks backwards from the version until it reaches a snapshot
+    @Override
+    public List<DiagramHistoryEntry> findChain(String id, int version) {
+        List<DiagramHistoryEntry> chain = new ArrayList<>();
+        int expected = version;
+        Map<String, AttributeValue> startKey = null;
+        do {
+            QueryResponse page = client.query(QueryRequest.builder()
+                    .tableName(historyTableName)
+                    .keyConditionExpression("#id = :id AND #version <= :version")
+                    .expressionAttributeNames(Map.of("#id", "id", "#version", "version"))
+                    .expressionAttributeValues(Map.of(
+                            ":id", AttributeValue.builder().s(id).build(),
+                            ":version", AttributeValue.builder().n(String.valueOf(version)).build()))
+                    .scanIndexForward(false)
+                    .limit(CHAIN_PAGE_SIZE)
+                    .exclusiveStartKey(startKey)
+                    .build());
+            for (Map<String, AttributeValue> item : page.items()) {
+                // A gap means a patch whose base was never recorded
+                if (version(item) != expected--) {
+                    return List.of();
+                }
+                DiagramHistoryEntry entry = toEntry(item);
+                chain.add(entry);
+                if (entry.snapshot()) {
+                    Collections.reverse(chain);
+                    return chain;
+                }
+            }
+            startKey = page.hasLastEvaluatedKey() && !page.lastEvaluatedKey().isEmpty()
+                    ? page.lastEvaluatedKey() : null;
+        } while (startKey != null);
+        return List.of();
+    }
+
+    private QueryRequest.Builder query(String id, Map<String, String> projectionNames) {
+        Map<String, String> names = new HashMap<>(projectionNames);
+        names.put("#id", "id");
+        return QueryRequest.builder()
+                .tableName(historyTableName)
+                .keyConditionExpression("#id = :id")
+                .expressionAttributeNames(names)
+                .expressionAttributeValues(Map.of(":id", AttributeValue.builder().s(id).build()));
+    }
+
+    private DiagramHistoryEntry toEntry(Map<String, AttributeValue> item) {
+        return new DiagramHistoryEntry(
+                item.get("id").s(),
+                version(item),
+                savedAt(item),
+                item.containsKey("title") ? item.get("title").s() : null,
+                item.get("snapshot").bool(),
+                content(item));
+    }
+
+    private JsonNode content(Map<String, AttributeValue> item) {
+        if (!item.containsKey(DynamoDiagramRepository.CHUNK_SET_ATTRIBUTE)) {
+            return codec.read(item);
+        }
+        List<Map<String, AttributeValue>> chunks = new ArrayList<>();
+        for (List<Map<String, AttributeValue>> group : DynamoDiagramRepository.chunkKeyGroups(item)) {
+            chunks.addAll(DynamoDiagramRepository.batchGetKeys(client, chunkTableName, group, null,
+                    DynamoDiagramRepository.CHUNK_GET_LIMIT));
+        }
+        return DynamoDiagramRepository.assembleFlow(codec, item, chunks);
+    }
+
+    private static int version(Map<String, AttributeValue> item) {
+        return Integer.parseInt(item.get("version").n());
+    }
+
+    private static Instant savedAt(Map<String, AttributeValue> item) {
+        return item.containsKey("savedAt") ? Instant.parse(item.get("savedAt").s()) : null;
+    }
+}
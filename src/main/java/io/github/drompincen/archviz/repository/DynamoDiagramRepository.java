@@ -1,31 +1,105 @@
 package io.github.drompincen.archviz.repository;
 
 import io.github.drompincen.archviz.model.Diagram;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.SummaryPage;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.stream.Collectors;
 
-public class DynamoDiagramRepository implements DiagramRepository {
+public class DynamoDiagramRepository implements DiagramRepository, AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(DynamoDiagramRepository.class);
 
+    static final int DEFAULT_SCAN_SEGMENTS = 4;
+
+    static final int BATCH_WRITE_LIMIT = 25;
+    private static final int BATCH_GET_LIMIT = 100;
+    static final int MAX_BATCH_ATTEMPTS = 8;
+
+    // Encoded flows above this size move to the chunk table, keeping diagram items under the 400 KB cap
+    static final int CHUNK_BYTES = 300 * 1024;
+    // Keeps one BatchGetItem of chunks well inside its 16 MB response limit
+    static final int CHUNK_GET_LIMIT = 16;
+    static final String CHUNK_SET_ATTRIBUTE = "flowChunkSet";
+    static final String CHUNK_COUNT_ATTRIBUTE = "flowChunks";
+
+    private static final Projection SUMMARY_PROJECTION = new Projection(
+            "#id, #title, #description, #tags, #version",
+            Map.of("#id", "id", "#title", "title", "#description", "description",
+                    "#tags", "tags", "#version", "version"));
+
+    static final Projection REVISION_PROJECTION = new Projection(
+            "#id, #version, #updatedAt",
+            Map.of("#id", "id", "#version", "version", "#updatedAt", "updatedAt"));
+
+    // What a write needs from the item it replaces: tags to unindex and chunks to delete
+    private static final Projection PREVIOUS_PROJECTION = new Projection(
+            "#id, #tags, #chunkSet, #chunks",
+            Map.of("#id", "id", "#tags", "tags", "#chunkSet", CHUNK_SET_ATTRIBUTE, "#chunks", CHUNK_COUNT_ATTRIBUTE));
+
+    // Everything a flow is stored in; an in-place flow update sets the ones it writes and removes the rest
+    private static final List<String> FLOW_ATTRIBUTES = List.of(
+            FlowCodec.FLOW_ATTRIBUTE, FlowCodec.FORMAT_ATTRIBUTE, CHUNK_SET_ATTRIBUTE, CHUNK_COUNT_ATTRIBUTE);
+
     private final DynamoDbClient client;
-    private final String tableName;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    final String tableName;
+    // Denormalized tag -> diagram id items (HASH tag, RANGE id), so a tag filter is a Query
+    final String tagTableName;
+    // Oversized flows as ordered chunk items (HASH id, RANGE chunk), so one diagram stays in one partition
+    final String chunkTableName;
+    private final int scanSegments;
+    private final ExecutorService scanExecutor;
+    private final FlowCodec flowCodec;
 
     public DynamoDiagramRepository(DynamoDbClient client, String tableName) {
+        this(client, tableName, DEFAULT_SCAN_SEGMENTS);
+    }
+
+    public DynamoDiagramRepository(DynamoDbClient client, String tableName, int scanSegments) {
+        this(client, tableName, scanSegments, r -> {
+            Thread t = new Thread(r, "dynamo-scan");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public DynamoDiagramRepository(DynamoDbClient client, String tableName, int scanSegments,
+                                   ThreadFactory scanThreads) {
+        this(client, tableName, scanSegments, scanThreads, new FlowCodec(FlowCodec.Format.JSON));
+    }
+
+    public DynamoDiagramRepository(DynamoDbClient client, String tableName, int scanSegments,
+                                   ThreadFactory scanThreads, FlowCodec flowCodec) {
         this.client = client;
         this.tableName = tableName;
+        this.tagTableName = tableName + "-tags";
+        this.chunkTableName = tableName + "-chunks";
+        this.scanSegments = Math.max(1, scanSegments);
+        this.flowCodec = flowCodec;
+        this.scanExecutor = Executors.newFixedThreadPool(this.scanSegments, scanThreads);
         ensureTableExists();
+        if (ensureCompanionTableExists(tagTableName, "tag", "id")) {
+            rebuildTagIndex();
+        }
+        ensureCompanionTableExists(chunkTableName, "id", "chunk");
     }
 
     private void ensureTableExists() {
@@ -53,16 +127,138 @@ public class DynamoDiagramRepository implements DiagramRepository {
         }
     }
 
+    private boolean ensureCompanionTableExists(String table, String hashKey, String rangeKey) {
+        return ensureCompanionTableExists(client, table, hashKey, rangeKey);
+    }
+
+    // Returns true when the table had to be created, e.g. so the tag index can be backfilled
+    static boolean ensureCompanionTableExists(DynamoDbClient client, String table, String hashKey, String rangeKey) {
+        try {
+            client.describeTable(DescribeTableRequest.builder().tableName(table).build());
+            return false;
+        } catch (ResourceNotFoundException e) {
+            log.info("DynamoDB table '{}' not found, creating...", table);
+            client.createTable(CreateTableRequest.builder()
+                    .tableName(table)
+                    .keySchema(
+                            KeySchemaElement.builder().attributeName(hashKey).keyType(KeyType.HASH).build(),
+                            KeySchemaElement.builder().attributeName(rangeKey).keyType(KeyType.RANGE).build())
+                    .attributeDefinitions(
+                            AttributeDefinition.builder().attributeName(hashKey).attributeType(ScalarAttributeType.S).build(),
+                            AttributeDefinition.builder().attributeName(rangeKey).attributeType(ScalarAttributeType.S).build())
+                    .billingMode(BillingMode.PAY_PER_REQUEST)
+                    .build());
+
+            client.waiter().waitUntilTableExists(
+                    DescribeTableRequest.builder().tableName(table).build());
+            log.info("DynamoDB table '{}' created successfully", table);
+            return true;
+        }
+    }
+
+    private void rebuildTagIndex() {
+        int entries = 0;
+        Map<String, AttributeValue> startKey = null;
+        do {
+            ScanResponse page = client.scan(ScanRequest.builder()
+                    .tableName(tableName)
+                    .projectionExpression("#id, #tags")
+                    .expressionAttributeNames(Map.of("#id", "id", "#tags", "tags"))
+                    .exclusiveStartKey(startKey)
+                    .build());
+            List<WriteRequest> puts = new ArrayList<>();
+            for (Map<String, AttributeValue> item : page.items()) {
+                for (String tag : tagsOf(item)) {
+                    puts.add(tagPut(tag, item.get("id").s()));
+                }
+            }
+            batchWrite(tagTableName, puts);
+            entries += puts.size();
+            startKey = page.hasLastEvaluatedKey() && !page.lastEvaluatedKey().isEmpty()
+                    ? page.lastEvaluatedKey() : null;
+        } while (startKey != null);
+
+        if (entries > 0) {
+            log.info("Backfilled {} tag index entries into '{}'", entries, tagTableName);
+        }
+    }
+
+    // Chunks are written under a fresh chunk set before the item that points at them, and the previous
+    // set is deleted afterwards, so readers never see a half-written flow
     @Override
     public Diagram save(Diagram diagram) {
+        return put(diagram, null);
+    }
+
+    // PutItem conditioned on the stored version; a failed condition deletes the chunks written for it
+    @Override
+    public Diagram save(Diagram diagram, int expectedVersion) {
+        return put(diagram, expectedVersion);
+    }
+
+    private Diagram put(Diagram diagram, Integer expectedVersion) {
         Map<String, AttributeValue> item = toItem(diagram);
-        client.putItem(PutItemRequest.builder()
-                .tableName(tableName)
-                .item(item)
-                .build());
+        batchWrite(chunkTableName, chunkPuts(splitFlow(item)));
+        PutItemResponse response;
+        try {
+            response = client.putItem(putRequest(item, expectedVersion));
+        } catch (ConditionalCheckFailedException e) {
+            batchWrite(chunkTableName, chunkDeletes(item));
+            throw new VersionConflictException(diagram.id(), expectedVersion);
+        }
+        updateTagIndex(diagram.id(), tagsOf(response.attributes()), tagsOf(item));
+        batchWrite(chunkTableName, chunkDeletes(response.attributes()));
         return diagram;
     }
 
+    // UpdateItem of the flow, version and updatedAt only, leaving the other attributes and the tag index alone
+    @Override
+    public Diagram saveFlow(Diagram diagram, int expectedVersion) {
+        Map<String, AttributeValue> attributes = flowAttributes(diagram);
+        batchWrite(chunkTableName, chunkPuts(splitFlow(attributes)));
+        UpdateItemResponse response;
+        try {
+            response = client.updateItem(flowUpdate(diagram, attributes, expectedVersion));
+        } catch (ConditionalCheckFailedException e) {
+            batchWrite(chunkTableName, chunkDeletes(attributes));
+            throw new VersionConflictException(diagram.id(), expectedVersion);
+        }
+        batchWrite(chunkTableName, chunkDeletes(replacedFlow(diagram.id(), response.attributes())));
+        return diagram;
+    }
+
+    // BatchWriteItem has no ALL_OLD, so previous tags are read up front with one BatchGetItem per 100 ids
+    @Override
+    public void saveAll(Collection<Diagram> diagrams) {
+        // A batch may not contain the same key twice; the last diagram for an id wins
+        Map<String, Diagram> byId = new LinkedHashMap<>();
+        diagrams.forEach(d -> byId.put(d.id(), d));
+        if (byId.isEmpty()) {
+            return;
+        }
+        Map<String, Map<String, AttributeValue>> previous = new HashMap<>();
+        for (Map<String, AttributeValue> item : batchGet(new ArrayList<>(byId.keySet()), PREVIOUS_PROJECTION)) {
+            previous.put(item.get("id").s(), item);
+        }
+
+        List<WriteRequest> chunkPuts = new ArrayList<>();
+        List<WriteRequest> puts = new ArrayList<>();
+        List<WriteRequest> tagWrites = new ArrayList<>();
+        List<WriteRequest> chunkDeletes = new ArrayList<>();
+        for (Diagram d : byId.values()) {
+            Map<String, AttributeValue> item = toItem(d);
+            chunkPuts.addAll(chunkPuts(splitFlow(item)));
+            puts.add(WriteRequest.builder().putRequest(PutRequest.builder().item(item).build()).build());
+            Map<String, AttributeValue> old = previous.get(d.id());
+            tagWrites.addAll(tagIndexWrites(d.id(), tagsOf(old), tagsOf(item)));
+            chunkDeletes.addAll(chunkDeletes(old));
+        }
+        batchWrite(chunkTableName, chunkPuts);
+        batchWrite(tableName, puts);
+        batchWrite(tagTableName, tagWrites);
+        batchWrite(chunkTableName, chunkDeletes);
+    }
+
     @Override
     public Optional<Diagram> findById(String id) {
         GetItemResponse response = client.getItem(GetItemRequest.builder()
@@ -75,117 +271,596 @@ public class DynamoDiagramRepository implements DiagramRepository {
         return Optional.of(toDiagram(response.item()));
     }
 
+    // One BatchGetItem per 100 ids; chunked flows are fetched per diagram as in findById
     @Override
-    public List<Diagram> findAll(Optional<String> tag, Optional<String> query) {
-        ScanRequest.Builder scanBuilder = ScanRequest.builder().tableName(tableName);
-
-        List<String> filterParts = new ArrayList<>();
-        Map<String, AttributeValue> exprValues = new HashMap<>();
-
-        if (tag.isPresent()) {
-            filterParts.add("contains(tags, :tagVal)");
-            exprValues.put(":tagVal", AttributeValue.builder().s(tag.get()).build());
-        }
-        if (query.isPresent()) {
-            filterParts.add("(contains(title, :qVal) OR contains(description, :qVal))");
-            exprValues.put(":qVal", AttributeValue.builder().s(query.get()).build());
+    public List<Diagram> findAllById(List<String> ids) {
+        Map<String, Diagram> byId = new HashMap<>();
+        for (Map<String, AttributeValue> item : batchGet(ids.stream().distinct().collect(Collectors.toList()), null)) {
+            Diagram d = toDiagram(item);
+            byId.put(d.id(), d);
         }
+        return ids.stream().map(byId::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
 
-        if (!filterParts.isEmpty()) {
-            scanBuilder.filterExpression(String.join(" AND ", filterParts));
-            scanBuilder.expressionAttributeValues(exprValues);
+    @Override
+    public Optional<DiagramRevision> findRevisionById(String id) {
+        GetItemResponse response = client.getItem(GetItemRequest.builder()
+                .tableName(tableName)
+                .key(Map.of("id", AttributeValue.builder().s(id).build()))
+                .projectionExpression(REVISION_PROJECTION.expression())
+                .expressionAttributeNames(REVISION_PROJECTION.names())
+                .build());
+        if (!response.hasItem() || response.item().isEmpty()) {
+            return Optional.empty();
         }
+        return Optional.of(toRevision(id, response.item()));
+    }
 
-        ScanResponse response = client.scan(scanBuilder.build());
-        return response.items().stream()
+    @Override
+    public List<Diagram> findAll(Optional<String> tag, Optional<String> query) {
+        return findItems(tag, query, null).stream()
                 .map(this::toDiagram)
                 .collect(Collectors.toList());
     }
 
+    // Projects away the flow attribute, so listing cost does not depend on diagram size
+    @Override
+    public List<DiagramSummary> findSummaries(Optional<String> tag, Optional<String> query) {
+        return findItems(tag, query, SUMMARY_PROJECTION).stream()
+                .map(DynamoDiagramRepository::toSummary)
+                .collect(Collectors.toList());
+    }
+
+    // Resumes from the native key order: the tag index sort key, or the table's scan order
+    @Override
+    public SummaryPage findSummaryPage(Optional<String> tag, Optional<String> query,
+                                       Optional<String> afterId, int limit) {
+        if (tag.isPresent()) {
+            return findSummaryPageByTag(tag.get(), query, afterId, limit);
+        }
+        // One item past the page tells whether a cursor is worth returning
+        List<DiagramSummary> items = new ArrayList<>();
+        Map<String, AttributeValue> startKey = afterId
+                .map(id -> Map.of("id", AttributeValue.builder().s(id).build()))
+                .orElse(null);
+        do {
+            ScanRequest.Builder scanBuilder = ScanRequest.builder()
+                    .tableName(tableName)
+                    .projectionExpression(SUMMARY_PROJECTION.expression())
+                    .expressionAttributeNames(SUMMARY_PROJECTION.names())
+                    .exclusiveStartKey(startKey)
+                    .limit(limit + 1);
+            if (query.isPresent()) {
+                scanBuilder.filterExpression("contains(title, :qVal) OR contains(description, :qVal)");
+                scanBuilder.expressionAttributeValues(Map.of(":qVal", AttributeValue.builder().s(query.get()).build()));
+            }
+            ScanResponse page = client.scan(scanBuilder.build());
+            for (Map<String, AttributeValue> item : page.items()) {
+                if (items.size() == limit) {
+                    return new SummaryPage(items, items.get(limit - 1).id());
+                }
+                items.add(toSummary(item));
+            }
+            startKey = page.hasLastEvaluatedKey() && !page.lastEvaluatedKey().isEmpty()
+                    ? page.lastEvaluatedKey() : null;
+        } while (startKey != null);
+        return new SummaryPage(items, null);
+    }
+
     @Override
     public void deleteById(String id) {
-        client.deleteItem(DeleteItemRequest.builder()
+        DeleteItemResponse response = client.deleteItem(DeleteItemRequest.builder()
                 .tableName(tableName)
                 .key(Map.of("id", AttributeValue.builder().s(id).build()))
+                .returnValues(ReturnValue.ALL_OLD)
                 .build());
+        updateTagIndex(id, tagsOf(response.attributes()), Set.of());
+        batchWrite(chunkTableName, chunkDeletes(response.attributes()));
+    }
+
+    @Override
+    public void close() {
+        scanExecutor.shutdownNow();
+    }
+
+    private List<Map<String, AttributeValue>> findItems(Optional<String> tag, Optional<String> query,
+                                                       Projection projection) {
+        if (tag.isPresent()) {
+            return findItemsByTag(tag.get(), query, projection);
+        }
+        return parallelScan(query, projection);
+    }
+
+    // Query the tag index, then fetch only the matching diagrams
+    private List<Map<String, AttributeValue>> findItemsByTag(String tag, Optional<String> query,
+                                                            Projection projection) {
+        List<String> ids = new ArrayList<>();
+        Map<String, AttributeValue> startKey = null;
+        do {
+            QueryResponse page = client.query(QueryRequest.builder()
+                    .tableName(tagTableName)
+                    .keyConditionExpression("#tag = :tag")
+                    .expressionAttributeNames(Map.of("#tag", "tag"))
+                    .expressionAttributeValues(Map.of(":tag", AttributeValue.builder().s(tag).build()))
+                    .exclusiveStartKey(startKey)
+                    .build());
+            page.items().forEach(item -> ids.add(item.get("id").s()));
+            startKey = page.hasLastEvaluatedKey() && !page.lastEvaluatedKey().isEmpty()
+                    ? page.lastEvaluatedKey() : null;
+        } while (startKey != null);
+
+        // Re-check the tag so an index entry that lags a concurrent save is never surfaced
+        return batchGet(ids, projection).stream()
+                .filter(item -> tagsOf(item).contains(tag))
+                .filter(item -> query.map(q -> contains(item, "title", q) || contains(item, "description", q)).orElse(true))
+                .collect(Collectors.toList());
     }
 
-    private Map<String, AttributeValue> toItem(Diagram d) {
+    private SummaryPage findSummaryPageByTag(String tag, Optional<String> query,
+                                             Optional<String> afterId, int limit) {
+        List<DiagramSummary> items = new ArrayList<>();
+        Map<String, AttributeValue> startKey = afterId.map(id -> tagKey(tag, id)).orElse(null);
+        do {
+            QueryResponse page = client.query(QueryRequest.builder()
+                    .tableName(tagTableName)
+                    .keyConditionExpression("#tag = :tag")
+                    .expressionAttributeNames(Map.of("#tag", "tag"))
+                    .expressionAttributeValues(Map.of(":tag", AttributeValue.builder().s(tag).build()))
+                    .exclusiveStartKey(startKey)
+                    .limit(limit + 1)
+                    .build());
+            List<String> ids = page.items().stream().map(item -> item.get("id").s()).collect(Collectors.toList());
+            Map<String, Map<String, AttributeValue>> byId = batchGet(ids, SUMMARY_PROJECTION).stream()
+                    .collect(Collectors.toMap(item -> item.get("id").s(), item -> item));
+            for (String id : ids) {
+                Map<String, AttributeValue> item = byId.get(id);
+                if (item == null || !tagsOf(item).contains(tag)) continue;
+                if (query.isPresent() && !contains(item, "title", query.get())
+                        && !contains(item, "description", query.get())) continue;
+                if (items.size() == limit) {
+                    return new SummaryPage(items, items.get(limit - 1).id());
+                }
+                items.add(toSummary(item));
+            }
+            startKey = page.hasLastEvaluatedKey() && !page.lastEvaluatedKey().isEmpty()
+                    ? page.lastEvaluatedKey() : null;
+        } while (startKey != null);
+        return new SummaryPage(items, null);
+    }
+
+    private List<Map<String, AttributeValue>> parallelScan(Optional<String> query, Projection projection) {
+        List<CompletableFuture<List<Map<String, AttributeValue>>>> segments = new ArrayList<>();
+        for (int segment = 0; segment < scanSegments; segment++) {
+            int s = segment;
+            segments.add(CompletableFuture.supplyAsync(() -> scanSegment(s, query, projection), scanExecutor));
+        }
+        List<Map<String, AttributeValue>> result = new ArrayList<>();
+        try {
+            segments.forEach(f -> result.addAll(f.join()));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    private List<Map<String, AttributeValue>> scanSegment(int segment, Optional<String> query, Projection projection) {
+        List<Map<String, AttributeValue>> result = new ArrayList<>();
+        Map<String, AttributeValue> startKey = null;
+        do {
+            ScanRequest.Builder scanBuilder = ScanRequest.builder()
+                    .tableName(tableName)
+                    .segment(segment)
+                    .totalSegments(scanSegments)
+                    .exclusiveStartKey(startKey);
+            if (projection != null) {
+                scanBuilder.projectionExpression(projection.expression());
+                scanBuilder.expressionAttributeNames(projection.names());
+            }
+            if (query.isPresent()) {
+                scanBuilder.filterExpression("contains(title, :qVal) OR contains(description, :qVal)");
+                scanBuilder.expressionAttributeValues(Map.of(":qVal", AttributeValue.builder().s(query.get()).build()));
+            }
+            ScanResponse page = client.scan(scanBuilder.build());
+            result.addAll(page.items());
+            startKey = page.hasLastEvaluatedKey() && !page.lastEvaluatedKey().isEmpty()
+                    ? page.lastEvaluatedKey() : null;
+        } while (startKey != null);
+        return result;
+    }
+
+    private List<Map<String, AttributeValue>> batchGet(List<String> ids, Projection projection) {
+        List<Map<String, AttributeValue>> keys = ids.stream()
+                .map(id -> Map.of("id", AttributeValue.builder().s(id).build()))
+                .collect(Collectors.toList());
+        return batchGetKeys(tableName, keys, projection, BATCH_GET_LIMIT);
+    }
+
+    private List<Map<String, AttributeValue>> batchGetKeys(String table, List<Map<String, AttributeValue>> keys,
+                                                           Projection projection, int batchSize) {
+        return batchGetKeys(client, table, keys, projection, batchSize);
+    }
+
+    static List<Map<String, AttributeValue>> batchGetKeys(DynamoDbClient client, String table,
+                                                          List<Map<String, AttributeValue>> keys,
+                                                          Projection projection, int batchSize) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i += batchSize) {
+            KeysAndAttributes.Builder keysAndAttributes = KeysAndAttributes.builder()
+                    .keys(keys.subList(i, Math.min(i + batchSize, keys.size())));
+            if (projection != null) {
+                keysAndAttributes.projectionExpression(projection.expression());
+                keysAndAttributes.expressionAttributeNames(projection.names());
+            }
+            Map<String, KeysAndAttributes> request = Map.of(table, keysAndAttributes.build());
+            for (int attempt = 0; !request.isEmpty(); attempt++) {
+                if (attempt > 0) {
+                    backoff(attempt, "BatchGetItem");
+                }
+                BatchGetItemResponse response = client.batchGetItem(BatchGetItemRequest.builder()
+                        .requestItems(request)
+                        .build());
+                items.addAll(response.responses().getOrDefault(table, List.of()));
+                request = response.hasUnprocessedKeys() ? response.unprocessedKeys() : Map.of();
+            }
+        }
+        return items;
+    }
+
+    // Chunk groups are fetched concurrently; a single group stays on the caller's thread
+    private List<Map<String, AttributeValue>> fetchChunks(Map<String, AttributeValue> item) {
+        List<List<Map<String, AttributeValue>>> groups = chunkKeyGroups(item);
+        if (groups.size() <= 1) {
+            return groups.isEmpty() ? List.of() : batchGetKeys(chunkTableName, groups.get(0), null, CHUNK_GET_LIMIT);
+        }
+        List<CompletableFuture<List<Map<String, AttributeValue>>>> fetches = new ArrayList<>();
+        for (List<Map<String, AttributeValue>> group : groups) {
+            fetches.add(CompletableFuture.supplyAsync(
+                    () -> batchGetKeys(chunkTableName, group, null, CHUNK_GET_LIMIT), scanExecutor));
+        }
+        List<Map<String, AttributeValue>> chunks = new ArrayList<>();
+        try {
+            fetches.forEach(f -> chunks.addAll(f.join()));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+        return chunks;
+    }
+
+    private void batchWrite(String table, List<WriteRequest> writes) {
+        batchWrite(client, table, writes);
+    }
+
+    static void batchWrite(DynamoDbClient client, String table, List<WriteRequest> writes) {
+        for (int i = 0; i < writes.size(); i += BATCH_WRITE_LIMIT) {
+            Map<String, List<WriteRequest>> request =
+                    Map.of(table, writes.subList(i, Math.min(i + BATCH_WRITE_LIMIT, writes.size())));
+            for (int attempt = 0; !request.isEmpty(); attempt++) {
+                if (attempt > 0) {
+                    backoff(attempt, "BatchWriteItem");
+                }
+                BatchWriteItemResponse response = client.batchWriteItem(BatchWriteItemRequest.builder()
+                        .requestItems(request)
+                        .build());
+                request = response.hasUnprocessedItems() ? response.unprocessedItems() : Map.of();
+            }
+        }
+    }
+
+    private static void backoff(int attempt, String operation) {
+        if (attempt >= MAX_BATCH_ATTEMPTS) {
+            throw new RuntimeException(operation + " still has unprocessed items after " + attempt + " attempts");
+        }
+        try {
+            Thread.sleep(backoffMillis(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(operation + " interrupted", e);
+        }
+    }
+
+    static long backoffMillis(int attempt) {
+        return Math.min(1000L, 25L << attempt);
+    }
+
+    private void updateTagIndex(String id, Set<String> oldTags, Set<String> newTags) {
+        List<WriteRequest> writes = tagIndexWrites(id, oldTags, newTags);
+        if (!writes.isEmpty()) {
+            batchWrite(tagTableName, writes);
+        }
+    }
+
+    static List<WriteRequest> tagIndexWrites(String id, Set<String> oldTags, Set<String> newTags) {
+        List<WriteRequest> writes = new ArrayList<>();
+        for (String tag : newTags) {
+            if (!oldTags.contains(tag)) {
+                writes.add(tagPut(tag, id));
+            }
+        }
+        for (String tag : oldTags) {
+            if (!newTags.contains(tag)) {
+                writes.add(WriteRequest.builder()
+                        .deleteRequest(DeleteRequest.builder().key(tagKey(tag, id)).build())
+                        .build());
+            }
+        }
+        return writes;
+    }
+
+    private static WriteRequest tagPut(String tag, String id) {
+        return WriteRequest.builder()
+                .putRequest(PutRequest.builder().item(tagKey(tag, id)).build())
+                .build();
+    }
+
+    private static Map<String, AttributeValue> tagKey(String tag, String id) {
+        return Map.of(
+                "tag", AttributeValue.builder().s(tag).build(),
+                "id", AttributeValue.builder().s(id).build());
+    }
+
+    // Moves an oversized flow out of the item and returns the chunk items that must be written first
+    static List<Map<String, AttributeValue>> splitFlow(Map<String, AttributeValue> item) {
+        AttributeValue flow = item.get(FlowCodec.FLOW_ATTRIBUTE);
+        if (flow == null) {
+            return List.of();
+        }
+        byte[] encoded = FlowCodec.bytesOf(flow);
+        if (encoded.length <= CHUNK_BYTES) {
+            return List.of();
+        }
+        String id = item.get("id").s();
+        String chunkSet = UUID.randomUUID().toString();
+        List<Map<String, AttributeValue>> chunks = new ArrayList<>();
+        for (int offset = 0, seq = 0; offset < encoded.length; offset += CHUNK_BYTES, seq++) {
+            byte[] data = Arrays.copyOfRange(encoded, offset, Math.min(offset + CHUNK_BYTES, encoded.length));
+            chunks.add(Map.of(
+                    "id", AttributeValue.builder().s(id).build(),
+                    "chunk", AttributeValue.builder().s(chunkKey(chunkSet, seq)).build(),
+                    "data", AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(data)).build()));
+        }
+        item.remove(FlowCodec.FLOW_ATTRIBUTE);
+        item.put(FlowCodec.FORMAT_ATTRIBUTE, AttributeValue.builder().s(FlowCodec.formatOf(item).marker()).build());
+        item.put(CHUNK_SET_ATTRIBUTE, AttributeValue.builder().s(chunkSet).build());
+        item.put(CHUNK_COUNT_ATTRIBUTE, AttributeValue.builder().n(String.valueOf(chunks.size())).build());
+        return chunks;
+    }
+
+    // Keys of the item's chunks, in order and grouped per BatchGetItem; empty for single-item diagrams
+    static List<List<Map<String, AttributeValue>>> chunkKeyGroups(Map<String, AttributeValue> item) {
+        List<Map<String, AttributeValue>> keys = chunkKeys(item);
+        List<List<Map<String, AttributeValue>>> groups = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i += CHUNK_GET_LIMIT) {
+            groups.add(keys.subList(i, Math.min(i + CHUNK_GET_LIMIT, keys.size())));
+        }
+        return groups;
+    }
+
+    static List<WriteRequest> chunkPuts(List<Map<String, AttributeValue>> chunks) {
+        return chunks.stream()
+                .map(chunk -> WriteRequest.builder().putRequest(PutRequest.builder().item(chunk).build()).build())
+                .collect(Collectors.toList());
+    }
+
+    // Deletes for the chunks a replaced or deleted item pointed at
+    static List<WriteRequest> chunkDeletes(Map<String, AttributeValue> previous) {
+        return chunkKeys(previous).stream()
+                .map(key -> WriteRequest.builder().deleteRequest(DeleteRequest.builder().key(key).build()).build())
+                .collect(Collectors.toList());
+    }
+
+    private static List<Map<String, AttributeValue>> chunkKeys(Map<String, AttributeValue> item) {
+        if (item == null || !item.containsKey(CHUNK_SET_ATTRIBUTE) || !item.containsKey(CHUNK_COUNT_ATTRIBUTE)) {
+            return List.of();
+        }
+        String id = item.get("id").s();
+        String chunkSet = item.get(CHUNK_SET_ATTRIBUTE).s();
+        int count = Integer.parseInt(item.get(CHUNK_COUNT_ATTRIBUTE).n());
+        List<Map<String, AttributeValue>> keys = new ArrayList<>(count);
+        for (int seq = 0; seq < count; seq++) {
+            keys.add(Map.of(
+                    "id", AttributeValue.builder().s(id).build(),
+                    "chunk", AttributeValue.builder().s(chunkKey(chunkSet, seq)).build()));
+        }
+        return keys;
+    }
+
+    // Zero-padded so chunk keys sort in sequence order
+    private static String chunkKey(String chunkSet, int seq) {
+        return chunkSet + "#" + String.format("%05d", seq);
+    }
+
+    static Set<String> tagsOf(Map<String, AttributeValue> item) {
+        if (item == null || !item.containsKey("tags") || !item.get("tags").hasL()) {
+            return Set.of();
+        }
+        return item.get("tags").l().stream()
+                .map(AttributeValue::s)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    private static boolean contains(Map<String, AttributeValue> item, String attribute, String q) {
+        return item.containsKey(attribute) && item.get(attribute).s() != null && item.get(attribute).s().contains(q);
+    }
+
+    private static DiagramSummary toSummary(Map<String, AttributeValue> item) {
+        return new DiagramSummary(
+                item.get("id").s(),
+                item.containsKey("title") ? item.get("title").s() : null,
+                item.containsKey("description") ? item.get("description").s() : null,
+                item.containsKey("tags") && item.get("tags").hasL()
+                        ? item.get("tags").l().stream().map(AttributeValue::s).collect(Collectors.toList())
+                        : Collections.emptyList(),
+                item.containsKey("version") ? Integer.parseInt(item.get("version").n()) : 0,
+                "db");
+    }
+
+    record Projection(String expression, Map<String, String> names) {}
+
+    static DiagramRevision toRevision(String id, Map<String, AttributeValue> item) {
+        return DiagramRevision.of(id,
+                item.containsKey("version") ? Integer.parseInt(item.get("version").n()) : 0,
+                item.containsKey("updatedAt") ? Instant.parse(item.get("updatedAt").s()) : null);
+    }
+
+    Map<String, AttributeValue> toItem(Diagram d) {
         Map<String, AttributeValue> item = new HashMap<>();
-        item.put("id", AttributeValue.builder().s(d.getId()).build());
+        item.put("id", AttributeValue.builder().s(d.id()).build());
 
-        if (d.getTitle() != null) {
-            item.put("title", AttributeValue.builder().s(d.getTitle()).build());
+        if (d.title() != null) {
+            item.put("title", AttributeValue.builder().s(d.title()).build());
         }
-        if (d.getDescription() != null) {
-            item.put("description", AttributeValue.builder().s(d.getDescription()).build());
+        if (d.description() != null) {
+            item.put("description", AttributeValue.builder().s(d.description()).build());
         }
-        if (d.getTags() != null && !d.getTags().isEmpty()) {
+        if (d.tags() != null && !d.tags().isEmpty()) {
             item.put("tags", AttributeValue.builder()
-                    .l(d.getTags().stream()
+                    .l(d.tags().stream()
                             .map(t -> AttributeValue.builder().s(t).build())
                             .collect(Collectors.toList()))
                     .build());
         }
-        item.put("version", AttributeValue.builder().n(String.valueOf(d.getVersion())).build());
-        if (d.getSource() != null) {
-            item.put("source", AttributeValue.builder().s(d.getSource()).build());
+        item.put("version", AttributeValue.builder().n(String.valueOf(d.version())).build());
+        if (d.source() != null) {
+            item.put("source", AttributeValue.builder().s(d.source()).build());
         }
-        if (d.getCreatedAt() != null) {
-            item.put("createdAt", AttributeValue.builder().s(d.getCreatedAt().toString()).build());
+        if (d.createdAt() != null) {
+            item.put("createdAt", AttributeValue.builder().s(d.createdAt().toString()).build());
         }
-        if (d.getUpdatedAt() != null) {
-            item.put("updatedAt", AttributeValue.builder().s(d.getUpdatedAt().toString()).build());
+        if (d.updatedAt() != null) {
+            item.put("updatedAt", AttributeValue.builder().s(d.updatedAt().toString()).build());
         }
-        if (d.getFlow() != null) {
-            try {
-                item.put("flow", AttributeValue.builder()
-                        .s(objectMapper.writeValueAsString(d.getFlow()))
-                        .build());
-            } catch (JsonProcessingException e) {
-                throw new RuntimeException("Failed to serialize flow JSON", e);
-            }
+        if (d.flow() != null) {
+            flowCodec.write(d.flow(), item);
         }
         return item;
     }
 
-    private Diagram toDiagram(Map<String, AttributeValue> item) {
-        Diagram d = new Diagram();
-        d.setId(item.get("id").s());
+    // The key plus the flow attributes of a diagram, encoded and ready for splitFlow
+    Map<String, AttributeValue> flowAttributes(Diagram d) {
+        Map<String, AttributeValue> attributes = new HashMap<>();
+        attributes.put("id", AttributeValue.builder().s(d.id()).build());
+        if (d.flow() != null) {
+            flowCodec.write(d.flow(), attributes);
+        }
+        return attributes;
+    }
+
+    // Unconditional when expectedVersion is null
+    PutItemRequest putRequest(Map<String, AttributeValue> item, Integer expectedVersion) {
+        PutItemRequest.Builder request = PutItemRequest.builder()
+                .tableName(tableName)
+                .item(item)
+                .returnValues(ReturnValue.ALL_OLD);
+        if (expectedVersion != null) {
+            request.conditionExpression("#version = :expected")
+                    .expressionAttributeNames(Map.of("#version", "version"))
+                    .expressionAttributeValues(Map.of(":expected",
+                            AttributeValue.builder().n(String.valueOf(expectedVersion)).build()));
+        }
+        return request.build();
+    }
+
+    UpdateItemRequest flowUpdate(Diagram d, Map<String, AttributeValue> attributes, int expectedVersion) {
+        Map<String, String> names = new HashMap<>(Map.of("#version", "version", "#updatedAt", "updatedAt"));
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":expected", AttributeValue.builder().n(String.valueOf(expectedVersion)).build());
+        values.put(":version", AttributeValue.builder().n(String.valueOf(d.version())).build());
+        values.put(":updatedAt", AttributeValue.builder().s(d.updatedAt().toString()).build());
+        List<String> set = new ArrayList<>(List.of("#version = :version", "#updatedAt = :updatedAt"));
+        List<String> remove = new ArrayList<>();
+        for (int i = 0; i < FLOW_ATTRIBUTES.size(); i++) {
+            String attribute = FLOW_ATTRIBUTES.get(i);
+            names.put("#f" + i, attribute);
+            if (attributes.containsKey(attribute)) {
+                values.put(":f" + i, attributes.get(attribute));
+                set.add("#f" + i + " = :f" + i);
+            } else {
+                remove.add("#f" + i);
+            }
+        }
+        String expression = "SET " + String.join(", ", set)
+                + (remove.isEmpty() ? "" : " REMOVE " + String.join(", ", remove));
+        return UpdateItemRequest.builder()
+                .tableName(tableName)
+                .key(Map.of("id", attributes.get("id")))
+                .updateExpression(expression)
+                .conditionExpression("#version = :expected")
+                .expressionAttributeNames(names)
+                .expressionAttributeValues(values)
+                .returnValues(ReturnValue.UPDATED_OLD)
+                .build();
+    }
+
+    // UPDATED_OLD leaves out the key, which chunkDeletes needs
+    static Map<String, AttributeValue> replacedFlow(String id, Map<String, AttributeValue> updatedOld) {
+        Map<String, AttributeValue> previous = new HashMap<>(updatedOld);
+        previous.put("id", AttributeValue.builder().s(id).build());
+        return previous;
+    }
+
+    Diagram toDiagram(Map<String, AttributeValue> item) {
+        return toDiagram(item, fetchChunks(item));
+    }
+
+    Diagram toDiagram(Map<String, AttributeValue> item, List<Map<String, AttributeValue>> chunks) {
+        Diagram.Builder d = Diagram.builder().id(item.get("id").s());
 
         if (item.containsKey("title")) {
-            d.setTitle(item.get("title").s());
+            d.title(item.get("title").s());
         }
         if (item.containsKey("description")) {
-            d.setDescription(item.get("description").s());
+            d.description(item.get("description").s());
         }
         if (item.containsKey("tags") && item.get("tags").hasL()) {
-            d.setTags(item.get("tags").l().stream()
+            d.tags(item.get("tags").l().stream()
                     .map(AttributeValue::s)
                     .collect(Collectors.toList()));
         } else {
-            d.setTags(Collections.emptyList());
+            d.tags(Collections.emptyList());
         }
         if (item.containsKey("version")) {
-            d.setVersion(Integer.parseInt(item.get("version").n()));
+            d.version(Integer.parseInt(item.get("version").n()));
         }
         if (item.containsKey("source")) {
-            d.setSource(item.get("source").s());
+            d.source(item.get("source").s());
         }
         if (item.containsKey("createdAt")) {
-            d.setCreatedAt(Instant.parse(item.get("createdAt").s()));
+            d.createdAt(Instant.parse(item.get("createdAt").s()));
         }
         if (item.containsKey("updatedAt")) {
-            d.setUpdatedAt(Instant.parse(item.get("updatedAt").s()));
-        }
-        if (item.containsKey("flow")) {
-            try {
-                JsonNode flowNode = objectMapper.readTree(item.get("flow").s());
-                d.setFlow(flowNode);
-            } catch (JsonProcessingException e) {
-                throw new RuntimeException("Failed to deserialize flow JSON", e);
-            }
+            d.updatedAt(Instant.parse(item.get("updatedAt").s()));
+        }
+        if (item.containsKey(CHUNK_SET_ATTRIBUTE)) {
+            d.flow(assembleFlow(flowCodec, item, chunks))
+                    .flowSize(chunks.stream().mapToLong(c -> c.get("data").b().asByteArrayUnsafe().length).sum());
+        } else if (item.containsKey(FlowCodec.FLOW_ATTRIBUTE)) {
+            d.flow(flowCodec.read(item)).flowSize(FlowCodec.storedSize(item.get(FlowCodec.FLOW_ATTRIBUTE)));
+        }
+        return d.build();
+    }
+
+    // Streams the chunks in key order straight into the parser, without concatenating them first
+    static JsonNode assembleFlow(FlowCodec flowCodec, Map<String, AttributeValue> item,
+                                 List<Map<String, AttributeValue>> chunks) {
+        int expected = Integer.parseInt(item.get(CHUNK_COUNT_ATTRIBUTE).n());
+        if (chunks.size() != expected) {
+            throw new RuntimeException("Diagram '" + item.get("id").s() + "' has " + chunks.size()
+                    + " of " + expected + " flow chunks");
+        }
+        List<InputStream> parts = chunks.stream()
+                .sorted(Comparator.comparing((Map<String, AttributeValue> c) -> c.get("chunk").s()))
+                .map(c -> c.get("data").b().asInputStream())
+                .collect(Collectors.toList());
+        try (InputStream in = new SequenceInputStream(Collections.enumeration(parts))) {
+            return flowCodec.decode(FlowCodec.formatOf(item), in);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize flow JSON", e);
         }
-        return d;
     }
 }
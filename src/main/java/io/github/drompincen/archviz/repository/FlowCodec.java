@@ -0,0 +1,139 @@
+package io.github.drompincen.archviz.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Encodes the flow attribute of a diagram item. Binary formats store the flow as a B attribute and record
+// the encoding in flowFormat; items without a marker are the original JSON strings and stay readable.
+public class FlowCodec {
+
+    static final String FLOW_ATTRIBUTE = "flow";
+    static final String FORMAT_ATTRIBUTE = "flowFormat";
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final ObjectMapper SMILE = new ObjectMapper(new SmileFactory());
+
+    public enum Format {
+        JSON("json"),
+        SMILE("smile"),
+        SMILE_DEFLATE("smile-deflate");
+
+        private final String marker;
+
+        Format(String marker) {
+            this.marker = marker;
+        }
+
+        public String marker() {
+            return marker;
+        }
+
+        public static Format fromMarker(String marker) {
+            for (Format f : values()) {
+                if (f.marker.equalsIgnoreCase(marker)) {
+                    return f;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported flow format '" + marker + "'");
+        }
+    }
+
+    private final Format writeFormat;
+
+    public FlowCodec(Format writeFormat) {
+        this.writeFormat = writeFormat;
+    }
+
+    public Format getWriteFormat() {
+        return writeFormat;
+    }
+
+    void write(JsonNode flow, Map<String, AttributeValue> item) {
+        try {
+            if (writeFormat == Format.JSON) {
+                item.put(FLOW_ATTRIBUTE, AttributeValue.builder().s(JSON.writeValueAsString(flow)).build());
+                return;
+            }
+            byte[] encoded = writeFormat == Format.SMILE ? SMILE.writeValueAsBytes(flow) : smileDeflate(flow);
+            item.put(FLOW_ATTRIBUTE, AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(encoded)).build());
+            item.put(FORMAT_ATTRIBUTE, AttributeValue.builder().s(writeFormat.marker()).build());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialize flow JSON", e);
+        }
+    }
+
+    // Reads whichever format the item was written in; null when the item has no flow
+    JsonNode read(Map<String, AttributeValue> item) {
+        AttributeValue flow = item.get(FLOW_ATTRIBUTE);
+        if (flow == null) {
+            return null;
+        }
+        Format format = formatOf(item);
+        try {
+            return format == Format.JSON ? JSON.readTree(flow.s()) : decode(format, flow.b().asInputStream());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize flow JSON", e);
+        }
+    }
+
+    // Parses an encoded flow from a stream, e.g. reassembled chunks, without buffering the decoded bytes
+    JsonNode decode(Format format, InputStream encoded) throws IOException {
+        switch (format) {
+            case JSON:
+                return JSON.readTree(encoded);
+            case SMILE:
+                return SMILE.readTree(encoded);
+            default:
+                try (InputStream in = new InflaterInputStream(encoded)) {
+                    return SMILE.readTree(in);
+                }
+        }
+    }
+
+    static Format formatOf(Map<String, AttributeValue> item) {
+        AttributeValue marker = item.get(FORMAT_ATTRIBUTE);
+        return marker == null ? Format.JSON : Format.fromMarker(marker.s());
+    }
+
+    // Encoded payload of a flow attribute as written, whatever its attribute type
+    static byte[] bytesOf(AttributeValue flow) {
+        return flow.s() != null ? flow.s().getBytes(StandardCharsets.UTF_8) : flow.b().asByteArrayUnsafe();
+    }
+
+    // Length of bytesOf(flow), without encoding a JSON string just to measure it
+    static long storedSize(AttributeValue flow) {
+        if (flow.s() == null) {
+            return flow.b().asByteArrayUnsafe().length;
+        }
+        String json = flow.s();
+        long size = 0;
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            size += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        }
+        return size;
+    }
+
+    private static byte[] smileDeflate(JsonNode flow) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (DeflaterOutputStream zlib = new DeflaterOutputStream(out, deflater)) {
+            SMILE.writeValue(zlib, flow);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+}
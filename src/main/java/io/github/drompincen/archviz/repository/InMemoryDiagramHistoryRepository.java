@@ -0,0 +1,62 @@
+package io.github.drompincen.archviz.repository;
+
+import io.github.drompincen.archviz.model.DiagramHistoryEntry;
+import io.github.drompincen.archviz.model.DiagramVersionSummary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+public class InMemoryDiagramHistoryRepository implements DiagramHistoryRepository {
+
+    private final Map<String, NavigableMap<Integer, DiagramHistoryEntry>> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public void append(DiagramHistoryEntry entry) {
+        entries.computeIfAbsent(entry.id(), k -> new ConcurrentSkipListMap<>()).put(entry.version(), entry);
+    }
+
+    @Override
+    public List<DiagramVersionSummary> findVersions(String id) {
+        return versions(id).values().stream()
+                .map(e -> new DiagramVersionSummary(e.version(), e.savedAt(), e.title(), e.snapshot()))
+                .toList();
+    }
+
+    @Override
+    public Optional<Integer> findLatestVersion(String id) {
+        NavigableMap<Integer, DiagramHistoryEntry> versions = versions(id);
+        return versions.isEmpty() ? Optional.empty() : Optional.of(versions.lastKey());
+    }
+
+    @Override
+    public List<DiagramHistoryEntry> findChain(String id, int version) {
+        NavigableMap<Integer, DiagramHistoryEntry> versions = versions(id);
+        if (!versions.containsKey(version)) {
+            return List.of();
+        }
+        List<DiagramHistoryEntry> chain = new ArrayList<>();
+        int expected = version;
+        for (DiagramHistoryEntry e : versions.headMap(version, true).descendingMap().values()) {
+            // A gap means a patch whose base was never recorded
+            if (e.version() != expected--) {
+                return List.of();
+            }
+            chain.add(e);
+            if (e.snapshot()) {
+                Collections.reverse(chain);
+                return chain;
+            }
+        }
+        return List.of();
+    }
+
+    private NavigableMap<Integer, DiagramHistoryEntry> versions(String id) {
+        return entries.getOrDefault(id, Collections.emptyNavigableMap());
+    }
+}
@@ -1,42 +1,274 @@
 package io.github.drompincen.archviz.repository;
 
 import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.SummaryPage;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class InMemoryDiagramRepository implements DiagramRepository {
 
-    private final Map<String, Diagram> store = new ConcurrentHashMap<>();
+    // Query terms shorter than this cannot use the n-gram index and fall back to a scan
+    private static final int GRAM_LENGTH = 3;
 
+    // Sorted by id so pages can resume from a cursor
+    private final ConcurrentNavigableMap<String, Entry> store = new ConcurrentSkipListMap<>();
+    private final Map<String, Set<String>> tagIndex = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> gramIndex = new ConcurrentHashMap<>();
+
+    // Diagrams are immutable, so entries keep the saved instance and reads hand it out without copying
     @Override
     public Diagram save(Diagram diagram) {
-        store.put(diagram.getId(), diagram);
+        Entry entry = Entry.of(diagram);
+        Entry previous = store.put(diagram.id(), entry);
+        reindex(diagram.id(), previous);
+        return diagram;
+    }
+
+    // Lock-free compare-and-set: retried only when another writer replaced the entry in between
+    @Override
+    public Diagram save(Diagram diagram, int expectedVersion) {
+        Entry entry = Entry.of(diagram);
+        Entry previous;
+        do {
+            previous = store.get(diagram.id());
+            if (previous == null || previous.diagram().version() != expectedVersion) {
+                throw new VersionConflictException(diagram.id(), expectedVersion);
+            }
+        } while (!store.replace(diagram.id(), previous, entry));
+        reindex(diagram.id(), previous);
         return diagram;
     }
 
     @Override
     public Optional<Diagram> findById(String id) {
-        return Optional.ofNullable(store.get(id));
+        return Optional.ofNullable(store.get(id)).map(Entry::diagram);
+    }
+
+    @Override
+    public Optional<DiagramRevision> findRevisionById(String id) {
+        return Optional.ofNullable(store.get(id)).map(Entry::revision);
     }
 
     @Override
     public List<Diagram> findAll(Optional<String> tag, Optional<String> query) {
-        return store.values().stream()
-                .filter(d -> tag.map(t -> d.getTags() != null && d.getTags().contains(t)).orElse(true))
-                .filter(d -> query.map(q -> {
-                    String lower = q.toLowerCase();
-                    return (d.getTitle() != null && d.getTitle().toLowerCase().contains(lower))
-                            || (d.getDescription() != null && d.getDescription().toLowerCase().contains(lower));
-                }).orElse(true))
-                .collect(Collectors.toList());
+        List<Diagram> result = new ArrayList<>();
+        forEachMatch(tag, query, e -> result.add(e.diagram()));
+        return result;
+    }
+
+    @Override
+    public List<DiagramSummary> findSummaries(Optional<String> tag, Optional<String> query) {
+        List<DiagramSummary> result = new ArrayList<>();
+        forEachMatch(tag, query, e -> result.add(e.summary()));
+        return result;
+    }
+
+    @Override
+    public SummaryPage findSummaryPage(Optional<String> tag, Optional<String> query,
+                                       Optional<String> afterId, int limit) {
+        String lower = query.map(String::toLowerCase).orElse(null);
+        List<Set<String>> postings = postings(tag, lower);
+        List<DiagramSummary> items = new ArrayList<>();
+
+        if (postings.isEmpty()) {
+            Map<String, Entry> range = afterId.isPresent() ? store.tailMap(afterId.get(), false) : store;
+            for (Entry e : range.values()) {
+                if (!e.matches(tag, lower)) continue;
+                if (items.size() == limit) {
+                    return new SummaryPage(items, items.get(limit - 1).id());
+                }
+                items.add(e.summary());
+            }
+            return new SummaryPage(items, null);
+        }
+
+        // Candidates are bounded by the smallest posting set; order them by id to honour the cursor
+        postings.sort(Comparator.comparingInt(Set::size));
+        List<Set<String>> others = postings.subList(1, postings.size());
+        List<Entry> matches = new ArrayList<>();
+        for (String id : postings.get(0)) {
+            if (afterId.isPresent() && id.compareTo(afterId.get()) <= 0) continue;
+            if (!containsAll(others, id)) continue;
+            Entry e = store.get(id);
+            if (e != null && e.matches(tag, lower)) {
+                matches.add(e);
+            }
+        }
+        matches.sort(Comparator.comparing(e -> e.diagram().id()));
+        for (int i = 0; i < Math.min(limit, matches.size()); i++) {
+            items.add(matches.get(i).summary());
+        }
+        return new SummaryPage(items, matches.size() > limit ? items.get(limit - 1).id() : null);
     }
 
     @Override
     public void deleteById(String id) {
-        store.remove(id);
+        Entry previous = store.remove(id);
+        if (previous != null) {
+            reindex(id, previous);
+        }
+    }
+
+    // Indexes whatever is stored now and drops postings of the replaced entry, with no lock across writers.
+    // Each posting set only changes inside compute on its own key, and a posting is dropped only if the entry
+    // stored at that moment does not carry the key, so concurrent writers to one id never lose a posting the
+    // current entry needs. A stale one may linger until the next write; lookups re-check candidates anyway.
+    private void reindex(String id, Entry previous) {
+        Entry current = store.get(id);
+        if (current != null) {
+            index(current);
+        }
+        if (previous != null) {
+            unindex(id, previous, current);
+        }
+    }
+
+    private void forEachMatch(Optional<String> tag, Optional<String> query, Consumer<Entry> action) {
+        String lower = query.map(String::toLowerCase).orElse(null);
+        List<Set<String>> postings = postings(tag, lower);
+
+        if (postings.isEmpty()) {
+            for (Entry e : store.values()) {
+                if (e.matches(tag, lower)) {
+                    action.accept(e);
+                }
+            }
+            return;
+        }
+
+        // Walk the smallest posting set and probe the others, so cost follows the result size
+        postings.sort(Comparator.comparingInt(Set::size));
+        Set<String> smallest = postings.get(0);
+        List<Set<String>> others = postings.subList(1, postings.size());
+        for (String id : smallest) {
+            if (!containsAll(others, id)) continue;
+            Entry e = store.get(id);
+            if (e != null && e.matches(tag, lower)) {
+                action.accept(e);
+            }
+        }
+    }
+
+    // Posting sets that every match must belong to; empty when no index applies
+    private List<Set<String>> postings(Optional<String> tag, String lowerQuery) {
+        List<Set<String>> postings = new ArrayList<>();
+        if (tag.isPresent()) {
+            postings.add(tagIndex.getOrDefault(tag.get(), Collections.emptySet()));
+        }
+        if (lowerQuery != null && lowerQuery.length() >= GRAM_LENGTH) {
+            for (String gram : toGrams(lowerQuery)) {
+                postings.add(gramIndex.getOrDefault(gram, Collections.emptySet()));
+            }
+        }
+        return postings;
+    }
+
+    private void index(Entry entry) {
+        String id = entry.diagram().id();
+        for (String tag : entry.tags()) {
+            addPosting(tagIndex, tag, id);
+        }
+        for (String gram : entry.grams()) {
+            addPosting(gramIndex, gram, id);
+        }
+    }
+
+    // Drops postings of the previous entry that the replacement (if any) no longer carries
+    private void unindex(String id, Entry previous, Entry replacement) {
+        for (String tag : previous.tags()) {
+            if (replacement == null || !replacement.tags().contains(tag)) {
+                removePosting(tagIndex, tag, id, Entry::tags);
+            }
+        }
+        for (String gram : previous.grams()) {
+            if (replacement == null || !replacement.grams().contains(gram)) {
+                removePosting(gramIndex, gram, id, Entry::grams);
+            }
+        }
+    }
+
+    // Inside compute, so a concurrent removal cannot drop the set between creating and adding to it
+    private static void addPosting(Map<String, Set<String>> index, String key, String id) {
+        index.compute(key, (k, ids) -> {
+            Set<String> postings = ids != null ? ids : ConcurrentHashMap.newKeySet();
+            postings.add(id);
+            return postings;
+        });
+    }
+
+    // Re-reads the stored entry under the key's bucket: a writer that stored one carrying the key
+    // either got here first, or adds its posting back after this removal
+    private void removePosting(Map<String, Set<String>> index, String key, String id,
+                               Function<Entry, Set<String>> keysOf) {
+        index.computeIfPresent(key, (k, ids) -> {
+            Entry current = store.get(id);
+            if (current == null || !keysOf.apply(current).contains(k)) {
+                ids.remove(id);
+            }
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private static boolean containsAll(List<Set<String>> sets, String id) {
+        for (Set<String> s : sets) {
+            if (!s.contains(id)) return false;
+        }
+        return true;
+    }
+
+    private static Set<String> toGrams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+
+    // Immutable snapshot of a saved diagram, with its lower-cased text, index keys, summary and revision
+    private record Entry(
+            Diagram diagram,
+            String lowerTitle,
+            String lowerDescription,
+            Set<String> tags,
+            Set<String> grams,
+            DiagramSummary summary,
+            DiagramRevision revision
+    ) {
+
+        static Entry of(Diagram d) {
+            String title = d.title() != null ? d.title().toLowerCase() : null;
+            String description = d.description() != null ? d.description().toLowerCase() : null;
+            Set<String> tags = d.tags() != null ? Set.copyOf(d.tags()) : Set.of();
+            Set<String> grams = new HashSet<>();
+            if (title != null) grams.addAll(toGrams(title));
+            if (description != null) grams.addAll(toGrams(description));
+            DiagramSummary summary = new DiagramSummary(d.id(), d.title(), d.description(),
+                    d.tags() != null ? List.copyOf(d.tags()) : List.of(), d.version(), "db");
+            DiagramRevision revision = DiagramRevision.of(d.id(), d.version(), d.updatedAt());
+            return new Entry(d, title, description, tags, grams, summary, revision);
+        }
+
+        boolean matches(Optional<String> tag, String lowerQuery) {
+            if (tag.isPresent() && !tags.contains(tag.get())) {
+                return false;
+            }
+            return lowerQuery == null
+                    || (lowerTitle != null && lowerTitle.contains(lowerQuery))
+                    || (lowerDescription != null && lowerDescription.contains(lowerQuery));
+        }
     }
 }
@@ -0,0 +1,22 @@
+package io.github.drompincen.archviz.repository;
+
+// A conditional write found the diagram at a different version than the writer started from
+public class VersionConflictException extends RuntimeException {
+
+    private final String id;
+    private final int expectedVersion;
+
+    public VersionConflictException(String id, int expectedVersion) {
+        super("Diagram " + id + " is no longer at version " + expectedVersion);
+        this.id = id;
+        this.expectedVersion = expectedVersion;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getExpectedVersion() {
+        return expectedVersion;
+    }
+}
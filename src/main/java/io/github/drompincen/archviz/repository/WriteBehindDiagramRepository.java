@@ -0,0 +1,268 @@
+package io.github.drompincen.archviz.repository;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.SummaryPage;
+import io.github.drompincen.archviz.model.WriteBehindStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Buffers saves and writes them through saveAll on a fixed interval, keeping only the last
+// version of each id. A crash loses at most one interval of saves; reads see pending saves.
+public class WriteBehindDiagramRepository implements DiagramRepository, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindDiagramRepository.class);
+
+    private final DiagramRepository delegate;
+    private final int maxPending;
+    private final ScheduledExecutorService flusher;
+
+    // Guarded by this; insertion-ordered so the oldest saves are written first
+    private final Map<String, Diagram> pending = new LinkedHashMap<>();
+    // Guarded by this; the batch being written, still served to reads until the backend has it
+    private Map<String, Diagram> inFlight = Map.of();
+    // Held for the whole flush so deletes cannot be overtaken by an in-flight put. A lock rather than
+    // a monitor, since it is held across backend calls that would pin a virtual thread's carrier
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong lastFlushMillis = new AtomicLong();
+    private final AtomicLong maxFlushMillis = new AtomicLong();
+
+    public WriteBehindDiagramRepository(DiagramRepository delegate, long flushIntervalMillis, int maxPending) {
+        this(delegate, flushIntervalMillis, maxPending, r -> {
+            Thread t = new Thread(r, "diagram-write-behind");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public WriteBehindDiagramRepository(DiagramRepository delegate, long flushIntervalMillis, int maxPending,
+                                        ThreadFactory flushThreads) {
+        this.delegate = delegate;
+        this.maxPending = maxPending;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(flushThreads);
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Diagram save(Diagram diagram) {
+        int depth;
+        synchronized (this) {
+            if (pending.remove(diagram.id()) != null) {
+                coalesced.incrementAndGet();
+            }
+            pending.put(diagram.id(), diagram);
+            depth = pending.size();
+        }
+        // A full buffer is flushed right away instead of waiting for the next tick
+        if (depth >= maxPending && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushRequested.set(false);
+                flushQuietly();
+            });
+        }
+        return diagram;
+    }
+
+    // Conditional saves are not buffered: the backend's own compare-and-set decides them, after
+    // any pending save of the same id has been written so the check sees the latest version
+    @Override
+    public Diagram save(Diagram diagram, int expectedVersion) {
+        flushLock.lock();
+        try {
+            writePending(diagram.id());
+            return delegate.save(diagram, expectedVersion);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public Diagram saveFlow(Diagram diagram, int expectedVersion) {
+        flushLock.lock();
+        try {
+            writePending(diagram.id());
+            return delegate.saveFlow(diagram, expectedVersion);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<Diagram> findById(String id) {
+        Diagram buffered = pendingSave(id);
+        return buffered != null ? Optional.of(buffered) : delegate.findById(id);
+    }
+
+    @Override
+    public Optional<DiagramRevision> findRevisionById(String id) {
+        Diagram buffered = pendingSave(id);
+        if (buffered != null) {
+            return Optional.of(DiagramRevision.of(id, buffered.version(), buffered.updatedAt()));
+        }
+        return delegate.findRevisionById(id);
+    }
+
+    @Override
+    public List<Diagram> findAllById(List<String> ids) {
+        flush();
+        return delegate.findAllById(ids);
+    }
+
+    // Listings go through the backend's indexes, so pending saves are written first
+    @Override
+    public List<Diagram> findAll(Optional<String> tag, Optional<String> query) {
+        flush();
+        return delegate.findAll(tag, query);
+    }
+
+    @Override
+    public List<DiagramSummary> findSummaries(Optional<String> tag, Optional<String> query) {
+        flush();
+        return delegate.findSummaries(tag, query);
+    }
+
+    @Override
+    public SummaryPage findSummaryPage(Optional<String> tag, Optional<String> query,
+                                       Optional<String> afterId, int limit) {
+        flush();
+        return delegate.findSummaryPage(tag, query, afterId, limit);
+    }
+
+    @Override
+    public void deleteById(String id) {
+        flushLock.lock();
+        try {
+            synchronized (this) {
+                pending.remove(id);
+            }
+            delegate.deleteById(id);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Writes everything buffered so far; failed batches are re-queued unless a newer save arrived
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<Diagram> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending.values());
+                inFlight = new HashMap<>(pending);
+                pending.clear();
+            }
+            long start = System.nanoTime();
+            try {
+                delegate.saveAll(batch);
+                written.addAndGet(batch.size());
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                synchronized (this) {
+                    for (Diagram d : batch) {
+                        pending.putIfAbsent(d.id(), d);
+                    }
+                }
+                throw e;
+            } finally {
+                synchronized (this) {
+                    inFlight = Map.of();
+                }
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                flushes.incrementAndGet();
+                lastFlushMillis.set(millis);
+                maxFlushMillis.accumulateAndGet(millis, Math::max);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    public WriteBehindStats getStats() {
+        int depth;
+        synchronized (this) {
+            depth = pending.size();
+        }
+        return new WriteBehindStats(depth, flushes.get(), written.get(), coalesced.get(), failures.get(),
+                lastFlushMillis.get(), maxFlushMillis.get());
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("writeBehind", getStats());
+        stats.putAll(delegate.stats());
+        return stats;
+    }
+
+    @Override
+    public void close() throws Exception {
+        flusher.shutdown();
+        flusher.awaitTermination(10, TimeUnit.SECONDS);
+        flush();
+        log.info("Write-behind buffer drained: {}", getStats());
+        if (delegate instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Write-behind flush failed, {} diagrams re-queued", getStats().queueDepth(), e);
+        }
+    }
+
+    // Called under flushLock; on failure the save is re-queued unless a newer one arrived
+    private void writePending(String id) {
+        Diagram buffered;
+        synchronized (this) {
+            buffered = pending.remove(id);
+        }
+        if (buffered == null) {
+            return;
+        }
+        try {
+            delegate.save(buffered);
+            written.incrementAndGet();
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            synchronized (this) {
+                pending.putIfAbsent(id, buffered);
+            }
+            throw e;
+        }
+    }
+
+    // Diagrams are immutable, so the buffered instance is handed out as is. A save in a batch that is
+    // still being written counts too: the backend may not have it yet, and a read-through cache in front
+    // would otherwise keep the older version it returns
+    private synchronized Diagram pendingSave(String id) {
+        Diagram buffered = pending.get(id);
+        return buffered != null ? buffered : inFlight.get(id);
+    }
+}
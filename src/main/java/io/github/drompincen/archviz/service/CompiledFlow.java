@@ -0,0 +1,210 @@
+package io.github.drompincen.archviz.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Indexed form of a flow document, built by FlowCompiler in one pass over the JSON tree. Nodes, zones and
+// phases are numbered in document order, references are resolved to those numbers, and connections are
+// also kept as adjacency arrays. Element objects are shared with the (frozen) source flow, never copied.
+public final class CompiledFlow {
+
+    // Phase ordinal of items without a phase, visible whatever phase is selected
+    public static final int ALWAYS = -1;
+    // Phase ordinal of items whose phase id is unknown: like in the browser, shown only when all phases are
+    public static final int UNKNOWN_PHASE = Integer.MAX_VALUE;
+    // Selected phase meaning "all phases", the browser's default
+    public static final int ALL_PHASES = Integer.MAX_VALUE;
+    // Index of a reference that does not resolve
+    public static final int MISSING = -1;
+
+    static final CompiledFlow EMPTY = new FlowCompiler.Builder(null).build();
+
+    // A step list: the root sequence (id and element null) or one of the named flows
+    public record Sequence(String id, String name, JsonNode element, List<JsonNode> steps,
+                           int[] from, int[] to, int[] phase) {
+
+        public int size() {
+            return steps.size();
+        }
+    }
+
+    private final JsonNode source;
+    private final List<String> phaseIds;
+    private final Map<String, Integer> phaseIndex;
+    private final List<JsonNode> nodes;
+    private final Map<String, Integer> nodeIndex;
+    private final int[] nodePhase;
+    private final int[] nodeZone;
+    private final List<JsonNode> zones;
+    private final Map<String, Integer> zoneIndex;
+    private final int[] zoneParent;
+    private final int[] zonePhase;
+    private final List<JsonNode> connections;
+    private final int[] connectionFrom;
+    private final int[] connectionTo;
+    private final int[] connectionPhase;
+    // Compressed adjacency: the neighbours of node n are targets[start[n]] .. targets[start[n + 1] - 1]
+    private final int[] outStart;
+    private final int[] outTargets;
+    private final int[] inStart;
+    private final int[] inSources;
+    private final Sequence sequence;
+    private final List<Sequence> flows;
+    private final Map<String, Integer> flowIndex;
+    private final List<String> problems;
+
+    CompiledFlow(JsonNode source, List<String> phaseIds, Map<String, Integer> phaseIndex,
+                 List<JsonNode> nodes, Map<String, Integer> nodeIndex, int[] nodePhase, int[] nodeZone,
+                 List<JsonNode> zones, Map<String, Integer> zoneIndex, int[] zoneParent, int[] zonePhase,
+                 List<JsonNode> connections, int[] connectionFrom, int[] connectionTo, int[] connectionPhase,
+                 int[] outStart, int[] outTargets, int[] inStart, int[] inSources,
+                 Sequence sequence, List<Sequence> flows, Map<String, Integer> flowIndex, List<String> problems) {
+        this.source = source;
+        this.phaseIds = phaseIds;
+        this.phaseIndex = phaseIndex;
+        this.nodes = nodes;
+        this.nodeIndex = nodeIndex;
+        this.nodePhase = nodePhase;
+        this.nodeZone = nodeZone;
+        this.zones = zones;
+        this.zoneIndex = zoneIndex;
+        this.zoneParent = zoneParent;
+        this.zonePhase = zonePhase;
+        this.connections = connections;
+        this.connectionFrom = connectionFrom;
+        this.connectionTo = connectionTo;
+        this.connectionPhase = connectionPhase;
+        this.outStart = outStart;
+        this.outTargets = outTargets;
+        this.inStart = inStart;
+        this.inSources = inSources;
+        this.sequence = sequence;
+        this.flows = flows;
+        this.flowIndex = flowIndex;
+        this.problems = problems;
+    }
+
+    public JsonNode source() {
+        return source;
+    }
+
+    // Every dangling or duplicate reference found while compiling, as "path: message"
+    public List<String> problems() {
+        return problems;
+    }
+
+    public boolean isValid() {
+        return problems.isEmpty();
+    }
+
+    public int phaseCount() {
+        return phaseIds.size();
+    }
+
+    public String phaseId(int phase) {
+        return phaseIds.get(phase);
+    }
+
+    public int phaseOf(String phaseId) {
+        return phaseIndex.getOrDefault(phaseId, MISSING);
+    }
+
+    public int nodeCount() {
+        return nodes.size();
+    }
+
+    public JsonNode node(int node) {
+        return nodes.get(node);
+    }
+
+    public int nodeOf(String nodeId) {
+        return nodeIndex.getOrDefault(nodeId, MISSING);
+    }
+
+    public int nodePhase(int node) {
+        return nodePhase[node];
+    }
+
+    // The zone a node declares with "zone", or MISSING; nodes without one belong to the zone drawn around them
+    public int nodeZone(int node) {
+        return nodeZone[node];
+    }
+
+    public int zoneCount() {
+        return zones.size();
+    }
+
+    public JsonNode zone(int zone) {
+        return zones.get(zone);
+    }
+
+    public int zoneOf(String zoneId) {
+        return zoneIndex.getOrDefault(zoneId, MISSING);
+    }
+
+    public int zoneParent(int zone) {
+        return zoneParent[zone];
+    }
+
+    public int zonePhase(int zone) {
+        return zonePhase[zone];
+    }
+
+    public int connectionCount() {
+        return connectionFrom.length;
+    }
+
+    public JsonNode connection(int connection) {
+        return connections.get(connection);
+    }
+
+    public int connectionFrom(int connection) {
+        return connectionFrom[connection];
+    }
+
+    public int connectionTo(int connection) {
+        return connectionTo[connection];
+    }
+
+    public int connectionPhase(int connection) {
+        return connectionPhase[connection];
+    }
+
+    public int outDegree(int node) {
+        return outStart[node + 1] - outStart[node];
+    }
+
+    public int outTarget(int node, int i) {
+        return outTargets[outStart[node] + i];
+    }
+
+    public int inDegree(int node) {
+        return inStart[node + 1] - inStart[node];
+    }
+
+    public int inSource(int node, int i) {
+        return inSources[inStart[node] + i];
+    }
+
+    // The root sequence, used when no named flow is selected
+    public Sequence sequence() {
+        return sequence;
+    }
+
+    public List<Sequence> flows() {
+        return flows;
+    }
+
+    public Optional<Sequence> flow(String flowId) {
+        Integer i = flowIndex.get(flowId);
+        return i != null ? Optional.of(flows.get(i)) : Optional.empty();
+    }
+
+    // The visibility rule of the spec: an item shows once the selected phase reaches its own
+    public static boolean visible(int itemPhase, int selectedPhase) {
+        return itemPhase <= selectedPhase;
+    }
+}
@@ -0,0 +1,292 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.BulkImportResult;
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.SummaryPage;
+import io.github.drompincen.archviz.repository.DiagramRepository;
+import io.github.drompincen.archviz.repository.VersionConflictException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+// Moves stored diagrams in and out as NDJSON, one diagram per line. Both directions stream through
+// JsonParser/JsonGenerator and hold at most one batch of diagrams, whatever the number of lines.
+@Service
+public class DiagramBulkService {
+
+    private static final Logger log = LoggerFactory.getLogger(DiagramBulkService.class);
+
+    private final DiagramRepository repository;
+    private final DiagramHistoryService historyService;
+    private final FlowCompiler flowCompiler;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter lineWriter;
+    private final int batchSize;
+
+    public DiagramBulkService(DiagramRepository repository, DiagramHistoryService historyService,
+                              FlowCompiler flowCompiler, ObjectMapper objectMapper,
+                              @Value("${diagram.bulk.batch-size:25}") int batchSize) {
+        this.repository = repository;
+        this.historyService = historyService;
+        this.flowCompiler = flowCompiler;
+        this.objectMapper = objectMapper;
+        // Output is flushed once per batch rather than after every line
+        this.lineWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    // Lines keep their id and version, so an export imported elsewhere reproduces the same diagrams; lines
+    // without an id get a new one. A line is only written over a stored diagram with an older version.
+    // One result line is written per input line, flushed after every batch.
+    public void importDiagrams(InputStream in, OutputStream out) throws IOException {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        Set<String> batchIds = new HashSet<>();
+        int attempted = 0;
+        int saved = 0;
+        int failed = 0;
+        BulkImportResult malformed = null;
+        Instant now = Instant.now();
+        try (JsonParser parser = objectMapper.getFactory().createParser(in);
+             JsonGenerator generator = ndjsonGenerator(out)) {
+            while (true) {
+                long line;
+                JsonNode node;
+                try {
+                    if (parser.nextToken() == null) {
+                        break;
+                    }
+                    line = parser.currentTokenLocation().getLineNr();
+                    node = objectMapper.readTree(parser);
+                } catch (JsonProcessingException e) {
+                    // The parser cannot resynchronize after malformed JSON, so the rest of the body is skipped
+                    malformed = BulkImportResult.failed(e.getLocation() != null ? e.getLocation().getLineNr() : -1,
+                            null, "Malformed NDJSON: " + e.getOriginalMessage());
+                    break;
+                }
+                Pending pending;
+                try {
+                    Diagram diagram = toDiagram(node, now);
+                    pending = new Pending(line, diagram, flowCompiler.validate(diagram.flow()));
+                } catch (IllegalArgumentException e) {
+                    write(generator, BulkImportResult.failed(line, node.path("id").textValue(), e.getMessage()));
+                    failed++;
+                    continue;
+                }
+                // Each id appears once per batch, so a repeated one is checked against the earlier line's write
+                if (!batchIds.add(pending.diagram().id())) {
+                    saved += saveBatch(batch, generator);
+                    batch.clear();
+                    batchIds.clear();
+                    batchIds.add(pending.diagram().id());
+                }
+                batch.add(pending);
+                attempted++;
+                if (batch.size() >= batchSize) {
+                    saved += saveBatch(batch, generator);
+                    batch.clear();
+                    batchIds.clear();
+                }
+            }
+            saved += saveBatch(batch, generator);
+            failed += attempted - saved;
+            if (malformed != null) {
+                write(generator, malformed);
+                failed++;
+            }
+        }
+        log.info("BULK | action=import | saved={} | failed={}", saved, failed);
+    }
+
+    // Stored diagrams only, page by page in the backend's key order; static diagrams ship with the app
+    public void exportDiagrams(OutputStream out) throws IOException {
+        int exported = 0;
+        try (JsonGenerator generator = ndjsonGenerator(out)) {
+            Optional<String> afterId = Optional.empty();
+            do {
+                SummaryPage page = repository.findSummaryPage(Optional.empty(), Optional.empty(), afterId, batchSize);
+                List<String> ids = page.items().stream().map(DiagramSummary::id).toList();
+                for (Diagram d : repository.findAllById(ids)) {
+                    write(generator, d);
+                    exported++;
+                }
+                generator.flush();
+                afterId = Optional.ofNullable(page.nextAfterId());
+            } while (afterId.isPresent());
+        }
+        log.info("BULK | action=export | diagrams={}", exported);
+    }
+
+    // Lines for ids that are not stored yet go through saveAll; a failed batch is retried item by item so each
+    // line gets its own error. A line for a stored id must carry a newer version and is written conditionally
+    // on the version looked up, so neither an older export nor an update landing in between is overwritten.
+    private int saveBatch(List<Pending> batch, JsonGenerator generator) throws IOException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        Map<String, Integer> stored = storedVersions(batch);
+        List<Pending> created = new ArrayList<>();
+        int saved = 0;
+        for (Pending p : batch) {
+            Integer current = stored.get(p.diagram().id());
+            if (current == null) {
+                created.add(p);
+            } else if (p.diagram().version() <= current) {
+                write(generator, conflict(p, current));
+            } else {
+                try {
+                    repository.save(p.diagram(), current);
+                    saved(p, generator);
+                    saved++;
+                } catch (VersionConflictException e) {
+                    write(generator, BulkImportResult.conflict(p.line(), p.diagram().id(),
+                            "Diagram " + p.diagram().id() + " was saved while importing"));
+                } catch (RuntimeException e) {
+                    write(generator, BulkImportResult.failed(p.line(), p.diagram().id(), e.getMessage()));
+                }
+            }
+        }
+        if (created.isEmpty()) {
+            generator.flush();
+            return saved;
+        }
+        try {
+            repository.saveAll(created.stream().map(Pending::diagram).toList());
+            for (Pending p : created) {
+                saved(p, generator);
+                saved++;
+            }
+        } catch (RuntimeException batchError) {
+            log.warn("BULK | action=import | batch of {} failed, retrying one by one", created.size(), batchError);
+            for (Pending p : created) {
+                try {
+                    repository.save(p.diagram());
+                    saved(p, generator);
+                    saved++;
+                } catch (RuntimeException e) {
+                    write(generator, BulkImportResult.failed(p.line(), p.diagram().id(), e.getMessage()));
+                }
+            }
+        }
+        generator.flush();
+        return saved;
+    }
+
+    // Revisions are a cheap lookup, fetched concurrently where the backend is non-blocking
+    private Map<String, Integer> storedVersions(List<Pending> batch) {
+        List<CompletableFuture<Optional<DiagramRevision>>> lookups = batch.stream()
+                .map(p -> repository.findRevisionByIdAsync(p.diagram().id()))
+                .toList();
+        Map<String, Integer> stored = new HashMap<>();
+        for (CompletableFuture<Optional<DiagramRevision>> lookup : lookups) {
+            lookup.join().ifPresent(revision -> stored.put(revision.id(), revision.version()));
+        }
+        return stored;
+    }
+
+    private void saved(Pending p, JsonGenerator generator) throws IOException {
+        flowCompiler.remember(p.diagram(), p.compiled());
+        historyService.record(null, p.diagram());
+        write(generator, BulkImportResult.saved(p.line(), p.diagram().id()));
+    }
+
+    private static BulkImportResult conflict(Pending p, int stored) {
+        return BulkImportResult.conflict(p.line(), p.diagram().id(), "Stored version " + stored
+                + " is not older than the imported version " + p.diagram().version());
+    }
+
+    // Invalid fields throw IllegalArgumentException, reported for the line instead of failing the import;
+    // so does a flow with dangling references (InvalidFlowException)
+    private Diagram toDiagram(JsonNode node, Instant now) {
+        if (!node.isObject()) {
+            throw new IllegalArgumentException("Each line must be a JSON object");
+        }
+        String id = text(node, "id");
+        List<String> tags = new ArrayList<>();
+        JsonNode tagsNode = node.path("tags");
+        if (!tagsNode.isMissingNode() && !tagsNode.isNull()) {
+            if (!tagsNode.isArray()) {
+                throw new IllegalArgumentException("tags must be an array of strings");
+            }
+            tagsNode.forEach(tag -> tags.add(tag.asText()));
+        }
+        JsonNode version = node.path("version");
+        if (!version.isMissingNode() && !version.isNull() && !version.canConvertToInt()) {
+            throw new IllegalArgumentException("version must be an integer");
+        }
+        JsonNode flow = node.get("flow");
+        return Diagram.builder()
+                .id(id != null && !id.isBlank() ? id : UUID.randomUUID().toString())
+                .title(text(node, "title"))
+                .description(text(node, "description"))
+                .tags(tags)
+                .version(Math.max(1, version.asInt(1)))
+                .source("db")
+                .createdAt(instant(node, "createdAt", now))
+                .updatedAt(instant(node, "updatedAt", now))
+                .flow(flow != null && !flow.isNull() ? flow : null)
+                .build();
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        if (!value.isTextual()) {
+            throw new IllegalArgumentException(field + " must be a string");
+        }
+        return value.asText();
+    }
+
+    private static Instant instant(JsonNode node, String field, Instant fallback) {
+        String value = text(node, field);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(field + " must be an ISO-8601 instant");
+        }
+    }
+
+    // Leaves the response stream open, and separates root values with newlines instead of spaces
+    private JsonGenerator ndjsonGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+        return generator;
+    }
+
+    private void write(JsonGenerator generator, Object value) throws IOException {
+        lineWriter.writeValue(generator, value);
+        generator.writeRaw('\n');
+    }
+
+    private record Pending(long line, Diagram diagram, CompiledFlow compiled) {}
+}
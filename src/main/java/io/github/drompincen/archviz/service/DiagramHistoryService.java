@@ -0,0 +1,91 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramHistoryEntry;
+import io.github.drompincen.archviz.model.DiagramVersionSummary;
+import io.github.drompincen.archviz.repository.DiagramHistoryRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+// Every saved version is kept as a JSON Patch against its predecessor, with a full snapshot every
+// snapshot-interval versions, so rebuilding any version reads one snapshot and fewer than that many patches
+@Service
+public class DiagramHistoryService {
+
+    private static final Logger log = LoggerFactory.getLogger(DiagramHistoryService.class);
+
+    private final DiagramHistoryRepository repository;
+    private final ObjectMapper objectMapper;
+    private final int snapshotInterval;
+
+    public DiagramHistoryService(DiagramHistoryRepository repository, ObjectMapper objectMapper,
+                                 @Value("${diagram.history.snapshot-interval:10}") int snapshotInterval) {
+        this.repository = repository;
+        this.objectMapper = objectMapper;
+        this.snapshotInterval = Math.max(1, snapshotInterval);
+    }
+
+    // Taken from the loaded diagram before an update, as the base for the next patch
+    public JsonNode document(Diagram diagram) {
+        return objectMapper.valueToTree(diagram);
+    }
+
+    // History is best effort: the diagram itself is already saved, so a failed append is only logged
+    public void record(JsonNode previous, Diagram saved) {
+        try {
+            append(previous, saved);
+        } catch (RuntimeException e) {
+            log.error("HISTORY | id={} | version={} | not recorded", saved.id(), saved.version(), e);
+        }
+    }
+
+    private void append(JsonNode previous, Diagram saved) {
+        String id = saved.id();
+        int version = saved.version();
+        JsonNode current = document(saved);
+        boolean chained = previous != null
+                && repository.findLatestVersion(id).map(latest -> latest == version - 1).orElse(false);
+        if (previous != null && !chained) {
+            // Diagrams saved before history existed start with a snapshot of the version being replaced
+            repository.append(new DiagramHistoryEntry(id, version - 1, instant(previous.get("updatedAt")),
+                    previous.path("title").asText(null), true, previous));
+            chained = true;
+        }
+        boolean snapshot = !chained || (version - 1) % snapshotInterval == 0;
+        repository.append(new DiagramHistoryEntry(id, version, saved.updatedAt(), saved.title(), snapshot,
+                snapshot ? current : JsonPatch.diff(previous, current)));
+    }
+
+    public List<DiagramVersionSummary> listVersions(String id) {
+        return repository.findVersions(id);
+    }
+
+    public Optional<Diagram> getVersion(String id, int version) {
+        List<DiagramHistoryEntry> chain = repository.findChain(id, version);
+        if (chain.isEmpty()) {
+            return Optional.empty();
+        }
+        JsonNode document = chain.get(0).content();
+        for (DiagramHistoryEntry patch : chain.subList(1, chain.size())) {
+            document = JsonPatch.apply(document, patch.content());
+        }
+        try {
+            return Optional.of(objectMapper.treeToValue(document, Diagram.class));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to rebuild version " + version + " of diagram " + id, e);
+        }
+    }
+
+    private Instant instant(JsonNode value) {
+        return value == null || value.isNull() ? null : objectMapper.convertValue(value, Instant.class);
+    }
+}
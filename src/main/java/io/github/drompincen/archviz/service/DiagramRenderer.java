@@ -0,0 +1,473 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+// Static SVG of the spatial view, drawn with the browser's styles: zone boxes by type, dashed connectors,
+// and nodes colored by tag with their type's icon and shape. Rendered SVGs are cached by revision
+// fingerprint, phase and theme, so a repeat view of an unchanged diagram does not even load the flow.
+@Service
+public class DiagramRenderer {
+
+    public enum Theme {
+        DARK("#1e1e1e", "#2d2d2d", "#555", "#d4d4d4", "#666", "#2d2d2d"),
+        LIGHT("#f5f5f5", "#fff", "#555", "#333", "#aaa", "#fff");
+
+        final String background;
+        final String nodeFill;
+        final String nodeStroke;
+        final String nodeText;
+        final String connector;
+        final String statusRing;
+
+        Theme(String background, String nodeFill, String nodeStroke, String nodeText, String connector, String statusRing) {
+            this.background = background;
+            this.nodeFill = nodeFill;
+            this.nodeStroke = nodeStroke;
+            this.nodeText = nodeText;
+            this.connector = connector;
+            this.statusRing = statusRing;
+        }
+
+        public static Theme parse(String value) {
+            for (Theme theme : values()) {
+                if (theme.name().equalsIgnoreCase(value)) {
+                    return theme;
+                }
+            }
+            throw new IllegalArgumentException("Unknown theme '" + value + "', expected 'dark' or 'light'");
+        }
+    }
+
+    static final int DEFAULT_WIDTH = FlowLayout.DEFAULT_WIDTH;
+    static final int DEFAULT_HEIGHT = FlowLayout.DEFAULT_HEIGHT;
+    private static final int MARGIN = 40;
+    private static final String FONT = "'Segoe UI', Roboto, Helvetica, Arial, sans-serif";
+
+    // fill, stroke and text color per tag, from the --tag-* variables of collab-animation.html
+    record Colors(String fill, String stroke, String text) {}
+
+    private static final Map<String, Colors> DARK_TAGS = Map.of(
+            "legacy", new Colors("#4a1818", "#e74c3c", "#ecf0f1"),
+            "new", new Colors("#144226", "#2ecc71", "#ecf0f1"),
+            "core", new Colors("#154360", "#3498db", "#ecf0f1"),
+            "agent", new Colors("#4a235a", "#9b59b6", "#ecf0f1"),
+            "external", new Colors("#34495e", "#7f8c8d", "#bdc3c7"),
+            "aws", new Colors("#3d2800", "#ff9900", "#ffd080"),
+            "internal", new Colors("#0d3d3d", "#2bb5b5", "#80e0e0"),
+            "observability", new Colors("#2d1a3d", "#a855f7", "#d4a8ff"),
+            "data", new Colors("#0d2d3d", "#06b6d4", "#80d8e8"));
+
+    private static final Map<String, Colors> LIGHT_TAGS = Map.of(
+            "legacy", new Colors("#ffebee", "#e74c3c", "#333"),
+            "new", new Colors("#e8f5e9", "#2ecc71", "#333"),
+            "core", new Colors("#e3f2fd", "#3498db", "#333"),
+            "agent", new Colors("#f3e5f5", "#9b59b6", "#333"),
+            "external", new Colors("#eceff1", "#7f8c8d", "#555"),
+            "aws", new Colors("#fff3e0", "#ff9900", "#663d00"),
+            "internal", new Colors("#e0f7fa", "#2bb5b5", "#004d40"),
+            "observability", new Colors("#f3e5f5", "#a855f7", "#4a148c"),
+            "data", new Colors("#e0f7fa", "#06b6d4", "#00606d"));
+
+    // Zone styles of the .zone-* rules; layer is the CSS z-index, so outer zone types are drawn first
+    private record ZoneStyle(String stroke, double strokeWidth, String dash, String fill, String label, int layer) {}
+
+    private static final Map<String, ZoneStyle> ZONES = Map.ofEntries(
+            Map.entry("cloud", new ZoneStyle("#3b82f6", 2, "6,4", "rgba(59,130,246,0.06)", "#3b82f6", 2)),
+            Map.entry("on-prem", new ZoneStyle("#6b7280", 2, null, "rgba(107,114,128,0.06)", "#9ca3af", 2)),
+            Map.entry("vpc", new ZoneStyle("#22c55e", 2, "6,4", "rgba(34,197,94,0.06)", "#22c55e", 3)),
+            Map.entry("subnet", new ZoneStyle("#86efac", 2, "2,3", "rgba(134,239,172,0.04)", "#86efac", 4)),
+            Map.entry("edge", new ZoneStyle("#eab308", 2, "6,4", "rgba(234,179,8,0.06)", "#eab308", 2)),
+            Map.entry("dmz", new ZoneStyle("#ef4444", 2, null, "rgba(239,68,68,0.06)", "#ef4444", 3)),
+            Map.entry("region", new ZoneStyle("rgba(59,130,246,0.25)", 1, null, "rgba(59,130,246,0.03)", "rgba(59,130,246,0.5)", 1)),
+            Map.entry("az", new ZoneStyle("rgba(59,130,246,0.2)", 1, "6,4", "rgba(59,130,246,0.02)", "rgba(59,130,246,0.4)", 1)),
+            Map.entry("k8s-cluster", new ZoneStyle("#3b82f6", 2, null, "rgba(59,130,246,0.05)", "#3b82f6", 3)),
+            Map.entry("namespace", new ZoneStyle("#60a5fa", 2, "6,4", "rgba(96,165,250,0.04)", "#60a5fa", 4)));
+
+    // The browser's ICONS table, drawn in a 24x24 box
+    private static final String PERSON = "<path d=\"M12 12c2.21 0 4-1.79 4-4s-1.79-4-4-4-4 1.79-4 4 1.79 4 4 4zm0 2c-2.67 0-8 1.34-8 4v2h16v-2c0-2.66-5.33-4-8-4z\"/>";
+    private static final Map<String, String> ICONS = Map.ofEntries(
+            Map.entry("user", PERSON),
+            Map.entry("human", PERSON),
+            Map.entry("database", "<path d=\"M12 2C6.48 2 2 3.34 2 5v14c0 1.66 4.48 3 10 3s10-1.34 10-3V5c0-1.66-4.48-3-10-3zm0 12c-3.53 0-6.43-.85-7.85-2.09C5.36 13.56 8.44 14.5 12 14.5s6.64-.94 7.85-2.59c-1.42 1.24-4.32 2.09-7.85 2.09z\"/>"),
+            Map.entry("service", "<path d=\"M12 2L2 7l10 5 10-5-10-5zm0 9l-10-5v2l10 5 10-5v-2l-10 5zm0 4.5l-10-5v2l10 5 10-5v-2l-10 5z\"/>"),
+            Map.entry("agent", "<path d=\"M12 2a2 2 0 0 1 2 2c0 .74-.4 1.39-1 1.73V7h1c1.1 0 2 .9 2 2v6h2v2h-2v2c0 1.1-.9 2-2 2H8c-1.1 0-2-.9-2-2v-2H4v-2h2V9c0-1.1.9-2 2-2h1V5.73c-.6-.34-1-.99-1-1.73a2 2 0 0 1 2-2M9 12a1 1 0 1 0 0-2 1 1 0 0 0 0 2m6 0a1 1 0 1 0 0-2 1 1 0 0 0 0 2\"/>"),
+            Map.entry("fargate", "<path d=\"M12 2L3 7v10l9 5 9-5V7l-9-5zm0 2.18L18.36 7.5 12 10.82 5.64 7.5 12 4.18zM5 9.06l6 3.31v6.57L5 15.63V9.06z\"/><circle cx=\"8\" cy=\"13\" r=\"1.2\"/><circle cx=\"16\" cy=\"13\" r=\"1.2\"/>"),
+            Map.entry("lambda", "<path d=\"M4 20h3.5l4.5-9.5L16.5 20H20L13 4h-3L4 20zm6.5-2L8 12.5 10 8l4.5 10h-4z\"/>"),
+            Map.entry("ec2", "<path d=\"M4 4h16v16H4V4zm2 2v12h12V6H6zm3 2h6v2H9V8zm0 4h6v2H9v-2z\"/>"),
+            Map.entry("gateway", "<path d=\"M12 2C6.48 2 2 6.48 2 12s4.48 10 10 10 10-4.48 10-10S17.52 2 12 2zm-1 17.93c-3.95-.49-7-3.85-7-7.93 0-.62.08-1.21.21-1.79L9 15v1c0 1.1.9 2 2 2v1.93zm6.9-2.54c-.26-.81-1-1.39-1.9-1.39h-1v-3c0-.55-.45-1-1-1H8v-2h2c.55 0 1-.45 1-1V7h2c1.1 0 2-.9 2-2v-.41c2.93 1.19 5 4.06 5 7.41 0 2.08-.8 3.97-2.1 5.39z\"/>"),
+            Map.entry("load-balancer", "<path d=\"M12 2L4 7v2h16V7L12 2zm-6 9v2h4v6l2 3 2-3v-6h4v-2H6zm6-5.5L16 8H8l4-2.5z\"/>"),
+            Map.entry("cdn", "<circle cx=\"12\" cy=\"12\" r=\"9\" fill=\"none\" stroke=\"currentColor\" stroke-width=\"1.5\" stroke-dasharray=\"4,2\"/><path d=\"M12 3c-2 3-3 6-3 9s1 6 3 9m0-18c2 3 3 6 3 9s-1 6-3 9M3 12h18\"/>"),
+            Map.entry("firewall", "<path d=\"M12 1L3 5v6c0 5.55 3.84 10.74 9 12 5.16-1.26 9-6.45 9-12V5l-9-4zm0 10.99h7c-.53 4.12-3.28 7.79-7 8.94V12H5V6.3l7-3.11v8.8z\"/>"),
+            Map.entry("cache", "<path d=\"M12 2L2 7l10 5 10-5-10-5z\"/><path d=\"M2 17l10 5 10-5M2 12l10 5 10-5\" fill=\"none\" stroke=\"currentColor\" stroke-width=\"1.5\" stroke-dasharray=\"3,2\"/>"),
+            Map.entry("queue", "<path d=\"M3 6h14a4 4 0 0 1 0 8H3V6zm0 2v4h14a2 2 0 0 0 0-4H3z\"/><path d=\"M6 9h2v2H6zm4 0h2v2h-2zm4 0h2v2h-2z\"/>"),
+            Map.entry("storage", "<path d=\"M2 20h20v-4H2v4zm2-3h2v2H4v-2zM2 4v4h20V4H2zm4 3H4V5h2v2zm-4 7h20v-4H2v4zm2-3h2v2H4v-2z\"/>"),
+            Map.entry("dashboard", "<path d=\"M3 3h8v6H3V3zm0 8h8v10H3V11zm10-8h8v10h-8V3zm0 12h8v6h-8v-6z\"/>"),
+            Map.entry("vpn", "<path d=\"M12 1L3 5v6c0 5.55 3.84 10.74 9 12 5.16-1.26 9-6.45 9-12V5l-9-4z\"/><path d=\"M10 12l2 2 4-4\" fill=\"none\" stroke=\"currentColor\" stroke-width=\"2\"/>"),
+            Map.entry("default", "<path d=\"M3 3h18v18H3z\"/>"));
+
+    private final FlowCompiler flowCompiler;
+    private final long maxBytes;
+
+    // Guarded by this; access-ordered, so the least recently viewed rendering is dropped first
+    private final LinkedHashMap<Key, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    public DiagramRenderer(FlowCompiler flowCompiler,
+                           @Value("${diagram.render.cache-max-bytes:16777216}") long maxBytes) {
+        this.flowCompiler = flowCompiler;
+        this.maxBytes = maxBytes;
+    }
+
+    // A rendering of exactly this revision, looked up before the diagram itself is loaded
+    public synchronized Optional<byte[]> cached(DiagramRevision revision, String phaseId, Theme theme) {
+        return Optional.ofNullable(cache.get(new Key(revision.id(), revision.fingerprint(), phaseId, theme)));
+    }
+
+    // UTF-8 SVG of the diagram at phaseId (null is the browser's default, the last phase). The result is only
+    // cached under the revision when the loaded diagram is that revision, as a save may land in between.
+    // Unknown phase ids throw IllegalArgumentException.
+    public byte[] render(DiagramRevision revision, Diagram diagram, String phaseId, Theme theme) {
+        Optional<byte[]> cached = cached(revision, phaseId, theme);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        byte[] svg = render(flowCompiler.compiled(diagram), diagram.title(), phaseId, theme)
+                .getBytes(StandardCharsets.UTF_8);
+        if (revision.matches(diagram)) {
+            put(new Key(revision.id(), revision.fingerprint(), phaseId, theme), svg);
+        }
+        return svg;
+    }
+
+    static String render(CompiledFlow compiled, String title, String phaseId, Theme theme) {
+        return new Canvas(compiled, selectedPhase(compiled, phaseId), theme).draw(title);
+    }
+
+    // The browser opens on the last phase, so that is what no phase id selects
+    static int selectedPhase(CompiledFlow compiled, String phaseId) {
+        if (phaseId == null) {
+            return compiled.phaseCount() > 0 ? compiled.phaseCount() - 1 : CompiledFlow.ALL_PHASES;
+        }
+        int selected = compiled.phaseOf(phaseId);
+        if (selected == CompiledFlow.MISSING) {
+            throw new IllegalArgumentException("Unknown phase '" + phaseId + "'");
+        }
+        return selected;
+    }
+
+    // Colors of a node's tag; untagged nodes are "core", as in the browser, and unknown tags keep the plain box
+    static Colors tagColors(Theme theme, String tag) {
+        Colors colors = (theme == Theme.LIGHT ? LIGHT_TAGS : DARK_TAGS).get(tag == null || tag.isEmpty() ? "core" : tag);
+        return colors != null ? colors : new Colors(theme.nodeFill, theme.nodeStroke, theme.nodeText);
+    }
+
+    private synchronized void put(Key key, byte[] svg) {
+        if (svg.length > maxBytes) {
+            return;
+        }
+        byte[] previous = cache.put(key, svg);
+        bytes += svg.length - (previous != null ? previous.length : 0);
+        Iterator<byte[]> eldest = cache.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    private record Key(String id, String fingerprint, String phaseId, Theme theme) {}
+
+    // One rendering: boxes of the visible nodes and zones, then the document in drawing order
+    private static final class Canvas {
+
+        private final CompiledFlow compiled;
+        private final int selected;
+        private final Theme theme;
+        private final boolean[] nodeVisible;
+        private final double[] x;
+        private final double[] y;
+        private final double[] w;
+        private final double[] h;
+        private final StringBuilder svg;
+
+        Canvas(CompiledFlow compiled, int selected, Theme theme) {
+            this.compiled = compiled;
+            this.selected = selected;
+            this.theme = theme;
+            int n = compiled.nodeCount();
+            nodeVisible = new boolean[n];
+            x = new double[n];
+            y = new double[n];
+            w = new double[n];
+            h = new double[n];
+            svg = new StringBuilder(1024 + n * 900);
+        }
+
+        String draw(String title) {
+            double width = 0;
+            double height = 0;
+            for (int n = 0; n < compiled.nodeCount(); n++) {
+                JsonNode node = compiled.node(n);
+                nodeVisible[n] = CompiledFlow.visible(compiled.nodePhase(n), selected);
+                x[n] = node.path("x").asDouble();
+                y[n] = node.path("y").asDouble();
+                w[n] = node.path("w").asDouble(DEFAULT_WIDTH);
+                h[n] = node.path("h").asDouble(DEFAULT_HEIGHT);
+                if (nodeVisible[n]) {
+                    // The status badge sticks out 10px past the top-right corner
+                    width = Math.max(width, x[n] + w[n] + 10);
+                    height = Math.max(height, y[n] + h[n]);
+                }
+            }
+            List<Integer> zones = new ArrayList<>();
+            for (int z = 0; z < compiled.zoneCount(); z++) {
+                if (CompiledFlow.visible(compiled.zonePhase(z), selected)) {
+                    JsonNode zone = compiled.zone(z);
+                    zones.add(z);
+                    width = Math.max(width, zone.path("x").asDouble() + zone.path("w").asDouble());
+                    height = Math.max(height, zone.path("y").asDouble() + zone.path("h").asDouble());
+                }
+            }
+            width += MARGIN;
+            height += MARGIN;
+
+            svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(num(width))
+                    .append("\" height=\"").append(num(height))
+                    .append("\" viewBox=\"0 0 ").append(num(width)).append(' ').append(num(height))
+                    .append("\" font-family=\"").append(FONT).append("\">");
+            if (title != null && !title.isEmpty()) {
+                svg.append("<title>").append(escape(title)).append("</title>");
+            }
+            svg.append("<rect width=\"100%\" height=\"100%\" fill=\"").append(theme.background).append("\"/>");
+            // Same stacking as the CSS z-index of the zone types; ties keep the flow's order
+            zones.sort((a, b) -> Integer.compare(zoneStyle(compiled.zone(a)).layer(), zoneStyle(compiled.zone(b)).layer()));
+            for (int z : zones) {
+                drawZone(compiled.zone(z));
+            }
+            drawConnections();
+            for (int n = 0; n < compiled.nodeCount(); n++) {
+                if (nodeVisible[n]) {
+                    drawNode(n);
+                }
+            }
+            return svg.append("</svg>").toString();
+        }
+
+        private static ZoneStyle zoneStyle(JsonNode zone) {
+            return ZONES.getOrDefault(zone.path("type").asText("cloud"), ZONES.get("cloud"));
+        }
+
+        private void drawZone(JsonNode zone) {
+            ZoneStyle style = zoneStyle(zone);
+            double zx = zone.path("x").asDouble();
+            double zy = zone.path("y").asDouble();
+            svg.append("<rect x=\"").append(num(zx)).append("\" y=\"").append(num(zy))
+                    .append("\" width=\"").append(num(zone.path("w").asDouble()))
+                    .append("\" height=\"").append(num(zone.path("h").asDouble()))
+                    .append("\" rx=\"8\" fill=\"").append(style.fill())
+                    .append("\" stroke=\"").append(style.stroke())
+                    .append("\" stroke-width=\"").append(num(style.strokeWidth())).append('"');
+            if (style.dash() != null) {
+                svg.append(" stroke-dasharray=\"").append(style.dash()).append('"');
+            }
+            svg.append("/>");
+            String label = zone.hasNonNull("label") ? zone.get("label").asText() : zone.path("id").asText();
+            svg.append("<text x=\"").append(num(zx + 10)).append("\" y=\"").append(num(zy + 16))
+                    .append("\" font-size=\"10.4\" font-weight=\"700\" letter-spacing=\"1\" opacity=\"0.8\" fill=\"")
+                    .append(style.label()).append("\">").append(escape(label.toUpperCase())).append("</text>");
+        }
+
+        // Centre to centre, one line per node pair, bent aside like the browser's where midpoints collide
+        private void drawConnections() {
+            Set<Long> drawnPairs = new HashSet<>();
+            Map<Long, List<double[]>> midpoints = new HashMap<>();
+            for (int c = 0; c < compiled.connectionCount(); c++) {
+                int from = compiled.connectionFrom(c);
+                int to = compiled.connectionTo(c);
+                if (!CompiledFlow.visible(compiled.connectionPhase(c), selected)
+                        || from == CompiledFlow.MISSING || to == CompiledFlow.MISSING
+                        || !nodeVisible[from] || !nodeVisible[to]
+                        || !drawnPairs.add(((long) Math.min(from, to) << 32) | Math.max(from, to))) {
+                    continue;
+                }
+                double x1 = x[from] + w[from] / 2;
+                double y1 = y[from] + h[from] / 2;
+                double x2 = x[to] + w[to] / 2;
+                double y2 = y[to] + h[to] / 2;
+                double dist = Math.hypot(x2 - x1, y2 - y1);
+                double nx = -(y2 - y1) / (dist == 0 ? 1 : dist);
+                double ny = (x2 - x1) / (dist == 0 ? 1 : dist);
+                double midX = (x1 + x2) / 2;
+                double midY = (y1 + y2) / 2;
+                double offset = 0;
+                while (occupied(midpoints, midX + nx * offset, midY + ny * offset)) {
+                    offset += 20;
+                }
+                double ctrlX = midX + nx * offset;
+                double ctrlY = midY + ny * offset;
+                midpoints.computeIfAbsent(cell(ctrlX, ctrlY), k -> new ArrayList<>()).add(new double[]{ctrlX, ctrlY});
+
+                svg.append("<path d=\"M").append(num(x1)).append(',').append(num(y1));
+                if (offset < 5) {
+                    svg.append(" L");
+                } else {
+                    svg.append(" Q").append(num(ctrlX)).append(',').append(num(ctrlY)).append(' ');
+                }
+                svg.append(num(x2)).append(',').append(num(y2))
+                        .append("\" fill=\"none\" stroke=\"").append(theme.connector)
+                        .append("\" stroke-width=\"2\" stroke-dasharray=\"6,4\" opacity=\"0.6\"/>");
+            }
+        }
+
+        // Within 30px of a midpoint already taken; 30px cells, so only the 3x3 block around it can hold one
+        private static boolean occupied(Map<Long, List<double[]>> midpoints, double px, double py) {
+            long cx = (long) Math.floor(px / 30);
+            long cy = (long) Math.floor(py / 30);
+            for (long i = cx - 1; i <= cx + 1; i++) {
+                for (long j = cy - 1; j <= cy + 1; j++) {
+                    List<double[]> points = midpoints.get((i << 32) ^ (j & 0xffffffffL));
+                    if (points == null) {
+                        continue;
+                    }
+                    for (double[] p : points) {
+                        if (Math.hypot(px - p[0], py - p[1]) < 30) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static long cell(double px, double py) {
+            return ((long) Math.floor(px / 30) << 32) ^ ((long) Math.floor(py / 30) & 0xffffffffL);
+        }
+
+        private void drawNode(int n) {
+            JsonNode node = compiled.node(n);
+            String type = node.path("type").asText("default");
+            Colors colors = tagColors(theme, node.path("tag").asText());
+            String stroke = colors.stroke();
+            double strokeWidth = 2;
+            String dash = "external".equals(node.path("tag").asText()) ? "6,3" : null;
+            // SVG rects have one corner radius, so per-corner shapes take their most visible one
+            int radius = switch (type) {
+                case "gateway", "cdn" -> 20;
+                case "database", "cache" -> 12;
+                case "queue" -> 24;
+                case "lambda" -> 16;
+                case "storage", "vpn" -> 4;
+                default -> 6;
+            };
+            switch (type) {
+                case "cache" -> dash = "2,3";
+                case "cdn" -> dash = "6,3";
+                case "firewall" -> {
+                    stroke = "#e74c3c";
+                    strokeWidth = 4;
+                }
+                default -> { }
+            }
+
+            svg.append("<g>");
+            svg.append("<rect x=\"").append(num(x[n])).append("\" y=\"").append(num(y[n]))
+                    .append("\" width=\"").append(num(w[n])).append("\" height=\"").append(num(h[n]))
+                    .append("\" rx=\"").append(Math.min(radius, (int) Math.min(w[n], h[n]) / 2))
+                    .append("\" fill=\"").append(colors.fill())
+                    .append("\" stroke=\"").append(stroke)
+                    .append("\" stroke-width=\"").append(num(strokeWidth)).append('"');
+            if (dash != null) {
+                svg.append(" stroke-dasharray=\"").append(dash).append('"');
+            }
+            svg.append("/>");
+            if ("lambda".equals(type) || "dashboard".equals(type)) {
+                // The 4px accent border: orange along the bottom of a lambda, highlight across a dashboard's top
+                double ay = "lambda".equals(type) ? y[n] + h[n] - 4 : y[n];
+                svg.append("<rect x=\"").append(num(x[n] + 2)).append("\" y=\"").append(num(ay))
+                        .append("\" width=\"").append(num(Math.max(0, w[n] - 4))).append("\" height=\"4\" fill=\"")
+                        .append("lambda".equals(type) ? "#f90" : theme == Theme.LIGHT ? "#0d8fa0" : "#17a2b8").append("\"/>");
+            }
+
+            double centre = x[n] + w[n] / 2;
+            svg.append("<svg x=\"").append(num(centre - 12)).append("\" y=\"").append(num(y[n] + 8))
+                    .append("\" width=\"24\" height=\"24\" viewBox=\"0 0 24 24\" color=\"").append(colors.text())
+                    .append("\" fill=\"currentColor\" opacity=\"0.9\">")
+                    .append(ICONS.getOrDefault(type, ICONS.get("default"))).append("</svg>");
+
+            // Labels break on real newlines and on a literal backslash-n, as in the browser
+            String label = node.path("label").asText("").replace("\\n", "\n");
+            if (!label.isEmpty()) {
+                svg.append("<text x=\"").append(num(centre)).append("\" y=\"").append(num(y[n] + 48))
+                        .append("\" text-anchor=\"middle\" font-size=\"12.8\" font-weight=\"600\" fill=\"")
+                        .append(colors.text()).append("\">");
+                String[] lines = label.split("\n", -1);
+                for (int i = 0; i < lines.length; i++) {
+                    svg.append("<tspan x=\"").append(num(centre)).append('"');
+                    if (i > 0) {
+                        svg.append(" dy=\"15.4\"");
+                    }
+                    svg.append('>').append(escape(lines[i])).append("</tspan>");
+                }
+                svg.append("</text>");
+            }
+
+            String status = node.path("status").asText();
+            if ("ready".equals(status) || "wip".equals(status)) {
+                double bx = x[n] + w[n];
+                svg.append("<circle cx=\"").append(num(bx)).append("\" cy=\"").append(num(y[n]))
+                        .append("\" r=\"10\" fill=\"").append("ready".equals(status) ? "#2ecc71" : "#f39c12")
+                        .append("\" stroke=\"").append(theme.statusRing).append("\" stroke-width=\"2\"/>")
+                        .append("<text x=\"").append(num(bx)).append("\" y=\"").append(num(y[n] + 4))
+                        .append("\" text-anchor=\"middle\" font-size=\"12\" font-weight=\"bold\" fill=\"#fff\">")
+                        .append("ready".equals(status) ? "\u2714" : "\u23F3").append("</text>");
+            }
+            svg.append("</g>");
+        }
+    }
+
+    // Whole pixels print without a fraction; anything else keeps one decimal
+    static String num(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(Math.round(value * 10) / 10.0);
+    }
+
+    static String escape(String text) {
+        StringBuilder out = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement = switch (c) {
+                case '<' -> "&lt;";
+                case '>' -> "&gt;";
+                case '&' -> "&amp;";
+                case '"' -> "&quot;";
+                default -> null;
+            };
+            if (replacement != null || (c < 0x20 && c != '\t')) {
+                if (out == null) {
+                    out = new StringBuilder(text.length() + 16).append(text, 0, i);
+                }
+                // Control characters are not allowed in XML 1.0 at all
+                out.append(replacement != null ? replacement : " ");
+            } else if (out != null) {
+                out.append(c);
+            }
+        }
+        return out != null ? out.toString() : text;
+    }
+}
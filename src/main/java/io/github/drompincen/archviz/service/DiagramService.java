@@ -3,15 +3,34 @@ package io.github.drompincen.archviz.service;
 import io.github.drompincen.archviz.dto.DiagramCreateRequest;
 import io.github.drompincen.archviz.dto.DiagramUpdateRequest;
 import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramPage;
+import io.github.drompincen.archviz.model.DiagramRevision;
 import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.DiagramVersionSummary;
+import io.github.drompincen.archviz.model.SummaryPage;
 import io.github.drompincen.archviz.repository.DiagramRepository;
+import io.github.drompincen.archviz.repository.VersionConflictException;
+import com.fasterxml.jackson.databind.JsonNode;
 import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -20,71 +39,389 @@ public class DiagramService {
 
     private final DiagramRepository repository;
     private final StaticFileService staticFileService;
+    private final DiagramHistoryService historyService;
+    private final FlowCompiler flowCompiler;
+    private final FlowProjector flowProjector;
 
-    public DiagramService(DiagramRepository repository, StaticFileService staticFileService) {
+    // One load per id at a time; concurrent readers share the leader's future and its parsed Diagram
+    private final ConcurrentMap<String, CompletableFuture<Optional<Diagram>>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedLoads = new AtomicLong();
+
+    public DiagramService(DiagramRepository repository, StaticFileService staticFileService,
+                          DiagramHistoryService historyService, FlowCompiler flowCompiler,
+                          FlowProjector flowProjector) {
         this.repository = repository;
         this.staticFileService = staticFileService;
+        this.historyService = historyService;
+        this.flowCompiler = flowCompiler;
+        this.flowProjector = flowProjector;
     }
 
     public List<DiagramSummary> listAll(Optional<String> tag, Optional<String> query) {
-        List<Diagram> dbDiagrams = repository.findAll(tag, query);
-        dbDiagrams.forEach(d -> d.setSource("db"));
+        List<DiagramSummary> dbSummaries = repository.findSummaries(tag, query);
+        return Stream.concat(dbSummaries.stream(), staticSummaries(tag, query))
+                .collect(Collectors.toList());
+    }
+
+    // DB diagrams first in the repository's native order, then static diagrams by id
+    public DiagramPage listPage(Optional<String> tag, Optional<String> query, Optional<String> cursor, int limit) {
+        ListCursor position = cursor.map(ListCursor::decode).orElse(ListCursor.START);
+        List<DiagramSummary> items = new ArrayList<>();
+
+        if (position.inDb()) {
+            SummaryPage page = repository.findSummaryPage(tag, query, position.afterId(), limit);
+            items.addAll(page.items());
+            if (page.nextAfterId() != null) {
+                return new DiagramPage(items, new ListCursor(true, Optional.of(page.nextAfterId())).encode());
+            }
+            position = ListCursor.STATIC_START;
+        }
 
-        List<Diagram> fileDiagrams = staticFileService.loadStaticDiagrams();
+        Optional<String> after = position.afterId();
+        int need = limit - items.size();
+        List<DiagramSummary> remaining = staticSummaries(tag, query)
+                .filter(d -> after.isEmpty() || d.id().compareTo(after.get()) > 0)
+                .limit(need + 1L)
+                .collect(Collectors.toList());
+        if (remaining.size() <= need) {
+            items.addAll(remaining);
+            return new DiagramPage(items, null);
+        }
+        items.addAll(remaining.subList(0, need));
+        Optional<String> last = need == 0 ? Optional.empty() : Optional.of(remaining.get(need - 1).id());
+        return new DiagramPage(items, new ListCursor(false, last).encode());
+    }
+
+    public void forEachPage(Optional<String> tag, Optional<String> query, int pageSize,
+                            Consumer<List<DiagramSummary>> consumer) {
+        Optional<String> cursor = Optional.empty();
+        do {
+            DiagramPage page = listPage(tag, query, cursor, pageSize);
+            if (!page.items().isEmpty()) {
+                consumer.accept(page.items());
+            }
+            cursor = Optional.ofNullable(page.nextCursor());
+        } while (cursor.isPresent());
+    }
 
-        Stream<Diagram> fileStream = fileDiagrams.stream();
+    private Stream<DiagramSummary> staticSummaries(Optional<String> tag, Optional<String> query) {
+        Stream<DiagramSummary> fileStream = staticFileService.loadStaticSummaries().stream();
         if (tag.isPresent()) {
             String t = tag.get();
-            fileStream = fileStream.filter(d -> d.getTags() != null && d.getTags().contains(t));
+            fileStream = fileStream.filter(d -> d.tags() != null && d.tags().contains(t));
         }
         if (query.isPresent()) {
             String q = query.get().toLowerCase();
             fileStream = fileStream.filter(d ->
-                    d.getTitle() != null && d.getTitle().toLowerCase().contains(q));
+                    d.title() != null && d.title().toLowerCase().contains(q));
         }
-
-        return Stream.concat(dbDiagrams.stream(), fileStream)
-                .map(d -> new DiagramSummary(d.getId(), d.getTitle(), d.getDescription(),
-                        d.getTags(), d.getVersion(), d.getSource()))
-                .collect(Collectors.toList());
+        return fileStream;
     }
 
+    // Loaded diagrams may be shared between concurrent callers and must be treated as read-only
     public Optional<Diagram> getById(String id) {
-        Optional<Diagram> dbResult = repository.findById(id);
+        return await(singleFlight(id, () -> CompletableFuture.supplyAsync(() -> repository.findById(id), Runnable::run)));
+    }
+
+    public CompletableFuture<Optional<Diagram>> getByIdAsync(String id) {
+        return singleFlight(id, () -> repository.findByIdAsync(id));
+    }
+
+    // Number of reads that joined a load already in flight instead of starting their own
+    public long getCoalescedLoads() {
+        return coalescedLoads.get();
+    }
+
+    // Served by GET /api/diagrams:stats: the repository layers' counters, then the static catalog and loads
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>(repository.stats());
+        stats.put("staticCatalog", staticFileService.getStats());
+        stats.put("coalescedLoads", getCoalescedLoads());
+        return stats;
+    }
+
+    private CompletableFuture<Optional<Diagram>> singleFlight(String id,
+                                                              Supplier<CompletableFuture<Optional<Diagram>>> load) {
+        CompletableFuture<Optional<Diagram>> mine = new CompletableFuture<>();
+        CompletableFuture<Optional<Diagram>> leader = inFlight.putIfAbsent(id, mine);
+        if (leader != null) {
+            coalescedLoads.incrementAndGet();
+            return leader;
+        }
+        // The entry is removed before completing, so readers arriving after the result start a fresh load
+        try {
+            load.get().thenApply(dbResult -> withStaticFallback(id, dbResult)).whenComplete((result, error) -> {
+                inFlight.remove(id, mine);
+                if (error != null) {
+                    mine.completeExceptionally(error);
+                } else {
+                    mine.complete(result);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(id, mine);
+            mine.completeExceptionally(e);
+        }
+        return mine;
+    }
+
+    private Optional<Diagram> withStaticFallback(String id, Optional<Diagram> dbResult) {
         if (dbResult.isPresent()) {
-            dbResult.get().setSource("db");
-            return dbResult;
+            return dbResult.map(d -> d.withSource("db"));
         }
         return staticFileService.loadStaticDiagramById(id);
     }
 
+    // DB revisions shadow static ones, mirroring getById
+    public Optional<DiagramRevision> getRevision(String id) {
+        return withStaticRevision(id, repository.findRevisionById(id));
+    }
+
+    public CompletableFuture<Optional<DiagramRevision>> getRevisionAsync(String id) {
+        return repository.findRevisionByIdAsync(id).thenApply(dbRevision -> withStaticRevision(id, dbRevision));
+    }
+
+    private Optional<DiagramRevision> withStaticRevision(String id, Optional<DiagramRevision> dbRevision) {
+        return dbRevision.isPresent() ? dbRevision : staticFileService.getRevision(id);
+    }
+
+    // The validators of an already loaded diagram, so a read with nothing to revalidate needs no revision lookup
+    public Optional<DiagramRevision> revisionOf(Diagram diagram) {
+        if ("file".equals(diagram.source())) {
+            return staticFileService.getRevision(diagram.id());
+        }
+        return Optional.of(DiagramRevision.of(diagram.id(), diagram.version(), diagram.updatedAt()));
+    }
+
+    // Derived from summaries only; any add, delete, update or static reload changes it
+    public String listETag(List<DiagramSummary> summaries) {
+        StringBuilder key = new StringBuilder(staticFileService.getCatalogFingerprint());
+        for (DiagramSummary s : summaries) {
+            key.append('\n').append(s.source()).append(':').append(s.id()).append(':').append(s.version());
+        }
+        return "\"" + DigestUtils.md5DigestAsHex(key.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    // Flows are compiled before every write: one with dangling references throws InvalidFlowException
     public Diagram create(DiagramCreateRequest request) {
-        Diagram d = new Diagram();
-        d.setId(UUID.randomUUID().toString());
-        d.setTitle(request.title());
-        d.setDescription(request.description());
-        d.setTags(request.tags() != null ? request.tags() : Collections.emptyList());
-        d.setVersion(1);
-        d.setSource("db");
-        d.setCreatedAt(Instant.now());
-        d.setUpdatedAt(Instant.now());
-        d.setFlow(request.flow());
-        return repository.save(d);
+        Diagram diagram = newDiagram(request);
+        CompiledFlow compiled = flowCompiler.validate(diagram.flow());
+        Diagram saved = repository.save(diagram);
+        flowCompiler.remember(saved, compiled);
+        historyService.record(null, saved);
+        return saved;
+    }
+
+    public CompletableFuture<Diagram> createAsync(DiagramCreateRequest request) {
+        Diagram diagram = newDiagram(request);
+        CompiledFlow compiled = flowCompiler.validate(diagram.flow());
+        return repository.saveAsync(diagram).thenApply(saved -> {
+            flowCompiler.remember(saved, compiled);
+            historyService.record(null, saved);
+            return saved;
+        });
+    }
+
+    // The compiled form of a loaded diagram, reused while its version (or static flow) is unchanged
+    public CompiledFlow compiledFlow(Diagram diagram) {
+        return flowCompiler.compiled(diagram);
+    }
+
+    // Positions for nodes (and zones) without them, or for everything; a copy, nothing is saved
+    public JsonNode layout(JsonNode flow, FlowLayout.Mode mode) {
+        return FlowLayout.layout(flow, mode);
+    }
+
+    // Only what is visible at phaseId, with flowId's steps as the sequence; null for either means no filter.
+    // Unknown phase or flow ids throw IllegalArgumentException.
+    public Diagram project(Diagram diagram, String phaseId, String flowId) {
+        return flowProjector.project(diagram, phaseId, flowId);
+    }
+
+    private static Diagram newDiagram(DiagramCreateRequest request) {
+        Instant now = Instant.now();
+        return Diagram.builder()
+                .id(UUID.randomUUID().toString())
+                .title(request.title())
+                .description(request.description())
+                .tags(request.tags() != null ? request.tags() : Collections.emptyList())
+                .version(1)
+                .source("db")
+                .createdAt(now)
+                .updatedAt(now)
+                .flow(request.flow())
+                .build();
     }
 
     public Optional<Diagram> update(String id, DiagramUpdateRequest request) {
+        return update(id, request, Optional.empty());
+    }
+
+    // Read-modify-write guarded by the version that was read: a concurrent save in between makes the
+    // conditional write fail with VersionConflictException instead of being overwritten. expectedVersion
+    // is the version the client edited, checked against the stored one before anything is written.
+    public Optional<Diagram> update(String id, DiagramUpdateRequest request, Optional<Integer> expectedVersion) {
+        Optional<Diagram> existing = repository.findById(id);
+        if (existing.isEmpty()) {
+            return Optional.empty();
+        }
+        int readVersion = checkVersion(existing.get(), expectedVersion);
+        Diagram updated = applyUpdate(existing.get(), request);
+        CompiledFlow compiled = flowCompiler.validate(updated.flow());
+        JsonNode previous = historyService.document(existing.get());
+        Diagram saved = repository.save(updated, readVersion);
+        // Loads that started before the write must not be joined by later readers
+        inFlight.remove(id);
+        flowCompiler.remember(saved, compiled);
+        historyService.record(previous, saved);
+        return Optional.of(saved);
+    }
+
+    public CompletableFuture<Optional<Diagram>> updateAsync(String id, DiagramUpdateRequest request) {
+        return updateAsync(id, request, Optional.empty());
+    }
+
+    public CompletableFuture<Optional<Diagram>> updateAsync(String id, DiagramUpdateRequest request,
+                                                            Optional<Integer> expectedVersion) {
+        return repository.findByIdAsync(id).thenCompose(existing -> {
+            if (existing.isEmpty()) {
+                return CompletableFuture.completedFuture(Optional.<Diagram>empty());
+            }
+            int readVersion = checkVersion(existing.get(), expectedVersion);
+            Diagram updated = applyUpdate(existing.get(), request);
+            CompiledFlow compiled = flowCompiler.validate(updated.flow());
+            JsonNode previous = historyService.document(existing.get());
+            return repository.saveAsync(updated, readVersion).thenApply(saved -> {
+                inFlight.remove(id);
+                flowCompiler.remember(saved, compiled);
+                historyService.record(previous, saved);
+                return Optional.of(saved);
+            });
+        });
+    }
+
+    // Edits the stored flow in place; the repository only has to write the flow, version and updatedAt
+    public Optional<Diagram> patchFlow(String id, FlowPatch type, JsonNode patch, Optional<Integer> expectedVersion) {
         Optional<Diagram> existing = repository.findById(id);
         if (existing.isEmpty()) {
             return Optional.empty();
         }
-        Diagram d = existing.get();
-        d.setTitle(request.title());
-        d.setDescription(request.description());
-        d.setTags(request.tags() != null ? request.tags() : d.getTags());
-        d.setVersion(d.getVersion() + 1);
-        d.setUpdatedAt(Instant.now());
-        d.setFlow(request.flow());
-        d.setSource("db");
-        return Optional.of(repository.save(d));
+        int readVersion = checkVersion(existing.get(), expectedVersion);
+        Diagram patched = applyFlowPatch(existing.get(), type, patch);
+        CompiledFlow compiled = flowCompiler.validate(patched.flow());
+        JsonNode previous = historyService.document(existing.get());
+        Diagram saved = repository.saveFlow(patched, readVersion);
+        inFlight.remove(id);
+        flowCompiler.remember(saved, compiled);
+        historyService.record(previous, saved);
+        return Optional.of(saved);
+    }
+
+    public CompletableFuture<Optional<Diagram>> patchFlowAsync(String id, FlowPatch type, JsonNode patch,
+                                                               Optional<Integer> expectedVersion) {
+        return repository.findByIdAsync(id).thenCompose(existing -> {
+            if (existing.isEmpty()) {
+                return CompletableFuture.completedFuture(Optional.<Diagram>empty());
+            }
+            int readVersion = checkVersion(existing.get(), expectedVersion);
+            Diagram patched = applyFlowPatch(existing.get(), type, patch);
+            CompiledFlow compiled = flowCompiler.validate(patched.flow());
+            JsonNode previous = historyService.document(existing.get());
+            return repository.saveFlowAsync(patched, readVersion)
+                    .thenApply(saved -> {
+                        inFlight.remove(id);
+                        flowCompiler.remember(saved, compiled);
+                        historyService.record(previous, saved);
+                        return Optional.of(saved);
+                    });
+        });
+    }
+
+    private static int checkVersion(Diagram existing, Optional<Integer> expectedVersion) {
+        if (expectedVersion.isPresent() && expectedVersion.get() != existing.version()) {
+            throw new VersionConflictException(existing.id(), expectedVersion.get());
+        }
+        return existing.version();
+    }
+
+    public List<DiagramVersionSummary> listVersions(String id) {
+        return historyService.listVersions(id);
+    }
+
+    // A past version of a stored diagram; static diagrams have no history
+    public Optional<Diagram> getVersion(String id, int version) {
+        return historyService.getVersion(id, version).map(d -> d.withSource("db"));
+    }
+
+    private static Diagram applyUpdate(Diagram d, DiagramUpdateRequest request) {
+        return d.toBuilder()
+                .title(request.title())
+                .description(request.description())
+                .tags(request.tags() != null ? request.tags() : d.tags())
+                .version(d.version() + 1)
+                .updatedAt(Instant.now())
+                .flow(request.flow())
+                .source("db")
+                .build();
+    }
+
+    // Invalid patches throw IllegalArgumentException before anything is written
+    private static Diagram applyFlowPatch(Diagram d, FlowPatch type, JsonNode patch) {
+        return d.toBuilder()
+                .flow(type.apply(d.flow(), patch))
+                .version(d.version() + 1)
+                .updatedAt(Instant.now())
+                .source("db")
+                .build();
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public enum FlowPatch {
+        // RFC 6902, application/json-patch+json
+        JSON_PATCH,
+        // RFC 7396, application/merge-patch+json
+        MERGE_PATCH;
+
+        JsonNode apply(JsonNode flow, JsonNode patch) {
+            return this == JSON_PATCH ? JsonPatch.apply(flow, patch) : JsonMergePatch.apply(flow, patch);
+        }
+    }
+
+    // Opaque to clients: which segment of the listing to continue, and the id to resume after
+    private record ListCursor(boolean inDb, Optional<String> afterId) {
+
+        static final ListCursor START = new ListCursor(true, Optional.empty());
+        static final ListCursor STATIC_START = new ListCursor(false, Optional.empty());
+
+        String encode() {
+            String raw = (inDb ? "db:" : "file:") + afterId.orElse("");
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static ListCursor decode(String cursor) {
+            String raw;
+            try {
+                raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Malformed cursor", e);
+            }
+            int colon = raw.indexOf(':');
+            String segment = colon < 0 ? "" : raw.substring(0, colon);
+            if (!segment.equals("db") && !segment.equals("file")) {
+                throw new IllegalArgumentException("Malformed cursor");
+            }
+            String after = raw.substring(colon + 1);
+            return new ListCursor(segment.equals("db"), after.isEmpty() ? Optional.empty() : Optional.of(after));
+        }
     }
 }
@@ -0,0 +1,328 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.Diagram;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles flow documents into CompiledFlow and keeps the compiled form of recently used diagrams.
+// Saves validate through here, so a dangling from/to, parent or phase is rejected before it is stored.
+@Service
+public class FlowCompiler {
+
+    private final int maxEntries;
+
+    // Guarded by this; access-ordered, so the least recently used diagram is dropped first
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    public FlowCompiler(@Value("${diagram.flow.compiled-cache-size:1000}") int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    // Lenient: problems are collected on the result instead of thrown, and unresolved references become MISSING
+    // (UNKNOWN_PHASE for phases)
+    public static CompiledFlow compile(JsonNode flow) {
+        return flow == null || flow.isNull() ? CompiledFlow.EMPTY : new Builder(flow).compile();
+    }
+
+    // Throws InvalidFlowException listing every problem; a diagram without a flow is valid
+    public CompiledFlow validate(JsonNode flow) {
+        CompiledFlow compiled = compile(flow);
+        if (!compiled.isValid()) {
+            throw new InvalidFlowException(compiled.problems());
+        }
+        return compiled;
+    }
+
+    // Called once a save has gone through, so the next reader of that version does not compile again
+    public void remember(Diagram saved, CompiledFlow compiled) {
+        if (compiled.source() == saved.flow()) {
+            put(saved.id(), new Entry(saved.source(), saved.version(), saved.flow(), compiled));
+        }
+    }
+
+    // A stored version never changes, so "db" entries are reused across instances of the same version;
+    // static files keep version 0 across reloads and only reuse an entry for the very same flow tree
+    public CompiledFlow compiled(Diagram diagram) {
+        Entry entry;
+        synchronized (this) {
+            entry = cache.get(diagram.id());
+        }
+        if (entry != null && (entry.flow() == diagram.flow() || ("db".equals(diagram.source())
+                && "db".equals(entry.source()) && entry.version() == diagram.version()))) {
+            return entry.compiled();
+        }
+        CompiledFlow compiled = compile(diagram.flow());
+        put(diagram.id(), new Entry(diagram.source(), diagram.version(), diagram.flow(), compiled));
+        return compiled;
+    }
+
+    public synchronized void evict(String id) {
+        cache.remove(id);
+    }
+
+    private synchronized void put(String id, Entry entry) {
+        if (maxEntries == 0) {
+            return;
+        }
+        cache.put(id, entry);
+        Iterator<Map.Entry<String, Entry>> eldest = cache.entrySet().iterator();
+        while (cache.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private record Entry(String source, int version, JsonNode flow, CompiledFlow compiled) {}
+
+    // Single pass per section. Zones are read twice, since a parent may be declared after its children.
+    static final class Builder {
+
+        private final JsonNode flow;
+        private final List<String> problems = new ArrayList<>();
+        private final List<String> phaseIds = new ArrayList<>();
+        private final Map<String, Integer> phaseIndex = new HashMap<>();
+        private final List<JsonNode> nodes = new ArrayList<>();
+        private final Map<String, Integer> nodeIndex = new HashMap<>();
+        private final List<JsonNode> zones = new ArrayList<>();
+        private final Map<String, Integer> zoneIndex = new HashMap<>();
+        private List<JsonNode> connections = List.of();
+        private final List<CompiledFlow.Sequence> flows = new ArrayList<>();
+        private final Map<String, Integer> flowIndex = new HashMap<>();
+        private int[] nodePhase = new int[0];
+        private int[] nodeZone = new int[0];
+        private int[] zoneParent = new int[0];
+        private int[] zonePhase = new int[0];
+        private int[] connectionFrom = new int[0];
+        private int[] connectionTo = new int[0];
+        private int[] connectionPhase = new int[0];
+        private CompiledFlow.Sequence sequence = new CompiledFlow.Sequence(null, null, null, List.of(), new int[0], new int[0], new int[0]);
+
+        Builder(JsonNode flow) {
+            this.flow = flow;
+        }
+
+        CompiledFlow compile() {
+            if (!flow.isObject()) {
+                problems.add("flow: must be a JSON object");
+                return build();
+            }
+            compilePhases();
+            compileNodes();
+            compileZones();
+            resolveNodeZones();
+            compileConnections();
+            sequence = compileSequence("sequence", null, null, flow.get("sequence"));
+            List<JsonNode> namedFlows = elements("flows", flow.get("flows"));
+            for (int i = 0; i < namedFlows.size(); i++) {
+                JsonNode named = namedFlows.get(i);
+                String path = "flows[" + i + "]";
+                String id = id(path, named);
+                if (id != null && flowIndex.putIfAbsent(id, flows.size()) != null) {
+                    problems.add(path + ".id: duplicate flow id '" + id + "'");
+                }
+                flows.add(compileSequence(path + ".sequence", id, named, named.get("sequence")));
+            }
+            return build();
+        }
+
+        CompiledFlow build() {
+            int[][] out = adjacency(connectionFrom, connectionTo);
+            int[][] in = adjacency(connectionTo, connectionFrom);
+            return new CompiledFlow(flow, Collections.unmodifiableList(phaseIds), phaseIndex,
+                    Collections.unmodifiableList(nodes), nodeIndex, nodePhase, nodeZone,
+                    Collections.unmodifiableList(zones), zoneIndex, zoneParent, zonePhase,
+                    connections, connectionFrom, connectionTo, connectionPhase, out[0], out[1], in[0], in[1],
+                    sequence, Collections.unmodifiableList(flows), flowIndex, Collections.unmodifiableList(problems));
+        }
+
+        private void compilePhases() {
+            List<JsonNode> phases = elements("phases", flow.get("phases"));
+            for (int i = 0; i < phases.size(); i++) {
+                String id = id("phases[" + i + "]", phases.get(i));
+                if (id != null && phaseIndex.putIfAbsent(id, phaseIds.size()) != null) {
+                    problems.add("phases[" + i + "].id: duplicate phase id '" + id + "'");
+                }
+                phaseIds.add(id);
+            }
+        }
+
+        private void compileNodes() {
+            List<JsonNode> elements = elements("nodes", flow.get("nodes"));
+            nodePhase = new int[elements.size()];
+            for (int i = 0; i < elements.size(); i++) {
+                JsonNode node = elements.get(i);
+                String path = "nodes[" + i + "]";
+                String id = id(path, node);
+                if (id != null && nodeIndex.putIfAbsent(id, i) != null) {
+                    problems.add(path + ".id: duplicate node id '" + id + "'");
+                }
+                nodes.add(node);
+                nodePhase[i] = phase(path, node);
+            }
+        }
+
+        private void compileZones() {
+            List<JsonNode> elements = elements("zones", flow.get("zones"));
+            for (int i = 0; i < elements.size(); i++) {
+                String id = id("zones[" + i + "]", elements.get(i));
+                if (id != null && zoneIndex.putIfAbsent(id, i) != null) {
+                    problems.add("zones[" + i + "].id: duplicate zone id '" + id + "'");
+                }
+                zones.add(elements.get(i));
+            }
+            zoneParent = new int[zones.size()];
+            zonePhase = new int[zones.size()];
+            for (int i = 0; i < zones.size(); i++) {
+                String path = "zones[" + i + "]";
+                zoneParent[i] = reference(path + ".parent", zones.get(i).get("parent"), zoneIndex, "zone");
+                zonePhase[i] = phase(path, zones.get(i));
+            }
+            // Each zone is walked at most once: chains stop at zones already known to reach a root
+            byte[] state = new byte[zones.size()];
+            for (int i = 0; i < zones.size(); i++) {
+                int z = i;
+                while (z != CompiledFlow.MISSING && state[z] == 0) {
+                    state[z] = 1;
+                    z = zoneParent[z];
+                }
+                boolean cycle = z != CompiledFlow.MISSING && state[z] == 1;
+                for (int w = i; w != CompiledFlow.MISSING && state[w] == 1; w = zoneParent[w]) {
+                    state[w] = 2;
+                }
+                if (cycle) {
+                    problems.add("zones[" + z + "].parent: zone '" + zones.get(z).path("id").asText()
+                            + "' is its own ancestor");
+                    zoneParent[z] = CompiledFlow.MISSING;
+                }
+            }
+        }
+
+        // After compileZones, since a node may name any zone
+        private void resolveNodeZones() {
+            nodeZone = new int[nodes.size()];
+            for (int i = 0; i < nodes.size(); i++) {
+                nodeZone[i] = reference("nodes[" + i + "].zone", nodes.get(i).get("zone"), zoneIndex, "zone");
+            }
+        }
+
+        private void compileConnections() {
+            List<JsonNode> elements = elements("connections", flow.get("connections"));
+            connections = Collections.unmodifiableList(elements);
+            connectionFrom = new int[elements.size()];
+            connectionTo = new int[elements.size()];
+            connectionPhase = new int[elements.size()];
+            for (int i = 0; i < elements.size(); i++) {
+                String path = "connections[" + i + "]";
+                JsonNode connection = elements.get(i);
+                connectionFrom[i] = required(path + ".from", connection.get("from"), nodeIndex, "node");
+                connectionTo[i] = required(path + ".to", connection.get("to"), nodeIndex, "node");
+                connectionPhase[i] = phase(path, connection);
+            }
+        }
+
+        private CompiledFlow.Sequence compileSequence(String path, String id, JsonNode element, JsonNode steps) {
+            List<JsonNode> elements = elements(path, steps);
+            int[] from = new int[elements.size()];
+            int[] to = new int[elements.size()];
+            int[] phase = new int[elements.size()];
+            for (int i = 0; i < elements.size(); i++) {
+                String stepPath = path + "[" + i + "]";
+                JsonNode step = elements.get(i);
+                from[i] = required(stepPath + ".from", step.get("from"), nodeIndex, "node");
+                to[i] = required(stepPath + ".to", step.get("to"), nodeIndex, "node");
+                phase[i] = phase(stepPath, step);
+            }
+            String name = element != null ? element.path("name").asText(null) : null;
+            return new CompiledFlow.Sequence(id, name, element, Collections.unmodifiableList(elements), from, to, phase);
+        }
+
+        // Non-object elements are reported and left out, so indexes below refer to the kept elements
+        private List<JsonNode> elements(String path, JsonNode array) {
+            List<JsonNode> elements = new ArrayList<>();
+            if (array == null || array.isNull()) {
+                return elements;
+            }
+            if (!array.isArray()) {
+                problems.add(path + ": must be an array");
+                return elements;
+            }
+            for (int i = 0; i < array.size(); i++) {
+                if (array.get(i).isObject()) {
+                    elements.add(array.get(i));
+                } else {
+                    problems.add(path + "[" + i + "]: must be an object");
+                }
+            }
+            return elements;
+        }
+
+        private String id(String path, JsonNode element) {
+            JsonNode id = element.get("id");
+            if (id == null || !id.isTextual() || id.asText().isEmpty()) {
+                problems.add(path + ".id: required");
+                return null;
+            }
+            return id.asText();
+        }
+
+        private int phase(String path, JsonNode element) {
+            JsonNode phase = element.get("phase");
+            if (phase == null || phase.isNull() || (phase.isTextual() && phase.asText().isEmpty())) {
+                return CompiledFlow.ALWAYS;
+            }
+            int resolved = reference(path + ".phase", phase, phaseIndex, "phase");
+            return resolved != CompiledFlow.MISSING ? resolved : CompiledFlow.UNKNOWN_PHASE;
+        }
+
+        private int required(String path, JsonNode value, Map<String, Integer> index, String kind) {
+            if (value == null || value.isNull()) {
+                problems.add(path + ": required");
+                return CompiledFlow.MISSING;
+            }
+            return reference(path, value, index, kind);
+        }
+
+        // An absent optional reference is MISSING without a problem; a present one must resolve
+        private int reference(String path, JsonNode value, Map<String, Integer> index, String kind) {
+            if (value == null || value.isNull()) {
+                return CompiledFlow.MISSING;
+            }
+            Integer resolved = value.isTextual() ? index.get(value.asText()) : null;
+            if (resolved == null) {
+                problems.add(path + ": unknown " + kind + " '" + value.asText() + "'");
+                return CompiledFlow.MISSING;
+            }
+            return resolved;
+        }
+
+        // Counting sort of the resolved edges by source: start offsets, then targets grouped by source
+        private int[][] adjacency(int[] sources, int[] targets) {
+            int[] start = new int[nodes.size() + 1];
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i] != CompiledFlow.MISSING && targets[i] != CompiledFlow.MISSING) {
+                    start[sources[i] + 1]++;
+                }
+            }
+            for (int n = 0; n < nodes.size(); n++) {
+                start[n + 1] += start[n];
+            }
+            int[] grouped = new int[start[nodes.size()]];
+            int[] next = start.clone();
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i] != CompiledFlow.MISSING && targets[i] != CompiledFlow.MISSING) {
+                    grouped[next[sources[i]]++] = targets[i];
+                }
+            }
+            return new int[][]{start, grouped};
+        }
+    }
+}
@@ -0,0 +1,956 @@
+package io.github.drompincen.archviz.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Fills in node positions (and zone boxes) so generated flows render without hand placement.
+//
+// A full layout works container by container, innermost zones first: the nodes and child zones directly
+// inside a container are placed in left-to-right layers along the connections (cycle removal, longest-path
+// layering, barycenter ordering), then relaxed along each layer with edge springs against an overlap
+// constraint. A finished zone is a single box in its parent's layout, so zones never overlap their
+// siblings and always enclose their members.
+//
+// An incremental layout keeps every positioned node where it is and places the others one by one next to
+// their positioned neighbours, in the first free slot, growing their zone when it is full.
+public final class FlowLayout {
+
+    public enum Mode {
+        // Only nodes without x/y are placed; positioned nodes and existing zone boxes stay where they are
+        MISSING,
+        // Every node and zone is placed from scratch
+        ALL;
+
+        public static Mode parse(String value) {
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(value)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown layout mode '" + value + "', expected 'missing' or 'all'");
+        }
+    }
+
+    // The browser draws nodes without w as 100px wide, and sizes their height to the label
+    static final int DEFAULT_WIDTH = 100;
+    static final int DEFAULT_HEIGHT = 70;
+    static final int LAYER_GAP = 80;
+    static final int ITEM_GAP = 40;
+    static final int ZONE_PADDING = 20;
+    static final int ZONE_LABEL = 30;
+    static final int MARGIN = 40;
+
+    private static final int ORDER_SWEEPS = 8;
+    private static final int FORCE_ITERATIONS = 30;
+    private static final int MAX_RINGS = 200;
+    private static final int ROOT = -1;
+
+    private FlowLayout() {
+    }
+
+    // Returns a laid-out copy; the given flow is left untouched. Unresolved references are ignored.
+    public static JsonNode layout(JsonNode flow, Mode mode) {
+        if (flow == null || !flow.isObject()) {
+            return flow;
+        }
+        ObjectNode copy = flow.deepCopy();
+        new Run(FlowCompiler.compile(copy), mode).apply();
+        return copy;
+    }
+
+    private static final class Run {
+
+        private final CompiledFlow flow;
+        private final int nodeCount;
+        private final int zoneCount;
+        private final double[] x;
+        private final double[] y;
+        private final double[] w;
+        private final double[] h;
+        private final boolean[] fixed;
+        private final boolean[] moved;
+        private final int[] container;
+        private final double[] zx;
+        private final double[] zy;
+        private final double[] zw;
+        private final double[] zh;
+        private final boolean[] boxed;
+        private final boolean[] zoneChanged;
+        private final int[] zoneParent;
+        private final int[] zoneDepth;
+        // Node-level edges, from connections (or sequence steps when there are none)
+        private final int[] edgeFrom;
+        private final int[] edgeTo;
+
+        Run(CompiledFlow flow, Mode mode) {
+            this.flow = flow;
+            nodeCount = flow.nodeCount();
+            zoneCount = flow.zoneCount();
+            x = new double[nodeCount];
+            y = new double[nodeCount];
+            w = new double[nodeCount];
+            h = new double[nodeCount];
+            fixed = new boolean[nodeCount];
+            moved = new boolean[nodeCount];
+            container = new int[nodeCount];
+            zx = new double[zoneCount];
+            zy = new double[zoneCount];
+            zw = new double[zoneCount];
+            zh = new double[zoneCount];
+            boxed = new boolean[zoneCount];
+            zoneChanged = new boolean[zoneCount];
+            zoneParent = new int[zoneCount];
+            zoneDepth = new int[zoneCount];
+
+            boolean[] drawn = new boolean[zoneCount];
+            for (int z = 0; z < zoneCount; z++) {
+                JsonNode zone = flow.zone(z);
+                drawn[z] = isNumber(zone, "x") && isNumber(zone, "y") && isNumber(zone, "w") && isNumber(zone, "h");
+                if (drawn[z]) {
+                    zx[z] = zone.get("x").asDouble();
+                    zy[z] = zone.get("y").asDouble();
+                    zw[z] = zone.get("w").asDouble();
+                    zh[z] = zone.get("h").asDouble();
+                }
+                boxed[z] = drawn[z] && mode == Mode.MISSING;
+                zoneParent[z] = flow.zoneParent(z);
+            }
+            for (int z = 0; z < zoneCount; z++) {
+                for (int p = zoneParent[z]; p != CompiledFlow.MISSING; p = zoneParent[p]) {
+                    zoneDepth[z]++;
+                }
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                JsonNode node = flow.node(i);
+                w[i] = size(node, "w", DEFAULT_WIDTH);
+                h[i] = size(node, "h", DEFAULT_HEIGHT);
+                boolean positioned = isNumber(node, "x") && isNumber(node, "y");
+                if (positioned) {
+                    x[i] = node.get("x").asDouble();
+                    y[i] = node.get("y").asDouble();
+                }
+                fixed[i] = positioned && mode == Mode.MISSING;
+                // A declared zone wins; otherwise the innermost zone drawn around the node's centre
+                container[i] = flow.nodeZone(i) != CompiledFlow.MISSING ? flow.nodeZone(i)
+                        : positioned ? innermostZone(x[i] + w[i] / 2, y[i] + h[i] / 2, drawn) : ROOT;
+            }
+
+            List<int[]> edges = new ArrayList<>();
+            for (int c = 0; c < flow.connectionCount(); c++) {
+                addEdge(edges, flow.connectionFrom(c), flow.connectionTo(c));
+            }
+            if (edges.isEmpty()) {
+                addSteps(edges, flow.sequence());
+                for (CompiledFlow.Sequence named : flow.flows()) {
+                    addSteps(edges, named);
+                }
+            }
+            edgeFrom = new int[edges.size()];
+            edgeTo = new int[edges.size()];
+            for (int e = 0; e < edges.size(); e++) {
+                edgeFrom[e] = edges.get(e)[0];
+                edgeTo[e] = edges.get(e)[1];
+            }
+        }
+
+        void apply() {
+            boolean anyFixed = false;
+            for (boolean f : fixed) {
+                anyFixed |= f;
+            }
+            // With nothing positioned there is nothing to keep, so even MISSING lays out everything
+            if (anyFixed) {
+                incremental();
+            } else {
+                full();
+            }
+            fitZones();
+            write();
+        }
+
+        // ---- full layout ----
+
+        private void full() {
+            Arrays.fill(boxed, false);
+            double[] relX = new double[nodeCount + zoneCount];
+            double[] relY = new double[nodeCount + zoneCount];
+            List<List<Integer>> members = new ArrayList<>();
+            for (int c = 0; c <= zoneCount; c++) {
+                members.add(new ArrayList<>());
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                members.get(slot(container[i])).add(i);
+            }
+            for (int z = 0; z < zoneCount; z++) {
+                members.get(slot(zoneParent[z])).add(nodeCount + z);
+            }
+            List<List<int[]>> containerEdges = liftEdges();
+
+            // Innermost zones first, so each zone's size is known when its parent is laid out
+            Integer[] zones = zonesByDepth();
+            for (int k = zones.length - 1; k >= 0; k--) {
+                int z = zones[k];
+                double[] size = layoutContainer(members.get(z), containerEdges.get(z), relX, relY);
+                zw[z] = Math.max(size[0] + 2 * ZONE_PADDING, DEFAULT_WIDTH + 2 * ZONE_PADDING);
+                zh[z] = Math.max(size[1] + 2 * ZONE_PADDING + ZONE_LABEL, DEFAULT_HEIGHT);
+            }
+            layoutContainer(members.get(zoneCount), containerEdges.get(zoneCount), relX, relY);
+
+            // Then outside in, turning positions relative to the container into canvas positions
+            placeMembers(members.get(zoneCount), MARGIN, MARGIN, relX, relY);
+            for (int z : zones) {
+                boxed[z] = true;
+                zoneChanged[z] = true;
+                placeMembers(members.get(z), zx[z] + ZONE_PADDING, zy[z] + ZONE_PADDING + ZONE_LABEL, relX, relY);
+            }
+        }
+
+        private void placeMembers(List<Integer> items, double originX, double originY, double[] relX, double[] relY) {
+            for (int item : items) {
+                if (item < nodeCount) {
+                    x[item] = originX + relX[item];
+                    y[item] = originY + relY[item];
+                    moved[item] = true;
+                } else {
+                    zx[item - nodeCount] = originX + relX[item];
+                    zy[item - nodeCount] = originY + relY[item];
+                }
+            }
+        }
+
+        // Each edge belongs to the deepest container holding both ends, between the members that hold them
+        private List<List<int[]>> liftEdges() {
+            List<List<int[]>> lifted = new ArrayList<>();
+            for (int c = 0; c <= zoneCount; c++) {
+                lifted.add(new ArrayList<>());
+            }
+            for (int e = 0; e < edgeFrom.length; e++) {
+                int a = edgeFrom[e];
+                int b = edgeTo[e];
+                int ca = container[a];
+                int cb = container[b];
+                while (ca != cb) {
+                    if (depth(ca) >= depth(cb)) {
+                        a = nodeCount + ca;
+                        ca = zoneParent[ca];
+                    } else {
+                        b = nodeCount + cb;
+                        cb = zoneParent[cb];
+                    }
+                }
+                if (a != b) {
+                    lifted.get(slot(ca)).add(new int[]{a, b});
+                }
+            }
+            return lifted;
+        }
+
+        // Lays out one container's members relative to its top-left; returns the occupied width and height
+        private double[] layoutContainer(List<Integer> items, List<int[]> edges, double[] relX, double[] relY) {
+            int m = items.size();
+            if (m == 0) {
+                return new double[]{0, 0};
+            }
+            Map<Integer, Integer> local = new HashMap<>(m * 2);
+            double[] iw = new double[m];
+            double[] ih = new double[m];
+            for (int v = 0; v < m; v++) {
+                int item = items.get(v);
+                local.put(item, v);
+                iw[v] = item < nodeCount ? w[item] : zw[item - nodeCount];
+                ih[v] = item < nodeCount ? h[item] : zh[item - nodeCount];
+            }
+            int[] from = new int[edges.size()];
+            int[] to = new int[edges.size()];
+            for (int e = 0; e < edges.size(); e++) {
+                from[e] = local.get(edges.get(e)[0]);
+                to[e] = local.get(edges.get(e)[1]);
+            }
+            double[][] position = Layered.layout(m, iw, ih, from, to);
+            double width = 0;
+            double height = 0;
+            for (int v = 0; v < m; v++) {
+                relX[items.get(v)] = position[0][v];
+                relY[items.get(v)] = position[1][v];
+                width = Math.max(width, position[0][v] + iw[v]);
+                height = Math.max(height, position[1][v] + ih[v]);
+            }
+            return new double[]{width, height};
+        }
+
+        // ---- incremental layout ----
+
+        private void incremental() {
+            Grid grid = new Grid();
+            double right = Double.NEGATIVE_INFINITY;
+            double top = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < nodeCount; i++) {
+                if (fixed[i]) {
+                    grid.add(i, x[i], y[i], w[i], h[i]);
+                    right = Math.max(right, x[i] + w[i]);
+                    top = Math.min(top, y[i]);
+                }
+            }
+            for (int z = 0; z < zoneCount; z++) {
+                if (boxed[z]) {
+                    right = Math.max(right, zx[z] + zw[z]);
+                }
+            }
+            int[][] neighbours = undirected();
+            int[][] successors = Layered.lists(nodeCount, edgeFrom, edgeTo);
+            int[][] predecessors = Layered.lists(nodeCount, edgeTo, edgeFrom);
+            boolean[] placed = fixed.clone();
+            double orphanY = top;
+
+            for (int u : placementOrder(neighbours)) {
+                double sumX = 0;
+                double sumY = 0;
+                int count = 0;
+                int incoming = 0;
+                int outgoing = 0;
+                for (int v : neighbours[u]) {
+                    if (placed[v]) {
+                        sumX += x[v] + w[v] / 2;
+                        sumY += y[v] + h[v] / 2;
+                        count++;
+                    }
+                }
+                for (int p : predecessors[u]) {
+                    incoming += placed[p] ? 1 : 0;
+                }
+                for (int s : successors[u]) {
+                    outgoing += placed[s] ? 1 : 0;
+                }
+                double targetX;
+                double targetY;
+                int zone = container[u];
+                if (count > 0) {
+                    // Callers sit to the left of what they call, as in the layered layout
+                    double shift = incoming > 0 && outgoing == 0 ? LAYER_GAP + DEFAULT_WIDTH
+                            : outgoing > 0 && incoming == 0 ? -(LAYER_GAP + DEFAULT_WIDTH) : 0;
+                    targetX = sumX / count + shift - w[u] / 2;
+                    targetY = sumY / count - h[u] / 2;
+                } else if (zone != ROOT && boxed[zone]) {
+                    targetX = zx[zone] + ZONE_PADDING;
+                    targetY = zy[zone] + ZONE_PADDING + ZONE_LABEL;
+                } else {
+                    targetX = right + LAYER_GAP;
+                    targetY = orphanY;
+                    orphanY += h[u] + ITEM_GAP;
+                }
+                double[] spot = freeSpot(grid, u, targetX, targetY, true);
+                if (spot == null) {
+                    spot = freeSpot(grid, u, targetX, targetY, false);
+                }
+                x[u] = spot != null ? spot[0] : targetX;
+                y[u] = spot != null ? spot[1] : targetY;
+                placed[u] = true;
+                moved[u] = true;
+                grid.add(u, x[u], y[u], w[u], h[u]);
+                // Right away, so the nodes placed after this one already avoid the grown zone
+                for (int z = zone; z != ROOT && boxed[z]; z = zoneParent[z]) {
+                    enclose(z, x[u], y[u], x[u] + w[u], y[u] + h[u]);
+                }
+            }
+        }
+
+        private void enclose(int z, double minX, double minY, double maxX, double maxY) {
+            double left = Math.min(zx[z], minX - ZONE_PADDING);
+            double upper = Math.min(zy[z], minY - ZONE_PADDING - ZONE_LABEL);
+            double right = Math.max(zx[z] + zw[z], maxX + ZONE_PADDING);
+            double bottom = Math.max(zy[z] + zh[z], maxY + ZONE_PADDING);
+            if (left < zx[z] || upper < zy[z] || right > zx[z] + zw[z] || bottom > zy[z] + zh[z]) {
+                zx[z] = left;
+                zy[z] = upper;
+                zw[z] = right - left;
+                zh[z] = bottom - upper;
+                zoneChanged[z] = true;
+            }
+        }
+
+        // Nodes next to positioned ones first, breadth first, so chains of new nodes grow outward
+        private List<Integer> placementOrder(int[][] neighbours) {
+            List<Integer> order = new ArrayList<>();
+            boolean[] queued = fixed.clone();
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int i = 0; i < nodeCount; i++) {
+                if (fixed[i]) {
+                    queue.add(i);
+                }
+            }
+            for (int start = 0; start <= nodeCount; start++) {
+                while (!queue.isEmpty()) {
+                    int v = queue.poll();
+                    for (int n : neighbours[v]) {
+                        if (!queued[n]) {
+                            queued[n] = true;
+                            order.add(n);
+                            queue.add(n);
+                        }
+                    }
+                }
+                if (start < nodeCount && !queued[start]) {
+                    queued[start] = true;
+                    order.add(start);
+                    queue.add(start);
+                }
+            }
+            return order;
+        }
+
+        // Rings of candidate positions around the target, nearest free one first. Inside a drawn zone the
+        // first pass only accepts spots within it; the second lets the zone grow.
+        private double[] freeSpot(Grid grid, int u, double targetX, double targetY, boolean withinZone) {
+            int zone = container[u];
+            if (withinZone && (zone == ROOT || !boxed[zone])) {
+                withinZone = false;
+            }
+            double stepX = (w[u] + ITEM_GAP) / 2;
+            double stepY = (h[u] + ITEM_GAP) / 2;
+            // {x, y, squared distance} of the nearest free candidate on the current ring
+            double[] best = new double[3];
+            for (int ring = 0; ring <= MAX_RINGS; ring++) {
+                if (withinZone && ring * stepX > Math.abs(targetX - zx[zone]) + zw[zone]
+                        && ring * stepY > Math.abs(targetY - zy[zone]) + zh[zone]) {
+                    return null;
+                }
+                best[2] = Double.MAX_VALUE;
+                for (int d = -ring; d <= ring; d++) {
+                    consider(grid, u, targetX, targetY, d * stepX, -ring * stepY, withinZone, best);
+                    if (ring > 0) {
+                        consider(grid, u, targetX, targetY, d * stepX, ring * stepY, withinZone, best);
+                        if (d > -ring && d < ring) {
+                            consider(grid, u, targetX, targetY, -ring * stepX, d * stepY, withinZone, best);
+                            consider(grid, u, targetX, targetY, ring * stepX, d * stepY, withinZone, best);
+                        }
+                    }
+                }
+                if (best[2] != Double.MAX_VALUE) {
+                    return new double[]{best[0], best[1]};
+                }
+            }
+            return null;
+        }
+
+        private void consider(Grid grid, int u, double targetX, double targetY, double dx, double dy,
+                              boolean withinZone, double[] best) {
+            double distance = dx * dx + dy * dy;
+            if (distance < best[2] && fits(grid, u, targetX + dx, targetY + dy, withinZone)) {
+                best[0] = targetX + dx;
+                best[1] = targetY + dy;
+                best[2] = distance;
+            }
+        }
+
+        private boolean fits(Grid grid, int u, double cx, double cy, boolean withinZone) {
+            if (cx < 0 || cy < 0) {
+                return false;
+            }
+            int zone = container[u];
+            if (withinZone && (cx < zx[zone] + ZONE_PADDING || cy < zy[zone] + ZONE_PADDING + ZONE_LABEL
+                    || cx + w[u] > zx[zone] + zw[zone] - ZONE_PADDING || cy + h[u] > zy[zone] + zh[zone] - ZONE_PADDING)) {
+                return false;
+            }
+            if (grid.overlaps(cx - ITEM_GAP / 2.0, cy - ITEM_GAP / 2.0, w[u] + ITEM_GAP, h[u] + ITEM_GAP, x, y, w, h)) {
+                return false;
+            }
+            // Drawn zones the node is not inside of are obstacles, so it does not land in a foreign zone
+            for (int z = 0; z < zoneCount; z++) {
+                if (boxed[z] && !encloses(z, zone) && cx < zx[z] + zw[z] && cx + w[u] > zx[z]
+                        && cy < zy[z] + zh[z] && cy + h[u] > zy[z]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // ---- zones ----
+
+        // Zones without a box get one around their members; drawn zones grow to take in newly placed members
+        private void fitZones() {
+            Integer[] zones = zonesByDepth();
+            for (int k = zones.length - 1; k >= 0; k--) {
+                int z = zones[k];
+                double minX = Double.POSITIVE_INFINITY;
+                double minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY;
+                double maxY = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < nodeCount; i++) {
+                    if (container[i] == z && (moved[i] || (!boxed[z] && fixed[i]))) {
+                        minX = Math.min(minX, x[i]);
+                        minY = Math.min(minY, y[i]);
+                        maxX = Math.max(maxX, x[i] + w[i]);
+                        maxY = Math.max(maxY, y[i] + h[i]);
+                    }
+                }
+                for (int c = 0; c < zoneCount; c++) {
+                    if (zoneParent[c] == z && boxed[c] && (zoneChanged[c] || !boxed[z])) {
+                        minX = Math.min(minX, zx[c]);
+                        minY = Math.min(minY, zy[c]);
+                        maxX = Math.max(maxX, zx[c] + zw[c]);
+                        maxY = Math.max(maxY, zy[c] + zh[c]);
+                    }
+                }
+                if (minX == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                double left = minX - ZONE_PADDING;
+                double upper = minY - ZONE_PADDING - ZONE_LABEL;
+                double right = maxX + ZONE_PADDING;
+                double bottom = maxY + ZONE_PADDING;
+                if (boxed[z]) {
+                    enclose(z, minX, minY, maxX, maxY);
+                    continue;
+                }
+                zx[z] = left;
+                zy[z] = upper;
+                zw[z] = right - left;
+                zh[z] = bottom - upper;
+                boxed[z] = true;
+                zoneChanged[z] = true;
+            }
+        }
+
+        private void write() {
+            for (int i = 0; i < nodeCount; i++) {
+                if (moved[i]) {
+                    ((ObjectNode) flow.node(i)).put("x", Math.round(x[i])).put("y", Math.round(y[i]));
+                }
+            }
+            for (int z = 0; z < zoneCount; z++) {
+                if (zoneChanged[z]) {
+                    ((ObjectNode) flow.zone(z)).put("x", Math.round(zx[z])).put("y", Math.round(zy[z]))
+                            .put("w", Math.round(zw[z])).put("h", Math.round(zh[z]));
+                }
+            }
+        }
+
+        // ---- helpers ----
+
+        private int innermostZone(double cx, double cy, boolean[] drawn) {
+            int best = ROOT;
+            for (int z = 0; z < zoneCount; z++) {
+                if (drawn[z] && cx >= zx[z] && cx <= zx[z] + zw[z] && cy >= zy[z] && cy <= zy[z] + zh[z]
+                        && (best == ROOT || zoneDepth[z] > zoneDepth[best]
+                        || (zoneDepth[z] == zoneDepth[best] && zw[z] * zh[z] < zw[best] * zh[best]))) {
+                    best = z;
+                }
+            }
+            return best;
+        }
+
+        // True when zone z is the node's container or one of its ancestors
+        private boolean encloses(int z, int nodeContainer) {
+            for (int c = nodeContainer; c != ROOT; c = zoneParent[c]) {
+                if (c == z) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Integer[] zonesByDepth() {
+            Integer[] zones = new Integer[zoneCount];
+            for (int z = 0; z < zoneCount; z++) {
+                zones[z] = z;
+            }
+            Arrays.sort(zones, Comparator.comparingInt(z -> zoneDepth[z]));
+            return zones;
+        }
+
+        private int depth(int containerId) {
+            return containerId == ROOT ? -1 : zoneDepth[containerId];
+        }
+
+        // The root container is stored after the zones
+        private int slot(int containerId) {
+            return containerId == ROOT ? zoneCount : containerId;
+        }
+
+        private int[][] undirected() {
+            int[] degree = new int[nodeCount];
+            for (int e = 0; e < edgeFrom.length; e++) {
+                degree[edgeFrom[e]]++;
+                degree[edgeTo[e]]++;
+            }
+            int[][] neighbours = new int[nodeCount][];
+            for (int i = 0; i < nodeCount; i++) {
+                neighbours[i] = new int[degree[i]];
+            }
+            int[] fill = new int[nodeCount];
+            for (int e = 0; e < edgeFrom.length; e++) {
+                neighbours[edgeFrom[e]][fill[edgeFrom[e]]++] = edgeTo[e];
+                neighbours[edgeTo[e]][fill[edgeTo[e]]++] = edgeFrom[e];
+            }
+            return neighbours;
+        }
+
+        private static void addEdge(List<int[]> edges, int from, int to) {
+            if (from != CompiledFlow.MISSING && to != CompiledFlow.MISSING && from != to) {
+                edges.add(new int[]{from, to});
+            }
+        }
+
+        private static void addSteps(List<int[]> edges, CompiledFlow.Sequence sequence) {
+            for (int i = 0; i < sequence.size(); i++) {
+                addEdge(edges, sequence.from()[i], sequence.to()[i]);
+            }
+        }
+
+        private static boolean isNumber(JsonNode element, String field) {
+            return element.path(field).isNumber();
+        }
+
+        private static double size(JsonNode element, String field, int fallback) {
+            JsonNode value = element.path(field);
+            return value.isNumber() && value.asDouble() > 0 ? value.asDouble() : fallback;
+        }
+    }
+
+    // Sugiyama-style layering of one container's members, left to right
+    static final class Layered {
+
+        private Layered() {
+        }
+
+        // Returns {x[], y[]} relative to the container's top-left
+        static double[][] layout(int m, double[] iw, double[] ih, int[] from, int[] to) {
+            int[] tail = from.clone();
+            int[] head = to.clone();
+            breakCycles(m, tail, head);
+            int[][] successors = lists(m, tail, head);
+            int[][] predecessors = lists(m, head, tail);
+            int[] layer = layers(m, successors, predecessors);
+
+            // Members without edges would make one tall first column; they are tiled underneath instead
+            List<Integer> isolated = new ArrayList<>();
+            for (int v = 0; v < m; v++) {
+                if (successors[v].length == 0 && predecessors[v].length == 0) {
+                    isolated.add(v);
+                    layer[v] = -1;
+                }
+            }
+
+            int layerCount = 0;
+            for (int v = 0; v < m; v++) {
+                layerCount = Math.max(layerCount, layer[v] + 1);
+            }
+            List<List<Integer>> layers = new ArrayList<>();
+            for (int k = 0; k < layerCount; k++) {
+                layers.add(new ArrayList<>());
+            }
+            for (int v = 0; v < m; v++) {
+                if (layer[v] >= 0) {
+                    layers.get(layer[v]).add(v);
+                }
+            }
+            // Pulling sources right can empty a layer, which would leave a gap
+            layers.removeIf(List::isEmpty);
+            double[] rank = new double[m];
+            order(layers, rank, successors, predecessors);
+
+            double[] px = new double[m];
+            double[] py = new double[m];
+            double left = 0;
+            for (List<Integer> members : layers) {
+                double width = 0;
+                for (int v : members) {
+                    width = Math.max(width, iw[v]);
+                }
+                for (int v : members) {
+                    px[v] = left + (width - iw[v]) / 2;
+                }
+                left += width + LAYER_GAP;
+            }
+            stack(layers, ih, py);
+            relax(layers, ih, py, successors, predecessors);
+
+            double top = Double.POSITIVE_INFINITY;
+            double bottom = 0;
+            for (int v = 0; v < m; v++) {
+                if (layer[v] >= 0) {
+                    top = Math.min(top, py[v]);
+                }
+            }
+            for (int v = 0; v < m; v++) {
+                if (layer[v] >= 0) {
+                    py[v] -= top;
+                    bottom = Math.max(bottom, py[v] + ih[v] + ITEM_GAP);
+                }
+            }
+            tile(isolated, iw, ih, px, py, bottom, Math.max(left - LAYER_GAP, 0));
+            return new double[][]{px, py};
+        }
+
+        // Rows under the layered part, as wide as it is, or roughly square when there is nothing above
+        private static void tile(List<Integer> items, double[] iw, double[] ih, double[] px, double[] py,
+                                 double top, double width) {
+            if (items.isEmpty()) {
+                return;
+            }
+            if (width == 0) {
+                double area = 0;
+                for (int v : items) {
+                    area += (iw[v] + LAYER_GAP) * (ih[v] + ITEM_GAP);
+                }
+                width = Math.sqrt(area);
+            }
+            double left = 0;
+            double rowHeight = 0;
+            for (int v : items) {
+                if (left > 0 && left + iw[v] > width) {
+                    top += rowHeight + ITEM_GAP;
+                    left = 0;
+                    rowHeight = 0;
+                }
+                px[v] = left;
+                py[v] = top;
+                left += iw[v] + LAYER_GAP;
+                rowHeight = Math.max(rowHeight, ih[v]);
+            }
+        }
+
+        // Iterative DFS; edges back to a node still on the stack are reversed, which leaves a DAG
+        static void breakCycles(int m, int[] tail, int[] head) {
+            int[][] outEdges = edgeLists(m, tail);
+            byte[] state = new byte[m];
+            int[] stackNode = new int[m];
+            int[] stackNext = new int[m];
+            for (int start = 0; start < m; start++) {
+                if (state[start] != 0) {
+                    continue;
+                }
+                int depth = 0;
+                stackNode[0] = start;
+                stackNext[0] = 0;
+                state[start] = 1;
+                depth++;
+                while (depth > 0) {
+                    int v = stackNode[depth - 1];
+                    if (stackNext[depth - 1] < outEdges[v].length) {
+                        int e = outEdges[v][stackNext[depth - 1]++];
+                        int t = head[e];
+                        if (state[t] == 1) {
+                            head[e] = tail[e];
+                            tail[e] = t;
+                        } else if (state[t] == 0) {
+                            state[t] = 1;
+                            stackNode[depth] = t;
+                            stackNext[depth] = 0;
+                            depth++;
+                        }
+                    } else {
+                        state[v] = 2;
+                        depth--;
+                    }
+                }
+            }
+        }
+
+        // Longest path from the sources; sources are then pulled right, next to their nearest successor
+        private static int[] layers(int m, int[][] successors, int[][] predecessors) {
+            int[] layer = new int[m];
+            int[] remaining = new int[m];
+            int[] topological = new int[m];
+            int size = 0;
+            for (int v = 0; v < m; v++) {
+                remaining[v] = predecessors[v].length;
+                if (remaining[v] == 0) {
+                    topological[size++] = v;
+                }
+            }
+            for (int k = 0; k < size; k++) {
+                int v = topological[k];
+                for (int s : successors[v]) {
+                    layer[s] = Math.max(layer[s], layer[v] + 1);
+                    if (--remaining[s] == 0) {
+                        topological[size++] = s;
+                    }
+                }
+            }
+            for (int v = 0; v < m; v++) {
+                if (predecessors[v].length == 0 && successors[v].length > 0) {
+                    int nearest = Integer.MAX_VALUE;
+                    for (int s : successors[v]) {
+                        nearest = Math.min(nearest, layer[s]);
+                    }
+                    layer[v] = nearest - 1;
+                }
+            }
+            return layer;
+        }
+
+        // Barycenter heuristic, sweeping down and up the layers to reduce crossings
+        private static void order(List<List<Integer>> layers, double[] rank, int[][] successors, int[][] predecessors) {
+            for (List<Integer> members : layers) {
+                for (int i = 0; i < members.size(); i++) {
+                    rank[members.get(i)] = (i + 0.5) / members.size();
+                }
+            }
+            double[] barycenter = new double[rank.length];
+            for (int sweep = 0; sweep < ORDER_SWEEPS; sweep++) {
+                boolean down = sweep % 2 == 0;
+                for (int step = 1; step < layers.size(); step++) {
+                    List<Integer> members = layers.get(down ? step : layers.size() - 1 - step);
+                    for (int v : members) {
+                        int[] adjacent = down ? predecessors[v] : successors[v];
+                        if (adjacent.length == 0) {
+                            barycenter[v] = rank[v];
+                            continue;
+                        }
+                        double sum = 0;
+                        for (int a : adjacent) {
+                            sum += rank[a];
+                        }
+                        barycenter[v] = sum / adjacent.length;
+                    }
+                    members.sort(Comparator.comparingDouble(v -> barycenter[v]));
+                    for (int i = 0; i < members.size(); i++) {
+                        rank[members.get(i)] = (i + 0.5) / members.size();
+                    }
+                }
+            }
+        }
+
+        // Each layer is a column, stacked top-down and centred on the tallest column
+        private static void stack(List<List<Integer>> layers, double[] ih, double[] py) {
+            double[] heights = new double[layers.size()];
+            double tallest = 0;
+            for (int k = 0; k < layers.size(); k++) {
+                double top = 0;
+                for (int v : layers.get(k)) {
+                    py[v] = top;
+                    top += ih[v] + ITEM_GAP;
+                }
+                heights[k] = top - ITEM_GAP;
+                tallest = Math.max(tallest, heights[k]);
+            }
+            for (int k = 0; k < layers.size(); k++) {
+                for (int v : layers.get(k)) {
+                    py[v] += (tallest - heights[k]) / 2;
+                }
+            }
+        }
+
+        // Force-directed pass along the columns: edges pull nodes level with their neighbours, with a cooling
+        // step, while the column order and gaps act as the repulsion that keeps boxes apart
+        private static void relax(List<List<Integer>> layers, double[] ih, double[] py,
+                                  int[][] successors, int[][] predecessors) {
+            for (int iteration = 0; iteration < FORCE_ITERATIONS; iteration++) {
+                double step = 0.5 * (1 - (double) iteration / FORCE_ITERATIONS);
+                for (List<Integer> members : layers) {
+                    double before = 0;
+                    for (int v : members) {
+                        before += py[v];
+                        int degree = successors[v].length + predecessors[v].length;
+                        if (degree == 0) {
+                            continue;
+                        }
+                        double sum = 0;
+                        for (int s : successors[v]) {
+                            sum += py[s] + ih[s] / 2;
+                        }
+                        for (int p : predecessors[v]) {
+                            sum += py[p] + ih[p] / 2;
+                        }
+                        py[v] += (sum / degree - ih[v] / 2 - py[v]) * step;
+                    }
+                    double after = 0;
+                    for (int i = 0; i < members.size(); i++) {
+                        int v = members.get(i);
+                        if (i > 0) {
+                            int previous = members.get(i - 1);
+                            py[v] = Math.max(py[v], py[previous] + ih[previous] + ITEM_GAP);
+                        }
+                        after += py[v];
+                    }
+                    double shift = (before - after) / members.size();
+                    for (int v : members) {
+                        py[v] += shift;
+                    }
+                }
+            }
+        }
+
+        private static int[][] lists(int m, int[] from, int[] to) {
+            int[] degree = new int[m];
+            for (int f : from) {
+                degree[f]++;
+            }
+            int[][] lists = new int[m][];
+            for (int v = 0; v < m; v++) {
+                lists[v] = new int[degree[v]];
+            }
+            int[] fill = new int[m];
+            for (int e = 0; e < from.length; e++) {
+                lists[from[e]][fill[from[e]]++] = to[e];
+            }
+            return lists;
+        }
+
+        private static int[][] edgeLists(int m, int[] from) {
+            int[] degree = new int[m];
+            for (int f : from) {
+                degree[f]++;
+            }
+            int[][] lists = new int[m][];
+            for (int v = 0; v < m; v++) {
+                lists[v] = new int[degree[v]];
+            }
+            int[] fill = new int[m];
+            for (int e = 0; e < from.length; e++) {
+                lists[from[e]][fill[from[e]]++] = e;
+            }
+            return lists;
+        }
+    }
+
+    // Uniform buckets of node indices, so overlap checks only look at nearby nodes
+    private static final class Grid {
+
+        private static final double CELL = 200;
+
+        private final Map<Long, List<Integer>> cells = new HashMap<>();
+
+        void add(int node, double x, double y, double w, double h) {
+            for (long cx = cell(x); cx <= cell(x + w); cx++) {
+                for (long cy = cell(y); cy <= cell(y + h); cy++) {
+                    cells.computeIfAbsent(key(cx, cy), k -> new ArrayList<>()).add(node);
+                }
+            }
+        }
+
+        boolean overlaps(double x, double y, double w, double h, double[] nx, double[] ny, double[] nw, double[] nh) {
+            for (long cx = cell(x); cx <= cell(x + w); cx++) {
+                for (long cy = cell(y); cy <= cell(y + h); cy++) {
+                    List<Integer> nodes = cells.get(key(cx, cy));
+                    if (nodes == null) {
+                        continue;
+                    }
+                    for (int n : nodes) {
+                        if (x < nx[n] + nw[n] && x + w > nx[n] && y < ny[n] + nh[n] && y + h > ny[n]) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static long cell(double coordinate) {
+            return (long) Math.floor(coordinate / CELL);
+        }
+
+        private static long key(long cx, long cy) {
+            return (cx << 32) ^ (cy & 0xffffffffL);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.Diagram;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Server-side version of the browser's phase and flow filtering: the projected flow holds only the nodes,
+// zones, connections and sequence steps visible at the selected phase, using the rule of json_spec.txt.
+// Element objects are shared with the stored flow; only the containing objects and arrays are new.
+@Service
+public class FlowProjector {
+
+    private static final Set<String> PROJECTED_FIELDS = Set.of("nodes", "zones", "connections", "sequence", "flows");
+
+    private final FlowCompiler flowCompiler;
+    private final int maxEntries;
+
+    // Guarded by this; access-ordered, so the least recently used projection is dropped first
+    private final LinkedHashMap<Key, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    public FlowProjector(FlowCompiler flowCompiler,
+                         @Value("${diagram.flow.projection-cache-size:500}") int maxEntries) {
+        this.flowCompiler = flowCompiler;
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    // phaseId null selects all phases; flowId null keeps the root sequence and every named flow.
+    // Unknown ids throw IllegalArgumentException. Cached per diagram version, like FlowCompiler.
+    public Diagram project(Diagram diagram, String phaseId, String flowId) {
+        if (diagram.flow() == null || (phaseId == null && flowId == null)) {
+            return diagram;
+        }
+        Key key = new Key(diagram.id(), phaseId, flowId);
+        Entry entry;
+        synchronized (this) {
+            entry = cache.get(key);
+        }
+        if (entry != null && (entry.flow() == diagram.flow() || ("db".equals(diagram.source())
+                && "db".equals(entry.source()) && entry.version() == diagram.version()))) {
+            return diagram.toBuilder().flow(entry.projected()).build();
+        }
+        JsonNode projected = project(flowCompiler.compiled(diagram), phaseId, flowId);
+        put(key, new Entry(diagram.source(), diagram.version(), diagram.flow(), projected));
+        return diagram.toBuilder().flow(projected).build();
+    }
+
+    static JsonNode project(CompiledFlow compiled, String phaseId, String flowId) {
+        if (!compiled.source().isObject()) {
+            return compiled.source();
+        }
+        int selected = CompiledFlow.ALL_PHASES;
+        if (phaseId != null) {
+            selected = compiled.phaseOf(phaseId);
+            if (selected == CompiledFlow.MISSING) {
+                throw new IllegalArgumentException("Unknown phase '" + phaseId + "'");
+            }
+        }
+        CompiledFlow.Sequence sequence = compiled.sequence();
+        if (flowId != null) {
+            sequence = compiled.flow(flowId)
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown flow '" + flowId + "'"));
+        }
+
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+        ObjectNode out = factory.objectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = compiled.source().fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!PROJECTED_FIELDS.contains(field.getKey())) {
+                out.set(field.getKey(), field.getValue());
+            }
+        }
+
+        boolean[] nodeVisible = new boolean[compiled.nodeCount()];
+        ArrayNode nodes = out.putArray("nodes");
+        for (int n = 0; n < compiled.nodeCount(); n++) {
+            nodeVisible[n] = CompiledFlow.visible(compiled.nodePhase(n), selected);
+            if (nodeVisible[n]) {
+                nodes.add(compiled.node(n));
+            }
+        }
+        ArrayNode zones = out.putArray("zones");
+        for (int z = 0; z < compiled.zoneCount(); z++) {
+            if (CompiledFlow.visible(compiled.zonePhase(z), selected)) {
+                zones.add(compiled.zone(z));
+            }
+        }
+        // The browser cannot draw a connection to a hidden node, so those are dropped as well
+        ArrayNode connections = out.putArray("connections");
+        for (int c = 0; c < compiled.connectionCount(); c++) {
+            int from = compiled.connectionFrom(c);
+            int to = compiled.connectionTo(c);
+            if (CompiledFlow.visible(compiled.connectionPhase(c), selected)
+                    && from != CompiledFlow.MISSING && to != CompiledFlow.MISSING && nodeVisible[from] && nodeVisible[to]) {
+                connections.add(compiled.connection(c));
+            }
+        }
+        out.set("sequence", steps(sequence, selected));
+        // A selected flow becomes the sequence; otherwise every named flow is filtered the same way
+        if (flowId == null && compiled.source().has("flows")) {
+            ArrayNode flows = out.putArray("flows");
+            for (CompiledFlow.Sequence named : compiled.flows()) {
+                ObjectNode flow = factory.objectNode();
+                named.element().fields().forEachRemaining(f -> flow.set(f.getKey(), f.getValue()));
+                flow.set("sequence", steps(named, selected));
+                flows.add(flow);
+            }
+        }
+        return out;
+    }
+
+    private static ArrayNode steps(CompiledFlow.Sequence sequence, int selected) {
+        ArrayNode steps = JsonNodeFactory.instance.arrayNode(sequence.size());
+        for (int i = 0; i < sequence.size(); i++) {
+            if (CompiledFlow.visible(sequence.phase()[i], selected)) {
+                steps.add(sequence.steps().get(i));
+            }
+        }
+        return steps;
+    }
+
+    private synchronized void put(Key key, Entry entry) {
+        if (maxEntries == 0) {
+            return;
+        }
+        cache.put(key, entry);
+        Iterator<Map.Entry<Key, Entry>> eldest = cache.entrySet().iterator();
+        while (cache.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private record Key(String id, String phaseId, String flowId) {}
+
+    private record Entry(String source, int version, JsonNode flow, JsonNode projected) {}
+}
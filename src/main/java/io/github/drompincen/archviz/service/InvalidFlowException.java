@@ -0,0 +1,18 @@
+package io.github.drompincen.archviz.service;
+
+import java.util.List;
+
+// A flow with dangling or duplicate references; carries every problem found, not just the first
+public class InvalidFlowException extends IllegalArgumentException {
+
+    private final List<String> problems;
+
+    public InvalidFlowException(List<String> problems) {
+        super("Invalid flow: " + String.join("; ", problems));
+        this.problems = List.copyOf(problems);
+    }
+
+    public List<String> getProblems() {
+        return problems;
+    }
+}
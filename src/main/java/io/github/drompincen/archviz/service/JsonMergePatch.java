@@ -0,0 +1,43 @@
+package io.github.drompincen.archviz.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+import java.util.Map;
+
+// RFC 7396 JSON Merge Patch: object members are merged recursively, null removes a member,
+// and anything else (arrays included) replaces the target value
+public final class JsonMergePatch {
+
+    private JsonMergePatch() {}
+
+    // Returns a patched copy; the input document is left untouched
+    public static JsonNode apply(JsonNode document, JsonNode patch) {
+        if (patch == null) {
+            throw new IllegalArgumentException("Merge patch must not be empty");
+        }
+        return merge(document != null ? document.deepCopy() : null, patch);
+    }
+
+    // Merges into target in place where it is an object
+    private static JsonNode merge(JsonNode target, JsonNode patch) {
+        if (!patch.isObject()) {
+            return patch.deepCopy();
+        }
+        ObjectNode result = target != null && target.isObject()
+                ? (ObjectNode) target
+                : JsonNodeFactory.instance.objectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getValue().isNull()) {
+                result.remove(field.getKey());
+            } else {
+                result.set(field.getKey(), merge(result.get(field.getKey()), field.getValue()));
+            }
+        }
+        return result;
+    }
+}
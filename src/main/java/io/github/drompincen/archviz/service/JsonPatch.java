@@ -0,0 +1,242 @@
+package io.github.drompincen.archviz.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// RFC 6902 JSON Patch: diff produces add/remove/replace operations, apply supports every operation.
+// Invalid patches and failed "test" operations throw IllegalArgumentException.
+public final class JsonPatch {
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private JsonPatch() {}
+
+    public static ArrayNode diff(JsonNode source, JsonNode target) {
+        ArrayNode ops = NODES.arrayNode();
+        diff("", source, target, ops);
+        return ops;
+    }
+
+    // Returns a patched copy; the input document is left untouched
+    public static JsonNode apply(JsonNode document, JsonNode patch) {
+        if (patch == null || !patch.isArray()) {
+            throw new IllegalArgumentException("JSON Patch must be an array of operations");
+        }
+        JsonNode result = document == null ? NODES.nullNode() : document.deepCopy();
+        for (JsonNode op : patch) {
+            result = applyOperation(result, op);
+        }
+        return result;
+    }
+
+    private static void diff(String path, JsonNode source, JsonNode target, ArrayNode ops) {
+        if (source.equals(target)) {
+            return;
+        }
+        if (source.isObject() && target.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = source.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                String child = path + "/" + escape(field.getKey());
+                if (!target.has(field.getKey())) {
+                    ops.addObject().put("op", "remove").put("path", child);
+                } else {
+                    diff(child, field.getValue(), target.get(field.getKey()), ops);
+                }
+            }
+            fields = target.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (!source.has(field.getKey())) {
+                    ops.addObject().put("op", "add").put("path", path + "/" + escape(field.getKey()))
+                            .set("value", field.getValue().deepCopy());
+                }
+            }
+            return;
+        }
+        if (source.isArray() && target.isArray()) {
+            diffArrays(path, source, target, ops);
+            return;
+        }
+        ops.addObject().put("op", "replace").put("path", path).set("value", target.deepCopy());
+    }
+
+    // Skips the common prefix and suffix, so a single insert or removal inside a long array stays one operation
+    private static void diffArrays(String path, JsonNode source, JsonNode target, ArrayNode ops) {
+        int prefix = 0;
+        while (prefix < source.size() && prefix < target.size() && source.get(prefix).equals(target.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < source.size() - prefix && suffix < target.size() - prefix
+                && source.get(source.size() - 1 - suffix).equals(target.get(target.size() - 1 - suffix))) {
+            suffix++;
+        }
+        int sourceEnd = source.size() - suffix;
+        int targetEnd = target.size() - suffix;
+        int common = Math.min(sourceEnd, targetEnd) - prefix;
+        for (int i = 0; i < common; i++) {
+            diff(path + "/" + (prefix + i), source.get(prefix + i), target.get(prefix + i), ops);
+        }
+        // Removals go from the highest index down so earlier indexes stay valid
+        for (int i = sourceEnd - 1; i >= prefix + common; i--) {
+            ops.addObject().put("op", "remove").put("path", path + "/" + i);
+        }
+        for (int i = prefix + common; i < targetEnd; i++) {
+            ops.addObject().put("op", "add").put("path", path + "/" + i).set("value", target.get(i).deepCopy());
+        }
+    }
+
+    private static JsonNode applyOperation(JsonNode document, JsonNode op) {
+        String name = text(op, "op");
+        List<String> path = parsePointer(text(op, "path"));
+        switch (name) {
+            case "add":
+                return add(document, path, required(op, "value").deepCopy());
+            case "remove":
+                return remove(document, path);
+            case "replace":
+                return replace(document, path, required(op, "value").deepCopy());
+            case "move": {
+                List<String> from = parsePointer(text(op, "from"));
+                if (path.size() > from.size() && path.subList(0, from.size()).equals(from)) {
+                    throw new IllegalArgumentException("Cannot move '" + text(op, "from") + "' into itself");
+                }
+                JsonNode value = get(document, from);
+                return add(remove(document, from), path, value);
+            }
+            case "copy":
+                return add(document, path, get(document, parsePointer(text(op, "from"))).deepCopy());
+            case "test":
+                if (!get(document, path).equals(required(op, "value"))) {
+                    throw new IllegalArgumentException("Test failed at '" + text(op, "path") + "'");
+                }
+                return document;
+            default:
+                throw new IllegalArgumentException("Unknown JSON Patch operation '" + name + "'");
+        }
+    }
+
+    private static JsonNode add(JsonNode document, List<String> path, JsonNode value) {
+        if (path.isEmpty()) {
+            return value;
+        }
+        JsonNode parent = get(document, path.subList(0, path.size() - 1));
+        String last = path.get(path.size() - 1);
+        if (parent.isObject()) {
+            ((ObjectNode) parent).set(last, value);
+        } else if (parent.isArray()) {
+            ArrayNode array = (ArrayNode) parent;
+            int index = last.equals("-") ? array.size() : index(last, array.size() + 1);
+            array.insert(index, value);
+        } else {
+            throw new IllegalArgumentException("Cannot add to a scalar at '" + pointer(path) + "'");
+        }
+        return document;
+    }
+
+    // In place, so object members keep their position
+    private static JsonNode replace(JsonNode document, List<String> path, JsonNode value) {
+        if (path.isEmpty()) {
+            return value;
+        }
+        JsonNode parent = get(document, path.subList(0, path.size() - 1));
+        String last = path.get(path.size() - 1);
+        if (parent.isObject() && parent.has(last)) {
+            ((ObjectNode) parent).set(last, value);
+        } else if (parent.isArray()) {
+            ((ArrayNode) parent).set(index(last, parent.size()), value);
+        } else {
+            throw new IllegalArgumentException("No value at '" + pointer(path) + "'");
+        }
+        return document;
+    }
+
+    private static JsonNode remove(JsonNode document, List<String> path) {
+        if (path.isEmpty()) {
+            return NODES.nullNode();
+        }
+        JsonNode parent = get(document, path.subList(0, path.size() - 1));
+        String last = path.get(path.size() - 1);
+        if (parent.isObject() && parent.has(last)) {
+            ((ObjectNode) parent).remove(last);
+        } else if (parent.isArray()) {
+            ((ArrayNode) parent).remove(index(last, parent.size()));
+        } else {
+            throw new IllegalArgumentException("No value at '" + pointer(path) + "'");
+        }
+        return document;
+    }
+
+    private static JsonNode get(JsonNode document, List<String> path) {
+        JsonNode node = document;
+        for (String token : path) {
+            if (node.isObject() && node.has(token)) {
+                node = node.get(token);
+            } else if (node.isArray()) {
+                node = node.get(index(token, node.size()));
+            } else {
+                throw new IllegalArgumentException("No value at '" + pointer(path) + "'");
+            }
+        }
+        return node;
+    }
+
+    // Array indexes are bounded by size (exclusive); "add" passes size + 1 to allow appending
+    private static int index(String token, int bound) {
+        if (!token.matches("0|[1-9][0-9]*") || token.length() > 9) {
+            throw new IllegalArgumentException("Invalid array index '" + token + "'");
+        }
+        int index = Integer.parseInt(token);
+        if (index >= bound) {
+            throw new IllegalArgumentException("Array index " + index + " out of bounds");
+        }
+        return index;
+    }
+
+    private static List<String> parsePointer(String pointer) {
+        List<String> tokens = new ArrayList<>();
+        if (pointer.isEmpty()) {
+            return tokens;
+        }
+        if (!pointer.startsWith("/")) {
+            throw new IllegalArgumentException("Invalid JSON Pointer '" + pointer + "'");
+        }
+        for (String token : pointer.substring(1).split("/", -1)) {
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+        return tokens;
+    }
+
+    private static String pointer(List<String> path) {
+        StringBuilder pointer = new StringBuilder();
+        path.forEach(token -> pointer.append('/').append(escape(token)));
+        return pointer.toString();
+    }
+
+    private static String escape(String token) {
+        return token.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static String text(JsonNode op, String field) {
+        JsonNode value = op.get(field);
+        if (value == null || !value.isTextual()) {
+            throw new IllegalArgumentException("JSON Patch operation is missing '" + field + "'");
+        }
+        return value.asText();
+    }
+
+    private static JsonNode required(JsonNode op, String field) {
+        if (!op.has(field)) {
+            throw new IllegalArgumentException("JSON Patch operation is missing '" + field + "'");
+        }
+        return op.get(field);
+    }
+}
@@ -0,0 +1,267 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Server-side version of the browser's sequence view. The lifelines are the visible nodes without skipSequence;
+// the messages are the visible steps of the root sequence or of a named flow. The compact model is built once
+// per diagram revision, phase and flow, and written out as SVG or JSON a batch of messages at a time, so long
+// sequences reach the client progressively.
+@Service
+public class SequenceRenderer {
+
+    // Geometry of renderSequenceView() in collab-animation.html
+    private static final int COLUMN_WIDTH = 160;
+    private static final int START_X = 60;
+    private static final int HEADER_HEIGHT = 60;
+    private static final int ROW_HEIGHT = 50;
+    private static final int FLUSH_EVERY = 200;
+
+    // lifelines are node elements; message m is step number[m] of the active sequence, from lifeline from[m]
+    // to lifeline to[m]. Steps between nodes that are not lifelines keep their number but are not drawn.
+    public record SequenceDiagram(String title, List<JsonNode> lifelines, int stepCount,
+                                  List<JsonNode> messages, int[] number, int[] from, int[] to) {
+
+        public int messageCount() {
+            return messages.size();
+        }
+    }
+
+    private final FlowCompiler flowCompiler;
+    private final ObjectMapper objectMapper;
+    private final int maxEntries;
+
+    // Guarded by this; access-ordered, so the least recently used diagram is dropped first
+    private final LinkedHashMap<Key, SequenceDiagram> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    public SequenceRenderer(FlowCompiler flowCompiler, ObjectMapper objectMapper,
+                            @Value("${diagram.sequence.cache-size:500}") int maxEntries) {
+        this.flowCompiler = flowCompiler;
+        this.objectMapper = objectMapper;
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    // Looked up with the revision alone, before the diagram is loaded
+    public synchronized Optional<SequenceDiagram> cached(DiagramRevision revision, String phaseId, String flowId) {
+        return Optional.ofNullable(cache.get(new Key(revision.id(), revision.fingerprint(), phaseId, flowId)));
+    }
+
+    // phaseId null is the browser's default, the last phase; flowId null is the root sequence.
+    // Unknown ids throw IllegalArgumentException.
+    public SequenceDiagram sequence(DiagramRevision revision, Diagram diagram, String phaseId, String flowId) {
+        Optional<SequenceDiagram> cached = cached(revision, phaseId, flowId);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        SequenceDiagram sequence = build(flowCompiler.compiled(diagram), diagram.title(), phaseId, flowId);
+        if (revision.matches(diagram)) {
+            put(new Key(revision.id(), revision.fingerprint(), phaseId, flowId), sequence);
+        }
+        return sequence;
+    }
+
+    static SequenceDiagram build(CompiledFlow compiled, String title, String phaseId, String flowId) {
+        int selected = DiagramRenderer.selectedPhase(compiled, phaseId);
+        CompiledFlow.Sequence sequence = compiled.sequence();
+        if (flowId != null) {
+            sequence = compiled.flow(flowId)
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown flow '" + flowId + "'"));
+        }
+
+        List<JsonNode> lifelines = new ArrayList<>();
+        int[] lifelineOf = new int[compiled.nodeCount()];
+        for (int n = 0; n < compiled.nodeCount(); n++) {
+            JsonNode node = compiled.node(n);
+            lifelineOf[n] = -1;
+            if (CompiledFlow.visible(compiled.nodePhase(n), selected) && !node.path("skipSequence").asBoolean()) {
+                lifelineOf[n] = lifelines.size();
+                lifelines.add(node);
+            }
+        }
+
+        List<JsonNode> messages = new ArrayList<>();
+        int[] number = new int[sequence.size()];
+        int[] from = new int[sequence.size()];
+        int[] to = new int[sequence.size()];
+        int steps = 0;
+        for (int i = 0; i < sequence.size(); i++) {
+            if (!CompiledFlow.visible(sequence.phase()[i], selected)) {
+                continue;
+            }
+            steps++;
+            int source = sequence.from()[i];
+            int target = sequence.to()[i];
+            if (source == CompiledFlow.MISSING || target == CompiledFlow.MISSING
+                    || lifelineOf[source] < 0 || lifelineOf[target] < 0) {
+                continue;
+            }
+            number[messages.size()] = steps;
+            from[messages.size()] = lifelineOf[source];
+            to[messages.size()] = lifelineOf[target];
+            messages.add(sequence.steps().get(i));
+        }
+        int count = messages.size();
+        return new SequenceDiagram(title, List.copyOf(lifelines), steps, List.copyOf(messages),
+                Arrays.copyOf(number, count), Arrays.copyOf(from, count), Arrays.copyOf(to, count));
+    }
+
+    // {"title":..,"lifelines":[{"id":..,"label":..,"type":..,"tag":..,"status":..}],
+    //  "messages":[{"step":1,"from":0,"to":1,"text":..,"status":..}]}, from and to being lifeline indexes
+    public void writeJson(SequenceDiagram sequence, OutputStream out) throws IOException {
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            json.writeStartObject();
+            if (sequence.title() != null) {
+                json.writeStringField("title", sequence.title());
+            }
+            json.writeArrayFieldStart("lifelines");
+            for (JsonNode node : sequence.lifelines()) {
+                json.writeStartObject();
+                json.writeStringField("id", node.path("id").asText());
+                copyText(json, node, "label");
+                copyText(json, node, "type");
+                copyText(json, node, "tag");
+                copyText(json, node, "status");
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeArrayFieldStart("messages");
+            for (int m = 0; m < sequence.messageCount(); m++) {
+                JsonNode step = sequence.messages().get(m);
+                json.writeStartObject();
+                json.writeNumberField("step", sequence.number()[m]);
+                json.writeNumberField("from", sequence.from()[m]);
+                json.writeNumberField("to", sequence.to()[m]);
+                copyText(json, step, "text");
+                copyText(json, step, "status");
+                json.writeEndObject();
+                if ((m + 1) % FLUSH_EVERY == 0) {
+                    json.flush();
+                }
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+
+    private static void copyText(JsonGenerator json, JsonNode element, String field) throws IOException {
+        JsonNode value = element.get(field);
+        if (value != null && !value.isNull()) {
+            json.writeStringField(field, value.asText());
+        }
+    }
+
+    // The browser's drawing, plus a background so the image stands on its own. The size is known from the model,
+    // so the header goes out first and every batch of messages is flushed as it is written.
+    public void writeSvg(SequenceDiagram sequence, DiagramRenderer.Theme theme, OutputStream out) throws IOException {
+        boolean light = theme == DiagramRenderer.Theme.LIGHT;
+        String arrow = light ? "#555" : "#d4d4d4";
+        int width = START_X + sequence.lifelines().size() * COLUMN_WIDTH;
+        int height = HEADER_HEIGHT + sequence.stepCount() * ROW_HEIGHT + 50;
+
+        Writer svg = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(Integer.toString(width))
+                .append("\" height=\"").append(Integer.toString(height))
+                .append("\" viewBox=\"0 0 ").append(Integer.toString(width)).append(' ').append(Integer.toString(height))
+                .append("\" font-family=\"'Segoe UI', Roboto, Helvetica, Arial, sans-serif\">");
+        if (sequence.title() != null && !sequence.title().isEmpty()) {
+            svg.append("<title>").append(DiagramRenderer.escape(sequence.title())).append("</title>");
+        }
+        svg.append("<defs><marker id=\"arrowhead\" markerWidth=\"10\" markerHeight=\"7\" refX=\"9\" refY=\"3.5\" orient=\"auto\">")
+                .append("<polygon points=\"0 0, 10 3.5, 0 7\" fill=\"").append(arrow).append("\"/></marker></defs>")
+                .append("<rect width=\"100%\" height=\"100%\" fill=\"").append(light ? "#f5f5f5" : "#1e1e1e").append("\"/>");
+
+        for (int i = 0; i < sequence.lifelines().size(); i++) {
+            JsonNode node = sequence.lifelines().get(i);
+            int x = centre(i);
+            DiagramRenderer.Colors colors = DiagramRenderer.tagColors(theme, node.path("tag").asText());
+            String label = node.hasNonNull("label") ? node.get("label").asText() : node.path("id").asText();
+            svg.append("<g><rect x=\"").append(Integer.toString(x - 60))
+                    .append("\" y=\"10\" width=\"120\" height=\"40\" rx=\"6\" fill=\"").append(colors.fill())
+                    .append("\" stroke=\"").append(colors.stroke()).append("\" stroke-width=\"2\"");
+            if ("external".equals(node.path("tag").asText())) {
+                svg.append(" stroke-dasharray=\"4,2\"");
+            }
+            svg.append("/><text x=\"").append(Integer.toString(x))
+                    .append("\" y=\"35\" font-size=\"12\" font-weight=\"bold\" text-anchor=\"middle\" dominant-baseline=\"middle\" fill=\"")
+                    .append(colors.text()).append("\">")
+                    .append(DiagramRenderer.escape(label.replace("\\n", " ").replace('\n', ' '))).append("</text>");
+            String status = node.path("status").asText();
+            if ("ready".equals(status) || "wip".equals(status)) {
+                svg.append("<circle cx=\"").append(Integer.toString(x + 60))
+                        .append("\" cy=\"10\" r=\"8\" stroke=\"#2d2d2d\" stroke-width=\"1\" fill=\"")
+                        .append("ready".equals(status) ? "#2ecc71" : "#f39c12").append("\"/><text x=\"")
+                        .append(Integer.toString(x + 60))
+                        .append("\" y=\"10\" font-size=\"10\" font-weight=\"bold\" fill=\"#fff\" text-anchor=\"middle\" dominant-baseline=\"middle\">")
+                        .append("ready".equals(status) ? "\u2714" : "\u23F3").append("</text>");
+            }
+            svg.append("<line x1=\"").append(Integer.toString(x)).append("\" y1=\"50\" x2=\"").append(Integer.toString(x))
+                    .append("\" y2=\"").append(Integer.toString(height)).append("\" stroke=\"").append(light ? "#bbb" : "#555")
+                    .append("\" stroke-width=\"1\" stroke-dasharray=\"5,5\"/></g>");
+        }
+        svg.flush();
+
+        for (int m = 0; m < sequence.messageCount(); m++) {
+            int y = HEADER_HEIGHT + (sequence.number()[m] - 1) * ROW_HEIGHT + 30;
+            int x1 = centre(sequence.from()[m]);
+            int x2 = centre(sequence.to()[m]);
+            String text = "[" + sequence.number()[m] + "] " + sequence.messages().get(m).path("text").asText("");
+            svg.append("<g>");
+            if (x1 == x2) {
+                // A call to itself loops out to the right instead of the browser's zero-length line
+                svg.append("<path d=\"M").append(Integer.toString(x1)).append(',').append(Integer.toString(y - 8))
+                        .append(" h30 v16 h-28\" fill=\"none\"");
+            } else {
+                svg.append("<line x1=\"").append(Integer.toString(x1)).append("\" y1=\"").append(Integer.toString(y))
+                        .append("\" x2=\"").append(Integer.toString(x2)).append("\" y2=\"").append(Integer.toString(y)).append('"');
+            }
+            svg.append(" stroke=\"").append(arrow).append("\" stroke-width=\"2\" marker-end=\"url(#arrowhead)\"/>")
+                    .append("<text x=\"").append(Integer.toString((x1 + x2) / 2 + (x1 == x2 ? 15 : 0)))
+                    .append("\" y=\"").append(Integer.toString(y - (x1 == x2 ? 14 : 6)))
+                    .append("\" font-size=\"11\" text-anchor=\"middle\" fill=\"").append(light ? "#666" : "#aaa").append("\">")
+                    .append(DiagramRenderer.escape(text)).append("</text></g>");
+            if ((m + 1) % FLUSH_EVERY == 0) {
+                svg.flush();
+            }
+        }
+        svg.append("</svg>");
+        svg.flush();
+    }
+
+    private static int centre(int lifeline) {
+        return START_X + lifeline * COLUMN_WIDTH + COLUMN_WIDTH / 2;
+    }
+
+    private synchronized void put(Key key, SequenceDiagram sequence) {
+        if (maxEntries == 0) {
+            return;
+        }
+        cache.put(key, sequence);
+        Iterator<Map.Entry<Key, SequenceDiagram>> eldest = cache.entrySet().iterator();
+        while (cache.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private record Key(String id, String fingerprint, String phaseId, String flowId) {}
+}
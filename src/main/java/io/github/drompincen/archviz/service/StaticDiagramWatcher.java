@@ -0,0 +1,111 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.config.BackgroundThreads;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+@Component
+public class StaticDiagramWatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticDiagramWatcher.class);
+
+    private final StaticFileService staticFileService;
+    private final long debounceMillis;
+    private final ThreadFactory threadFactory;
+
+    private WatchService watchService;
+    private Thread thread;
+
+    public StaticDiagramWatcher(StaticFileService staticFileService,
+                                @Value("${diagram.static.watch-debounce-ms:250}") long debounceMillis,
+                                BackgroundThreads backgroundThreads) {
+        this.staticFileService = staticFileService;
+        this.debounceMillis = debounceMillis;
+        this.threadFactory = backgroundThreads.factory("static-diagram-watcher");
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Path dir = staticFileService.getExternalDir().orElse(null);
+        if (dir == null) {
+            return;
+        }
+        watchService = dir.getFileSystem().newWatchService();
+        dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+
+        thread = threadFactory.newThread(this::run);
+        thread.start();
+        log.info("Watching static diagram directory '{}'", dir);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private void run() {
+        Set<Path> pending = new HashSet<>();
+        boolean overflow = false;
+        long firstPendingAt = 0;
+        // Bursts are flushed after a quiet period, or after 10 windows if events never stop
+        long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis * 10);
+
+        try {
+            while (true) {
+                WatchKey key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    if (pending.isEmpty() && !overflow) {
+                        firstPendingAt = System.nanoTime();
+                    }
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            overflow = true;
+                        } else {
+                            pending.add((Path) event.context());
+                        }
+                    }
+                    key.reset();
+                    if (System.nanoTime() - firstPendingAt < maxDelayNanos) {
+                        continue;
+                    }
+                }
+                flush(pending, overflow);
+                pending.clear();
+                overflow = false;
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            log.info("Stopped watching static diagram directory");
+        }
+    }
+
+    private void flush(Set<Path> pending, boolean overflow) {
+        try {
+            if (overflow) {
+                staticFileService.refresh();
+            } else if (!pending.isEmpty()) {
+                staticFileService.reloadFiles(pending);
+            }
+        } catch (RuntimeException e) {
+            log.error("Static diagram reload failed for {}", pending, e);
+        }
+    }
+}
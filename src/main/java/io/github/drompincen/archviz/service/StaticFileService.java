@@ -1,60 +1,318 @@
 package io.github.drompincen.archviz.service;
 
 import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.StaticCatalogStats;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class StaticFileService {
 
+    private static final Logger log = LoggerFactory.getLogger(StaticFileService.class);
+
+    private static final String CLASSPATH_PATTERN = "classpath:/static/json/*.json";
+
     private final ObjectMapper objectMapper;
+    private final Path externalDir;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+    // Immutable snapshot, swapped as a whole so readers never see a partial catalog
+    private volatile Catalog catalog = Catalog.EMPTY;
+
+    // Held while files are read and parsed; a lock rather than a monitor, so a virtual thread doing the
+    // blocking file I/O does not pin its carrier
+    private final ReentrantLock reloadLock = new ReentrantLock();
+
+    // Guarded by reloadLock; external files shadow bundled files with the same name
+    private Map<String, CatalogEntry> classpathEntries = Collections.emptyMap();
+    private Map<String, CatalogEntry> externalEntries = Collections.emptyMap();
 
-    public StaticFileService(ObjectMapper objectMapper) {
+    public StaticFileService(ObjectMapper objectMapper,
+                             @Value("${diagram.static.dir:}") String externalDir) {
         this.objectMapper = objectMapper;
+        this.externalDir = resolveExternalDir(externalDir);
+        refresh();
     }
 
     public List<Diagram> loadStaticDiagrams() {
-        List<Diagram> result = new ArrayList<>();
-        var resolver = new PathMatchingResourcePatternResolver();
+        return catalog.diagrams();
+    }
+
+    public List<DiagramSummary> loadStaticSummaries() {
+        return catalog.summaries();
+    }
+
+    public Optional<Diagram> loadStaticDiagramById(String id) {
+        CatalogEntry entry = catalog.byId().get(id);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        return Optional.of(entry.diagram());
+    }
+
+    public Optional<String> getContentHash(String id) {
+        return Optional.ofNullable(catalog.byId().get(id)).map(CatalogEntry::contentHash);
+    }
+
+    public Optional<DiagramRevision> getRevision(String id) {
+        return Optional.ofNullable(catalog.byId().get(id)).map(e -> new DiagramRevision(id, e.contentHash(),
+                e.lastModified() > 0 ? Instant.ofEpochMilli(e.lastModified()) : null, "file"));
+    }
+
+    // Changes whenever any static diagram is added, removed or edited
+    public String getCatalogFingerprint() {
+        return catalog.fingerprint();
+    }
+
+    public Optional<Path> getExternalDir() {
+        return Optional.ofNullable(externalDir);
+    }
+
+    public StaticCatalogStats getStats() {
+        return new StaticCatalogStats(catalog.byId().size(), hits.get(), misses.get(), reloads.get());
+    }
+
+    // Re-parses only files whose timestamp and content hash both changed; returns the parse count
+    public int refresh() {
+        reloadLock.lock();
         try {
-            Resource[] resources = resolver.getResources("classpath:/static/json/*.json");
-            for (Resource r : resources) {
-                String filename = r.getFilename();
-                if (filename == null) continue;
-                try (InputStream is = r.getInputStream()) {
-                    JsonNode root = objectMapper.readTree(is);
-                    Diagram d = new Diagram();
-                    d.setId("file-" + filename.replace(".json", ""));
-                    d.setTitle(root.has("title") ? root.get("title").asText() : filename);
-                    d.setDescription(null);
-                    d.setTags(Collections.emptyList());
-                    d.setVersion(0);
-                    d.setSource("file");
-                    d.setFlow(root);
-                    result.add(d);
-                } catch (IOException e) {
-                    // Skip malformed files
+            int[] parsed = {0};
+            classpathEntries = scanClasspath(parsed);
+            externalEntries = scanExternalDir(parsed);
+            publish(parsed[0]);
+            return parsed[0];
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    // Incremental reload of individual files in the external directory, e.g. from the watcher
+    public int reloadFiles(Collection<Path> paths) {
+        if (externalDir == null) {
+            return 0;
+        }
+        reloadLock.lock();
+        try {
+            int[] parsed = {0};
+            Map<String, CatalogEntry> next = new TreeMap<>(externalEntries);
+            for (Path path : paths) {
+                String filename = path.getFileName().toString();
+                if (!filename.endsWith(".json")) continue;
+                String id = toId(filename);
+                Path file = externalDir.resolve(filename);
+                if (!Files.isRegularFile(file)) {
+                    next.remove(id);
+                    continue;
+                }
+                CatalogEntry entry = loadFile(file, next.get(id), parsed);
+                if (entry != null) {
+                    next.put(id, entry);
                 }
             }
+            externalEntries = next;
+            publish(parsed[0]);
+            return parsed[0];
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    private Map<String, CatalogEntry> scanClasspath(int[] parsed) {
+        Map<String, CatalogEntry> next = new TreeMap<>();
+        Resource[] resources;
+        try {
+            resources = new PathMatchingResourcePatternResolver().getResources(CLASSPATH_PATTERN);
         } catch (IOException e) {
             // No static files found
+            return next;
         }
-        return result;
+        for (Resource r : resources) {
+            String filename = r.getFilename();
+            if (filename == null) continue;
+            String id = toId(filename);
+            CatalogEntry entry = load(id, filename, r.getDescription(), lastModified(r),
+                    r::getInputStream, classpathEntries.get(id), parsed);
+            if (entry != null) {
+                next.put(id, entry);
+            }
+        }
+        return next;
     }
 
-    public Optional<Diagram> loadStaticDiagramById(String id) {
-        return loadStaticDiagrams().stream()
-                .filter(d -> d.getId().equals(id))
-                .findFirst();
+    private Map<String, CatalogEntry> scanExternalDir(int[] parsed) {
+        Map<String, CatalogEntry> next = new TreeMap<>();
+        if (externalDir == null) {
+            return next;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(externalDir, "*.json")) {
+            for (Path file : files) {
+                String id = toId(file.getFileName().toString());
+                CatalogEntry entry = loadFile(file, externalEntries.get(id), parsed);
+                if (entry != null) {
+                    next.put(id, entry);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not scan static diagram directory '{}': {}", externalDir, e.getMessage());
+        }
+        return next;
+    }
+
+    private CatalogEntry loadFile(Path file, CatalogEntry existing, int[] parsed) {
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return existing;
+        }
+        String filename = file.getFileName().toString();
+        return load(toId(filename), filename, file.toString(), lastModified,
+                () -> Files.newInputStream(file), existing, parsed);
+    }
+
+    // Returns the existing entry when unchanged or unreadable, so a half-written file never evicts a good one
+    private CatalogEntry load(String id, String filename, String location, long lastModified,
+                              ContentSource source, CatalogEntry existing, int[] parsed) {
+        if (existing != null && existing.location().equals(location)
+                && existing.lastModified() == lastModified) {
+            return existing;
+        }
+        try (InputStream is = source.open()) {
+            byte[] content = is.readAllBytes();
+            String hash = sha256(content);
+            if (existing != null && existing.contentHash().equals(hash)) {
+                return new CatalogEntry(id, location, lastModified, hash, existing.diagram());
+            }
+            CatalogEntry entry = new CatalogEntry(id, location, lastModified, hash, parse(id, filename, content));
+            parsed[0]++;
+            return entry;
+        } catch (IOException e) {
+            // Skip malformed files
+            log.warn("Skipping static diagram '{}': {}", location, e.getMessage());
+            return existing;
+        }
+    }
+
+    private void publish(int parsed) {
+        Map<String, CatalogEntry> merged = new TreeMap<>(classpathEntries);
+        merged.putAll(externalEntries);
+        if (!merged.equals(catalog.byId())) {
+            catalog = Catalog.of(merged);
+        }
+        if (parsed > 0) {
+            reloads.addAndGet(parsed);
+            log.info("Static diagram catalog loaded: {} diagrams, {} re-parsed", merged.size(), parsed);
+        }
+    }
+
+    private Diagram parse(String id, String filename, byte[] content) throws IOException {
+        JsonNode root = objectMapper.readTree(content);
+        return Diagram.builder()
+                .id(id)
+                .title(root.has("title") ? root.get("title").asText() : filename)
+                .tags(Collections.emptyList())
+                .version(0)
+                .source("file")
+                .flow(root)
+                .build();
+    }
+
+    private static String toId(String filename) {
+        return "file-" + filename.replace(".json", "");
+    }
+
+    private static Path resolveExternalDir(String dir) {
+        if (dir == null || dir.isBlank()) {
+            return null;
+        }
+        Path path = Path.of(dir).toAbsolutePath().normalize();
+        if (!Files.isDirectory(path)) {
+            log.warn("Static diagram directory '{}' does not exist, ignoring", path);
+            return null;
+        }
+        return path;
+    }
+
+    private static long lastModified(Resource r) {
+        try {
+            return r.lastModified();
+        } catch (IOException e) {
+            return -1L;
+        }
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ContentSource {
+        InputStream open() throws IOException;
+    }
+
+    private record CatalogEntry(
+            String id,
+            String location,
+            long lastModified,
+            String contentHash,
+            Diagram diagram
+    ) {}
+
+    private record Catalog(Map<String, CatalogEntry> byId, List<Diagram> diagrams,
+                           List<DiagramSummary> summaries, String fingerprint) {
+
+        static final Catalog EMPTY = new Catalog(Collections.emptyMap(), Collections.emptyList(),
+                Collections.emptyList(), sha256(new byte[0]));
+
+        static Catalog of(Map<String, CatalogEntry> entries) {
+            StringBuilder hashes = new StringBuilder();
+            entries.values().forEach(e -> hashes.append(e.id()).append(':').append(e.contentHash()).append('\n'));
+            return new Catalog(
+                    Collections.unmodifiableMap(new TreeMap<>(entries)),
+                    entries.values().stream().map(CatalogEntry::diagram).toList(),
+                    entries.values().stream().map(e -> toSummary(e.diagram())).toList(),
+                    sha256(hashes.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+
+        private static DiagramSummary toSummary(Diagram d) {
+            return new DiagramSummary(d.id(), d.title(), d.description(),
+                    d.tags(), d.version(), d.source());
+        }
     }
 }
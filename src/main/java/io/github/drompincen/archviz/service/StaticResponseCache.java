@@ -0,0 +1,203 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.ResponseCacheStats;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Serialized and pre-compressed bodies of static diagrams, so GETs of file-* ids skip Jackson entirely.
+// Entries are checked against the catalog's content hash and dropped wholesale when the catalog changes.
+@Component
+public class StaticResponseCache {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticResponseCache.class);
+
+    private final StaticFileService staticFileService;
+    private final ObjectMapper objectMapper;
+    private final long maxBytes;
+
+    // Guarded by this; access-ordered for LRU eviction
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private String catalogFingerprint;
+    private long hits;
+    private long misses;
+
+    public StaticResponseCache(StaticFileService staticFileService, ObjectMapper objectMapper,
+                               @Value("${diagram.static.response-cache-max-bytes:16777216}") long maxBytes) {
+        this.staticFileService = staticFileService;
+        this.objectMapper = objectMapper;
+        this.maxBytes = maxBytes;
+    }
+
+    @PostConstruct
+    public void warm() {
+        for (Diagram d : staticFileService.loadStaticDiagrams()) {
+            get(d.id(), null);
+        }
+        log.info("Static response cache warmed: {}", getStats());
+    }
+
+    // Body for the best encoding the client accepts; empty if the id is not a static diagram
+    public Optional<Body> get(String id, String acceptEncoding) {
+        Optional<String> contentHash = staticFileService.getContentHash(id);
+        if (contentHash.isEmpty()) {
+            return Optional.empty();
+        }
+        Entry entry = lookup(id, contentHash.get());
+        if (entry == null) {
+            Optional<Diagram> diagram = staticFileService.loadStaticDiagramById(id);
+            if (diagram.isEmpty()) {
+                return Optional.empty();
+            }
+            entry = Entry.of(contentHash.get(), serialize(diagram.get()));
+            store(id, entry);
+        }
+        return Optional.of(entry.select(acceptEncoding));
+    }
+
+    public synchronized ResponseCacheStats getStats() {
+        return new ResponseCacheStats(entries.size(), bytes, maxBytes, hits, misses);
+    }
+
+    private synchronized Entry lookup(String id, String contentHash) {
+        String fingerprint = staticFileService.getCatalogFingerprint();
+        if (!fingerprint.equals(catalogFingerprint)) {
+            entries.clear();
+            bytes = 0;
+            catalogFingerprint = fingerprint;
+        }
+        Entry entry = entries.get(id);
+        if (entry != null && entry.contentHash().equals(contentHash)) {
+            hits++;
+            return entry;
+        }
+        misses++;
+        return null;
+    }
+
+    private synchronized void store(String id, Entry entry) {
+        if (entry.size() > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(id, entry);
+        bytes += entry.size() - (previous != null ? previous.size() : 0);
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    private byte[] serialize(Diagram diagram) {
+        try {
+            return objectMapper.writeValueAsBytes(diagram);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public record Body(byte[] content, String contentEncoding) {}
+
+    private record Entry(String contentHash, byte[] identity, byte[] gzip, byte[] deflate) {
+
+        static Entry of(String contentHash, byte[] identity) {
+            return new Entry(contentHash, identity, smallerOrNull(gzip(identity), identity),
+                    smallerOrNull(deflate(identity), identity));
+        }
+
+        long size() {
+            return identity.length + (gzip != null ? gzip.length : 0) + (deflate != null ? deflate.length : 0);
+        }
+
+        // The stored coding with the highest q wins, gzip then deflate on a tie; identity when none is acceptable
+        Body select(String acceptEncoding) {
+            Map<String, Double> accepted = parseAcceptEncoding(acceptEncoding);
+            Body best = new Body(identity, null);
+            double bestQ = 0;
+            if (gzip != null && quality(accepted, "gzip") > bestQ) {
+                best = new Body(gzip, "gzip");
+                bestQ = quality(accepted, "gzip");
+            }
+            if (deflate != null && quality(accepted, "deflate") > bestQ) {
+                best = new Body(deflate, "deflate");
+                bestQ = quality(accepted, "deflate");
+            }
+            if (quality(accepted, "identity") > bestQ) {
+                best = new Body(identity, null);
+            }
+            return best;
+        }
+
+        // Unlisted codings take the q of "*", or 0 when there is none
+        private static double quality(Map<String, Double> accepted, String coding) {
+            Double q = accepted.containsKey(coding) ? accepted.get(coding) : accepted.get("*");
+            return q != null ? q : 0;
+        }
+
+        private static Map<String, Double> parseAcceptEncoding(String header) {
+            Map<String, Double> accepted = new LinkedHashMap<>();
+            if (header == null) {
+                return accepted;
+            }
+            for (String part : header.split(",")) {
+                String[] tokens = part.trim().split(";");
+                String coding = tokens[0].trim().toLowerCase();
+                if (coding.isEmpty()) continue;
+                double q = 1.0;
+                for (int i = 1; i < tokens.length; i++) {
+                    String param = tokens[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            q = Double.parseDouble(param.substring(2));
+                        } catch (NumberFormatException e) {
+                            q = 0;
+                        }
+                    }
+                }
+                accepted.put(coding, q);
+            }
+            return accepted;
+        }
+
+        private static byte[] smallerOrNull(byte[] compressed, byte[] identity) {
+            return compressed.length < identity.length ? compressed : null;
+        }
+
+        private static byte[] gzip(byte[] data) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+                gz.write(data);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+
+        // HTTP "deflate" is the zlib format, which is what DeflaterOutputStream writes by default
+        private static byte[] deflate(byte[] data) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            try (DeflaterOutputStream zlib = new DeflaterOutputStream(out)) {
+                zlib.write(data);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+    }
+}
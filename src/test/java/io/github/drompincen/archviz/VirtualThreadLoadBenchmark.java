@@ -0,0 +1,133 @@
+package io.github.drompincen.archviz;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import io.github.drompincen.archviz.repository.DiagramHistoryRepository;
+import io.github.drompincen.archviz.repository.DiagramRepository;
+import io.github.drompincen.archviz.repository.InMemoryDiagramHistoryRepository;
+import io.github.drompincen.archviz.repository.InMemoryDiagramRepository;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Drives concurrent GET /api/diagrams/{id} against a repository that blocks like a remote store,
+// once on a 20-thread Tomcat pool and once on virtual threads (the latter needs a Java 21+ runtime).
+// Run with: mvn test -Dgroups=benchmark -Dsurefire.excludedGroups=
+@Tag("benchmark")
+class VirtualThreadLoadBenchmark {
+
+    private static final int TOMCAT_THREADS = 20;
+    private static final long STORE_LATENCY_MILLIS = 10;
+    private static final int REQUESTS = 4_000;
+    private static final int CONCURRENCY = 200;
+
+    @Test
+    void getDiagram_platformVsVirtualThreads() throws Exception {
+        run(false);
+        if (Runtime.version().feature() >= 21) {
+            run(true);
+        } else {
+            System.out.println("virtual threads skipped: Java " + Runtime.version().feature() + " runtime");
+        }
+    }
+
+    private void run(boolean virtual) throws Exception {
+        try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(ArchVizApplication.class)
+                .properties(
+                        "server.port=0",
+                        "diagram.store=blocking-benchmark",
+                        "server.tomcat.threads.max=" + TOMCAT_THREADS,
+                        "spring.threads.virtual.enabled=" + virtual)
+                .initializers(c -> {
+                    GenericApplicationContext context = (GenericApplicationContext) c;
+                    context.registerBean(DiagramRepository.class, () -> new SlowRepository(STORE_LATENCY_MILLIS));
+                    context.registerBean(DiagramHistoryRepository.class, InMemoryDiagramHistoryRepository::new);
+                })
+                .run()) {
+            ctx.getBean(DiagramRepository.class).save(makeDiagram("bench"));
+            int port = ((ServletWebServerApplicationContext) ctx).getWebServer().getPort();
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = URI.create("http://localhost:" + port + "/api/diagrams/bench");
+
+            drive(client, uri, 500);
+            long nanos = drive(client, uri, REQUESTS);
+            System.out.printf("%s threads: %,d requests, %d concurrent, %,.0f req/s (pool ceiling %,.0f req/s)%n",
+                    virtual ? "virtual" : "platform", REQUESTS, CONCURRENCY, REQUESTS / (nanos / 1e9),
+                    TOMCAT_THREADS * 1000.0 / (2 * STORE_LATENCY_MILLIS));
+        }
+    }
+
+    private static long drive(HttpClient client, URI uri, int requests) throws Exception {
+        Semaphore permits = new Semaphore(CONCURRENCY);
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            permits.acquire();
+            responses.add(client.sendAsync(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((r, e) -> permits.release()));
+        }
+        CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).join();
+        long elapsed = System.nanoTime() - start;
+        responses.forEach(r -> assertEquals(200, r.join().statusCode()));
+        return elapsed;
+    }
+
+    private static Diagram makeDiagram(String id) {
+        return Diagram.builder()
+                .id(id)
+                .title("Load test")
+                .tags(List.of())
+                .version(1)
+                .source("db")
+                .createdAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build();
+    }
+
+    // Each lookup blocks its thread for a fixed time, standing in for a DynamoDB round trip
+    private static class SlowRepository extends InMemoryDiagramRepository {
+
+        private final long latencyMillis;
+
+        SlowRepository(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public Optional<Diagram> findById(String id) {
+            pause();
+            return super.findById(id);
+        }
+
+        @Override
+        public Optional<DiagramRevision> findRevisionById(String id) {
+            pause();
+            return super.findRevisionById(id);
+        }
+
+        private void pause() {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
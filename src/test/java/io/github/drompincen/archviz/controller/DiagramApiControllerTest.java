@@ -2,24 +2,49 @@ package io.github.drompincen.archviz.controller;
 
 import io.github.drompincen.archviz.dto.DiagramCreateRequest;
 import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramPage;
+import io.github.drompincen.archviz.model.DiagramRevision;
 import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.DiagramVersionSummary;
+import io.github.drompincen.archviz.repository.VersionConflictException;
+import io.github.drompincen.archviz.service.DiagramRenderer;
 import io.github.drompincen.archviz.service.DiagramService;
+import io.github.drompincen.archviz.service.DiagramService.FlowPatch;
+import io.github.drompincen.archviz.service.InvalidFlowException;
+import io.github.drompincen.archviz.service.SequenceRenderer;
+import io.github.drompincen.archviz.service.StaticResponseCache;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -33,9 +58,35 @@ class DiagramApiControllerTest {
     @MockBean
     private DiagramService diagramService;
 
+    @MockBean
+    private StaticResponseCache staticResponseCache;
+
+    @MockBean
+    private DiagramRenderer diagramRenderer;
+
+    @MockBean
+    private SequenceRenderer sequenceRenderer;
+
     @Autowired
     private ObjectMapper objectMapper;
 
+    @BeforeEach
+    void setUp() {
+        when(diagramService.getRevisionAsync(any())).thenReturn(completedFuture(Optional.empty()));
+        when(diagramService.revisionOf(any())).thenAnswer(invocation -> {
+            Diagram d = invocation.getArgument(0);
+            return Optional.of(DiagramRevision.of(d.id(), d.version(), d.updatedAt()));
+        });
+    }
+
+    // Single-diagram endpoints return futures, so the result arrives on an async dispatch
+    private ResultActions performAsync(MockHttpServletRequestBuilder builder) throws Exception {
+        MvcResult result = mockMvc.perform(builder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(result));
+    }
+
     @Test
     void listDiagrams_returnsAll() throws Exception {
         List<DiagramSummary> summaries = List.of(
@@ -58,48 +109,380 @@ class DiagramApiControllerTest {
                 .andExpect(jsonPath("$").isArray());
     }
 
+    @Test
+    void listDiagrams_withLimit_returnsPageAndNextCursor() throws Exception {
+        List<DiagramSummary> summaries = List.of(
+                new DiagramSummary("1", "Test", "Desc", List.of(), 1, "db"));
+        when(diagramService.listPage(Optional.empty(), Optional.empty(), Optional.empty(), 1))
+                .thenReturn(new DiagramPage(summaries, "next"));
+
+        mockMvc.perform(get("/api/diagrams").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "next"))
+                .andExpect(jsonPath("$[0].id").value("1"));
+    }
+
+    @Test
+    void listDiagrams_lastPage_hasNoCursorHeader() throws Exception {
+        when(diagramService.listPage(Optional.empty(), Optional.empty(), Optional.of("abc"), 100))
+                .thenReturn(new DiagramPage(List.of(), null));
+
+        mockMvc.perform(get("/api/diagrams").param("cursor", "abc"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-Cursor"))
+                .andExpect(jsonPath("$").isEmpty());
+    }
+
+    @Test
+    void listDiagrams_invalidLimitOrCursor_returns400() throws Exception {
+        mockMvc.perform(get("/api/diagrams").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+
+        when(diagramService.listPage(any(), any(), eq(Optional.of("bad")), anyInt()))
+                .thenThrow(new IllegalArgumentException("Malformed cursor"));
+        mockMvc.perform(get("/api/diagrams").param("cursor", "bad"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamDiagrams_writesOneSummaryPerLine() throws Exception {
+        doAnswer(inv -> {
+            Consumer<List<DiagramSummary>> consumer = inv.getArgument(3);
+            consumer.accept(List.of(new DiagramSummary("1", "One", null, List.of(), 1, "db")));
+            consumer.accept(List.of(new DiagramSummary("file-a", "A", null, List.of(), 0, "file")));
+            return null;
+        }).when(diagramService).forEachPage(eq(Optional.empty()), eq(Optional.empty()), anyInt(), any());
+
+        MvcResult result = mockMvc.perform(get("/api/diagrams").accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String[] lines = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("1", objectMapper.readTree(lines[0]).get("id").asText());
+        assertEquals("file-a", objectMapper.readTree(lines[1]).get("id").asText());
+    }
+
     @Test
     void getDiagram_found() throws Exception {
-        Diagram d = new Diagram();
-        d.setId("1");
-        d.setTitle("Test Diagram");
-        d.setTags(List.of());
-        d.setVersion(1);
-        d.setSource("db");
-        when(diagramService.getById("1")).thenReturn(Optional.of(d));
+        Diagram d = Diagram.builder()
+                .id("1")
+                .title("Test Diagram")
+                .tags(List.of())
+                .version(1)
+                .source("db")
+                .build();
+        when(diagramService.getByIdAsync("1")).thenReturn(completedFuture(Optional.of(d)));
 
-        mockMvc.perform(get("/api/diagrams/1"))
+        performAsync(get("/api/diagrams/1"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.id").value("1"))
                 .andExpect(jsonPath("$.title").value("Test Diagram"));
     }
 
+    @Test
+    void getDiagram_setsETagAndLastModified() throws Exception {
+        Diagram d = Diagram.builder()
+                .id("1")
+                .title("Test Diagram")
+                .version(3)
+                .source("db")
+                .updatedAt(Instant.parse("2024-01-01T00:00:00Z"))
+                .build();
+        when(diagramService.getByIdAsync("1")).thenReturn(completedFuture(Optional.of(d)));
+
+        performAsync(get("/api/diagrams/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-v3\""))
+                .andExpect(header().string("Last-Modified", "Mon, 01 Jan 2024 00:00:00 GMT"));
+        // Without validators to check, the diagram is read once and the revision is not looked up
+        verify(diagramService, never()).getRevisionAsync("1");
+    }
+
+    @Test
+    void getDiagram_matchingIfNoneMatch_returns304WithoutLoadingBody() throws Exception {
+        when(diagramService.getRevisionAsync("1"))
+                .thenReturn(completedFuture(Optional.of(DiagramRevision.of("1", 3, Instant.parse("2024-01-01T00:00:00Z")))));
+
+        performAsync(get("/api/diagrams/1").header("If-None-Match", "\"1-v3\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"1-v3\""))
+                .andExpect(content().string(""));
+        verify(diagramService, never()).getByIdAsync("1");
+    }
+
+    @Test
+    void getDiagram_static_servesPreCompressedBytes() throws Exception {
+        byte[] gzipped = {31, -117, 8, 0};
+        DiagramRevision revision = new DiagramRevision("file-a", "abc", null, "file");
+        Diagram file = Diagram.builder().id("file-a").source("file").build();
+        when(diagramService.getByIdAsync("file-a")).thenReturn(completedFuture(Optional.of(file)));
+        when(diagramService.revisionOf(file)).thenReturn(Optional.of(revision));
+        when(diagramService.getRevisionAsync("file-a")).thenReturn(completedFuture(Optional.of(revision)));
+        when(staticResponseCache.get("file-a", "gzip"))
+                .thenReturn(Optional.of(new StaticResponseCache.Body(gzipped, "gzip")));
+
+        performAsync(get("/api/diagrams/file-a").header("Accept-Encoding", "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("ETag", "\"file-a-abc-gzip\""))
+                .andExpect(header().string("Vary", "Accept-Encoding"))
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().bytes(gzipped));
+        verify(diagramService, never()).getRevisionAsync("file-a");
+
+        performAsync(get("/api/diagrams/file-a").header("Accept-Encoding", "gzip")
+                        .header("If-None-Match", "\"file-a-abc-gzip\""))
+                .andExpect(status().isNotModified());
+        verify(diagramService, times(1)).getByIdAsync("file-a");
+    }
+
+    @Test
+    void getDiagram_phaseAndFlowProjection() throws Exception {
+        Diagram d = Diagram.builder()
+                .id("1")
+                .title("Test Diagram")
+                .version(3)
+                .source("db")
+                .flow(objectMapper.readTree("{\"nodes\":[{\"id\":\"a\"},{\"id\":\"b\",\"phase\":\"p2\"}]}"))
+                .build();
+        Diagram projected = d.toBuilder().flow(objectMapper.readTree("{\"nodes\":[{\"id\":\"a\"}]}")).build();
+        when(diagramService.getRevisionAsync("1"))
+                .thenReturn(completedFuture(Optional.of(DiagramRevision.of("1", 3, Instant.parse("2024-01-01T00:00:00Z")))));
+        when(diagramService.getByIdAsync("1")).thenReturn(completedFuture(Optional.of(d)));
+        when(diagramService.project(d, "p1", "happy path")).thenReturn(projected);
+        when(diagramService.project(d, "nope", null)).thenThrow(new IllegalArgumentException("Unknown phase 'nope'"));
+
+        performAsync(get("/api/diagrams/1").param("phase", "p1").param("flow", "happy path"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-v3-phase=p1-flow=happy+path\""))
+                .andExpect(jsonPath("$.flow.nodes.length()").value(1));
+        performAsync(get("/api/diagrams/1").param("phase", "p1").param("flow", "happy path")
+                        .header("If-None-Match", "\"1-v3-phase=p1-flow=happy+path\""))
+                .andExpect(status().isNotModified());
+        // The whole diagram's ETag does not validate a projection
+        performAsync(get("/api/diagrams/1").param("phase", "nope").header("If-None-Match", "\"1-v3\""))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void renderSvg_servesCachedRenderingsWithLongLivedHeaders() throws Exception {
+        DiagramRevision revision = DiagramRevision.of("1", 3, Instant.parse("2024-01-01T00:00:00Z"));
+        Diagram d = Diagram.builder().id("1").version(3).source("db").updatedAt(revision.lastModified()).build();
+        when(diagramService.getByIdAsync("1")).thenReturn(completedFuture(Optional.of(d)));
+        when(diagramService.getRevisionAsync("1")).thenReturn(completedFuture(Optional.of(revision)));
+        when(diagramRenderer.render(revision, d, "p1", DiagramRenderer.Theme.LIGHT))
+                .thenReturn("<svg/>".getBytes(StandardCharsets.UTF_8));
+        when(diagramRenderer.cached(revision, "p1", DiagramRenderer.Theme.LIGHT))
+                .thenReturn(Optional.of("<svg/>".getBytes(StandardCharsets.UTF_8)));
+
+        performAsync(get("/api/diagrams/1/render.svg").param("phase", "p1").param("theme", "light"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/svg+xml"))
+                .andExpect(header().string("ETag", "\"1-v3-phase=p1-svg-light\""))
+                .andExpect(header().string("Cache-Control", "max-age=300, public"))
+                .andExpect(content().string("<svg/>"));
+        verify(diagramService, never()).getRevisionAsync("1");
+        performAsync(get("/api/diagrams/1/render.svg").param("phase", "p1").param("theme", "LIGHT")
+                        .header("If-None-Match", "\"1-v3-phase=p1-svg-light\""))
+                .andExpect(status().isNotModified());
+        // Revalidating a stale copy against a cached rendering never loads the diagram
+        performAsync(get("/api/diagrams/1/render.svg").param("phase", "p1").param("theme", "light")
+                        .header("If-None-Match", "\"1-v2-phase=p1-svg-light\""))
+                .andExpect(status().isOk())
+                .andExpect(content().string("<svg/>"));
+        verify(diagramService, times(1)).getByIdAsync("1");
+
+        Diagram v2 = Diagram.builder().id("1").version(2).source("db").build();
+        when(diagramService.getVersion("1", 2)).thenReturn(Optional.of(v2));
+        when(diagramRenderer.render(any(), eq(v2), isNull(), eq(DiagramRenderer.Theme.DARK)))
+                .thenReturn("<svg>v2</svg>".getBytes(StandardCharsets.UTF_8));
+        performAsync(get("/api/diagrams/1/render.svg").param("version", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-v2-svg-dark\""))
+                .andExpect(header().string("Cache-Control", containsString("immutable")))
+                .andExpect(content().string("<svg>v2</svg>"));
+
+        mockMvc.perform(get("/api/diagrams/1/render.svg").param("theme", "sepia"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void sequence_streamsTheMemoizedModelWithItsOwnETag() throws Exception {
+        DiagramRevision revision = DiagramRevision.of("1", 3, Instant.parse("2024-01-01T00:00:00Z"));
+        when(diagramService.getRevisionAsync("1")).thenReturn(completedFuture(Optional.of(revision)));
+        SequenceRenderer.SequenceDiagram model = new SequenceRenderer.SequenceDiagram(
+                null, List.of(), 0, List.of(), new int[0], new int[0], new int[0]);
+        when(sequenceRenderer.cached(revision, null, "happy")).thenReturn(Optional.of(model));
+
+        performAsync(get("/api/diagrams/1/sequence").param("flow", "happy").header("If-None-Match", "\"1-v2\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-v3-flow=happy-sequence-json\""))
+                .andExpect(header().string("Cache-Control", "max-age=300, public"));
+        performAsync(get("/api/diagrams/1/sequence.svg").param("flow", "happy").param("theme", "light")
+                        .header("If-None-Match", "\"1-v3-flow=happy-sequence-svg-light\""))
+                .andExpect(status().isNotModified());
+        verify(diagramService, never()).getByIdAsync("1");
+
+        // Without validators the diagram is read once, and the model comes from the renderer's memo
+        Diagram d = Diagram.builder().id("1").version(3).source("db").updatedAt(revision.lastModified()).build();
+        when(diagramService.getByIdAsync("1")).thenReturn(completedFuture(Optional.of(d)));
+        when(sequenceRenderer.sequence(revision, d, null, "happy")).thenReturn(model);
+        performAsync(get("/api/diagrams/1/sequence").param("flow", "happy"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-v3-flow=happy-sequence-json\""));
+        when(sequenceRenderer.sequence(revision, d, null, "nope"))
+                .thenThrow(new IllegalArgumentException("Unknown flow 'nope'"));
+        performAsync(get("/api/diagrams/1/sequence").param("flow", "nope"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/diagrams/1/sequence.svg").param("theme", "sepia"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void listDiagrams_matchingIfNoneMatch_returns304() throws Exception {
+        List<DiagramSummary> summaries = List.of(
+                new DiagramSummary("1", "Test", "Desc", List.of(), 1, "db"));
+        when(diagramService.listAll(Optional.empty(), Optional.empty())).thenReturn(summaries);
+        when(diagramService.listETag(summaries)).thenReturn("\"list-1\"");
+
+        mockMvc.perform(get("/api/diagrams"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"list-1\""));
+        mockMvc.perform(get("/api/diagrams").header("If-None-Match", "\"list-1\""))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void getDiagram_pastVersion() throws Exception {
+        Diagram d = Diagram.builder()
+                .id("1")
+                .title("Old Title")
+                .version(2)
+                .source("db")
+                .build();
+        when(diagramService.getVersion("1", 2)).thenReturn(Optional.of(d));
+
+        performAsync(get("/api/diagrams/1").param("version", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-v2\""))
+                .andExpect(jsonPath("$.title").value("Old Title"))
+                .andExpect(jsonPath("$.version").value(2));
+        verify(diagramService, never()).getByIdAsync("1");
+
+        performAsync(get("/api/diagrams/1").param("version", "9"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void listVersions() throws Exception {
+        when(diagramService.listVersions("1")).thenReturn(List.of(
+                new DiagramVersionSummary(1, Instant.parse("2024-01-01T00:00:00Z"), "First", true),
+                new DiagramVersionSummary(2, Instant.parse("2024-01-02T00:00:00Z"), "Second", false)));
+
+        mockMvc.perform(get("/api/diagrams/1/versions"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[1].version").value(2))
+                .andExpect(jsonPath("$[1].snapshot").value(false));
+        mockMvc.perform(get("/api/diagrams/missing/versions"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void patchDiagram_routesEachPatchMediaType() throws Exception {
+        Diagram patched = Diagram.builder()
+                .id("1")
+                .version(2)
+                .source("db")
+                .build();
+        when(diagramService.patchFlowAsync(eq("1"), any(), any(), any())).thenReturn(completedFuture(Optional.of(patched)));
+
+        performAsync(patch("/api/diagrams/1")
+                        .contentType("application/json-patch+json")
+                        .content("[{\"op\":\"replace\",\"path\":\"/title\",\"value\":\"B\"}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(2));
+        verify(diagramService).patchFlowAsync(eq("1"), eq(FlowPatch.JSON_PATCH), any(), eq(Optional.empty()));
+
+        performAsync(patch("/api/diagrams/1")
+                        .contentType("application/merge-patch+json")
+                        .content("{\"title\":\"B\"}"))
+                .andExpect(status().isOk());
+        verify(diagramService).patchFlowAsync(eq("1"), eq(FlowPatch.MERGE_PATCH), any(), eq(Optional.empty()));
+    }
+
+    @Test
+    void patchDiagram_invalidPatchIs400_missingIs404() throws Exception {
+        when(diagramService.patchFlowAsync(eq("1"), any(), any(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalArgumentException("No value at '/x'")));
+        when(diagramService.patchFlowAsync(eq("missing"), any(), any(), any())).thenReturn(completedFuture(Optional.empty()));
+
+        performAsync(patch("/api/diagrams/1")
+                        .contentType("application/json-patch+json")
+                        .content("[{\"op\":\"remove\",\"path\":\"/x\"}]"))
+                .andExpect(status().isBadRequest());
+        performAsync(patch("/api/diagrams/missing")
+                        .contentType("application/merge-patch+json")
+                        .content("{}"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(patch("/api/diagrams/1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{}"))
+                .andExpect(status().isUnsupportedMediaType());
+    }
+
+    @Test
+    void invalidFlow_is400WithEveryProblem() throws Exception {
+        List<String> problems = List.of("connections[0].to: unknown node 'b'", "nodes[1].id: duplicate node id 'a'");
+        when(diagramService.createAsync(any())).thenThrow(new InvalidFlowException(problems));
+        when(diagramService.patchFlowAsync(eq("1"), any(), any(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new InvalidFlowException(problems)));
+
+        mockMvc.perform(post("/api/diagrams")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Bad\",\"flow\":{}}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.problems.length()").value(2))
+                .andExpect(jsonPath("$.problems[0]").value(problems.get(0)));
+        performAsync(patch("/api/diagrams/1")
+                        .contentType("application/merge-patch+json")
+                        .content("{}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.problems[1]").value(problems.get(1)));
+    }
+
     @Test
     void getDiagram_notFound() throws Exception {
-        when(diagramService.getById("missing")).thenReturn(Optional.empty());
+        when(diagramService.getByIdAsync("missing")).thenReturn(completedFuture(Optional.empty()));
 
-        mockMvc.perform(get("/api/diagrams/missing"))
+        performAsync(get("/api/diagrams/missing"))
                 .andExpect(status().isNotFound());
     }
 
     @Test
     void createDiagram_returns201() throws Exception {
-        Diagram created = new Diagram();
-        created.setId("new-id");
-        created.setTitle("New Diagram");
-        created.setTags(List.of("tag1"));
-        created.setVersion(1);
-        created.setSource("db");
-        created.setCreatedAt(Instant.now());
-        created.setUpdatedAt(Instant.now());
+        Diagram created = Diagram.builder()
+                .id("new-id")
+                .title("New Diagram")
+                .tags(List.of("tag1"))
+                .version(1)
+                .source("db")
+                .createdAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build();
 
-        when(diagramService.create(any())).thenReturn(created);
+        when(diagramService.createAsync(any())).thenReturn(completedFuture(created));
 
         ObjectNode flow = objectMapper.createObjectNode();
         flow.put("title", "Test");
         DiagramCreateRequest request = new DiagramCreateRequest("New Diagram", "Desc", List.of("tag1"), flow);
 
-        mockMvc.perform(post("/api/diagrams")
+        performAsync(post("/api/diagrams")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(request)))
                 .andExpect(status().isCreated())
@@ -109,28 +492,70 @@ class DiagramApiControllerTest {
 
     @Test
     void updateDiagram_found() throws Exception {
-        Diagram updated = new Diagram();
-        updated.setId("1");
-        updated.setTitle("Updated");
-        updated.setTags(List.of());
-        updated.setVersion(2);
-        updated.setSource("db");
+        Diagram updated = Diagram.builder()
+                .id("1")
+                .title("Updated")
+                .tags(List.of())
+                .version(2)
+                .source("db")
+                .build();
 
-        when(diagramService.update(eq("1"), any())).thenReturn(Optional.of(updated));
+        when(diagramService.updateAsync(eq("1"), any(), any())).thenReturn(completedFuture(Optional.of(updated)));
 
-        mockMvc.perform(put("/api/diagrams/1")
+        performAsync(put("/api/diagrams/1")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content("{\"title\":\"Updated\",\"description\":null,\"tags\":[],\"flow\":null}"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.title").value("Updated"))
-                .andExpect(jsonPath("$.version").value(2));
+                .andExpect(jsonPath("$.version").value(2))
+                .andExpect(header().string("ETag", "\"1-v2\""));
+    }
+
+    @Test
+    void updateDiagram_ifMatchPassesExpectedVersion_conflictIs412() throws Exception {
+        when(diagramService.updateAsync(eq("1"), any(), eq(Optional.of(3))))
+                .thenReturn(CompletableFuture.failedFuture(new VersionConflictException("1", 3)));
+
+        performAsync(put("/api/diagrams/1")
+                        .header("If-Match", "\"1-v3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"X\",\"description\":null,\"tags\":[],\"flow\":null}"))
+                .andExpect(status().isPreconditionFailed());
+        verify(diagramService).updateAsync(eq("1"), any(), eq(Optional.of(3)));
+    }
+
+    @Test
+    void updateDiagram_ifMatchOfAnotherDiagramIs412() throws Exception {
+        mockMvc.perform(put("/api/diagrams/1")
+                        .header("If-Match", "\"2-v3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"X\",\"description\":null,\"tags\":[],\"flow\":null}"))
+                .andExpect(status().isPreconditionFailed());
+        verify(diagramService, never()).updateAsync(any(), any(), any());
+    }
+
+    @Test
+    void updateDiagram_weakIfMatchIs412() throws Exception {
+        mockMvc.perform(put("/api/diagrams/1")
+                        .header("If-Match", "W/\"1-v3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"X\",\"description\":null,\"tags\":[],\"flow\":null}"))
+                .andExpect(status().isPreconditionFailed());
+        verify(diagramService, never()).updateAsync(any(), any(), any());
+    }
+
+    @Test
+    void expectedVersion_parsesStrongETags() {
+        assertEquals(Optional.of(7), DiagramApiController.expectedVersion("a-b", "\"a-b-v7\""));
+        assertEquals(Optional.empty(), DiagramApiController.expectedVersion("a-b", "*"));
+        assertEquals(Optional.empty(), DiagramApiController.expectedVersion("a-b", null));
     }
 
     @Test
     void updateDiagram_notFound() throws Exception {
-        when(diagramService.update(eq("missing"), any())).thenReturn(Optional.empty());
+        when(diagramService.updateAsync(eq("missing"), any(), any())).thenReturn(completedFuture(Optional.empty()));
 
-        mockMvc.perform(put("/api/diagrams/missing")
+        performAsync(put("/api/diagrams/missing")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content("{\"title\":\"X\",\"description\":null,\"tags\":[],\"flow\":null}"))
                 .andExpect(status().isNotFound());
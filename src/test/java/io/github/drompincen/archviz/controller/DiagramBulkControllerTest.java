@@ -0,0 +1,103 @@
+package io.github.drompincen.archviz.controller;
+
+import io.github.drompincen.archviz.model.DiagramCacheStats;
+import io.github.drompincen.archviz.service.DiagramBulkService;
+import io.github.drompincen.archviz.service.DiagramService;
+import io.github.drompincen.archviz.service.FlowLayout;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(DiagramBulkController.class)
+class DiagramBulkControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private DiagramBulkService bulkService;
+
+    @MockBean
+    private DiagramService diagramService;
+
+    @Test
+    void bulkImport_streamsBodyThroughService() throws Exception {
+        doAnswer(inv -> {
+            String body = new String(inv.<InputStream>getArgument(0).readAllBytes(), StandardCharsets.UTF_8);
+            inv.<OutputStream>getArgument(1).write(("{\"lines\":" + body.lines().count() + "}\n").getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(bulkService).importDiagrams(any(), any());
+
+        mockMvc.perform(post("/api/diagrams:bulk")
+                        .contentType(DiagramApiController.NDJSON)
+                        .content("{\"id\":\"a\"}\n{\"id\":\"b\"}\n"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(DiagramApiController.NDJSON))
+                .andExpect(content().string("{\"lines\":2}\n"));
+    }
+
+    @Test
+    void export_isAnNdjsonAttachment() throws Exception {
+        doAnswer(inv -> {
+            inv.<OutputStream>getArgument(0).write("{\"id\":\"a\"}\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(bulkService).exportDiagrams(any());
+
+        MvcResult result = mockMvc.perform(get("/api/diagrams:export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"diagrams.ndjson\""));
+        assertEquals("{\"id\":\"a\"}\n", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    void layout_returnsTheLaidOutFlow_andRejectsUnknownModes() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        when(diagramService.layout(any(), eq(FlowLayout.Mode.MISSING)))
+                .thenReturn(objectMapper.readTree("{\"nodes\":[{\"id\":\"a\",\"x\":40,\"y\":40}]}"));
+
+        mockMvc.perform(post("/api/diagrams:layout")
+                        .contentType("application/json")
+                        .content("{\"nodes\":[{\"id\":\"a\"}]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.nodes[0].x").value(40));
+        mockMvc.perform(post("/api/diagrams:layout?mode=grid")
+                        .contentType("application/json")
+                        .content("{}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void stats_reportsTheCacheHitRate() throws Exception {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cache", new DiagramCacheStats(3, 1_536, 64_000_000, 3, 1, 0, 0));
+        stats.put("coalescedLoads", 2L);
+        when(diagramService.stats()).thenReturn(stats);
+
+        mockMvc.perform(get("/api/diagrams:stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.cache.hits").value(3))
+                .andExpect(jsonPath("$.cache.hitRate").value(0.75))
+                .andExpect(jsonPath("$.coalescedLoads").value(2));
+    }
+}
@@ -0,0 +1,249 @@
+package io.github.drompincen.archviz.repository;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramCacheStats;
+import io.github.drompincen.archviz.model.WriteBehindStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingDiagramRepositoryTest {
+
+    private CountingRepository backend;
+    private AtomicLong now;
+    private CachingDiagramRepository repo;
+
+    @BeforeEach
+    void setUp() {
+        backend = new CountingRepository();
+        now = new AtomicLong();
+        repo = new CachingDiagramRepository(backend, 100, 1_000_000, 1_000, now::get);
+    }
+
+    @Test
+    void findById_servesRepeatReadsFromCache() {
+        backend.save(makeDiagram("1", "Alpha", 1));
+
+        assertEquals("Alpha", repo.findById("1").orElseThrow().title());
+        assertEquals("Alpha", repo.findById("1").orElseThrow().title());
+        assertEquals("\"1-v1\"", repo.findRevisionById("1").orElseThrow().etag());
+
+        assertEquals(1, backend.reads.get());
+        DiagramCacheStats stats = repo.getStats();
+        assertEquals(2, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(2.0 / 3, stats.hitRate(), 1e-9);
+    }
+
+    @Test
+    void findById_sharesTheCachedInstance() {
+        backend.save(makeDiagram("1", "Alpha", 1));
+
+        assertSame(repo.findById("1").orElseThrow(), repo.findById("1").orElseThrow());
+        assertSame(repo.findById("1").orElseThrow(), repo.findByIdAsync("1").join().orElseThrow());
+    }
+
+    @Test
+    void save_invalidatesCachedEntry() {
+        repo.save(makeDiagram("1", "Alpha", 1));
+        repo.findById("1");
+
+        repo.save(makeDiagram("1", "Beta", 2));
+        assertEquals("Beta", repo.findById("1").orElseThrow().title());
+        assertEquals(2, backend.reads.get());
+    }
+
+    @Test
+    void deleteById_invalidatesCachedEntry() {
+        repo.save(makeDiagram("1", "Alpha", 1));
+        repo.findById("1");
+
+        repo.deleteById("1");
+        assertTrue(repo.findById("1").isEmpty());
+        assertEquals(0, repo.getStats().size());
+    }
+
+    @Test
+    void entriesExpireAfterTtl() {
+        backend.save(makeDiagram("1", "Alpha", 1));
+        repo.findById("1");
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1_000));
+        repo.findById("1");
+
+        assertEquals(2, backend.reads.get());
+        assertEquals(1, repo.getStats().expirations());
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvictedAtCapacity() {
+        CachingDiagramRepository small = new CachingDiagramRepository(backend, 2, 1_000_000, 60_000, now::get);
+        for (String id : List.of("1", "2", "3")) {
+            backend.save(makeDiagram(id, "D" + id, 1));
+        }
+        small.findById("1");
+        small.findById("2");
+        small.findById("1");
+        small.findById("3");
+
+        backend.reads.set(0);
+        small.findById("1");
+        small.findById("2");
+        assertEquals(1, backend.reads.get());
+        assertTrue(small.getStats().evictions() >= 1);
+    }
+
+    @Test
+    void entriesAreWeighedByTheStoredFlowSize() {
+        CachingDiagramRepository small = new CachingDiagramRepository(backend, 100, 3_000, 60_000, now::get);
+        for (String id : List.of("1", "2", "3")) {
+            backend.save(makeDiagram(id, "D" + id, 1).toBuilder().flowSize(900).build());
+        }
+        backend.save(makeDiagram("big", "Big", 1).toBuilder().flowSize(5_000).build());
+
+        small.findById("1");
+        small.findById("2");
+        assertEquals(2 * 1_412, small.getStats().bytes());
+        small.findById("3");
+        assertEquals(2, small.getStats().size());
+        assertEquals(1, small.getStats().evictions());
+
+        // Larger than the whole cache: served, never stored
+        small.findById("big");
+        assertEquals(2 * 1_412, small.getStats().bytes());
+    }
+
+    @Test
+    void sampledEvictionKeepsAHotEntryInALargeCache() {
+        CachingDiagramRepository large = new CachingDiagramRepository(backend, 200, 10_000_000, 60_000, now::get);
+        for (int i = 0; i < 1_000; i++) {
+            backend.save(makeDiagram(String.valueOf(i), "D" + i, 1));
+        }
+        backend.save(makeDiagram("hot", "Hot", 1));
+        large.findById("hot");
+
+        for (int i = 0; i < 1_000; i++) {
+            large.findById("hot");
+            large.findById(String.valueOf(i));
+        }
+
+        DiagramCacheStats stats = large.getStats();
+        assertEquals(200, stats.size());
+        assertEquals(801, stats.evictions());
+        assertEquals(1_000, stats.hits());
+        assertEquals(1_001, backend.reads.get());
+    }
+
+    @Test
+    void stats_listsEveryLayer() throws Exception {
+        try (WriteBehindDiagramRepository writeBehind = new WriteBehindDiagramRepository(backend, 60_000, 1_000)) {
+            CachingDiagramRepository cached = new CachingDiagramRepository(writeBehind, 10, 1_000_000, 60_000, now::get);
+            cached.save(makeDiagram("1", "Alpha", 1));
+            cached.findById("1");
+            cached.findById("1");
+
+            Map<String, Object> stats = cached.stats();
+            assertEquals(List.of("cache", "writeBehind"), List.copyOf(stats.keySet()));
+            assertEquals(1, ((DiagramCacheStats) stats.get("cache")).hits());
+            assertEquals(1, ((WriteBehindStats) stats.get("writeBehind")).queueDepth());
+        }
+    }
+
+    @Test
+    void concurrentReadsAndWritesStayWithinBounds() throws Exception {
+        CachingDiagramRepository bounded = new CachingDiagramRepository(backend, 20, 1_000_000, 60_000, now::get);
+        for (int i = 0; i < 50; i++) {
+            backend.save(makeDiagram(String.valueOf(i), "D" + i, 1));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int offset = t;
+                workers.add(pool.submit(() -> {
+                    for (int n = 0; n < 2_000; n++) {
+                        String id = String.valueOf((n * 7 + offset) % 50);
+                        if (n % 100 == 0) {
+                            bounded.save(makeDiagram(id, "D" + id, 1));
+                        } else {
+                            assertEquals("D" + id, bounded.findById(id).orElseThrow().title());
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        DiagramCacheStats stats = bounded.getStats();
+        assertTrue(stats.size() <= 20, "size " + stats.size());
+        assertEquals(stats.size() * 512L, stats.bytes());
+        assertEquals(8 * 1_980, stats.hits() + stats.misses());
+    }
+
+    @Test
+    void readThatRacesAWriteIsNotCached() {
+        backend.save(makeDiagram("1", "Alpha", 1));
+        // Simulates a save landing while the backend read is in flight
+        backend.onRead = () -> repo.save(makeDiagram("1", "Beta", 2));
+
+        assertEquals("Alpha", repo.findById("1").orElseThrow().title());
+        backend.onRead = null;
+        assertEquals("Beta", repo.findById("1").orElseThrow().title());
+    }
+
+    @Test
+    void findByIdAsync_populatesCache() {
+        backend.save(makeDiagram("1", "Alpha", 1));
+
+        assertEquals("Alpha", repo.findByIdAsync("1").join().orElseThrow().title());
+        assertEquals("Alpha", repo.findByIdAsync("1").join().orElseThrow().title());
+        assertEquals(1, backend.reads.get());
+    }
+
+    private Diagram makeDiagram(String id, String title, int version) {
+        return Diagram.builder()
+                .id(id)
+                .title(title)
+                .tags(List.of())
+                .version(version)
+                .source("db")
+                .createdAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build();
+    }
+
+    private static class CountingRepository extends InMemoryDiagramRepository {
+
+        final AtomicInteger reads = new AtomicInteger();
+        volatile Runnable onRead;
+
+        @Override
+        public Optional<Diagram> findById(String id) {
+            reads.incrementAndGet();
+            Optional<Diagram> result = super.findById(id);
+            Runnable hook = onRead;
+            if (hook != null) {
+                onRead = null;
+                hook.run();
+            }
+            return result;
+        }
+    }
+}
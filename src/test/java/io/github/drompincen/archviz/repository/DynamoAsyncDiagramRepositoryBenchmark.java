@@ -0,0 +1,128 @@
+package io.github.drompincen.archviz.repository;
+
+import io.github.drompincen.archviz.LocalDynamoDbExtension;
+import io.github.drompincen.archviz.model.Diagram;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Compares findById throughput of the blocking and async DynamoDB repositories at rising
+// concurrency, with the blocking side limited to a fixed pool the size of a servlet pool slice.
+// Run with: mvn test -Dgroups=benchmark -Dsurefire.excludedGroups=
+@Tag("benchmark")
+class DynamoAsyncDiagramRepositoryBenchmark {
+
+    private static final int DIAGRAMS = 200;
+    private static final int REQUESTS = 5_000;
+    private static final int BLOCKING_THREADS = 16;
+
+    @RegisterExtension
+    static LocalDynamoDbExtension dynamoDb = new LocalDynamoDbExtension();
+
+    @Test
+    void findById_blockingVsAsync() throws Exception {
+        StaticCredentialsProvider credentials = StaticCredentialsProvider.create(
+                AwsBasicCredentials.create("fakeKey", "fakeSecret"));
+        DynamoDbClient client = DynamoDbClient.builder()
+                .endpointOverride(URI.create(dynamoDb.getEndpoint()))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(credentials)
+                .build();
+        DynamoDbAsyncClient asyncClient = DynamoDbAsyncClient.builder()
+                .endpointOverride(URI.create(dynamoDb.getEndpoint()))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(credentials)
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder().maxConcurrency(256))
+                .build();
+
+        String table = "bench-diagrams-" + System.nanoTime();
+        DynamoDiagramRepository blocking = new DynamoDiagramRepository(client, table);
+        DynamoAsyncDiagramRepository async = new DynamoAsyncDiagramRepository(client, asyncClient, table, 4);
+        List<Diagram> batch = new ArrayList<>();
+        for (int i = 0; i < DIAGRAMS; i++) {
+            batch.add(makeDiagram("d-" + i));
+        }
+        blocking.saveAll(batch);
+
+        ExecutorService pool = Executors.newFixedThreadPool(BLOCKING_THREADS);
+        try {
+            // Warm up both paths
+            runBlocking(blocking, pool, 500);
+            runAsync(async, 64, 500);
+
+            long blockingNanos = runBlocking(blocking, pool, REQUESTS);
+            System.out.printf("blocking threads=%d requests=%,d throughput=%,.0f req/s%n",
+                    BLOCKING_THREADS, REQUESTS, REQUESTS / (blockingNanos / 1e9));
+            for (int inFlight : new int[]{16, 64, 256}) {
+                long asyncNanos = runAsync(async, inFlight, REQUESTS);
+                System.out.printf("async    inFlight=%d requests=%,d throughput=%,.0f req/s%n",
+                        inFlight, REQUESTS, REQUESTS / (asyncNanos / 1e9));
+            }
+        } finally {
+            pool.shutdownNow();
+            blocking.close();
+            async.close();
+            asyncClient.close();
+            client.close();
+        }
+    }
+
+    private static long runBlocking(DynamoDiagramRepository repo, ExecutorService pool, int requests) throws Exception {
+        long start = System.nanoTime();
+        List<Future<Optional<Diagram>>> futures = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            String id = "d-" + (i % DIAGRAMS);
+            futures.add(pool.submit(() -> repo.findById(id)));
+        }
+        for (Future<Optional<Diagram>> f : futures) {
+            assertTrue(f.get().isPresent());
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Keeps at most inFlight requests outstanding from a single caller thread
+    private static long runAsync(DynamoAsyncDiagramRepository repo, int inFlight, int requests) throws Exception {
+        Semaphore permits = new Semaphore(inFlight);
+        List<CompletableFuture<Optional<Diagram>>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            permits.acquire();
+            futures.add(repo.findByIdAsync("d-" + (i % DIAGRAMS)).whenComplete((r, e) -> permits.release()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        long elapsed = System.nanoTime() - start;
+        futures.forEach(f -> assertTrue(f.join().isPresent()));
+        return elapsed;
+    }
+
+    private static Diagram makeDiagram(String id) {
+        return Diagram.builder()
+                .id(id)
+                .title("Benchmark " + id)
+                .tags(List.of("bench"))
+                .version(1)
+                .source("db")
+                .createdAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build();
+    }
+}
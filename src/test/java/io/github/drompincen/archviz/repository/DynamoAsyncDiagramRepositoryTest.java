@@ -0,0 +1,142 @@
+package io.github.drompincen.archviz.repository;
+
+import io.github.drompincen.archviz.LocalDynamoDbExtension;
+import io.github.drompincen.archviz.model.Diagram;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DynamoAsyncDiagramRepositoryTest {
+
+    @RegisterExtension
+    static LocalDynamoDbExtension dynamoDb = new LocalDynamoDbExtension();
+
+    private DynamoDbClient client;
+    private DynamoDbAsyncClient asyncClient;
+    private DynamoAsyncDiagramRepository repo;
+
+    @BeforeEach
+    void setUp() {
+        StaticCredentialsProvider credentials = StaticCredentialsProvider.create(
+                AwsBasicCredentials.create("fakeKey", "fakeSecret"));
+        client = DynamoDbClient.builder()
+                .endpointOverride(URI.create(dynamoDb.getEndpoint()))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(credentials)
+                .build();
+        asyncClient = DynamoDbAsyncClient.builder()
+                .endpointOverride(URI.create(dynamoDb.getEndpoint()))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(credentials)
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder())
+                .build();
+
+        // Use a unique table name per test to avoid state leaking
+        repo = new DynamoAsyncDiagramRepository(client, asyncClient, "test-diagrams-" + System.nanoTime(), 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        repo.close();
+        asyncClient.close();
+        client.close();
+    }
+
+    @Test
+    void saveAsync_and_findByIdAsync() {
+        Diagram d = makeDiagram("1", "Async Diagram", List.of("java"));
+
+        repo.saveAsync(d).join();
+
+        Diagram found = repo.findByIdAsync("1").join().orElseThrow();
+        assertEquals("Async Diagram", found.title());
+        assertEquals(List.of("java"), found.tags());
+        assertEquals("\"1-v1\"", repo.findRevisionByIdAsync("1").join().orElseThrow().etag());
+        assertTrue(repo.findByIdAsync("missing").join().isEmpty());
+    }
+
+    @Test
+    void asyncWrites_maintainTagIndexForBlockingListings() {
+        repo.saveAsync(makeDiagram("1", "Alpha", List.of("java"))).join();
+        repo.saveAsync(makeDiagram("2", "Beta", List.of("java"))).join();
+        repo.saveAsync(makeDiagram("2", "Beta", List.of("go"))).join();
+
+        assertEquals(1, repo.findAll(Optional.of("java"), Optional.empty()).size());
+        assertEquals(1, repo.findAll(Optional.of("go"), Optional.empty()).size());
+
+        repo.deleteByIdAsync("1").join();
+        assertTrue(repo.findAll(Optional.of("java"), Optional.empty()).isEmpty());
+        assertTrue(repo.findById("1").isEmpty());
+    }
+
+    @Test
+    void oversizedFlow_roundTripsThroughAsyncPath() {
+        ObjectNode flow = new ObjectMapper().createObjectNode();
+        ArrayNode notes = flow.putArray("notes");
+        for (int i = 0; i < 8_000; i++) {
+            notes.add("Step " + i + ": the checkpoint service persists agent state before handing the task on");
+        }
+        Diagram d = makeDiagram("big", "Big", List.of()).toBuilder().flow(flow).build();
+
+        repo.saveAsync(d).join();
+        assertEquals(flow, repo.findByIdAsync("big").join().orElseThrow().flow());
+        assertEquals(flow, repo.findById("big").orElseThrow().flow());
+
+        repo.deleteByIdAsync("big").join();
+        assertTrue(repo.findByIdAsync("big").join().isEmpty());
+    }
+
+    @Test
+    void saveFlowAsync_keepsTitleAndTags() {
+        Diagram d = makeDiagram("1", "Stored", List.of("java"));
+        repo.saveAsync(d).join();
+
+        Diagram patched = d.toBuilder()
+                .title("Local only")
+                .version(2)
+                .flow(new ObjectMapper().createObjectNode().put("title", "patched"))
+                .build();
+        repo.saveFlowAsync(patched, 1).join();
+
+        Diagram stale = patched.toBuilder().version(3).build();
+        CompletionException conflict = assertThrows(CompletionException.class, () -> repo.saveFlowAsync(stale, 1).join());
+        assertInstanceOf(VersionConflictException.class, conflict.getCause());
+        assertThrows(VersionConflictException.class, () -> repo.save(stale, 1));
+
+        Diagram stored = repo.findByIdAsync("1").join().orElseThrow();
+        assertEquals("Stored", stored.title());
+        assertEquals(2, stored.version());
+        assertEquals("patched", stored.flow().get("title").asText());
+        assertEquals(1, repo.findAll(Optional.of("java"), Optional.empty()).size());
+    }
+
+    private Diagram makeDiagram(String id, String title, List<String> tags) {
+        return Diagram.builder()
+                .id(id)
+                .title(title)
+                .tags(tags)
+                .version(1)
+                .source("db")
+                .createdAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build();
+    }
+}
@@ -0,0 +1,135 @@
+package io.github.drompincen.archviz.repository;
+
+import io.github.drompincen.archviz.LocalDynamoDbExtension;
+import io.github.drompincen.archviz.model.DiagramHistoryEntry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DynamoDiagramHistoryRepositoryTest {
+
+    @RegisterExtension
+    static LocalDynamoDbExtension dynamoDb = new LocalDynamoDbExtension();
+
+    private DynamoDbClient client;
+    private DynamoDiagramHistoryRepository repo;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    void setUp() {
+        client = DynamoDbClient.builder()
+                .endpointOverride(URI.create(dynamoDb.getEndpoint()))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create("fakeKey", "fakeSecret")))
+                .build();
+
+        // Use a unique table name per test to avoid state leaking
+        repo = new DynamoDiagramHistoryRepository(client, "test-diagrams-" + System.nanoTime(),
+                new FlowCodec(FlowCodec.Format.SMILE_DEFLATE));
+    }
+
+    @Test
+    void findChain_walksBackToNearestSnapshot() {
+        for (int v = 1; v <= 7; v++) {
+            repo.append(entry(v, v == 1 || v == 4));
+        }
+
+        List<DiagramHistoryEntry> chain = repo.findChain("1", 6);
+        assertEquals(List.of(4, 5, 6), chain.stream().map(DiagramHistoryEntry::version).toList());
+        assertEquals(objectMapper.createObjectNode().put("v", 6), chain.get(2).content());
+        assertTrue(repo.findChain("1", 8).isEmpty());
+    }
+
+    @Test
+    void findVersions_andLatestVersion() {
+        for (int v = 1; v <= 3; v++) {
+            repo.append(entry(v, v == 1));
+        }
+
+        assertEquals(List.of(1, 2, 3), repo.findVersions("1").stream().map(s -> s.version()).toList());
+        assertEquals(Optional.of(3), repo.findLatestVersion("1"));
+        assertTrue(repo.findLatestVersion("other").isEmpty());
+    }
+
+    @Test
+    void findChain_gapWithoutSnapshotIsEmpty() {
+        repo.append(entry(1, true));
+        repo.append(entry(3, false));
+
+        assertTrue(repo.findChain("1", 3).isEmpty());
+    }
+
+    @Test
+    void snapshotAboveTheItemLimit_isChunkedAndReassembled() {
+        // Plain JSON, so the content stays well past 400 KB when encoded
+        DynamoDiagramHistoryRepository json = new DynamoDiagramHistoryRepository(client,
+                "test-diagrams-" + System.nanoTime(), new FlowCodec(FlowCodec.Format.JSON));
+        ObjectNode large = objectMapper.createObjectNode();
+        var notes = large.putArray("notes");
+        for (int i = 0; notes.size() * 110 < 1_000_000; i++) {
+            notes.add("Step " + i + ": the checkpoint service persists agent state before handing the task to the next hop");
+        }
+        json.append(new DiagramHistoryEntry("1", 1, Instant.now(), "Large", true, large));
+        json.append(entry(2, false));
+
+        List<DiagramHistoryEntry> chain = json.findChain("1", 2);
+        assertEquals(List.of(1, 2), chain.stream().map(DiagramHistoryEntry::version).toList());
+        assertEquals(large, chain.get(0).content());
+        assertTrue(client.scan(ScanRequest.builder().tableName(json.chunkTableName).build()).count() > 1);
+        assertEquals(List.of(1, 2), json.findVersions("1").stream().map(s -> s.version()).toList());
+    }
+
+    @Test
+    void replacingAChunkedEntry_deletesItsOldChunks() {
+        DynamoDiagramHistoryRepository json = new DynamoDiagramHistoryRepository(client,
+                "test-diagrams-" + System.nanoTime(), new FlowCodec(FlowCodec.Format.JSON));
+        ObjectNode large = largeContent("first");
+        json.append(new DiagramHistoryEntry("1", 1, Instant.now(), "Large", true, large));
+        int chunks = chunkCount(json);
+        assertTrue(chunks > 1);
+
+        ObjectNode replacement = largeContent("second");
+        json.append(new DiagramHistoryEntry("1", 1, Instant.now(), "Large", true, replacement));
+        assertEquals(chunks, chunkCount(json));
+        assertEquals(replacement, json.findChain("1", 1).get(0).content());
+
+        json.append(entry(1, true));
+        assertEquals(0, chunkCount(json));
+        assertEquals(entry(1, true).content(), json.findChain("1", 1).get(0).content());
+    }
+
+    // Scan pages stop at 1 MB, so chunk tables are counted across all pages
+    private int chunkCount(DynamoDiagramHistoryRepository history) {
+        return client.scanPaginator(ScanRequest.builder().tableName(history.chunkTableName).build())
+                .stream().mapToInt(page -> page.count()).sum();
+    }
+
+    private ObjectNode largeContent(String label) {
+        ObjectNode large = objectMapper.createObjectNode();
+        var notes = large.putArray("notes");
+        for (int i = 0; notes.size() * 110 < 1_000_000; i++) {
+            notes.add(label + " step " + i + ": the checkpoint service persists agent state before the next hop");
+        }
+        return large;
+    }
+
+    private DiagramHistoryEntry entry(int version, boolean snapshot) {
+        ObjectNode content = objectMapper.createObjectNode().put("v", version);
+        return new DiagramHistoryEntry("1", version, Instant.now(), "Title " + version, snapshot, content);
+    }
+}
@@ -2,6 +2,9 @@ package io.github.drompincen.archviz.repository;
 
 import io.github.drompincen.archviz.LocalDynamoDbExtension;
 import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.SummaryPage;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,11 +14,16 @@ import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.DeleteTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
 
 import java.net.URI;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -24,12 +32,14 @@ class DynamoDiagramRepositoryTest {
     @RegisterExtension
     static LocalDynamoDbExtension dynamoDb = new LocalDynamoDbExtension();
 
+    private DynamoDbClient client;
+    private String tableName;
     private DynamoDiagramRepository repo;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @BeforeEach
     void setUp() {
-        DynamoDbClient client = DynamoDbClient.builder()
+        client = DynamoDbClient.builder()
                 .endpointOverride(URI.create(dynamoDb.getEndpoint()))
                 .region(Region.US_EAST_1)
                 .credentialsProvider(StaticCredentialsProvider.create(
@@ -37,7 +47,7 @@ class DynamoDiagramRepositoryTest {
                 .build();
 
         // Use a unique table name per test to avoid state leaking
-        String tableName = "test-diagrams-" + System.nanoTime();
+        tableName = "test-diagrams-" + System.nanoTime();
         repo = new DynamoDiagramRepository(client, tableName);
     }
 
@@ -48,8 +58,8 @@ class DynamoDiagramRepositoryTest {
 
         Optional<Diagram> found = repo.findById("1");
         assertTrue(found.isPresent());
-        assertEquals("Test Diagram", found.get().getTitle());
-        assertEquals(List.of("tag1"), found.get().getTags());
+        assertEquals("Test Diagram", found.get().title());
+        assertEquals(List.of("tag1"), found.get().tags());
     }
 
     @Test
@@ -73,7 +83,7 @@ class DynamoDiagramRepositoryTest {
 
         List<Diagram> filtered = repo.findAll(Optional.of("java"), Optional.empty());
         assertEquals(1, filtered.size());
-        assertEquals("Alpha", filtered.get(0).getTitle());
+        assertEquals("Alpha", filtered.get(0).title());
     }
 
     @Test
@@ -98,38 +108,312 @@ class DynamoDiagramRepositoryTest {
         ObjectNode flow = objectMapper.createObjectNode();
         flow.put("title", "Test Flow");
         flow.putArray("nodes").addObject().put("id", "n1");
-        d.setFlow(flow);
+        d = d.toBuilder().flow(flow).build();
 
         repo.save(d);
         Optional<Diagram> found = repo.findById("1");
         assertTrue(found.isPresent());
-        assertNotNull(found.get().getFlow());
-        assertEquals("Test Flow", found.get().getFlow().get("title").asText());
+        assertNotNull(found.get().flow());
+        assertEquals("Test Flow", found.get().flow().get("title").asText());
+    }
+
+    @Test
+    void binaryFlowFormat_readsBothNewAndLegacyItems() {
+        ObjectNode flow = objectMapper.createObjectNode();
+        flow.put("title", "Test Flow");
+        flow.putArray("nodes").addObject().put("id", "n1");
+        Diagram legacy = makeDiagram("legacy", "Legacy", List.of()).toBuilder().flow(flow).build();
+        repo.save(legacy);
+
+        DynamoDiagramRepository binary = new DynamoDiagramRepository(client, tableName, 1,
+                Thread::new, new FlowCodec(FlowCodec.Format.SMILE_DEFLATE));
+        Diagram fresh = makeDiagram("fresh", "Fresh", List.of()).toBuilder().flow(flow).build();
+        binary.save(fresh);
+
+        assertEquals(flow, binary.findById("legacy").orElseThrow().flow());
+        assertEquals(flow, binary.findById("fresh").orElseThrow().flow());
+        // A repository still writing JSON reads binary items as well
+        assertEquals(flow, repo.findById("fresh").orElseThrow().flow());
+    }
+
+    @Test
+    void oversizedFlow_isChunkedAndReassembled() throws Exception {
+        ObjectNode flow = largeFlow(1_200_000);
+        Diagram d = makeDiagram("big", "Big", List.of("large")).toBuilder().flow(flow).build();
+
+        repo.save(d);
+        repo.save(makeDiagram("small", "Small", List.of("large")));
+
+        assertEquals(4, countChunks());
+        Diagram loaded = repo.findById("big").orElseThrow();
+        assertEquals(flow, loaded.flow());
+        // The stored size comes with the decoded flow, for the cache to weigh it
+        assertEquals(objectMapper.writeValueAsString(flow).length(), loaded.flowSize());
+        assertEquals(2, repo.findAll(Optional.of("large"), Optional.empty()).size());
+    }
+
+    @Test
+    void replacingOrDeletingChunkedDiagram_removesItsChunks() {
+        Diagram d = makeDiagram("big", "Big", List.of()).toBuilder().flow(largeFlow(700_000)).build();
+        repo.save(d);
+        assertEquals(3, countChunks());
+
+        d = d.toBuilder().flow(largeFlow(400_000)).build();
+        repo.saveAll(List.of(d));
+        assertEquals(2, countChunks());
+        assertEquals(d.flow(), repo.findById("big").orElseThrow().flow());
+
+        d = d.toBuilder().flow(objectMapper.createObjectNode().put("title", "now small")).build();
+        repo.save(d);
+        assertEquals(0, countChunks());
+        assertEquals("now small", repo.findById("big").orElseThrow().flow().get("title").asText());
+
+        d = d.toBuilder().flow(largeFlow(700_000)).build();
+        repo.save(d);
+        repo.deleteById("big");
+        assertEquals(0, countChunks());
+    }
+
+    @Test
+    void saveFlow_updatesFlowInPlaceAndKeepsOtherAttributes() {
+        Diagram d = makeDiagram("1", "Stored", List.of("java")).toBuilder().flow(objectMapper.createObjectNode().put("title", "v1")).build();
+        repo.save(d);
+
+        // Only flow, version and updatedAt are written, so the local title change is not persisted
+        d = d.toBuilder()
+                .title("Local only")
+                .version(2)
+                .flow(largeFlow(700_000))
+                .build();
+        repo.saveFlow(d, 1);
+        assertEquals(3, countChunks());
+        Diagram stored = repo.findById("1").orElseThrow();
+        assertEquals("Stored", stored.title());
+        assertEquals(2, stored.version());
+        assertEquals(d.flow(), stored.flow());
+        assertEquals(1, repo.findAll(Optional.of("java"), Optional.empty()).size());
+
+        d = d.toBuilder()
+                .version(3)
+                .flow(objectMapper.createObjectNode().put("title", "v3"))
+                .build();
+        repo.saveFlow(d, 2);
+        assertEquals(0, countChunks());
+        assertEquals("v3", repo.findById("1").orElseThrow().flow().get("title").asText());
+    }
+
+    @Test
+    void conditionalWrites_conflictOnStaleOrDeletedVersion() {
+        Diagram d = makeDiagram("1", "Stored", List.of("java"));
+        repo.save(d);
+
+        Diagram stale = makeDiagram("1", "Stale", List.of("python")).toBuilder()
+                .version(5)
+                .flow(largeFlow(700_000))
+                .build();
+        assertThrows(VersionConflictException.class, () -> repo.save(stale, 4));
+        assertThrows(VersionConflictException.class, () -> repo.saveFlow(stale, 4));
+        // Chunks written for the rejected writes are cleaned up
+        assertEquals(0, countChunks());
+        assertEquals("Stored", repo.findById("1").orElseThrow().title());
+        assertTrue(repo.findAll(Optional.of("python"), Optional.empty()).isEmpty());
+
+        Diagram next = d.toBuilder()
+                .version(2)
+                .title("Next")
+                .build();
+        repo.save(next, 1);
+        assertEquals("Next", repo.findById("1").orElseThrow().title());
+
+        repo.deleteById("1");
+        Diagram deleted = next.toBuilder().version(3).build();
+        assertThrows(VersionConflictException.class, () -> repo.saveFlow(deleted, 2));
+        assertTrue(repo.findById("1").isEmpty());
     }
 
     @Test
     void save_preservesTimestamps() {
         Instant now = Instant.parse("2025-01-15T10:30:00Z");
-        Diagram d = makeDiagram("1", "Timestamp Test", List.of());
-        d.setCreatedAt(now);
-        d.setUpdatedAt(now);
+        Diagram d = makeDiagram("1", "Timestamp Test", List.of()).toBuilder()
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
 
         repo.save(d);
         Optional<Diagram> found = repo.findById("1");
         assertTrue(found.isPresent());
-        assertEquals(now, found.get().getCreatedAt());
-        assertEquals(now, found.get().getUpdatedAt());
+        assertEquals(now, found.get().createdAt());
+        assertEquals(now, found.get().updatedAt());
+    }
+
+    @Test
+    void findAll_filterByTagAndQuery() {
+        repo.save(makeDiagram("1", "Microservice Architecture", List.of("java")));
+        repo.save(makeDiagram("2", "Microservice Pipeline", List.of("python")));
+        repo.save(makeDiagram("3", "Event Pipeline", List.of("java")));
+
+        List<Diagram> filtered = repo.findAll(Optional.of("java"), Optional.of("Microservice"));
+        assertEquals(1, filtered.size());
+        assertEquals("1", filtered.get(0).id());
+    }
+
+    @Test
+    void save_changedTags_updatesTagIndex() {
+        repo.save(makeDiagram("1", "Alpha", List.of("java", "spring")));
+        repo.save(makeDiagram("1", "Alpha", List.of("spring", "kotlin")));
+
+        assertTrue(repo.findAll(Optional.of("java"), Optional.empty()).isEmpty());
+        assertEquals(1, repo.findAll(Optional.of("spring"), Optional.empty()).size());
+        assertEquals(1, repo.findAll(Optional.of("kotlin"), Optional.empty()).size());
+    }
+
+    @Test
+    void deleteById_removesTagIndexEntries() {
+        repo.save(makeDiagram("1", "Alpha", List.of("java")));
+        repo.deleteById("1");
+
+        assertTrue(repo.findAll(Optional.of("java"), Optional.empty()).isEmpty());
+    }
+
+    @Test
+    void findAll_paginatesBeyondOneMegabyteScanPage() {
+        String filler = "x".repeat(60_000);
+        for (int i = 0; i < 25; i++) {
+            Diagram d = makeDiagram("big-" + i, "Big " + i, List.of("big")).toBuilder().description(filler).build();
+            repo.save(d);
+        }
+
+        assertEquals(25, repo.findAll(Optional.empty(), Optional.empty()).size());
+        assertEquals(25, repo.findAll(Optional.of("big"), Optional.empty()).size());
+    }
+
+    @Test
+    void newTagTable_isBackfilledFromExistingItems() {
+        repo.save(makeDiagram("1", "Alpha", List.of("java")));
+        client.deleteTable(DeleteTableRequest.builder().tableName(tableName + "-tags").build());
+
+        DynamoDiagramRepository reopened = new DynamoDiagramRepository(client, tableName);
+
+        assertEquals(1, reopened.findAll(Optional.of("java"), Optional.empty()).size());
+    }
+
+    @Test
+    void findSummaries_noFilters() {
+        Diagram d = makeDiagram("1", "Alpha", List.of("a")).toBuilder().description("First").build();
+        ObjectNode flow = objectMapper.createObjectNode();
+        flow.putArray("nodes").addObject().put("id", "n1");
+        d = d.toBuilder().flow(flow).build();
+        repo.save(d);
+        repo.save(makeDiagram("2", "Beta", List.of("b")));
+
+        List<DiagramSummary> summaries = repo.findSummaries(Optional.empty(), Optional.empty());
+        assertEquals(2, summaries.size());
+        DiagramSummary alpha = summaries.stream().filter(s -> s.id().equals("1")).findFirst().orElseThrow();
+        assertEquals("Alpha", alpha.title());
+        assertEquals("First", alpha.description());
+        assertEquals(List.of("a"), alpha.tags());
+        assertEquals(1, alpha.version());
+        assertEquals("db", alpha.source());
+    }
+
+    @Test
+    void findSummaries_filterByTagAndQuery() {
+        repo.save(makeDiagram("1", "Microservice Architecture", List.of("java")));
+        repo.save(makeDiagram("2", "Event Pipeline", List.of("java")));
+
+        List<DiagramSummary> summaries = repo.findSummaries(Optional.of("java"), Optional.of("Event"));
+        assertEquals(1, summaries.size());
+        assertEquals("2", summaries.get(0).id());
+    }
+
+    @Test
+    void saveAll_writesItemsAndTagIndexInBatches() {
+        repo.save(makeDiagram("0", "Existing", List.of("old")));
+        List<Diagram> batch = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            batch.add(makeDiagram(String.valueOf(i), "Batch " + i, List.of("batch")));
+        }
+
+        repo.saveAll(batch);
+
+        assertEquals(30, repo.findAll(Optional.empty(), Optional.empty()).size());
+        assertEquals(30, repo.findAll(Optional.of("batch"), Optional.empty()).size());
+        assertTrue(repo.findAll(Optional.of("old"), Optional.empty()).isEmpty());
+    }
+
+    @Test
+    void findRevisionById_readsVersionAndUpdatedAt() {
+        Diagram d = makeDiagram("1", "Alpha", List.of()).toBuilder().version(3).build();
+        repo.save(d);
+
+        DiagramRevision revision = repo.findRevisionById("1").orElseThrow();
+        assertEquals("\"1-v3\"", revision.etag());
+        assertEquals(d.updatedAt(), revision.lastModified());
+        assertTrue(repo.findRevisionById("missing").isEmpty());
+    }
+
+    @Test
+    void findSummaryPage_resumesFromCursor() {
+        for (int i = 0; i < 5; i++) {
+            repo.save(makeDiagram("id-" + i, "Diagram " + i, List.of("java")));
+        }
+
+        for (Optional<String> tag : List.of(Optional.<String>empty(), Optional.of("java"))) {
+            Set<String> seen = new HashSet<>();
+            Optional<String> after = Optional.empty();
+            do {
+                SummaryPage page = repo.findSummaryPage(tag, Optional.empty(), after, 2);
+                assertTrue(page.items().size() <= 2);
+                page.items().forEach(s -> assertTrue(seen.add(s.id()), "duplicate " + s.id()));
+                after = Optional.ofNullable(page.nextAfterId());
+            } while (after.isPresent());
+            assertEquals(5, seen.size());
+        }
+    }
+
+    @Test
+    void findSummaryPage_exactlyFullLastPageHasNoCursor() {
+        for (int i = 0; i < 4; i++) {
+            repo.save(makeDiagram("id-" + i, "Diagram " + i, List.of("java")));
+        }
+
+        for (Optional<String> tag : List.of(Optional.<String>empty(), Optional.of("java"))) {
+            SummaryPage first = repo.findSummaryPage(tag, Optional.empty(), Optional.empty(), 2);
+            assertEquals(2, first.items().size());
+            assertNotNull(first.nextAfterId());
+
+            SummaryPage last = repo.findSummaryPage(tag, Optional.empty(), Optional.of(first.nextAfterId()), 2);
+            assertEquals(2, last.items().size());
+            assertNull(last.nextAfterId(), "cursor after the last page for " + tag);
+
+            assertNull(repo.findSummaryPage(tag, Optional.empty(), Optional.empty(), 4).nextAfterId());
+        }
+    }
+
+    private int countChunks() {
+        return client.scan(ScanRequest.builder().tableName(tableName + "-chunks").build()).count();
+    }
+
+    // Roughly the given number of bytes of JSON, in distinct notes like a large multi-flow diagram
+    private ObjectNode largeFlow(int bytes) {
+        ObjectNode flow = objectMapper.createObjectNode();
+        flow.put("title", "Large");
+        var notes = flow.putArray("notes");
+        for (int i = 0; notes.size() * 110 < bytes; i++) {
+            notes.add("Step " + i + ": the checkpoint service persists agent state before handing the task to the next hop");
+        }
+        return flow;
     }
 
     private Diagram makeDiagram(String id, String title, List<String> tags) {
-        Diagram d = new Diagram();
-        d.setId(id);
-        d.setTitle(title);
-        d.setTags(tags);
-        d.setVersion(1);
-        d.setSource("db");
-        d.setCreatedAt(Instant.now());
-        d.setUpdatedAt(Instant.now());
-        return d;
+        return Diagram.builder()
+                .id(id)
+                .title(title)
+                .tags(tags)
+                .version(1)
+                .source("db")
+                .createdAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build();
     }
 }
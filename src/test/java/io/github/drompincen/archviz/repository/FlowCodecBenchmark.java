@@ -0,0 +1,78 @@
+package io.github.drompincen.archviz.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Item size and encode/decode cost of each flow format over the bundled diagrams.
+// Run with: mvn test -Dgroups=benchmark -Dsurefire.excludedGroups=
+@Tag("benchmark")
+class FlowCodecBenchmark {
+
+    private static final int ITERATIONS = 5_000;
+
+    @Test
+    void flowFormats_sizeAndSpeed() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources("classpath:/static/json/*.json");
+        assertTrue(resources.length > 0);
+
+        for (Resource r : resources) {
+            JsonNode flow;
+            try (InputStream in = r.getInputStream()) {
+                flow = objectMapper.readTree(in);
+            }
+            for (FlowCodec.Format format : FlowCodec.Format.values()) {
+                FlowCodec codec = new FlowCodec(format);
+                Map<String, AttributeValue> item = new HashMap<>();
+
+                // Warm up
+                for (int i = 0; i < ITERATIONS; i++) {
+                    codec.write(flow, item);
+                    codec.read(item);
+                }
+
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    codec.write(flow, item);
+                }
+                long encodeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+                start = System.nanoTime();
+                JsonNode decoded = null;
+                for (int i = 0; i < ITERATIONS; i++) {
+                    decoded = codec.read(item);
+                }
+                long decodeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+                assertEquals(flow, decoded);
+                System.out.printf("%-28s %-14s size=%,7d B encode=%,8d ns decode=%,8d ns%n",
+                        r.getFilename(), format.marker(), attributeBytes(item), encodeNanos, decodeNanos);
+            }
+        }
+    }
+
+    // DynamoDB bills attribute names plus UTF-8 string or raw binary length
+    private static int attributeBytes(Map<String, AttributeValue> item) {
+        int total = 0;
+        for (Map.Entry<String, AttributeValue> e : item.entrySet()) {
+            AttributeValue v = e.getValue();
+            total += e.getKey().length() + (v.s() != null
+                    ? v.s().getBytes(StandardCharsets.UTF_8).length
+                    : v.b().asByteArrayUnsafe().length);
+        }
+        return total;
+    }
+}
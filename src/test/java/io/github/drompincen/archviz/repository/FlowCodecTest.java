@@ -0,0 +1,87 @@
+package io.github.drompincen.archviz.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @ParameterizedTest
+    @EnumSource(FlowCodec.Format.class)
+    void roundTripsEveryFormat(FlowCodec.Format format) throws IOException {
+        JsonNode flow = loadStaticFlow("a2a-with-checkpoints.json");
+        Map<String, AttributeValue> item = new HashMap<>();
+
+        FlowCodec codec = new FlowCodec(format);
+        codec.write(flow, item);
+
+        assertEquals(flow, codec.read(item));
+        assertEquals(format != FlowCodec.Format.JSON, item.containsKey(FlowCodec.FORMAT_ATTRIBUTE));
+    }
+
+    @Test
+    void binaryCodecStillReadsLegacyStringItems() throws IOException {
+        JsonNode flow = loadStaticFlow("order-platform.json");
+        Map<String, AttributeValue> legacy = new HashMap<>();
+        legacy.put(FlowCodec.FLOW_ATTRIBUTE, AttributeValue.builder().s(objectMapper.writeValueAsString(flow)).build());
+
+        assertEquals(flow, new FlowCodec(FlowCodec.Format.SMILE_DEFLATE).read(legacy));
+    }
+
+    @Test
+    void smileDeflateIsSmallerThanJson() throws IOException {
+        JsonNode flow = loadStaticFlow("a2a-with-checkpoints.json");
+        Map<String, AttributeValue> json = new HashMap<>();
+        Map<String, AttributeValue> compressed = new HashMap<>();
+
+        new FlowCodec(FlowCodec.Format.JSON).write(flow, json);
+        new FlowCodec(FlowCodec.Format.SMILE_DEFLATE).write(flow, compressed);
+
+        int jsonBytes = json.get(FlowCodec.FLOW_ATTRIBUTE).s().length();
+        int compressedBytes = compressed.get(FlowCodec.FLOW_ATTRIBUTE).b().asByteArrayUnsafe().length;
+        assertTrue(compressedBytes * 2 < jsonBytes, compressedBytes + " vs " + jsonBytes);
+    }
+
+    @Test
+    void storedSizeIsTheEncodedLength() throws IOException {
+        JsonNode flow = objectMapper.readTree("{\"title\":\"Caf\u00e9 \u2192 \ud83d\ude80\"}");
+        for (FlowCodec.Format format : FlowCodec.Format.values()) {
+            Map<String, AttributeValue> item = new HashMap<>();
+            new FlowCodec(format).write(flow, item);
+            AttributeValue stored = item.get(FlowCodec.FLOW_ATTRIBUTE);
+            assertEquals(FlowCodec.bytesOf(stored).length, FlowCodec.storedSize(stored), format.marker());
+        }
+    }
+
+    @Test
+    void unknownFormatMarkerIsRejected() {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(FlowCodec.FLOW_ATTRIBUTE, AttributeValue.builder().s("{}").build());
+        item.put(FlowCodec.FORMAT_ATTRIBUTE, AttributeValue.builder().s("zstd").build());
+
+        assertThrows(IllegalArgumentException.class, () -> new FlowCodec(FlowCodec.Format.JSON).read(item));
+    }
+
+    @Test
+    void itemWithoutFlowReadsAsNull() {
+        assertNull(new FlowCodec(FlowCodec.Format.SMILE).read(Map.of()));
+    }
+
+    private JsonNode loadStaticFlow(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/static/json/" + name)) {
+            return objectMapper.readTree(in);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.drompincen.archviz.repository;
+
+import io.github.drompincen.archviz.model.Diagram;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Run with: mvn test -Dgroups=benchmark -Dsurefire.excludedGroups=
+@Tag("benchmark")
+class InMemoryDiagramRepositoryBenchmark {
+
+    private static final int MATCHES = 20;
+    private static final int ITERATIONS = 2_000;
+
+    @Test
+    void filteredFindAll_scalesWithResultSize() {
+        for (int storeSize : new int[]{1_000, 10_000, 50_000}) {
+            InMemoryDiagramRepository repo = populate(storeSize);
+
+            // Warm up
+            for (int i = 0; i < ITERATIONS; i++) {
+                repo.findAll(Optional.of("hot"), Optional.of("needle"));
+            }
+
+            long start = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                found = repo.findAll(Optional.of("hot"), Optional.of("needle")).size();
+            }
+            long avgNanos = (System.nanoTime() - start) / ITERATIONS;
+
+            assertEquals(MATCHES, found);
+            System.out.printf("findAll(tag, query) store=%,d matches=%d avg=%,d ns%n",
+                    storeSize, MATCHES, avgNanos);
+        }
+    }
+
+    private static InMemoryDiagramRepository populate(int size) {
+        InMemoryDiagramRepository repo = new InMemoryDiagramRepository();
+        for (int i = 0; i < size; i++) {
+            boolean match = i < MATCHES;
+            Diagram d = Diagram.builder()
+                    .id("d-" + i)
+                    .title(match ? "Needle service map " + i : "Order platform architecture " + i)
+                    .description("Generated diagram number " + i + " with a moderately long description")
+                    .tags(match ? List.of("hot", "generated") : List.of("generated"))
+                    .version(1)
+                    .createdAt(Instant.now())
+                    .updatedAt(Instant.now())
+                    .build();
+            repo.save(d);
+        }
+        return repo;
+    }
+}
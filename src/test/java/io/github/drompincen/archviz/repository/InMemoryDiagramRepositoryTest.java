@@ -1,12 +1,17 @@
 package io.github.drompincen.archviz.repository;
 
 import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.SummaryPage;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -26,7 +31,7 @@ class InMemoryDiagramRepositoryTest {
 
         Optional<Diagram> found = repo.findById("1");
         assertTrue(found.isPresent());
-        assertEquals("Test Diagram", found.get().getTitle());
+        assertEquals("Test Diagram", found.get().title());
     }
 
     @Test
@@ -50,7 +55,7 @@ class InMemoryDiagramRepositoryTest {
 
         List<Diagram> filtered = repo.findAll(Optional.of("java"), Optional.empty());
         assertEquals(1, filtered.size());
-        assertEquals("Alpha", filtered.get(0).getTitle());
+        assertEquals("Alpha", filtered.get(0).title());
     }
 
     @Test
@@ -60,7 +65,7 @@ class InMemoryDiagramRepositoryTest {
 
         List<Diagram> filtered = repo.findAll(Optional.empty(), Optional.of("micro"));
         assertEquals(1, filtered.size());
-        assertEquals("Microservice Architecture", filtered.get(0).getTitle());
+        assertEquals("Microservice Architecture", filtered.get(0).title());
     }
 
     @Test
@@ -78,7 +83,7 @@ class InMemoryDiagramRepositoryTest {
 
         List<Diagram> filtered = repo.findAll(Optional.of("java"), Optional.of("micro"));
         assertEquals(1, filtered.size());
-        assertEquals("1", filtered.get(0).getId());
+        assertEquals("1", filtered.get(0).id());
     }
 
     @Test
@@ -93,18 +98,246 @@ class InMemoryDiagramRepositoryTest {
         repo.save(makeDiagram("1", "Original", List.of()));
         repo.save(makeDiagram("1", "Updated", List.of()));
 
-        assertEquals("Updated", repo.findById("1").get().getTitle());
+        assertEquals("Updated", repo.findById("1").get().title());
+    }
+
+    @Test
+    void findAll_filterByQuery_matchesDescription() {
+        repo.save(makeDiagram("1", "Alpha", List.of()).toBuilder().description("Kafka based ingestion").build());
+
+        List<Diagram> filtered = repo.findAll(Optional.empty(), Optional.of("INGEST"));
+        assertEquals(1, filtered.size());
+    }
+
+    @Test
+    void findAll_filterByShortQuery() {
+        repo.save(makeDiagram("1", "AI Agents", List.of()));
+        repo.save(makeDiagram("2", "Event Pipeline", List.of()));
+
+        List<Diagram> filtered = repo.findAll(Optional.empty(), Optional.of("ai"));
+        assertEquals(1, filtered.size());
+        assertEquals("1", filtered.get(0).id());
+    }
+
+    @Test
+    void findAll_queryGramsPresentButNotContiguous_noMatch() {
+        repo.save(makeDiagram("1", "abcd xbcx", List.of()));
+
+        assertTrue(repo.findAll(Optional.empty(), Optional.of("abcx")).isEmpty());
+    }
+
+    @Test
+    void save_reindexesChangedTagsAndTitle() {
+        repo.save(makeDiagram("1", "Microservice Architecture", List.of("java")));
+        repo.save(makeDiagram("1", "Event Pipeline", List.of("python")));
+
+        assertTrue(repo.findAll(Optional.of("java"), Optional.empty()).isEmpty());
+        assertTrue(repo.findAll(Optional.empty(), Optional.of("micro")).isEmpty());
+        assertEquals(1, repo.findAll(Optional.of("python"), Optional.of("pipe")).size());
+    }
+
+    @Test
+    void save_changedCopy_reindexesFromNewState() {
+        Diagram d = makeDiagram("1", "Microservice Architecture", List.of("java"));
+        repo.save(d);
+
+        repo.save(d.toBuilder()
+                .title("Event Pipeline")
+                .tags(List.of("python"))
+                .build());
+
+        assertTrue(repo.findAll(Optional.empty(), Optional.of("micro")).isEmpty());
+        assertTrue(repo.findAll(Optional.of("java"), Optional.empty()).isEmpty());
+        assertEquals(1, repo.findAll(Optional.of("python"), Optional.of("event")).size());
+    }
+
+    @Test
+    void deleteById_removesFromIndexes() {
+        repo.save(makeDiagram("1", "Microservice Architecture", List.of("java")));
+        repo.deleteById("1");
+
+        assertTrue(repo.findAll(Optional.of("java"), Optional.empty()).isEmpty());
+        assertTrue(repo.findAll(Optional.empty(), Optional.of("micro")).isEmpty());
+    }
+
+    @Test
+    void findSummaries_matchesFindAllWithoutFlow() {
+        repo.save(makeDiagram("1", "Microservice Architecture", List.of("java")));
+        repo.save(makeDiagram("2", "Event Pipeline", List.of("python")));
+
+        List<DiagramSummary> summaries = repo.findSummaries(Optional.of("java"), Optional.of("micro"));
+        assertEquals(1, summaries.size());
+        assertEquals("1", summaries.get(0).id());
+        assertEquals("Microservice Architecture", summaries.get(0).title());
+        assertEquals(List.of("java"), summaries.get(0).tags());
+        assertEquals("db", summaries.get(0).source());
+    }
+
+    @Test
+    void findSummaries_reflectsLatestSave() {
+        repo.save(makeDiagram("1", "Original", List.of()));
+        repo.save(makeDiagram("1", "Updated", List.of()).toBuilder().version(2).build());
+
+        DiagramSummary summary = repo.findSummaries(Optional.empty(), Optional.empty()).get(0);
+        assertEquals("Updated", summary.title());
+        assertEquals(2, summary.version());
+    }
+
+    @Test
+    void findRevisionById_tracksVersionAndUpdatedAt() {
+        Diagram d = makeDiagram("1", "Alpha", List.of());
+        repo.save(d);
+        assertEquals("\"1-v1\"", repo.findRevisionById("1").orElseThrow().etag());
+        assertEquals(d.updatedAt(), repo.findRevisionById("1").orElseThrow().lastModified());
+        assertTrue(repo.findRevisionById("missing").isEmpty());
+    }
+
+    @Test
+    void findSummaryPage_walksAllItemsInIdOrder() {
+        for (String id : List.of("c", "a", "e", "b", "d")) {
+            repo.save(makeDiagram(id, "Diagram " + id, List.of()));
+        }
+
+        SummaryPage first = repo.findSummaryPage(Optional.empty(), Optional.empty(), Optional.empty(), 2);
+        assertEquals(List.of("a", "b"), first.items().stream().map(DiagramSummary::id).toList());
+        assertEquals("b", first.nextAfterId());
+
+        SummaryPage second = repo.findSummaryPage(Optional.empty(), Optional.empty(), Optional.of("b"), 2);
+        assertEquals(List.of("c", "d"), second.items().stream().map(DiagramSummary::id).toList());
+
+        SummaryPage last = repo.findSummaryPage(Optional.empty(), Optional.empty(), Optional.of("d"), 2);
+        assertEquals(List.of("e"), last.items().stream().map(DiagramSummary::id).toList());
+        assertNull(last.nextAfterId());
+    }
+
+    @Test
+    void findSummaryPage_withIndexedFilters() {
+        repo.save(makeDiagram("3", "Payment Service", List.of("java")));
+        repo.save(makeDiagram("1", "Order Service", List.of("java")));
+        repo.save(makeDiagram("2", "Billing Service", List.of("python")));
+        repo.save(makeDiagram("4", "Shipping Service", List.of("java")));
+
+        SummaryPage first = repo.findSummaryPage(Optional.of("java"), Optional.of("service"), Optional.empty(), 2);
+        assertEquals(List.of("1", "3"), first.items().stream().map(DiagramSummary::id).toList());
+        assertEquals("3", first.nextAfterId());
+
+        SummaryPage second = repo.findSummaryPage(Optional.of("java"), Optional.of("service"), Optional.of("3"), 2);
+        assertEquals(List.of("4"), second.items().stream().map(DiagramSummary::id).toList());
+        assertNull(second.nextAfterId());
+    }
+
+    @Test
+    void conditionalSave_acceptsOnlyTheExpectedVersion() {
+        repo.save(makeDiagram("1", "First", List.of("java")));
+
+        Diagram next = makeDiagram("1", "Second", List.of("python")).toBuilder().version(2).build();
+        repo.save(next, 1);
+        assertThrows(VersionConflictException.class, () -> repo.save(next, 1));
+        assertThrows(VersionConflictException.class, () -> repo.save(makeDiagram("missing", "X", List.of()), 1));
+
+        assertEquals("Second", repo.findById("1").orElseThrow().title());
+        assertTrue(repo.findAll(Optional.of("java"), Optional.empty()).isEmpty());
+        assertEquals(1, repo.findAll(Optional.of("python"), Optional.empty()).size());
+    }
+
+    @Test
+    void conditionalSave_concurrentWritersFromOneVersion_exactlyOneWins() throws Exception {
+        repo.save(makeDiagram("1", "Base", List.of()));
+        int writers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger wins = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            Diagram d = makeDiagram("1", "Writer " + i, List.of("w" + i)).toBuilder().version(2).build();
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    repo.save(d, 1);
+                    wins.incrementAndGet();
+                } catch (VersionConflictException | InterruptedException e) {
+                    // Lost the race
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(1, wins.get());
+        Diagram stored = repo.findById("1").orElseThrow();
+        assertEquals(2, stored.version());
+        // Only the winner's tag is left in the index
+        for (int i = 0; i < writers; i++) {
+            boolean winner = stored.tags().contains("w" + i);
+            assertEquals(winner ? 1 : 0, repo.findAll(Optional.of("w" + i), Optional.empty()).size());
+        }
+    }
+
+    @Test
+    void concurrentSavesOfOneId_leaveTheIndexesMatchingTheStoredEntry() throws Exception {
+        String[] titles = {"alpha", "bravo"};
+        int writers = 4;
+        // Many short rounds, each ending in a different interleaving that the indexes must agree with
+        for (int round = 0; round < 100; round++) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                Thread t = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 20; i++) {
+                        int pick = (writer + i) % titles.length;
+                        repo.save(makeDiagram("shared", titles[pick], List.of("t" + pick)));
+                    }
+                });
+                t.start();
+                threads.add(t);
+            }
+            start.countDown();
+            for (Thread t : threads) {
+                t.join();
+            }
+
+            Diagram stored = repo.findById("shared").orElseThrow();
+            for (int pick = 0; pick < titles.length; pick++) {
+                boolean current = stored.title().equals(titles[pick]);
+                assertEquals(current ? 1 : 0, repo.findAll(Optional.of("t" + pick), Optional.empty()).size(),
+                        "round " + round);
+                assertEquals(current ? 1 : 0, repo.findAll(Optional.empty(), Optional.of(titles[pick])).size(),
+                        "round " + round);
+            }
+        }
+    }
+
+    @Test
+    void loadedDiagram_isTheSavedImmutableInstance() {
+        List<String> tags = new ArrayList<>(List.of("java"));
+        Diagram d = makeDiagram("1", "Stored", tags);
+        repo.save(d);
+        tags.add("python");
+
+        Diagram loaded = repo.findById("1").orElseThrow();
+        assertSame(d, loaded);
+        assertEquals(List.of("java"), loaded.tags());
+        assertThrows(UnsupportedOperationException.class, () -> loaded.tags().add("python"));
     }
 
     private Diagram makeDiagram(String id, String title, List<String> tags) {
-        Diagram d = new Diagram();
-        d.setId(id);
-        d.setTitle(title);
-        d.setTags(tags);
-        d.setVersion(1);
-        d.setSource("db");
-        d.setCreatedAt(Instant.now());
-        d.setUpdatedAt(Instant.now());
-        return d;
+        return Diagram.builder()
+                .id(id)
+                .title(title)
+                .tags(tags)
+                .version(1)
+                .source("db")
+                .createdAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build();
     }
 }
@@ -0,0 +1,261 @@
+package io.github.drompincen.archviz.repository;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.WriteBehindStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindDiagramRepositoryTest {
+
+    private RecordingRepository backend;
+    private WriteBehindDiagramRepository repo;
+
+    @BeforeEach
+    void setUp() {
+        backend = new RecordingRepository();
+        // Long interval so tests control flushing explicitly
+        repo = new WriteBehindDiagramRepository(backend, 60_000, 1_000);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        repo.close();
+    }
+
+    @Test
+    void save_isBufferedButVisibleToFindById() {
+        repo.save(makeDiagram("1", "Alpha", 1));
+
+        assertTrue(backend.findById("1").isEmpty());
+        assertEquals("Alpha", repo.findById("1").orElseThrow().title());
+        assertEquals("\"1-v1\"", repo.findRevisionById("1").orElseThrow().etag());
+        assertEquals(1, repo.getStats().queueDepth());
+    }
+
+    @Test
+    void flush_coalescesSavesPerId() {
+        repo.save(makeDiagram("1", "v1", 1));
+        repo.save(makeDiagram("1", "v2", 2));
+        repo.save(makeDiagram("2", "other", 1));
+
+        repo.flush();
+
+        assertEquals(List.of(2), backend.batchSizes);
+        assertEquals("v2", backend.findById("1").orElseThrow().title());
+        WriteBehindStats stats = repo.getStats();
+        assertEquals(0, stats.queueDepth());
+        assertEquals(2, stats.written());
+        assertEquals(1, stats.coalesced());
+    }
+
+    @Test
+    void save_buffersTheSavedInstance() {
+        Diagram d = makeDiagram("1", "Alpha", 1);
+        repo.save(d);
+        assertSame(d, repo.findById("1").orElseThrow());
+
+        repo.flush();
+        assertEquals("Alpha", backend.findById("1").orElseThrow().title());
+    }
+
+    @Test
+    void listing_flushesPendingSavesFirst() {
+        repo.save(makeDiagram("1", "Alpha", 1));
+
+        assertEquals(1, repo.findSummaries(Optional.empty(), Optional.empty()).size());
+        assertEquals(0, repo.getStats().queueDepth());
+    }
+
+    @Test
+    void deleteById_dropsPendingSave() {
+        repo.save(makeDiagram("1", "Alpha", 1));
+        repo.deleteById("1");
+        repo.flush();
+
+        assertTrue(repo.findById("1").isEmpty());
+        assertTrue(backend.batchSizes.isEmpty());
+    }
+
+    @Test
+    void flush_failureRequeuesWithoutOverwritingNewerSave() {
+        repo.save(makeDiagram("1", "v1", 1));
+        backend.failNext = true;
+        assertThrows(RuntimeException.class, repo::flush);
+        assertEquals(1, repo.getStats().failures());
+        assertEquals(1, repo.getStats().queueDepth());
+
+        repo.flush();
+        assertEquals("v1", backend.findById("1").orElseThrow().title());
+    }
+
+    @Test
+    void flushInProgress_readsStillSeeTheBatch() throws Exception {
+        repo.save(makeDiagram("1", "v1", 1));
+        repo.flush();
+        repo.save(makeDiagram("1", "v2", 2));
+        backend.saveAllEntered = new CountDownLatch(1);
+        backend.releaseSaveAll = new CountDownLatch(1);
+
+        Thread flusher = new Thread(repo::flush);
+        flusher.start();
+        try {
+            assertTrue(backend.saveAllEntered.await(5, TimeUnit.SECONDS));
+            // The backend still holds v1 while the batch is being written
+            assertEquals(1, backend.findById("1").orElseThrow().version());
+            assertEquals("v2", repo.findById("1").orElseThrow().title());
+            assertEquals("\"1-v2\"", repo.findRevisionById("1").orElseThrow().etag());
+        } finally {
+            backend.releaseSaveAll.countDown();
+            flusher.join(5_000);
+        }
+        assertEquals("v2", backend.findById("1").orElseThrow().title());
+        assertEquals("v2", repo.findById("1").orElseThrow().title());
+    }
+
+    @Test
+    void conditionalSave_writesPendingSaveThenChecksAgainstIt() {
+        repo.save(makeDiagram("1", "v1", 1));
+
+        assertThrows(VersionConflictException.class, () -> repo.save(makeDiagram("1", "stale", 1), 0));
+        assertEquals("v1", backend.findById("1").orElseThrow().title());
+
+        repo.saveFlow(makeDiagram("1", "v2", 2), 1);
+        assertEquals("v2", backend.findById("1").orElseThrow().title());
+        assertEquals(0, repo.getStats().queueDepth());
+    }
+
+    @Test
+    void concurrentConditionalSaves_exactlyOneWins() throws Exception {
+        repo.save(makeDiagram("1", "v1", 1));
+        repo.flush();
+        int threads = 8;
+        // Backend reads wait for one another, so a check-then-buffer save would let every writer see version 1
+        backend.readGate = new CountDownLatch(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger conflicts = new AtomicInteger();
+        List<Future<Diagram>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                Diagram next = makeDiagram("1", "writer-" + i, 2);
+                results.add(pool.submit(() -> {
+                    start.await();
+                    try {
+                        return repo.save(next, 1);
+                    } catch (VersionConflictException e) {
+                        conflicts.incrementAndGet();
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            Diagram winner = null;
+            for (Future<Diagram> result : results) {
+                Diagram saved = result.get(10, TimeUnit.SECONDS);
+                if (saved != null) {
+                    assertNull(winner, "two conditional saves of version 1 both succeeded");
+                    winner = saved;
+                }
+            }
+            assertNotNull(winner);
+            assertEquals(threads - 1, conflicts.get());
+            backend.readGate = null;
+            repo.flush();
+            assertEquals(winner.title(), backend.findById("1").orElseThrow().title());
+            assertEquals(winner.title(), repo.findById("1").orElseThrow().title());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void close_drainsBuffer() throws Exception {
+        repo.save(makeDiagram("1", "Alpha", 1));
+        repo.close();
+
+        assertTrue(backend.findById("1").isPresent());
+    }
+
+    @Test
+    void maxPending_triggersEarlyFlush() throws Exception {
+        try (WriteBehindDiagramRepository small = new WriteBehindDiagramRepository(backend, 60_000, 2)) {
+            small.save(makeDiagram("1", "A", 1));
+            small.save(makeDiagram("2", "B", 1));
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (backend.findById("2").isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(backend.findById("2").isPresent());
+        }
+    }
+
+    private Diagram makeDiagram(String id, String title, int version) {
+        return Diagram.builder()
+                .id(id)
+                .title(title)
+                .tags(List.of())
+                .version(version)
+                .source("db")
+                .createdAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build();
+    }
+
+    private static class RecordingRepository extends InMemoryDiagramRepository {
+
+        final List<Integer> batchSizes = new ArrayList<>();
+        volatile boolean failNext;
+        volatile CountDownLatch readGate;
+        volatile CountDownLatch saveAllEntered;
+        volatile CountDownLatch releaseSaveAll;
+
+        @Override
+        public Optional<Diagram> findById(String id) {
+            CountDownLatch gate = readGate;
+            if (gate != null) {
+                gate.countDown();
+                try {
+                    gate.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.findById(id);
+        }
+
+        @Override
+        public synchronized void saveAll(Collection<Diagram> diagrams) {
+            CountDownLatch entered = saveAllEntered;
+            if (entered != null) {
+                entered.countDown();
+                try {
+                    releaseSaveAll.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failNext) {
+                failNext = false;
+                throw new RuntimeException("backend unavailable");
+            }
+            batchSizes.add(diagrams.size());
+            super.saveAll(diagrams);
+        }
+    }
+}
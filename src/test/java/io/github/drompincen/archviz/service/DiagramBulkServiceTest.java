@@ -0,0 +1,199 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramVersionSummary;
+import io.github.drompincen.archviz.repository.InMemoryDiagramHistoryRepository;
+import io.github.drompincen.archviz.repository.InMemoryDiagramRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiagramBulkServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private BatchRecordingRepository repository;
+    private DiagramHistoryService history;
+    private DiagramBulkService bulk;
+
+    @BeforeEach
+    void setUp() {
+        repository = new BatchRecordingRepository();
+        history = new DiagramHistoryService(new InMemoryDiagramHistoryRepository(), objectMapper, 10);
+        bulk = new DiagramBulkService(repository, history, new FlowCompiler(10), objectMapper, 2);
+    }
+
+    @Test
+    void import_writesInBatchesAndReportsEachLine() throws Exception {
+        List<JsonNode> results = importLines(
+                "{\"id\":\"a\",\"title\":\"A\",\"tags\":[\"x\"],\"version\":3,\"flow\":{\"nodes\":[]}}",
+                "{\"title\":\"No id\"}",
+                "{\"id\":\"c\",\"version\":\"three\"}",
+                "{\"id\":\"d\",\"flow\":{\"sequence\":[{\"from\":\"x\",\"to\":\"y\"}]}}",
+                "[1,2]",
+                "{\"id\":\"e\",\"title\":\"E\",\"updatedAt\":\"2024-01-01T00:00:00Z\"}");
+
+        assertEquals(6, results.size());
+        assertEquals(List.of(2, 1), repository.batchSizes);
+        assertEquals(List.of("saved", "saved", "failed", "failed", "failed", "saved"),
+                results.stream().map(r -> r.get("status").asText()).toList());
+        assertEquals(List.of(1, 2, 3, 4, 5, 6), results.stream().map(r -> r.get("line").asInt()).toList());
+        assertEquals("c", results.get(2).get("id").asText());
+        assertEquals("version must be an integer", results.get(2).get("error").asText());
+        assertEquals("Invalid flow: sequence[0].from: unknown node 'x'; sequence[0].to: unknown node 'y'",
+                results.get(3).get("error").asText());
+        assertEquals("Each line must be a JSON object", results.get(4).get("error").asText());
+        assertTrue(repository.findById(results.get(1).get("id").asText()).isPresent());
+
+        Diagram a = repository.findById("a").orElseThrow();
+        assertEquals(3, a.version());
+        assertEquals(List.of("x"), a.tags());
+        assertEquals("db", a.source());
+        assertTrue(repository.findById("d").isEmpty());
+        assertEquals(Instant.parse("2024-01-01T00:00:00Z"), repository.findById("e").orElseThrow().updatedAt());
+        assertEquals(3, repository.findAll(Optional.empty(), Optional.empty()).size());
+        assertEquals(1, history.listVersions("a").size());
+    }
+
+    @Test
+    void import_failedBatchIsRetriedItemByItem() throws Exception {
+        repository.failBatches = true;
+        repository.rejectId = "bad";
+
+        List<JsonNode> results = importLines("{\"id\":\"ok\"}", "{\"id\":\"bad\"}", "{\"id\":\"ok2\"}");
+
+        assertEquals(List.of("saved", "failed", "saved"),
+                results.stream().map(r -> r.get("status").asText()).toList());
+        assertEquals("rejected bad", results.get(1).get("error").asText());
+        assertTrue(repository.findById("bad").isEmpty());
+        assertTrue(repository.findById("ok2").isPresent());
+    }
+
+    @Test
+    void import_neverOverwritesASameOrNewerStoredVersion() throws Exception {
+        Diagram stored = Diagram.builder()
+                .id("a")
+                .title("Stored")
+                .tags(List.of())
+                .version(5)
+                .source("db")
+                .createdAt(Instant.parse("2024-01-01T00:00:00Z"))
+                .updatedAt(Instant.parse("2024-01-05T00:00:00Z"))
+                .build();
+        repository.save(stored);
+        history.record(null, stored);
+
+        List<JsonNode> results = importLines(
+                "{\"id\":\"a\",\"title\":\"Exported\",\"version\":1}",
+                "{\"id\":\"a\",\"title\":\"Same\",\"version\":5}",
+                "{\"id\":\"b\",\"title\":\"New\",\"version\":2}");
+
+        assertEquals(List.of("conflict", "conflict", "saved"),
+                results.stream().map(r -> r.get("status").asText()).toList());
+        assertEquals("Stored version 5 is not older than the imported version 1", results.get(0).get("error").asText());
+        assertEquals(stored, repository.findById("a").orElseThrow());
+        assertEquals(List.of(5), history.listVersions("a").stream().map(DiagramVersionSummary::version).toList());
+        assertTrue(repository.findById("b").isPresent());
+    }
+
+    @Test
+    void import_newerVersionReplacesStoredAndRepeatedIdsAreChecked() throws Exception {
+        repository.save(Diagram.builder().id("a").title("Stored").tags(List.of()).version(2).source("db")
+                .createdAt(Instant.EPOCH).updatedAt(Instant.EPOCH).build());
+
+        List<JsonNode> results = importLines(
+                "{\"id\":\"a\",\"title\":\"Newer\",\"version\":3}",
+                "{\"id\":\"a\",\"title\":\"Older again\",\"version\":2}");
+
+        assertEquals(List.of("saved", "conflict"), results.stream().map(r -> r.get("status").asText()).toList());
+        Diagram a = repository.findById("a").orElseThrow();
+        assertEquals("Newer", a.title());
+        assertEquals(3, a.version());
+    }
+
+    @Test
+    void import_malformedJsonStopsWithAnError() throws Exception {
+        List<JsonNode> results = importLines("{\"id\":\"a\"}", "{\"id\":", "{\"id\":\"c\"}");
+
+        assertEquals("saved", results.get(results.size() - 2).get("status").asText());
+        JsonNode last = results.get(results.size() - 1);
+        assertEquals("failed", last.get("status").asText());
+        assertTrue(last.get("error").asText().startsWith("Malformed NDJSON"));
+        assertTrue(repository.findById("c").isEmpty());
+    }
+
+    @Test
+    void export_streamsEveryStoredDiagramAndRoundTrips() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            repository.save(Diagram.builder()
+                    .id("d" + i)
+                    .title("Diagram " + i)
+                    .tags(List.of("t"))
+                    .version(i + 1)
+                    .source("db")
+                    .createdAt(Instant.parse("2024-01-01T00:00:00Z"))
+                    .updatedAt(Instant.parse("2024-01-02T00:00:00Z"))
+                    .flow(objectMapper.createObjectNode().put("title", "Flow " + i))
+                    .build());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bulk.exportDiagrams(out);
+        String ndjson = out.toString(StandardCharsets.UTF_8);
+        assertEquals(5, ndjson.lines().count());
+
+        BatchRecordingRepository target = new BatchRecordingRepository();
+        new DiagramBulkService(target, history, new FlowCompiler(10), objectMapper, 2)
+                .importDiagrams(new ByteArrayInputStream(out.toByteArray()), new ByteArrayOutputStream());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(repository.findById("d" + i).orElseThrow(), target.findById("d" + i).orElseThrow());
+        }
+    }
+
+    private List<JsonNode> importLines(String... lines) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bulk.importDiagrams(new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8)), out);
+        List<JsonNode> results = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            results.add(objectMapper.readTree(line));
+        }
+        return results;
+    }
+
+    private static class BatchRecordingRepository extends InMemoryDiagramRepository {
+        final List<Integer> batchSizes = new ArrayList<>();
+        boolean failBatches;
+        String rejectId;
+
+        @Override
+        public void saveAll(Collection<Diagram> diagrams) {
+            batchSizes.add(diagrams.size());
+            if (failBatches) {
+                throw new IllegalStateException("batch rejected");
+            }
+            super.saveAll(diagrams);
+        }
+
+        @Override
+        public Diagram save(Diagram diagram) {
+            if (diagram.id().equals(rejectId)) {
+                throw new IllegalStateException("rejected " + rejectId);
+            }
+            return super.save(diagram);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramVersionSummary;
+import io.github.drompincen.archviz.repository.InMemoryDiagramHistoryRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiagramHistoryServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private InMemoryDiagramHistoryRepository repository;
+    private DiagramHistoryService history;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryDiagramHistoryRepository();
+        history = new DiagramHistoryService(repository, objectMapper, 5);
+    }
+
+    @Test
+    void everyVersionIsRebuiltFromSnapshotsAndPatches() {
+        Diagram d = makeDiagram(1);
+        history.record(null, d);
+        for (int v = 2; v <= 12; v++) {
+            var previous = history.document(d);
+            d = makeDiagram(v);
+            history.record(previous, d);
+        }
+
+        for (int v = 1; v <= 12; v++) {
+            Diagram rebuilt = history.getVersion("1", v).orElseThrow();
+            assertEquals(v, rebuilt.version());
+            assertEquals("Title " + v, rebuilt.title());
+            assertEquals(v, rebuilt.flow().get("nodes").size());
+            // At most one snapshot plus snapshot-interval - 1 patches
+            assertTrue(repository.findChain("1", v).size() <= 5);
+        }
+        List<DiagramVersionSummary> versions = history.listVersions("1");
+        assertEquals(12, versions.size());
+        assertEquals(List.of(1, 6, 11), versions.stream().filter(DiagramVersionSummary::snapshot)
+                .map(DiagramVersionSummary::version).toList());
+    }
+
+    @Test
+    void diagramSavedBeforeHistoryStartsWithSnapshotOfReplacedVersion() {
+        Diagram before = makeDiagram(7);
+        Diagram after = makeDiagram(8);
+
+        history.record(history.document(before), after);
+
+        assertEquals("Title 7", history.getVersion("1", 7).orElseThrow().title());
+        assertEquals("Title 8", history.getVersion("1", 8).orElseThrow().title());
+        assertTrue(history.getVersion("1", 6).isEmpty());
+    }
+
+    @Test
+    void unknownVersionIsEmpty() {
+        history.record(null, makeDiagram(1));
+        assertTrue(history.getVersion("1", 2).isEmpty());
+        assertTrue(history.getVersion("other", 1).isEmpty());
+    }
+
+    private Diagram makeDiagram(int version) {
+        ObjectNode flow = objectMapper.createObjectNode();
+        for (int i = 0; i < version; i++) {
+            flow.withArray("nodes").addObject().put("id", "n" + i).put("label", "Node " + i);
+        }
+        return Diagram.builder()
+                .id("1")
+                .title("Title " + version)
+                .tags(List.of("history"))
+                .version(version)
+                .source("db")
+                .createdAt(Instant.parse("2024-01-01T00:00:00Z"))
+                .updatedAt(Instant.parse("2024-01-01T00:00:00Z").plusSeconds(version))
+                .flow(flow)
+                .build();
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiagramRendererTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DiagramRenderer renderer = new DiagramRenderer(new FlowCompiler(10), 1 << 20);
+
+    private static final String FLOW = """
+            {"title":"Orders & <Payments>","phases":[{"id":"mvp"},{"id":"scale"}],
+             "zones":[{"id":"vpc","type":"vpc","label":"Private","x":200,"y":20,"w":400,"h":200}],
+             "nodes":[{"id":"usr","type":"user","tag":"external","label":"User","x":20,"y":80},
+                      {"id":"api","type":"gateway","tag":"core","label":"API\\\\nGateway","x":240,"y":80,"w":120,"h":80,"status":"ready"},
+                      {"id":"db","type":"database","tag":"data","label":"Orders DB","x":440,"y":80,"phase":"scale"}],
+             "connections":[{"from":"usr","to":"api"},{"from":"api","to":"usr"},{"from":"api","to":"db"}]}
+            """;
+
+    @Test
+    void render_drawsZonesConnectionsAndStyledNodes() throws Exception {
+        String svg = DiagramRenderer.render(FlowCompiler.compile(objectMapper.readTree(FLOW)), "Orders & <Payments>",
+                null, DiagramRenderer.Theme.DARK);
+
+        assertTrue(svg.startsWith("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"640\" height=\"260\""), svg);
+        assertTrue(svg.contains("<title>Orders &amp; &lt;Payments&gt;</title>"));
+        assertTrue(svg.contains(">PRIVATE</text>"));
+        // The connection back from api to usr is the same line, drawn once
+        assertEquals(2, count(svg, "stroke-dasharray=\"6,4\" opacity=\"0.6\""));
+        // Tag colors, the gateway's rounded box, its icon, a two-line label and the ready badge
+        assertTrue(svg.contains("rx=\"20\" fill=\"#154360\" stroke=\"#3498db\""));
+        assertTrue(svg.contains("<tspan x=\"300\">API</tspan><tspan x=\"300\" dy=\"15.4\">Gateway</tspan>"));
+        assertTrue(svg.contains("fill=\"#2ecc71\""));
+        assertTrue(svg.contains("fill=\"#0d2d3d\" stroke=\"#06b6d4\""));
+        assertTrue(svg.endsWith("</svg>"));
+    }
+
+    @Test
+    void render_followsPhaseAndTheme() throws Exception {
+        CompiledFlow compiled = FlowCompiler.compile(objectMapper.readTree(FLOW));
+        String mvp = DiagramRenderer.render(compiled, null, "mvp", DiagramRenderer.Theme.LIGHT);
+
+        assertFalse(mvp.contains("Orders DB"));
+        assertEquals(1, count(mvp, "stroke-dasharray=\"6,4\" opacity=\"0.6\""));
+        assertTrue(mvp.contains("fill=\"#f5f5f5\""));
+        assertTrue(mvp.contains("fill=\"#e3f2fd\" stroke=\"#3498db\""));
+        assertThrows(IllegalArgumentException.class,
+                () -> DiagramRenderer.render(compiled, null, "nope", DiagramRenderer.Theme.DARK));
+        assertEquals(DiagramRenderer.Theme.LIGHT, DiagramRenderer.Theme.parse("Light"));
+        assertThrows(IllegalArgumentException.class, () -> DiagramRenderer.Theme.parse("sepia"));
+    }
+
+    @Test
+    void render_isCachedPerRevisionPhaseAndTheme() throws Exception {
+        Diagram v1 = diagram(1);
+        DiagramRevision revision = DiagramRevision.of("d", 1, Instant.EPOCH);
+        assertTrue(renderer.cached(revision, null, DiagramRenderer.Theme.DARK).isEmpty());
+
+        byte[] first = renderer.render(revision, v1, null, DiagramRenderer.Theme.DARK);
+        assertSame(first, renderer.cached(revision, null, DiagramRenderer.Theme.DARK).orElseThrow());
+        assertTrue(renderer.cached(revision, "mvp", DiagramRenderer.Theme.DARK).isEmpty());
+        assertTrue(renderer.cached(revision, null, DiagramRenderer.Theme.LIGHT).isEmpty());
+        assertTrue(renderer.cached(DiagramRevision.of("d", 2, Instant.EPOCH), null, DiagramRenderer.Theme.DARK).isEmpty());
+
+        // Saved in between: version 2 was loaded for the version 1 revision, so it is not cached under it
+        DiagramRevision stale = DiagramRevision.of("d", 1, Instant.EPOCH);
+        renderer.render(stale, diagram(2), "mvp", DiagramRenderer.Theme.DARK);
+        assertTrue(renderer.cached(stale, "mvp", DiagramRenderer.Theme.DARK).isEmpty());
+    }
+
+    @Test
+    void render_thousandNodesWellUnderASecond() {
+        ObjectNode flow = objectMapper.createObjectNode();
+        ArrayNode nodes = flow.putArray("nodes");
+        ArrayNode connections = flow.putArray("connections");
+        for (int i = 0; i < 1000; i++) {
+            nodes.addObject().put("id", "n" + i).put("label", "Node " + i).put("type", "service")
+                    .put("x", (i % 40) * 160).put("y", (i / 40) * 120);
+            connections.addObject().put("from", "n" + i).put("to", "n" + ((i * 37 + 11) % 1000));
+        }
+        CompiledFlow compiled = FlowCompiler.compile(flow);
+        DiagramRenderer.render(compiled, null, null, DiagramRenderer.Theme.DARK);
+
+        long start = System.nanoTime();
+        byte[] svg = DiagramRenderer.render(compiled, null, null, DiagramRenderer.Theme.DARK).getBytes(StandardCharsets.UTF_8);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(millis < 1000, "rendering 1000 nodes took " + millis + " ms");
+        assertTrue(svg.length > 100_000);
+    }
+
+    private Diagram diagram(int version) throws Exception {
+        return Diagram.builder()
+                .id("d")
+                .version(version)
+                .source("db")
+                .createdAt(Instant.EPOCH)
+                .updatedAt(Instant.EPOCH)
+                .flow(objectMapper.readTree(FLOW))
+                .build();
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -3,8 +3,12 @@ package io.github.drompincen.archviz.service;
 import io.github.drompincen.archviz.dto.DiagramCreateRequest;
 import io.github.drompincen.archviz.dto.DiagramUpdateRequest;
 import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramPage;
+import io.github.drompincen.archviz.model.DiagramRevision;
 import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.SummaryPage;
 import io.github.drompincen.archviz.repository.DiagramRepository;
+import io.github.drompincen.archviz.repository.VersionConflictException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,9 +18,11 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -31,37 +37,41 @@ class DiagramServiceTest {
     @Mock
     private StaticFileService staticFileService;
 
+    @Mock
+    private DiagramHistoryService historyService;
+
     private DiagramService service;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @BeforeEach
     void setUp() {
-        service = new DiagramService(repository, staticFileService);
+        FlowCompiler compiler = new FlowCompiler(10);
+        service = new DiagramService(repository, staticFileService, historyService, compiler, new FlowProjector(compiler, 10));
     }
 
     @Test
     void listAll_mergesDbAndStaticDiagrams() {
-        Diagram dbDiagram = makeDiagram("db-1", "DB Diagram", "db");
-        Diagram fileDiagram = makeDiagram("file-test", "File Diagram", "file");
+        DiagramSummary dbSummary = new DiagramSummary("db-1", "DB Diagram", null, List.of(), 1, "db");
+        DiagramSummary fileSummary = new DiagramSummary("file-test", "File Diagram", null, List.of(), 0, "file");
 
-        when(repository.findAll(Optional.empty(), Optional.empty()))
-                .thenReturn(List.of(dbDiagram));
-        when(staticFileService.loadStaticDiagrams())
-                .thenReturn(List.of(fileDiagram));
+        when(repository.findSummaries(Optional.empty(), Optional.empty()))
+                .thenReturn(List.of(dbSummary));
+        when(staticFileService.loadStaticSummaries())
+                .thenReturn(List.of(fileSummary));
 
         List<DiagramSummary> result = service.listAll(Optional.empty(), Optional.empty());
         assertEquals(2, result.size());
+        verify(repository, never()).findAll(any(), any());
     }
 
     @Test
     void listAll_filtersStaticByTag() {
-        Diagram fileDiagram = makeDiagram("file-test", "File Diagram", "file");
-        fileDiagram.setTags(List.of("java"));
+        DiagramSummary fileSummary = new DiagramSummary("file-test", "File Diagram", null, List.of("java"), 0, "file");
 
-        when(repository.findAll(Optional.of("python"), Optional.empty()))
+        when(repository.findSummaries(Optional.of("python"), Optional.empty()))
                 .thenReturn(Collections.emptyList());
-        when(staticFileService.loadStaticDiagrams())
-                .thenReturn(List.of(fileDiagram));
+        when(staticFileService.loadStaticSummaries())
+                .thenReturn(List.of(fileSummary));
 
         List<DiagramSummary> result = service.listAll(Optional.of("python"), Optional.empty());
         assertEquals(0, result.size());
@@ -69,17 +79,78 @@ class DiagramServiceTest {
 
     @Test
     void listAll_filtersStaticByQuery() {
-        Diagram fileDiagram = makeDiagram("file-test", "Microservice Flow", "file");
+        DiagramSummary fileSummary = new DiagramSummary("file-test", "Microservice Flow", null, List.of(), 0, "file");
 
-        when(repository.findAll(Optional.empty(), Optional.of("event")))
+        when(repository.findSummaries(Optional.empty(), Optional.of("event")))
                 .thenReturn(Collections.emptyList());
-        when(staticFileService.loadStaticDiagrams())
-                .thenReturn(List.of(fileDiagram));
+        when(staticFileService.loadStaticSummaries())
+                .thenReturn(List.of(fileSummary));
 
         List<DiagramSummary> result = service.listAll(Optional.empty(), Optional.of("event"));
         assertEquals(0, result.size());
     }
 
+    @Test
+    void listPage_continuesFromDbIntoStaticSummaries() {
+        DiagramSummary db1 = new DiagramSummary("db-1", "One", null, List.of(), 1, "db");
+        DiagramSummary db2 = new DiagramSummary("db-2", "Two", null, List.of(), 1, "db");
+        DiagramSummary fileA = new DiagramSummary("file-a", "A", null, List.of(), 0, "file");
+        DiagramSummary fileB = new DiagramSummary("file-b", "B", null, List.of(), 0, "file");
+
+        when(repository.findSummaryPage(Optional.empty(), Optional.empty(), Optional.empty(), 3))
+                .thenReturn(new SummaryPage(List.of(db1, db2), null));
+        when(staticFileService.loadStaticSummaries()).thenReturn(List.of(fileA, fileB));
+
+        DiagramPage first = service.listPage(Optional.empty(), Optional.empty(), Optional.empty(), 3);
+        assertEquals(List.of(db1, db2, fileA), first.items());
+        assertNotNull(first.nextCursor());
+
+        DiagramPage second = service.listPage(Optional.empty(), Optional.empty(), Optional.of(first.nextCursor()), 3);
+        assertEquals(List.of(fileB), second.items());
+        assertNull(second.nextCursor());
+        verify(repository, times(1)).findSummaryPage(any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void listPage_resumesDbSegmentFromCursor() {
+        DiagramSummary db1 = new DiagramSummary("db-1", "One", null, List.of(), 1, "db");
+        DiagramSummary db2 = new DiagramSummary("db-2", "Two", null, List.of(), 1, "db");
+
+        when(repository.findSummaryPage(Optional.empty(), Optional.empty(), Optional.empty(), 1))
+                .thenReturn(new SummaryPage(List.of(db1), "db-1"));
+        when(repository.findSummaryPage(Optional.empty(), Optional.empty(), Optional.of("db-1"), 1))
+                .thenReturn(new SummaryPage(List.of(db2), null));
+        when(staticFileService.loadStaticSummaries()).thenReturn(List.of());
+
+        DiagramPage first = service.listPage(Optional.empty(), Optional.empty(), Optional.empty(), 1);
+        assertEquals(List.of(db1), first.items());
+
+        DiagramPage second = service.listPage(Optional.empty(), Optional.empty(), Optional.of(first.nextCursor()), 1);
+        assertEquals(List.of(db2), second.items());
+        assertNull(second.nextCursor());
+    }
+
+    @Test
+    void listPage_malformedCursor_throws() {
+        assertThrows(IllegalArgumentException.class,
+                () -> service.listPage(Optional.empty(), Optional.empty(), Optional.of("not a cursor!"), 10));
+    }
+
+    @Test
+    void forEachPage_visitsEverySummaryOnce() {
+        DiagramSummary db1 = new DiagramSummary("db-1", "One", null, List.of(), 1, "db");
+        DiagramSummary fileA = new DiagramSummary("file-a", "A", null, List.of(), 0, "file");
+        DiagramSummary fileB = new DiagramSummary("file-b", "B", null, List.of(), 0, "file");
+
+        when(repository.findSummaryPage(Optional.empty(), Optional.empty(), Optional.empty(), 2))
+                .thenReturn(new SummaryPage(List.of(db1), null));
+        when(staticFileService.loadStaticSummaries()).thenReturn(List.of(fileA, fileB));
+
+        List<DiagramSummary> seen = new ArrayList<>();
+        service.forEachPage(Optional.empty(), Optional.empty(), 2, seen::addAll);
+        assertEquals(List.of(db1, fileA, fileB), seen);
+    }
+
     @Test
     void getById_returnsDbResult() {
         Diagram dbDiagram = makeDiagram("1", "DB Diagram", "db");
@@ -87,7 +158,7 @@ class DiagramServiceTest {
 
         Optional<Diagram> result = service.getById("1");
         assertTrue(result.isPresent());
-        assertEquals("db", result.get().getSource());
+        assertEquals("db", result.get().source());
         verify(staticFileService, never()).loadStaticDiagramById(any());
     }
 
@@ -99,7 +170,7 @@ class DiagramServiceTest {
 
         Optional<Diagram> result = service.getById("file-test");
         assertTrue(result.isPresent());
-        assertEquals("file", result.get().getSource());
+        assertEquals("file", result.get().source());
     }
 
     @Test
@@ -110,6 +181,111 @@ class DiagramServiceTest {
         assertTrue(service.getById("missing").isEmpty());
     }
 
+    @Test
+    void getRevision_prefersDbThenStatic() {
+        DiagramRevision db = DiagramRevision.of("1", 2, Instant.now());
+        DiagramRevision file = new DiagramRevision("file-a", "abc", null, "file");
+        when(repository.findRevisionById("1")).thenReturn(Optional.of(db));
+        when(repository.findRevisionById("file-a")).thenReturn(Optional.empty());
+        when(staticFileService.getRevision("file-a")).thenReturn(Optional.of(file));
+
+        assertEquals(db, service.getRevision("1").orElseThrow());
+        assertEquals(file, service.getRevision("file-a").orElseThrow());
+        verify(repository, never()).findById(any());
+    }
+
+    @Test
+    void revisionOf_matchesTheLookedUpRevision() {
+        Instant updatedAt = Instant.parse("2024-01-01T00:00:00Z");
+        DiagramRevision file = new DiagramRevision("file-a", "abc", null, "file");
+        when(staticFileService.getRevision("file-a")).thenReturn(Optional.of(file));
+
+        Diagram db = Diagram.builder().id("1").version(2).source("db").updatedAt(updatedAt).build();
+        assertEquals(DiagramRevision.of("1", 2, updatedAt), service.revisionOf(db).orElseThrow());
+        assertEquals(file, service.revisionOf(Diagram.builder().id("file-a").source("file").build()).orElseThrow());
+        verify(repository, never()).findRevisionById(any());
+    }
+
+    @Test
+    void listETag_changesWithVersionAndStaticCatalog() {
+        when(staticFileService.getCatalogFingerprint()).thenReturn("c1", "c1", "c1", "c2");
+        List<DiagramSummary> v1 = List.of(new DiagramSummary("1", "A", null, List.of(), 1, "db"));
+        List<DiagramSummary> v2 = List.of(new DiagramSummary("1", "A", null, List.of(), 2, "db"));
+
+        String etag = service.listETag(v1);
+        assertEquals(etag, service.listETag(v1));
+        assertNotEquals(etag, service.listETag(v2));
+        assertNotEquals(etag, service.listETag(v1));
+    }
+
+    @Test
+    void getByIdAsync_fallsBackToStaticFile() {
+        Diagram staticDiagram = Diagram.builder()
+                .id("file-test")
+                .source("file")
+                .build();
+        when(repository.findByIdAsync("file-test")).thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+        when(staticFileService.loadStaticDiagramById("file-test")).thenReturn(Optional.of(staticDiagram));
+
+        assertEquals("file", service.getByIdAsync("file-test").join().orElseThrow().source());
+    }
+
+    @Test
+    void getByIdAsync_concurrentReadsShareOneLoad() {
+        CompletableFuture<Optional<Diagram>> pending = new CompletableFuture<>();
+        when(repository.findByIdAsync("1")).thenReturn(pending);
+
+        CompletableFuture<Optional<Diagram>> first = service.getByIdAsync("1");
+        CompletableFuture<Optional<Diagram>> second = service.getByIdAsync("1");
+        pending.complete(Optional.of(makeDiagram("1", "DB Diagram", "db")));
+
+        assertSame(first.join().orElseThrow(), second.join().orElseThrow());
+        assertEquals(1, service.getCoalescedLoads());
+        verify(repository, times(1)).findByIdAsync("1");
+
+        // Once the load has completed, the next read goes back to the repository
+        doReturn(CompletableFuture.completedFuture(Optional.empty())).when(repository).findByIdAsync("1");
+        when(staticFileService.loadStaticDiagramById("1")).thenReturn(Optional.empty());
+        assertTrue(service.getByIdAsync("1").join().isEmpty());
+        verify(repository, times(2)).findByIdAsync("1");
+    }
+
+    @Test
+    void getById_failedLoadIsNotRemembered() {
+        when(repository.findById("1"))
+                .thenThrow(new IllegalStateException("backend unavailable"))
+                .thenReturn(Optional.of(makeDiagram("1", "DB Diagram", "db")));
+
+        assertThrows(IllegalStateException.class, () -> service.getById("1"));
+        assertTrue(service.getById("1").isPresent());
+    }
+
+    @Test
+    void updateAsync_bumpsVersionAndSaves() {
+        Diagram existing = Diagram.builder()
+                .id("1")
+                .title("Old")
+                .tags(List.of())
+                .version(1)
+                .build();
+        when(repository.findByIdAsync("1")).thenReturn(CompletableFuture.completedFuture(Optional.of(existing)));
+        when(repository.saveAsync(any(), eq(1))).thenAnswer(inv -> CompletableFuture.completedFuture(inv.getArgument(0)));
+
+        Diagram updated = service.updateAsync("1", new DiagramUpdateRequest("New", null, null, null))
+                .join().orElseThrow();
+        assertEquals("New", updated.title());
+        assertEquals(2, updated.version());
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    void updateAsync_notFound() {
+        when(repository.findByIdAsync("missing")).thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+
+        assertTrue(service.updateAsync("missing", new DiagramUpdateRequest("X", null, null, null)).join().isEmpty());
+        verify(repository, never()).saveAsync(any());
+    }
+
     @Test
     void create_setFieldsCorrectly() {
         ObjectNode flow = objectMapper.createObjectNode();
@@ -119,14 +295,14 @@ class DiagramServiceTest {
         when(repository.save(any())).thenAnswer(inv -> inv.getArgument(0));
 
         Diagram created = service.create(request);
-        assertNotNull(created.getId());
-        assertEquals("New Diagram", created.getTitle());
-        assertEquals("Desc", created.getDescription());
-        assertEquals(List.of("tag1"), created.getTags());
-        assertEquals(1, created.getVersion());
-        assertEquals("db", created.getSource());
-        assertNotNull(created.getCreatedAt());
-        assertNotNull(created.getUpdatedAt());
+        assertNotNull(created.id());
+        assertEquals("New Diagram", created.title());
+        assertEquals("Desc", created.description());
+        assertEquals(List.of("tag1"), created.tags());
+        assertEquals(1, created.version());
+        assertEquals("db", created.source());
+        assertNotNull(created.createdAt());
+        assertNotNull(created.updatedAt());
     }
 
     @Test
@@ -135,22 +311,106 @@ class DiagramServiceTest {
         when(repository.save(any())).thenAnswer(inv -> inv.getArgument(0));
 
         Diagram created = service.create(request);
-        assertEquals(Collections.emptyList(), created.getTags());
+        assertEquals(Collections.emptyList(), created.tags());
     }
 
     @Test
     void update_existingDiagram() {
-        Diagram existing = makeDiagram("1", "Old Title", "db");
-        existing.setVersion(1);
+        Diagram existing = makeDiagram("1", "Old Title", "db").toBuilder().version(1).build();
         when(repository.findById("1")).thenReturn(Optional.of(existing));
-        when(repository.save(any())).thenAnswer(inv -> inv.getArgument(0));
+        when(repository.save(any(), eq(1))).thenAnswer(inv -> inv.getArgument(0));
 
         DiagramUpdateRequest request = new DiagramUpdateRequest("New Title", "New Desc", List.of("updated"), null);
         Optional<Diagram> updated = service.update("1", request);
 
         assertTrue(updated.isPresent());
-        assertEquals("New Title", updated.get().getTitle());
-        assertEquals(2, updated.get().getVersion());
+        assertEquals("New Title", updated.get().title());
+        assertEquals(2, updated.get().version());
+    }
+
+    @Test
+    void update_staleExpectedVersion_conflictsWithoutWriting() {
+        Diagram existing = makeDiagram("1", "Title", "db").toBuilder().version(4).build();
+        when(repository.findById("1")).thenReturn(Optional.of(existing));
+
+        DiagramUpdateRequest request = new DiagramUpdateRequest("Mine", null, null, null);
+        assertThrows(VersionConflictException.class, () -> service.update("1", request, Optional.of(3)));
+        verify(repository, never()).save(any(), anyInt());
+        verify(historyService, never()).record(any(), any());
+    }
+
+    @Test
+    void update_concurrentSaveInBetween_surfacesConflict() {
+        Diagram existing = makeDiagram("1", "Title", "db").toBuilder().version(4).build();
+        when(repository.findById("1")).thenReturn(Optional.of(existing));
+        when(repository.save(any(), eq(4))).thenThrow(new VersionConflictException("1", 4));
+
+        DiagramUpdateRequest request = new DiagramUpdateRequest("Mine", null, null, null);
+        assertThrows(VersionConflictException.class, () -> service.update("1", request, Optional.of(4)));
+        verify(historyService, never()).record(any(), any());
+    }
+
+    @Test
+    void patchFlow_appliesPatchAndSavesFlowOnly() throws Exception {
+        Diagram existing = makeDiagram("1", "Title", "db").toBuilder().flow(objectMapper.readTree("{\"nodes\":[{\"id\":\"a\",\"x\":1}]}")).build();
+        when(repository.findById("1")).thenReturn(Optional.of(existing));
+        when(repository.saveFlow(any(), eq(1))).thenAnswer(inv -> inv.getArgument(0));
+
+        Diagram patched = service.patchFlow("1", DiagramService.FlowPatch.JSON_PATCH,
+                objectMapper.readTree("[{\"op\":\"replace\",\"path\":\"/nodes/0/x\",\"value\":40}]"), Optional.empty()).orElseThrow();
+
+        assertEquals(40, patched.flow().get("nodes").get(0).get("x").asInt());
+        assertEquals(2, patched.version());
+        assertEquals("Title", patched.title());
+        verify(repository, never()).save(any());
+        verify(historyService).record(any(), eq(patched));
+    }
+
+    @Test
+    void patchFlow_invalidPatchWritesNothing() throws Exception {
+        Diagram existing = makeDiagram("1", "Title", "db").toBuilder().flow(objectMapper.createObjectNode()).build();
+        when(repository.findById("1")).thenReturn(Optional.of(existing));
+
+        assertThrows(IllegalArgumentException.class, () -> service.patchFlow("1", DiagramService.FlowPatch.JSON_PATCH,
+                objectMapper.readTree("[{\"op\":\"remove\",\"path\":\"/missing\"}]"), Optional.empty()));
+        verify(repository, never()).saveFlow(any(), anyInt());
+    }
+
+    @Test
+    void patchFlow_danglingReferenceIsRejectedBeforeWriting() throws Exception {
+        Diagram existing = makeDiagram("1", "Title", "db").toBuilder().flow(objectMapper.readTree("{\"nodes\":[{\"id\":\"a\"}]}")).build();
+        when(repository.findById("1")).thenReturn(Optional.of(existing));
+
+        InvalidFlowException e = assertThrows(InvalidFlowException.class, () -> service.patchFlow("1",
+                DiagramService.FlowPatch.JSON_PATCH,
+                objectMapper.readTree("[{\"op\":\"add\",\"path\":\"/connections\",\"value\":[{\"from\":\"a\",\"to\":\"b\"}]}]"),
+                Optional.empty()));
+        assertEquals(List.of("connections[0].to: unknown node 'b'"), e.getProblems());
+        verify(repository, never()).saveFlow(any(), anyInt());
+    }
+
+    @Test
+    void create_savedFlowIsCompiledOnce() throws Exception {
+        DiagramCreateRequest request = new DiagramCreateRequest("New", null, null,
+                objectMapper.readTree("{\"nodes\":[{\"id\":\"a\"},{\"id\":\"b\"}],\"connections\":[{\"from\":\"a\",\"to\":\"b\"}]}"));
+        when(repository.save(any())).thenAnswer(inv -> inv.getArgument(0));
+
+        Diagram created = service.create(request);
+        CompiledFlow compiled = service.compiledFlow(created);
+        assertSame(compiled, service.compiledFlow(created.toBuilder().flow(created.flow().deepCopy()).build()));
+        assertEquals(1, compiled.outDegree(compiled.nodeOf("a")));
+    }
+
+    @Test
+    void patchFlowAsync_mergePatch() throws Exception {
+        Diagram existing = makeDiagram("1", "Title", "db").toBuilder().flow(objectMapper.readTree("{\"title\":\"Flow\",\"notes\":\"x\"}")).build();
+        when(repository.findByIdAsync("1")).thenReturn(CompletableFuture.completedFuture(Optional.of(existing)));
+        when(repository.saveFlowAsync(any(), eq(1))).thenAnswer(inv -> CompletableFuture.completedFuture(inv.getArgument(0)));
+
+        Diagram patched = service.patchFlowAsync("1", DiagramService.FlowPatch.MERGE_PATCH,
+                objectMapper.readTree("{\"notes\":null}"), Optional.empty()).join().orElseThrow();
+
+        assertEquals(objectMapper.readTree("{\"title\":\"Flow\"}"), patched.flow());
     }
 
     @Test
@@ -163,14 +423,14 @@ class DiagramServiceTest {
     }
 
     private Diagram makeDiagram(String id, String title, String source) {
-        Diagram d = new Diagram();
-        d.setId(id);
-        d.setTitle(title);
-        d.setTags(Collections.emptyList());
-        d.setVersion(1);
-        d.setSource(source);
-        d.setCreatedAt(Instant.now());
-        d.setUpdatedAt(Instant.now());
-        return d;
+        return Diagram.builder()
+                .id(id)
+                .title(title)
+                .tags(Collections.emptyList())
+                .version(1)
+                .source(source)
+                .createdAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build();
     }
 }
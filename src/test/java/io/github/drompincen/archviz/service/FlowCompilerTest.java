@@ -0,0 +1,146 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.Diagram;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowCompilerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void compile_indexesNodesPhasesAndAdjacency() throws Exception {
+        CompiledFlow flow = FlowCompiler.compile(objectMapper.readTree("""
+                {"phases":[{"id":"p1"},{"id":"p2"}],
+                 "nodes":[{"id":"a"},{"id":"b","phase":"p2"},{"id":"c"}],
+                 "zones":[{"id":"inner","parent":"outer"},{"id":"outer"}],
+                 "connections":[{"from":"a","to":"b"},{"from":"a","to":"c","phase":"p1"},{"from":"c","to":"b"}],
+                 "sequence":[{"from":"a","to":"b","text":"call"}],
+                 "flows":[{"id":"happy","name":"Happy path","sequence":[{"from":"c","to":"a"}]}]}
+                """));
+
+        assertTrue(flow.isValid(), () -> flow.problems().toString());
+        assertEquals(1, flow.phaseOf("p2"));
+        assertEquals(CompiledFlow.ALWAYS, flow.nodePhase(flow.nodeOf("a")));
+        assertEquals(1, flow.nodePhase(flow.nodeOf("b")));
+        assertEquals(flow.zoneOf("outer"), flow.zoneParent(flow.zoneOf("inner")));
+        assertEquals(2, flow.outDegree(flow.nodeOf("a")));
+        assertEquals(List.of(1, 2), List.of(flow.outTarget(0, 0), flow.outTarget(0, 1)));
+        assertEquals(2, flow.inDegree(flow.nodeOf("b")));
+        assertEquals(0, flow.connectionPhase(1));
+        assertEquals(1, flow.sequence().to()[0]);
+        assertEquals(2, flow.flow("happy").orElseThrow().from()[0]);
+        assertTrue(flow.flow("sad").isEmpty());
+    }
+
+    @Test
+    void compile_reportsEveryDanglingReferenceInOnePass() throws Exception {
+        CompiledFlow flow = FlowCompiler.compile(objectMapper.readTree("""
+                {"phases":[{"id":"p1"}],
+                 "nodes":[{"id":"a"},{"id":"a"},{"label":"no id"},{"id":"b","phase":"p9"}],
+                 "zones":[{"id":"z1","parent":"z2"},{"id":"z2","parent":"z1"},{"id":"z3","parent":"nope"}],
+                 "connections":[{"from":"a","to":"ghost"},{"to":"b"}],
+                 "sequence":[{"from":"a","to":"b","phase":"p1"},"oops"],
+                 "flows":[{"id":"f","sequence":[{"from":"x","to":"a"}]},{"id":"f"}]}
+                """));
+
+        assertEquals(List.of(
+                "nodes[1].id: duplicate node id 'a'",
+                "nodes[2].id: required",
+                "nodes[3].phase: unknown phase 'p9'",
+                "zones[2].parent: unknown zone 'nope'",
+                "zones[0].parent: zone 'z1' is its own ancestor",
+                "connections[0].to: unknown node 'ghost'",
+                "connections[1].from: required",
+                "sequence[1]: must be an object",
+                "flows[0].sequence[0].from: unknown node 'x'",
+                "flows[1].id: duplicate flow id 'f'"), flow.problems());
+        // As in the browser, an unknown phase only shows when all phases are selected
+        assertEquals(CompiledFlow.UNKNOWN_PHASE, flow.nodePhase(flow.nodeOf("b")));
+        assertTrue(CompiledFlow.visible(flow.nodePhase(flow.nodeOf("b")), CompiledFlow.ALL_PHASES));
+        assertFalse(CompiledFlow.visible(flow.nodePhase(flow.nodeOf("b")), 0));
+        assertEquals(CompiledFlow.MISSING, flow.connectionTo(0));
+        assertEquals(0, flow.outDegree(flow.nodeOf("a")));
+    }
+
+    @Test
+    void validate_throwsWithAllProblems_andAcceptsNoFlow() throws Exception {
+        FlowCompiler compiler = new FlowCompiler(10);
+        InvalidFlowException e = assertThrows(InvalidFlowException.class,
+                () -> compiler.validate(objectMapper.readTree("{\"nodes\":{},\"connections\":[{\"from\":\"a\",\"to\":\"b\"}]}")));
+        assertEquals(3, e.getProblems().size());
+        assertTrue(e.getMessage().startsWith("Invalid flow: nodes: must be an array; "));
+        assertTrue(compiler.validate(null).isValid());
+        assertTrue(compiler.validate(objectMapper.readTree("{}")).isValid());
+    }
+
+    @Test
+    void compiled_isReusedPerStoredVersionAndEvictedWhenFull() throws Exception {
+        FlowCompiler compiler = new FlowCompiler(1);
+        Diagram v1 = diagram("d", 1, "db", objectMapper.readTree("{\"nodes\":[{\"id\":\"a\"}]}"));
+
+        CompiledFlow first = compiler.compiled(v1);
+        assertSame(first, compiler.compiled(v1.toBuilder().flow(v1.flow().deepCopy()).build()));
+        // The very same flow tree is always a hit, so the next version comes with its own
+        assertNotSame(first, compiler.compiled(v1.toBuilder().version(2).flow(v1.flow().deepCopy()).build()));
+
+        // Static files keep version 0, so only the same flow tree is a hit
+        Diagram file = diagram("f", 0, "file", objectMapper.readTree("{}"));
+        CompiledFlow fileFlow = compiler.compiled(file);
+        assertSame(fileFlow, compiler.compiled(file));
+        assertNotSame(fileFlow, compiler.compiled(file.toBuilder().flow(objectMapper.readTree("{}")).build()));
+        assertNotSame(first, compiler.compiled(v1));
+    }
+
+    @Test
+    void bundledExamplesCompileCleanly() throws Exception {
+        Resource[] files = new PathMatchingResourcePatternResolver().getResources("classpath:static/json/*.json");
+        assertTrue(files.length > 0);
+        for (Resource file : files) {
+            try (InputStream in = file.getInputStream()) {
+                CompiledFlow flow = FlowCompiler.compile(objectMapper.readTree(in));
+                assertTrue(flow.isValid(), () -> file.getFilename() + ": " + flow.problems());
+            }
+        }
+    }
+
+    @Test
+    void compile_largeFlowIsLinear() {
+        ObjectNode flow = objectMapper.createObjectNode();
+        ArrayNode nodes = flow.putArray("nodes");
+        ArrayNode connections = flow.putArray("connections");
+        for (int i = 0; i < 20_000; i++) {
+            nodes.addObject().put("id", "n" + i);
+            connections.addObject().put("from", "n" + i).put("to", "n" + ((i * 7919) % 20_000));
+        }
+        long start = System.nanoTime();
+        CompiledFlow compiled = FlowCompiler.compile(flow);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(compiled.isValid());
+        assertEquals(20_000, compiled.connectionCount());
+        assertTrue(millis < 2000, "compiling 20k nodes took " + millis + " ms");
+    }
+
+    private static Diagram diagram(String id, int version, String source, JsonNode flow) {
+        return Diagram.builder()
+                .id(id)
+                .version(version)
+                .source(source)
+                .createdAt(Instant.EPOCH)
+                .updatedAt(Instant.EPOCH)
+                .flow(flow)
+                .build();
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.drompincen.archviz.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Full and incremental layout time for a 1000-node flow; FlowLayoutTest checks the result on the same flow.
+// Run with: mvn test -Dgroups=benchmark -Dsurefire.excludedGroups=
+@Tag("benchmark")
+class FlowLayoutBenchmark {
+
+    private static final int ITERATIONS = 20;
+
+    @Test
+    void thousandNodes_fullAndIncrementalWellUnderASecond() {
+        ObjectNode flow = FlowLayoutTest.randomFlow(1000, 1500, 10);
+        JsonNode laidOut = FlowLayout.layout(flow, FlowLayout.Mode.ALL);
+        ObjectNode grown = (ObjectNode) laidOut.deepCopy();
+        ((ArrayNode) grown.get("nodes")).addObject().put("id", "added").put("zone", "z3");
+        ((ArrayNode) grown.get("connections")).addObject().put("from", "n17").put("to", "added");
+
+        // Warm up
+        for (int i = 0; i < ITERATIONS; i++) {
+            FlowLayout.layout(flow, FlowLayout.Mode.ALL);
+            FlowLayout.layout(grown, FlowLayout.Mode.MISSING);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            FlowLayout.layout(flow, FlowLayout.Mode.ALL);
+        }
+        long fullMillis = (System.nanoTime() - start) / ITERATIONS / 1_000_000;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            FlowLayout.layout(grown, FlowLayout.Mode.MISSING);
+        }
+        long incrementalMillis = (System.nanoTime() - start) / ITERATIONS / 1_000_000;
+
+        System.out.printf("layout nodes=1000 full=%,d ms add-one=%,d ms%n", fullMillis, incrementalMillis);
+        assertTrue(fullMillis < 1000, "full layout of 1000 nodes took " + fullMillis + " ms");
+        assertTrue(incrementalMillis < 1000, "adding one node took " + incrementalMillis + " ms");
+    }
+}
@@ -0,0 +1,206 @@
+package io.github.drompincen.archviz.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowLayoutTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void full_layersFollowConnectionsWithoutOverlap() throws Exception {
+        JsonNode flow = objectMapper.readTree("""
+                {"nodes":[{"id":"user"},{"id":"gw"},{"id":"svc"},{"id":"db"},{"id":"cache"},{"id":"audit"}],
+                 "connections":[{"from":"user","to":"gw"},{"from":"gw","to":"svc"},{"from":"svc","to":"db"},
+                                {"from":"svc","to":"cache"},{"from":"db","to":"svc"}]}
+                """);
+        JsonNode laidOut = FlowLayout.layout(flow, FlowLayout.Mode.MISSING);
+
+        Map<String, JsonNode> nodes = byId(laidOut.get("nodes"));
+        assertTrue(nodes.get("user").get("x").asInt() < nodes.get("gw").get("x").asInt());
+        assertTrue(nodes.get("gw").get("x").asInt() < nodes.get("svc").get("x").asInt());
+        assertTrue(nodes.get("svc").get("x").asInt() < nodes.get("db").get("x").asInt());
+        assertEquals(nodes.get("db").get("x").asInt(), nodes.get("cache").get("x").asInt());
+        assertNoOverlap(laidOut.get("nodes"));
+        // The input is left as it was
+        assertFalse(flow.get("nodes").get(0).has("x"));
+    }
+
+    @Test
+    void full_zonesEncloseTheirMembersAndNest() throws Exception {
+        JsonNode laidOut = FlowLayout.layout(objectMapper.readTree("""
+                {"zones":[{"id":"cloud"},{"id":"vpc","parent":"cloud"},{"id":"dmz"}],
+                 "nodes":[{"id":"lb","zone":"dmz"},{"id":"api","zone":"vpc"},{"id":"db","zone":"vpc"},
+                          {"id":"bucket","zone":"cloud"},{"id":"user"}],
+                 "connections":[{"from":"user","to":"lb"},{"from":"lb","to":"api"},{"from":"api","to":"db"},
+                                {"from":"api","to":"bucket"}]}
+                """), FlowLayout.Mode.ALL);
+
+        Map<String, JsonNode> zones = byId(laidOut.get("zones"));
+        Map<String, JsonNode> nodes = byId(laidOut.get("nodes"));
+        assertInside(nodes.get("api"), zones.get("vpc"));
+        assertInside(nodes.get("db"), zones.get("vpc"));
+        assertInside(nodes.get("bucket"), zones.get("cloud"));
+        assertInside(nodes.get("lb"), zones.get("dmz"));
+        assertInside(zones.get("vpc"), zones.get("cloud"));
+        assertFalse(overlaps(zones.get("cloud"), zones.get("dmz")));
+        assertFalse(overlaps(nodes.get("user"), zones.get("dmz")));
+        assertFalse(overlaps(nodes.get("bucket"), zones.get("vpc")));
+    }
+
+    @Test
+    void incremental_placesOnlyNewNodesNextToTheirNeighbours() throws Exception {
+        JsonNode flow = objectMapper.readTree("""
+                {"zones":[{"id":"vpc","x":200,"y":0,"w":300,"h":200}],
+                 "nodes":[{"id":"gw","x":0,"y":60,"w":100,"h":70},{"id":"svc","x":260,"y":60,"w":100,"h":70},
+                          {"id":"worker","zone":"vpc"},{"id":"db"}],
+                 "connections":[{"from":"gw","to":"svc"},{"from":"svc","to":"worker"},{"from":"svc","to":"db"}]}
+                """);
+        JsonNode laidOut = FlowLayout.layout(flow, FlowLayout.Mode.MISSING);
+
+        Map<String, JsonNode> nodes = byId(laidOut.get("nodes"));
+        assertEquals(flow.get("nodes").get(0), nodes.get("gw"));
+        assertEquals(flow.get("nodes").get(1), nodes.get("svc"));
+        assertNoOverlap(laidOut.get("nodes"));
+        JsonNode vpc = laidOut.get("zones").get(0);
+        assertInside(nodes.get("worker"), vpc);
+        // svc calls db, so db lands to its right and outside the zone it does not belong to
+        assertTrue(nodes.get("db").get("x").asInt() > nodes.get("svc").get("x").asInt());
+        assertFalse(overlaps(nodes.get("db"), vpc));
+        // The zone had to grow to take in worker, but kept its corner
+        assertEquals(200, vpc.get("x").asInt());
+        assertEquals(0, vpc.get("y").asInt());
+    }
+
+    @Test
+    void incremental_leavesFullyPlacedFlowsUnchanged() throws Exception {
+        JsonNode flow = objectMapper.readTree("""
+                {"zones":[{"id":"vpc","x":0,"y":0,"w":400,"h":300}],
+                 "nodes":[{"id":"a","x":20,"y":50},{"id":"b","x":200,"y":50}],
+                 "connections":[{"from":"a","to":"b"}]}
+                """);
+        assertEquals(flow, FlowLayout.layout(flow, FlowLayout.Mode.MISSING));
+    }
+
+    @Test
+    void parse_acceptsModesCaseInsensitively() {
+        assertEquals(FlowLayout.Mode.ALL, FlowLayout.Mode.parse("all"));
+        assertEquals(FlowLayout.Mode.MISSING, FlowLayout.Mode.parse("MISSING"));
+        assertThrows(IllegalArgumentException.class, () -> FlowLayout.Mode.parse("grid"));
+    }
+
+    @Test
+    void thousandNodes_fullLayoutKeepsNodesApartAndInsideTheirZones() {
+        ObjectNode flow = randomFlow(1000, 1500, 10);
+        JsonNode laidOut = FlowLayout.layout(flow, FlowLayout.Mode.ALL);
+
+        assertNoOverlap(laidOut.get("nodes"));
+        assertZonesContainTheirMembers(laidOut);
+    }
+
+    @Test
+    void thousandNodes_incrementalLeavesPlacedNodesWhereTheyWere() {
+        JsonNode laidOut = FlowLayout.layout(randomFlow(1000, 1500, 10), FlowLayout.Mode.ALL);
+        ObjectNode grown = (ObjectNode) laidOut.deepCopy();
+        ((ArrayNode) grown.get("nodes")).addObject().put("id", "added").put("zone", "z3");
+        ((ArrayNode) grown.get("connections")).addObject().put("from", "n17").put("to", "added");
+
+        JsonNode incremental = FlowLayout.layout(grown, FlowLayout.Mode.MISSING);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(laidOut.get("nodes").get(i), incremental.get("nodes").get(i));
+        }
+        assertTrue(incremental.get("nodes").get(1000).has("x"));
+        assertNoOverlap(incremental.get("nodes"));
+        assertZonesContainTheirMembers(incremental);
+    }
+
+    // Also the input of FlowLayoutBenchmark
+    static ObjectNode randomFlow(int nodeCount, int edgeCount, int zoneCount) {
+        Random random = new Random(42);
+        ObjectNode flow = JsonNodeFactory.instance.objectNode();
+        ArrayNode zones = flow.putArray("zones");
+        for (int z = 0; z < zoneCount; z++) {
+            ObjectNode zone = zones.addObject().put("id", "z" + z);
+            if (z > 0 && z % 3 == 0) {
+                zone.put("parent", "z" + (z - 1));
+            }
+        }
+        ArrayNode nodes = flow.putArray("nodes");
+        for (int i = 0; i < nodeCount; i++) {
+            ObjectNode node = nodes.addObject().put("id", "n" + i);
+            if (i % 2 == 0) {
+                node.put("zone", "z" + random.nextInt(zoneCount));
+            }
+        }
+        ArrayNode connections = flow.putArray("connections");
+        for (int e = 0; e < edgeCount; e++) {
+            connections.addObject().put("from", "n" + random.nextInt(nodeCount)).put("to", "n" + random.nextInt(nodeCount));
+        }
+        return flow;
+    }
+
+    private static Map<String, JsonNode> byId(JsonNode elements) {
+        Map<String, JsonNode> byId = new HashMap<>();
+        elements.forEach(e -> byId.put(e.get("id").asText(), e));
+        return byId;
+    }
+
+    private static void assertNoOverlap(JsonNode nodes) {
+        for (int i = 0; i < nodes.size(); i++) {
+            for (int j = i + 1; j < nodes.size(); j++) {
+                assertFalse(overlaps(nodes.get(i), nodes.get(j)), nodes.get(i) + " overlaps " + nodes.get(j));
+            }
+        }
+    }
+
+    private static void assertZonesContainTheirMembers(JsonNode flow) {
+        Map<String, JsonNode> zones = byId(flow.get("zones"));
+        for (JsonNode node : flow.get("nodes")) {
+            if (node.has("zone")) {
+                assertInside(node, zones.get(node.get("zone").asText()));
+            }
+        }
+        for (JsonNode zone : zones.values()) {
+            if (zone.has("parent")) {
+                assertInside(zone, zones.get(zone.get("parent").asText()));
+            }
+        }
+    }
+
+    private static void assertInside(JsonNode inner, JsonNode outer) {
+        assertTrue(x(inner) >= x(outer) && y(inner) >= y(outer)
+                && x(inner) + w(inner) <= x(outer) + w(outer) && y(inner) + h(inner) <= y(outer) + h(outer),
+                inner + " is not inside " + outer);
+    }
+
+    private static boolean overlaps(JsonNode a, JsonNode b) {
+        return x(a) < x(b) + w(b) && x(a) + w(a) > x(b) && y(a) < y(b) + h(b) && y(a) + h(a) > y(b);
+    }
+
+    private static int x(JsonNode e) {
+        return e.get("x").asInt();
+    }
+
+    private static int y(JsonNode e) {
+        return e.get("y").asInt();
+    }
+
+    private static int w(JsonNode e) {
+        return e.path("w").asInt(FlowLayout.DEFAULT_WIDTH);
+    }
+
+    private static int h(JsonNode e) {
+        return e.path("h").asInt(FlowLayout.DEFAULT_HEIGHT);
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.Diagram;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowProjectorTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final FlowProjector projector = new FlowProjector(new FlowCompiler(10), 10);
+
+    private static final String FLOW = """
+            {"title":"Phased","phases":[{"id":"mvp"},{"id":"scale"}],
+             "nodes":[{"id":"api"},{"id":"db","phase":"mvp"},{"id":"cache","phase":"scale"}],
+             "zones":[{"id":"vpc"},{"id":"edge","phase":"scale"}],
+             "connections":[{"from":"api","to":"db"},{"from":"api","to":"cache"},{"from":"api","to":"db","phase":"scale"}],
+             "sequence":[{"from":"api","to":"db","text":"read"},{"from":"api","to":"cache","text":"hit","phase":"scale"}],
+             "flows":[{"id":"warm","name":"Warm cache","sequence":[{"from":"api","to":"cache","phase":"scale"}]}]}
+            """;
+
+    @Test
+    void project_keepsOnlyWhatIsVisibleAtThePhase() throws Exception {
+        JsonNode flow = projector.project(diagram(1, FLOW), "mvp", null).flow();
+
+        assertEquals("Phased", flow.get("title").asText());
+        assertEquals(2, flow.get("phases").size());
+        assertEquals(List.of("api", "db"), ids(flow.get("nodes")));
+        assertEquals(List.of("vpc"), ids(flow.get("zones")));
+        // The api->cache connection has no phase of its own, but cache is hidden
+        assertEquals(1, flow.get("connections").size());
+        assertEquals(1, flow.get("sequence").size());
+        assertEquals(0, flow.get("flows").get(0).get("sequence").size());
+        assertEquals("Warm cache", flow.get("flows").get(0).get("name").asText());
+    }
+
+    @Test
+    void project_selectedFlowBecomesTheSequence() throws Exception {
+        JsonNode flow = projector.project(diagram(1, FLOW), null, "warm").flow();
+
+        assertEquals(List.of("api", "db", "cache"), ids(flow.get("nodes")));
+        assertEquals(3, flow.get("connections").size());
+        assertEquals("cache", flow.get("sequence").get(0).get("to").asText());
+        assertFalse(flow.has("flows"));
+    }
+
+    @Test
+    void project_unknownIdsAreRejected() throws Exception {
+        Diagram d = diagram(1, FLOW);
+        assertThrows(IllegalArgumentException.class, () -> projector.project(d, "nope", null));
+        assertThrows(IllegalArgumentException.class, () -> projector.project(d, null, "nope"));
+        assertSame(d, projector.project(d, null, null));
+    }
+
+    @Test
+    void project_isCachedPerVersion() throws Exception {
+        Diagram v1 = diagram(1, FLOW);
+        JsonNode first = projector.project(v1, "mvp", null).flow();
+
+        assertSame(first, projector.project(diagram(1, FLOW), "mvp", null).flow());
+        assertNotSame(first, projector.project(diagram(2, FLOW), "mvp", null).flow());
+        assertNotSame(first, projector.project(v1, "scale", null).flow());
+    }
+
+    private Diagram diagram(int version, String flow) throws Exception {
+        return Diagram.builder()
+                .id("d")
+                .version(version)
+                .source("db")
+                .createdAt(Instant.EPOCH)
+                .updatedAt(Instant.EPOCH)
+                .flow(objectMapper.readTree(flow))
+                .build();
+    }
+
+    private static List<String> ids(JsonNode elements) {
+        List<String> ids = new ArrayList<>();
+        elements.forEach(e -> ids.add(e.get("id").asText()));
+        return ids;
+    }
+}
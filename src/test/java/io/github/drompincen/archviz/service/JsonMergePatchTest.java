@@ -0,0 +1,33 @@
+package io.github.drompincen.archviz.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonMergePatchTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void apply_mergesObjectsRemovesNullsAndReplacesArrays() throws Exception {
+        JsonNode document = json("{'title':'A','layout':{'x':1,'y':2},'nodes':[1,2],'notes':'old'}");
+        JsonNode patch = json("{'layout':{'y':5,'z':6},'nodes':[3],'notes':null,'added':true}");
+
+        JsonNode patched = JsonMergePatch.apply(document, patch);
+
+        assertEquals(json("{'title':'A','layout':{'x':1,'y':5,'z':6},'nodes':[3],'added':true}"), patched);
+        assertEquals(json("{'title':'A','layout':{'x':1,'y':2},'nodes':[1,2],'notes':'old'}"), document);
+    }
+
+    @Test
+    void apply_nonObjectPatchReplacesDocument() throws Exception {
+        assertEquals(json("['a']"), JsonMergePatch.apply(json("{'a':1}"), json("['a']")));
+        assertEquals(json("{'a':{'b':1}}"), JsonMergePatch.apply(null, json("{'a':{'b':1,'c':null}}")));
+    }
+
+    private JsonNode json(String singleQuoted) throws Exception {
+        return objectMapper.readTree(singleQuoted.replace('\'', '"'));
+    }
+}
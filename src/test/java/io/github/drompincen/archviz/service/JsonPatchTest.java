@@ -0,0 +1,88 @@
+package io.github.drompincen.archviz.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonPatchTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void diffThenApply_reproducesTarget() throws IOException {
+        JsonNode source = load("order-platform.json");
+        JsonNode target = source.deepCopy();
+        ((ObjectNode) target).put("title", "Renamed");
+        ((ObjectNode) target.get("nodes").get(1)).put("label", "Moved node");
+        ((ArrayNode) target.get("nodes")).addObject().put("id", "new-node").put("label", "New");
+
+        ArrayNode patch = JsonPatch.diff(source, target);
+
+        assertEquals(target, JsonPatch.apply(source, patch));
+        assertEquals(3, patch.size(), patch.toString());
+    }
+
+    @Test
+    void diff_insertInsideArrayIsASingleAdd() throws IOException {
+        JsonNode source = json("{\"items\":[1,2,3,4,5]}");
+        JsonNode target = json("{\"items\":[1,2,9,3,4,5]}");
+
+        assertEquals(json("[{\"op\":\"add\",\"path\":\"/items/2\",\"value\":9}]"), JsonPatch.diff(source, target));
+    }
+
+    @Test
+    void apply_supportsEveryOperationAndEscapedPointers() throws IOException {
+        JsonNode doc = json("{\"a/b\":1,\"m~n\":{\"x\":[1,2]},\"c\":\"keep\"}");
+        JsonNode patch = json("""
+                [
+                  {"op":"test","path":"/a~1b","value":1},
+                  {"op":"replace","path":"/a~1b","value":2},
+                  {"op":"add","path":"/m~0n/x/-","value":3},
+                  {"op":"copy","from":"/m~0n/x","path":"/copy"},
+                  {"op":"move","from":"/c","path":"/moved"},
+                  {"op":"remove","path":"/m~0n/x/0"}
+                ]
+                """);
+
+        assertEquals(json("{\"a/b\":2,\"m~n\":{\"x\":[2,3]},\"copy\":[1,2,3],\"moved\":\"keep\"}"),
+                JsonPatch.apply(doc, patch));
+    }
+
+    @Test
+    void apply_leavesInputUntouched() throws IOException {
+        JsonNode doc = json("{\"a\":1}");
+        JsonPatch.apply(doc, json("[{\"op\":\"replace\",\"path\":\"/a\",\"value\":2}]"));
+        assertEquals(json("{\"a\":1}"), doc);
+    }
+
+    @Test
+    void apply_rejectsInvalidPatches() throws IOException {
+        JsonNode doc = json("{\"a\":[1]}");
+        assertThrows(IllegalArgumentException.class,
+                () -> JsonPatch.apply(doc, json("[{\"op\":\"test\",\"path\":\"/a/0\",\"value\":2}]")));
+        assertThrows(IllegalArgumentException.class,
+                () -> JsonPatch.apply(doc, json("[{\"op\":\"remove\",\"path\":\"/missing\"}]")));
+        assertThrows(IllegalArgumentException.class,
+                () -> JsonPatch.apply(doc, json("[{\"op\":\"add\",\"path\":\"/a/5\",\"value\":0}]")));
+        assertThrows(IllegalArgumentException.class,
+                () -> JsonPatch.apply(doc, json("[{\"op\":\"frobnicate\",\"path\":\"/a\"}]")));
+        assertThrows(IllegalArgumentException.class, () -> JsonPatch.apply(doc, json("{\"op\":\"remove\"}")));
+    }
+
+    private JsonNode json(String text) throws IOException {
+        return objectMapper.readTree(text);
+    }
+
+    private JsonNode load(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/static/json/" + name)) {
+            return objectMapper.readTree(in);
+        }
+    }
+}
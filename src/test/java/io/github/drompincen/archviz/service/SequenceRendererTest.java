@@ -0,0 +1,145 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SequenceRendererTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SequenceRenderer renderer = new SequenceRenderer(new FlowCompiler(10), objectMapper, 10);
+
+    private static final String FLOW = """
+            {"phases":[{"id":"mvp"},{"id":"scale"}],
+             "nodes":[{"id":"usr","label":"User","tag":"external"},{"id":"api","label":"API","status":"ready"},
+                      {"id":"db","label":"DB","skipSequence":true},{"id":"cache","label":"Cache","phase":"scale"}],
+             "sequence":[{"from":"usr","to":"api","text":"GET /orders","status":"ready"},
+                         {"from":"api","to":"db","text":"SELECT"},
+                         {"from":"api","to":"cache","text":"lookup","phase":"scale"},
+                         {"from":"api","to":"usr","text":"200 <OK>"}],
+             "flows":[{"id":"warm","sequence":[{"from":"api","to":"api","text":"retry"}]}]}
+            """;
+
+    @Test
+    void build_skipsHiddenAndSkipSequenceNodes_keepingStepNumbers() throws Exception {
+        CompiledFlow compiled = FlowCompiler.compile(objectMapper.readTree(FLOW));
+
+        SequenceRenderer.SequenceDiagram latest = SequenceRenderer.build(compiled, "Orders", null, null);
+        assertEquals(3, latest.lifelines().size());
+        assertEquals(4, latest.stepCount());
+        // SELECT goes to the skipped db, so step 2 is not drawn
+        assertArrayEquals(new int[]{1, 3, 4}, latest.number());
+        assertArrayEquals(new int[]{0, 1, 1}, latest.from());
+        assertArrayEquals(new int[]{1, 2, 0}, latest.to());
+
+        SequenceRenderer.SequenceDiagram mvp = SequenceRenderer.build(compiled, "Orders", "mvp", null);
+        assertEquals(2, mvp.lifelines().size());
+        assertEquals(3, mvp.stepCount());
+        assertArrayEquals(new int[]{1, 3}, mvp.number());
+
+        assertEquals("retry", SequenceRenderer.build(compiled, null, null, "warm").messages().get(0).get("text").asText());
+        assertThrows(IllegalArgumentException.class, () -> SequenceRenderer.build(compiled, null, null, "cold"));
+        assertThrows(IllegalArgumentException.class, () -> SequenceRenderer.build(compiled, null, "nope", null));
+    }
+
+    @Test
+    void writeJson_isCompactWithLifelineIndexes() throws Exception {
+        SequenceRenderer.SequenceDiagram sequence =
+                SequenceRenderer.build(FlowCompiler.compile(objectMapper.readTree(FLOW)), "Orders", "mvp", null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderer.writeJson(sequence, out);
+
+        JsonNode json = objectMapper.readTree(out.toByteArray());
+        assertEquals("Orders", json.get("title").asText());
+        assertEquals("external", json.get("lifelines").get(0).get("tag").asText());
+        assertFalse(json.get("lifelines").get(0).has("status"));
+        assertEquals(objectMapper.readTree("""
+                [{"step":1,"from":0,"to":1,"text":"GET /orders","status":"ready"},
+                 {"step":3,"from":1,"to":0,"text":"200 <OK>"}]
+                """), json.get("messages"));
+    }
+
+    @Test
+    void writeSvg_drawsLifelinesAndNumberedMessages() throws Exception {
+        SequenceRenderer.SequenceDiagram sequence =
+                SequenceRenderer.build(FlowCompiler.compile(objectMapper.readTree(FLOW)), "Orders", null, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderer.writeSvg(sequence, DiagramRenderer.Theme.LIGHT, out);
+        String svg = out.toString(StandardCharsets.UTF_8);
+
+        // 60 + 3 columns of 160 wide, 60 + 4 rows of 50 + 50 high
+        assertTrue(svg.startsWith("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"540\" height=\"310\""), svg);
+        assertTrue(svg.contains(">User</text>"));
+        assertTrue(svg.contains("stroke-dasharray=\"4,2\""));
+        assertTrue(svg.contains("<line x1=\"300\" y1=\"240\" x2=\"140\" y2=\"240\""));
+        assertTrue(svg.contains(">[4] 200 &lt;OK&gt;</text>"));
+        assertFalse(svg.contains("SELECT"));
+        assertTrue(svg.endsWith("</svg>"));
+    }
+
+    @Test
+    void sequence_isMemoizedPerRevision() throws Exception {
+        Diagram v1 = diagram(1);
+        DiagramRevision revision = DiagramRevision.of("d", 1, Instant.EPOCH);
+
+        SequenceRenderer.SequenceDiagram first = renderer.sequence(revision, v1, null, "warm");
+        assertSame(first, renderer.cached(revision, null, "warm").orElseThrow());
+        assertTrue(renderer.cached(revision, null, null).isEmpty());
+        assertTrue(renderer.cached(DiagramRevision.of("d", 2, Instant.EPOCH), null, "warm").isEmpty());
+
+        // A later save loaded for an older revision is not remembered under it
+        renderer.sequence(revision, diagram(2), "mvp", null);
+        assertTrue(renderer.cached(revision, "mvp", null).isEmpty());
+    }
+
+    @Test
+    void longSequence_isWrittenInBatches() throws Exception {
+        ObjectNode flow = objectMapper.createObjectNode();
+        ArrayNode nodes = flow.putArray("nodes");
+        for (int i = 0; i < 20; i++) {
+            nodes.addObject().put("id", "n" + i);
+        }
+        ArrayNode steps = flow.putArray("sequence");
+        for (int i = 0; i < 10_000; i++) {
+            steps.addObject().put("from", "n" + (i % 20)).put("to", "n" + ((i * 7 + 3) % 20)).put("text", "call " + i);
+        }
+        long start = System.nanoTime();
+        SequenceRenderer.SequenceDiagram sequence =
+                SequenceRenderer.build(FlowCompiler.compile(flow), null, null, null);
+        int[] flushes = new int[1];
+        OutputStream counting = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                flushes[0]++;
+            }
+        };
+        renderer.writeSvg(sequence, DiagramRenderer.Theme.DARK, counting);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(10_000, sequence.messageCount());
+        assertTrue(flushes[0] >= 50, "flushed " + flushes[0] + " times");
+        assertTrue(millis < 2000, "10k messages took " + millis + " ms");
+    }
+
+    private Diagram diagram(int version) throws Exception {
+        return Diagram.builder()
+                .id("d")
+                .version(version)
+                .source("db")
+                .createdAt(Instant.EPOCH)
+                .updatedAt(Instant.EPOCH)
+                .flow(objectMapper.readTree(FLOW))
+                .build();
+    }
+}
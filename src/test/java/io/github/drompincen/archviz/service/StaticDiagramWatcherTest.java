@@ -0,0 +1,63 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.config.BackgroundThreads;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticDiagramWatcherTest {
+
+    @TempDir
+    Path dir;
+
+    private StaticDiagramWatcher watcher;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (watcher != null) {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void newFile_isPickedUpWithoutRefresh() throws Exception {
+        StaticFileService service = new StaticFileService(new ObjectMapper(), dir.toString());
+        watcher = new StaticDiagramWatcher(service, 50, new BackgroundThreads(false));
+        watcher.start();
+
+        Files.writeString(dir.resolve("dropped.json"), "{\"title\":\"Dropped In\"}");
+
+        assertTrue(await(() -> service.loadStaticDiagramById("file-dropped").isPresent()));
+        assertEquals("Dropped In", service.loadStaticDiagramById("file-dropped").get().title());
+    }
+
+    @Test
+    void deletedFile_isRemoved() throws Exception {
+        Files.writeString(dir.resolve("gone.json"), "{\"title\":\"Gone\"}");
+        StaticFileService service = new StaticFileService(new ObjectMapper(), dir.toString());
+        watcher = new StaticDiagramWatcher(service, 50, new BackgroundThreads(false));
+        watcher.start();
+
+        Files.delete(dir.resolve("gone.json"));
+
+        assertTrue(await(() -> service.loadStaticDiagramById("file-gone").isEmpty()));
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+}
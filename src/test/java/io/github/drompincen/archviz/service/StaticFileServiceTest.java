@@ -1,11 +1,19 @@
 package io.github.drompincen.archviz.service;
 
 import io.github.drompincen.archviz.model.Diagram;
+import io.github.drompincen.archviz.model.DiagramRevision;
+import io.github.drompincen.archviz.model.DiagramSummary;
+import io.github.drompincen.archviz.model.StaticCatalogStats;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -26,30 +34,30 @@ class StaticFileServiceTest {
     @Test
     void loadStaticDiagrams_setsCorrectSource() {
         List<Diagram> diagrams = staticFileService.loadStaticDiagrams();
-        diagrams.forEach(d -> assertEquals("file", d.getSource()));
+        diagrams.forEach(d -> assertEquals("file", d.source()));
     }
 
     @Test
     void loadStaticDiagrams_idStartsWithFilePrefix() {
         List<Diagram> diagrams = staticFileService.loadStaticDiagrams();
-        diagrams.forEach(d -> assertTrue(d.getId().startsWith("file-"),
-                "Static diagram ID should start with 'file-': " + d.getId()));
+        diagrams.forEach(d -> assertTrue(d.id().startsWith("file-"),
+                "Static diagram ID should start with 'file-': " + d.id()));
     }
 
     @Test
     void loadStaticDiagrams_hasFlowData() {
         List<Diagram> diagrams = staticFileService.loadStaticDiagrams();
-        diagrams.forEach(d -> assertNotNull(d.getFlow(), "Flow should not be null for: " + d.getId()));
+        diagrams.forEach(d -> assertNotNull(d.flow(), "Flow should not be null for: " + d.id()));
     }
 
     @Test
     void loadStaticDiagramById_found() {
         List<Diagram> all = staticFileService.loadStaticDiagrams();
         if (!all.isEmpty()) {
-            String firstId = all.get(0).getId();
+            String firstId = all.get(0).id();
             Optional<Diagram> found = staticFileService.loadStaticDiagramById(firstId);
             assertTrue(found.isPresent());
-            assertEquals(firstId, found.get().getId());
+            assertEquals(firstId, found.get().id());
         }
     }
 
@@ -58,4 +66,121 @@ class StaticFileServiceTest {
         Optional<Diagram> found = staticFileService.loadStaticDiagramById("file-nonexistent");
         assertTrue(found.isEmpty());
     }
+
+    @Test
+    void loadStaticDiagramById_returnsSameCachedInstance() {
+        String firstId = staticFileService.loadStaticDiagrams().get(0).id();
+        Diagram first = staticFileService.loadStaticDiagramById(firstId).orElseThrow();
+        Diagram second = staticFileService.loadStaticDiagramById(firstId).orElseThrow();
+        assertSame(first, second);
+    }
+
+    @Test
+    void getStats_countsHitsAndMisses() {
+        String firstId = staticFileService.loadStaticDiagrams().get(0).id();
+        StaticCatalogStats before = staticFileService.getStats();
+
+        staticFileService.loadStaticDiagramById(firstId);
+        staticFileService.loadStaticDiagramById("file-nonexistent");
+
+        StaticCatalogStats after = staticFileService.getStats();
+        assertEquals(before.hits() + 1, after.hits());
+        assertEquals(before.misses() + 1, after.misses());
+        assertEquals(staticFileService.loadStaticDiagrams().size(), after.size());
+    }
+
+    @Test
+    void refresh_unchangedFiles_doesNotReparse() {
+        long reloadsBefore = staticFileService.getStats().reloads();
+        List<Diagram> before = staticFileService.loadStaticDiagrams();
+
+        assertEquals(0, staticFileService.refresh());
+
+        assertEquals(reloadsBefore, staticFileService.getStats().reloads());
+        assertSame(before.get(0), staticFileService.loadStaticDiagrams().get(0));
+    }
+
+    @Test
+    void getContentHash_presentForStaticDiagram() {
+        String firstId = staticFileService.loadStaticDiagrams().get(0).id();
+        assertTrue(staticFileService.getContentHash(firstId).isPresent());
+        assertTrue(staticFileService.getContentHash("file-nonexistent").isEmpty());
+    }
+
+    @Test
+    void getRevision_changesWithContentAndMovesCatalogFingerprint(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("a.json");
+        Files.writeString(file, "{\"title\":\"A\"}");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000L));
+        StaticFileService service = new StaticFileService(new ObjectMapper(), dir.toString());
+        DiagramRevision before = service.getRevision("file-a").orElseThrow();
+        String catalogBefore = service.getCatalogFingerprint();
+        assertEquals(1_000_000L, before.lastModified().toEpochMilli());
+
+        Files.writeString(file, "{\"title\":\"A2\"}");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(2_000_000L));
+        service.reloadFiles(List.of(Path.of("a.json")));
+
+        DiagramRevision after = service.getRevision("file-a").orElseThrow();
+        assertNotEquals(before.etag(), after.etag());
+        assertNotEquals(catalogBefore, service.getCatalogFingerprint());
+        assertTrue(service.getRevision("file-nonexistent").isEmpty());
+    }
+
+    @Test
+    void externalDir_overridesBundledFileWithSameName(@TempDir Path dir) throws IOException {
+        Files.writeString(dir.resolve("rag-pipeline.json"), "{\"title\":\"Local RAG\"}");
+
+        StaticFileService service = new StaticFileService(new ObjectMapper(), dir.toString());
+
+        assertEquals("Local RAG", service.loadStaticDiagramById("file-rag-pipeline").orElseThrow().title());
+    }
+
+    @Test
+    void reloadFiles_onlyReparsesChangedFile(@TempDir Path dir) throws IOException {
+        Files.writeString(dir.resolve("a.json"), "{\"title\":\"A\"}");
+        Files.writeString(dir.resolve("b.json"), "{\"title\":\"B\"}");
+        StaticFileService service = new StaticFileService(new ObjectMapper(), dir.toString());
+        Diagram b = service.loadStaticDiagramById("file-b").orElseThrow();
+
+        Files.writeString(dir.resolve("a.json"), "{\"title\":\"A2\"}");
+        assertEquals(1, service.reloadFiles(List.of(Path.of("a.json"))));
+
+        assertEquals("A2", service.loadStaticDiagramById("file-a").orElseThrow().title());
+        assertSame(b, service.loadStaticDiagramById("file-b").orElseThrow());
+    }
+
+    @Test
+    void reloadFiles_deletedFileIsRemoved(@TempDir Path dir) throws IOException {
+        Files.writeString(dir.resolve("a.json"), "{\"title\":\"A\"}");
+        StaticFileService service = new StaticFileService(new ObjectMapper(), dir.toString());
+
+        Files.delete(dir.resolve("a.json"));
+        service.reloadFiles(List.of(Path.of("a.json")));
+
+        assertTrue(service.loadStaticDiagramById("file-a").isEmpty());
+    }
+
+    @Test
+    void reloadFiles_malformedFileKeepsPreviousVersion(@TempDir Path dir) throws IOException {
+        Files.writeString(dir.resolve("a.json"), "{\"title\":\"A\"}");
+        StaticFileService service = new StaticFileService(new ObjectMapper(), dir.toString());
+
+        Files.writeString(dir.resolve("a.json"), "{\"title\":");
+        service.reloadFiles(List.of(Path.of("a.json")));
+
+        assertEquals("A", service.loadStaticDiagramById("file-a").orElseThrow().title());
+    }
+
+    @Test
+    void loadStaticSummaries_matchDiagrams() {
+        List<Diagram> diagrams = staticFileService.loadStaticDiagrams();
+        List<DiagramSummary> summaries = staticFileService.loadStaticSummaries();
+        assertEquals(diagrams.size(), summaries.size());
+        for (int i = 0; i < diagrams.size(); i++) {
+            assertEquals(diagrams.get(i).id(), summaries.get(i).id());
+            assertEquals(diagrams.get(i).title(), summaries.get(i).title());
+            assertEquals("file", summaries.get(i).source());
+        }
+    }
 }
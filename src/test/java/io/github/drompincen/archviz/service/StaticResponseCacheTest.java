@@ -0,0 +1,107 @@
+package io.github.drompincen.archviz.service;
+
+import io.github.drompincen.archviz.model.ResponseCacheStats;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticResponseCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void get_negotiatesContentEncoding(@TempDir Path dir) throws IOException {
+        writeDiagram(dir, "a", "A", 1_000L);
+        StaticResponseCache cache = new StaticResponseCache(service(dir), objectMapper, 1 << 20);
+
+        StaticResponseCache.Body identity = cache.get("file-a", null).orElseThrow();
+        assertNull(identity.contentEncoding());
+        assertEquals("A", objectMapper.readTree(identity.content()).get("title").asText());
+
+        StaticResponseCache.Body gzip = cache.get("file-a", "br, gzip;q=0.8, deflate;q=0.5").orElseThrow();
+        assertEquals("gzip", gzip.contentEncoding());
+        assertEquals("A", readTree(new GZIPInputStream(new ByteArrayInputStream(gzip.content()))).get("title").asText());
+
+        StaticResponseCache.Body deflate = cache.get("file-a", "gzip;q=0, deflate").orElseThrow();
+        assertEquals("deflate", deflate.contentEncoding());
+        assertEquals("A", readTree(new InflaterInputStream(new ByteArrayInputStream(deflate.content()))).get("title").asText());
+
+        assertNull(cache.get("file-a", "identity").orElseThrow().contentEncoding());
+        assertTrue(cache.get("file-missing", "gzip").isEmpty());
+    }
+
+    @Test
+    void get_prefersTheHighestQualityCoding(@TempDir Path dir) throws IOException {
+        writeDiagram(dir, "a", "A", 1_000L);
+        StaticResponseCache cache = new StaticResponseCache(service(dir), objectMapper, 1 << 20);
+
+        assertEquals("deflate", cache.get("file-a", "deflate;q=1, gzip;q=0.5").orElseThrow().contentEncoding());
+        assertEquals("gzip", cache.get("file-a", "deflate, gzip").orElseThrow().contentEncoding());
+        assertEquals("deflate", cache.get("file-a", "gzip;q=0.2, *;q=0.6").orElseThrow().contentEncoding());
+        assertNull(cache.get("file-a", "gzip;q=0.5, identity").orElseThrow().contentEncoding());
+        assertNull(cache.get("file-a", "br, gzip;q=0, deflate;q=0").orElseThrow().contentEncoding());
+    }
+
+    @Test
+    void get_servesCachedBytesUntilCatalogChanges(@TempDir Path dir) throws IOException {
+        writeDiagram(dir, "a", "A", 1_000L);
+        StaticFileService service = service(dir);
+        StaticResponseCache cache = new StaticResponseCache(service, objectMapper, 1 << 20);
+
+        byte[] first = cache.get("file-a", null).orElseThrow().content();
+        assertSame(first, cache.get("file-a", null).orElseThrow().content());
+
+        writeDiagram(dir, "a", "A2", 2_000L);
+        service.reloadFiles(List.of(Path.of("a.json")));
+
+        byte[] reloaded = cache.get("file-a", null).orElseThrow().content();
+        assertEquals("A2", objectMapper.readTree(reloaded).get("title").asText());
+    }
+
+    @Test
+    void store_evictsLeastRecentlyUsedBeyondByteBudget(@TempDir Path dir) throws IOException {
+        writeDiagram(dir, "a", "A", 1_000L);
+        writeDiagram(dir, "b", "B", 1_000L);
+        StaticFileService service = service(dir);
+        StaticResponseCache probe = new StaticResponseCache(service, objectMapper, 1 << 20);
+        probe.get("file-a", null);
+        long oneEntry = probe.getStats().bytes();
+
+        StaticResponseCache cache = new StaticResponseCache(service, objectMapper, oneEntry + oneEntry / 2);
+        cache.get("file-a", null);
+        cache.get("file-b", null);
+
+        ResponseCacheStats stats = cache.getStats();
+        assertEquals(1, stats.size());
+        assertTrue(stats.bytes() <= stats.maxBytes());
+    }
+
+    private StaticFileService service(Path dir) {
+        return new StaticFileService(objectMapper, dir.toString());
+    }
+
+    private JsonNode readTree(InputStream in) throws IOException {
+        try (in) {
+            return objectMapper.readTree(in);
+        }
+    }
+
+    private static void writeDiagram(Path dir, String name, String title, long mtime) throws IOException {
+        Path file = dir.resolve(name + ".json");
+        Files.writeString(file, "{\"title\":\"" + title + "\",\"nodes\":[" + "{\"id\":\"n\"},".repeat(50) + "{\"id\":\"last\"}]}");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(mtime));
+    }
+}